@@ -0,0 +1,180 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/******************************************************************************
+ * The FileBodyBenchmark sends a small, a medium and a large file through a
+ * loopback connection, whose other end is read by a Thread which throws the
+ * bytes away. It compares the ways the engines send a body:
+ *
+ * <ul>
+ *     <li>reading the whole file into an array and writing it, like
+ *     readFile() and sendBytes() did before</li>
+ *     <li>copying it through a stream with a small buffer</li>
+ *     <li>FileChannel.transferTo, which lets the kernel copy the file</li>
+ *     <li>copying it through a pooled direct buffer</li>
+ *     <li>the body of the ResponseCache</li>
+ *     <li>the mapping of the MappedFileCache</li>
+ * </ul>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileBodyBenchmark {
+
+    @Param({"1024", "65536", "4194304"})
+    public int size;
+
+    private final ContentType contentType = ContentType.OCTET_STREAM;
+    private final BufferPool fileBuffers = new BufferPool(256 * 1024, 4);
+
+    private Path file;
+    private BasicFileAttributes attributes;
+    private ServerSocketChannel serverSocketChannel;
+    private SocketChannel socketChannel;
+    private OutputStream outputStream;
+    private ResponseCache responseCache;
+    private MappedFileCache mappedFileCache;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        file = Files.createTempFile("body", ".bin");
+        Files.write(file, bytes);
+        attributes = Files.readAttributes(file, BasicFileAttributes.class);
+
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        socketChannel = SocketChannel.open(serverSocketChannel.getLocalAddress());
+        outputStream = Channels.newOutputStream(socketChannel);
+
+        SocketChannel peer = serverSocketChannel.accept();
+        Thread drain = new Thread(() -> discard(peer), "drain");
+        drain.setDaemon(true);
+        drain.start();
+
+        responseCache = new ResponseCache(64L * 1024 * 1024, 8L * 1024 * 1024, false);
+        mappedFileCache = new MappedFileCache(1, 16);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        socketChannel.close();
+        serverSocketChannel.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void readAllBytes() throws IOException {
+        outputStream.write(Files.readAllBytes(file));
+    }
+
+    @Benchmark
+    public void streamCopy() throws IOException {
+        byte[] buffer = new byte[1024];
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+        }
+    }
+
+    @Benchmark
+    public void transferTo() throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = 0;
+            while (position < size) {
+                position += fileChannel.transferTo(position, size - position, socketChannel);
+            }
+        }
+    }
+
+    @Benchmark
+    public void pooledBuffer() throws IOException {
+        ByteBuffer buffer = fileBuffers.acquire();
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = 0;
+            while (position < size) {
+                buffer.clear();
+                position += fileChannel.read(buffer, position);
+                buffer.flip();
+                write(buffer);
+            }
+        } finally {
+            fileBuffers.release(buffer);
+        }
+    }
+
+    //a hit after the first call, the files are smaller than the 8m the
+    //cache holds at most
+    @Benchmark
+    public void responseCache() throws IOException {
+        HttpResponse response = responseCache.get(file, attributes, contentType, "");
+        write(response.getBody());
+    }
+
+    @Benchmark
+    public void mappedFile() throws IOException {
+        MappedFileCache.MappedFile mappedFile = mappedFileCache.acquire(file, attributes);
+        try {
+            for (ByteBuffer region : mappedFile.getRegions()) {
+                write(region);
+            }
+        } finally {
+            mappedFile.release();
+        }
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            socketChannel.write(buffer);
+        }
+    }
+
+    private static void discard(SocketChannel peer) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+        try {
+            while (peer.read(buffer) != -1) {
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            //the benchmark has closed the connection
+        }
+    }
+}
@@ -0,0 +1,523 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/******************************************************************************
+ * The LoadDriver starts a WebServer in its own JVM on a loopback port, lets
+ * it serve a generated tree of small, medium and large files and drives it
+ * with a number of connections. It reports the throughput and the quantiles
+ * of the latency and compares them with a stored baseline.
+ *
+ * <p>With <i>-rate</i> the requests are sent open-loop: request n is due at
+ * n / rate seconds after the start, whether the previous responses have
+ * arrived or not, and its latency is measured from that moment. A server
+ * which stalls therefore shows the stall in the latency of every request
+ * that has been waiting behind it, instead of simply being asked less
+ * often. Without <i>-rate</i> every connection sends its next request as
+ * soon as the previous response has arrived.</p>
+ *
+ * <p>Run it from the root of the project:</p>
+ *
+ * <pre>
+ * java -cp bench/target/benchmarks.jar de.hhu.rechnernetze.javawebserver.LoadDriver \
+ *     -engine selector -connections 64 -rate 20000 -save selector.properties
+ * </pre>
+ *
+ * <p>The options are:</p>
+ * <ul>
+ *     <li><i>-engine</i>, <i>-threads</i>, <i>-loops</i>, <i>-pool</i> are
+ *     handed to the WebServer, <i>-serverargs "..."</i> takes any other
+ *     options of it</li>
+ *     <li><i>-port n</i> the loopback port of the server (default 6790)</li>
+ *     <li><i>-mime path</i> the mime.types file (default mime.types)</li>
+ *     <li><i>-connections n</i> the number of connections (default 16)</li>
+ *     <li><i>-keepalive true|false</i> sending all requests of a
+ *     connection over one socket or a new socket per request (default
+ *     true)</li>
+ *     <li><i>-rate n</i> the requests per second of the open-loop schedule
+ *     (default closed-loop)</li>
+ *     <li><i>-duration s</i> the seconds which are measured (default 10)</li>
+ *     <li><i>-warmup s</i> the seconds before, which are not measured
+ *     (default 3)</li>
+ *     <li><i>-mix small,medium,large</i> the percentages of the requests for
+ *     each size (default 70,25,5)</li>
+ *     <li><i>-small size</i>, <i>-medium size</i>, <i>-large size</i> the
+ *     sizes of the files (default 1k, 64k, 1m)</li>
+ *     <li><i>-files n</i> the number of files of every size (default 32)</li>
+ *     <li><i>-baseline path</i> the stored result the run is compared
+ *     with</li>
+ *     <li><i>-tolerance percent</i> how much worse than the baseline a
+ *     result may be before the run fails (default 10)</li>
+ *     <li><i>-save path</i> storing the result as a baseline</li>
+ * </ul>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+public final class LoadDriver {
+
+    private static final String[] SIZES = {"small", "medium", "large"};
+
+    //the options which are handed to the WebServer as they are
+    private static final String[] SERVER_OPTIONS = {"engine", "threads", "loops", "pool"};
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] QUANTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    private final int port;
+    private final int connections;
+    private final boolean keepAlive;
+    private final int rate;
+    private final int[] mix;
+    private final int files;
+
+    //the encoded requests of every size, one per file
+    private final byte[][][] requests;
+
+    //the state of the phase which is running
+    private volatile long phaseEnd;
+    private long phaseStart;
+    private final AtomicLong nextRequest = new AtomicLong();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private LatencyHistogram histogram;
+
+    private LoadDriver(ServerOptions options) {
+        port = options.getInt("port", 6790);
+        connections = options.getInt("connections", 16);
+        keepAlive = options.getBoolean("keepalive", true);
+        rate = options.has("rate") ? options.getInt("rate", 0) : 0;
+        files = options.getInt("files", 32);
+        mix = parseMix(options.getString("mix", "70,25,5"));
+
+        requests = new byte[SIZES.length][files][];
+        for (int size = 0; size < SIZES.length; size++) {
+            for (int file = 0; file < files; file++) {
+                requests[size][file] = ("GET /" + SIZES[size] + "/" + file + ".bin HTTP/1.1\r\n"
+                        + "Host: localhost:" + port + "\r\n"
+                        + (keepAlive ? "" : "Connection: close\r\n")
+                        + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            }
+        }
+    }
+
+    /**************************************************************************
+     * Running the load test with the options above.
+     *
+     * @param args The options
+     * @throws Exception If the server can not be started
+     **************************************************************************/
+    public static void main(String[] args) throws Exception {
+        ServerOptions options = new ServerOptions(args);
+        LoadDriver loadDriver = new LoadDriver(options);
+
+        Path documents = Files.createTempDirectory("webserver-load");
+        Path log = Files.createTempFile("webserver-load", ".log");
+        Process server = null;
+        boolean passed = true;
+
+        try {
+            createDocuments(documents, loadDriver.files, new long[]{
+                    options.getSize("small", 1024),
+                    options.getSize("medium", 64 * 1024),
+                    options.getSize("large", 1024 * 1024)});
+            server = startServer(options, documents, log);
+            loadDriver.waitForServer(server, log);
+
+            loadDriver.run(options.getInt("warmup", 3));
+            Properties result = loadDriver.run(options.getInt("duration", 10));
+            result.setProperty("description", describe(options, loadDriver));
+
+            report(result);
+
+            if (options.has("save")) {
+                try (Writer writer = Files.newBufferedWriter(
+                        Paths.get(options.getString("save", null)))) {
+                    result.store(writer, "LoadDriver baseline");
+                }
+            }
+
+            if (options.has("baseline")) {
+                Properties baseline = new Properties();
+                try (Reader reader = Files.newBufferedReader(
+                        Paths.get(options.getString("baseline", null)))) {
+                    baseline.load(reader);
+                }
+
+                passed = compare(result, baseline, options.getInt("tolerance", 10));
+            }
+        } finally {
+            if (server != null) {
+                server.destroy();
+                server.waitFor(5, TimeUnit.SECONDS);
+            }
+            deleteTree(documents);
+            Files.deleteIfExists(log);
+        }
+
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    //running the connections for the given seconds and collecting what
+    //they have measured
+    private Properties run(int seconds) throws InterruptedException {
+        histogram = new LatencyHistogram();
+        bytes.reset();
+        errors.reset();
+        nextRequest.set(0);
+        phaseStart = System.nanoTime();
+        phaseEnd = phaseStart + TimeUnit.SECONDS.toNanos(seconds);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            Thread thread = new Thread(this::drive, "load-" + (i + 1));
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        double elapsed = (System.nanoTime() - phaseStart) / 1e9;
+        long[] counts = histogram.getCounts();
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+
+        Properties result = new Properties();
+        result.setProperty("requests", Long.toString(total));
+        result.setProperty("errors", Long.toString(errors.sum()));
+        result.setProperty("throughput", format(total / elapsed));
+        result.setProperty("megabytes", format(bytes.sum() / elapsed / (1024 * 1024)));
+        for (int i = 0; i < QUANTILES.length; i++) {
+            result.setProperty(QUANTILE_NAMES[i],
+                    format(LatencyHistogram.getValueAt(counts, total, QUANTILES[i]) / 1000.0));
+        }
+        result.setProperty("max", format(LatencyHistogram.getValueAt(counts, total, 1) / 1000.0));
+        return result;
+    }
+
+    //one connection sending requests until the phase is over, a socket
+    //which has been closed by the server is opened again
+    private void drive() {
+        Socket socket = null;
+        InputStream inputStream = null;
+        byte[] scratch = new byte[64 * 1024];
+        long interval = rate == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / rate;
+
+        try {
+            while (true) {
+                long due;
+                if (rate == 0) {
+                    due = System.nanoTime();
+                } else {
+                    //the schedule does not wait for slow responses
+                    due = phaseStart + nextRequest.getAndIncrement() * interval;
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+
+                if (due >= phaseEnd) {
+                    break;
+                }
+
+                try {
+                    if (socket == null) {
+                        socket = connect();
+                        inputStream = new BufferedInputStream(socket.getInputStream());
+                    }
+
+                    socket.getOutputStream().write(nextRequest());
+                    boolean open = readResponse(inputStream, scratch);
+                    histogram.record(System.nanoTime() - due);
+
+                    if (!open || !keepAlive) {
+                        socket.close();
+                        socket = null;
+                    }
+                } catch (IOException e) {
+                    errors.increment();
+                    closeQuietly(socket);
+                    socket = null;
+                }
+            }
+        } finally {
+            closeQuietly(socket);
+        }
+    }
+
+    //the request for a file of a size chosen by the mix
+    private byte[] nextRequest() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int percent = random.nextInt(100);
+        int size = 0;
+        while (size < SIZES.length - 1 && percent >= mix[size]) {
+            percent -= mix[size];
+            size++;
+        }
+        return requests[size][random.nextInt(files)];
+    }
+
+    //reading the head and skipping the body of a response, returns whether
+    //the server keeps the connection open
+    private boolean readResponse(InputStream inputStream, byte[] scratch) throws IOException {
+        StringBuilder head = new StringBuilder(256);
+        int last = 0;
+        int b;
+        while ((b = inputStream.read()) != -1) {
+            head.append((char) b);
+            if (b == '\n' && last == '\n') {
+                break;
+            }
+            if (b != '\r') {
+                last = b;
+            }
+        }
+        if (b == -1) {
+            throw new IOException("The server has closed the connection");
+        }
+
+        String text = head.toString();
+        if (!text.startsWith("HTTP/1.1 200")) {
+            errors.increment();
+        }
+
+        long length = 0;
+        boolean open = true;
+        for (String line : text.split("\r\n")) {
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim();
+            String value = line.substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Content-Length")) {
+                length = Long.parseLong(value);
+            } else if (name.equalsIgnoreCase("Connection")) {
+                open = !value.equalsIgnoreCase("close");
+            }
+        }
+
+        long remaining = length;
+        while (remaining > 0) {
+            int read = inputStream.read(scratch, 0, (int) Math.min(scratch.length, remaining));
+            if (read == -1) {
+                throw new IOException("The body has been cut off");
+            }
+            remaining -= read;
+        }
+
+        bytes.add(text.length() + length);
+        return open;
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        return socket;
+    }
+
+    //waiting until the server accepts connections
+    private void waitForServer(Process server, Path log) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+        while (System.nanoTime() < deadline) {
+            if (!server.isAlive()) {
+                break;
+            }
+            try (Socket socket = connect()) {
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+
+        System.err.println(new String(Files.readAllBytes(log), StandardCharsets.UTF_8));
+        throw new IOException("The server has not started on port " + port);
+    }
+
+    //a WebServer in its own JVM, so that it does not share the heap and the
+    //garbage collector with the driver
+    private static Process startServer(ServerOptions options, Path documents, Path log)
+            throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(absoluteClassPath());
+        command.add(WebServer.class.getName());
+        command.add("-mime");
+        command.add(Paths.get(options.getString("mime", "mime.types")).toAbsolutePath()
+                .toString());
+        command.add("-port");
+        command.add(Integer.toString(options.getInt("port", 6790)));
+
+        for (String name : SERVER_OPTIONS) {
+            if (options.has(name)) {
+                command.add("-" + name);
+                command.add(options.getString(name, null));
+            }
+        }
+
+        String serverArgs = options.getString("serverargs", "").trim();
+        if (!serverArgs.isEmpty()) {
+            for (String arg : serverArgs.split("\\s+")) {
+                command.add(arg);
+            }
+        }
+
+        return new ProcessBuilder(command)
+                .directory(documents.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+    }
+
+    //the class path of the driver, which has to be absolute because the
+    //server runs in the directory of the documents
+    private static String absoluteClassPath() {
+        StringBuilder classPath = new StringBuilder();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (classPath.length() > 0) {
+                classPath.append(File.pathSeparatorChar);
+            }
+            classPath.append(Paths.get(entry).toAbsolutePath());
+        }
+        return classPath.toString();
+    }
+
+    //the files of every size with random bytes in small/, medium/ and large/
+    private static void createDocuments(Path documents, int files, long[] sizes)
+            throws IOException {
+        Random random = new Random(42);
+
+        for (int size = 0; size < SIZES.length; size++) {
+            Path directory = Files.createDirectory(documents.resolve(SIZES[size]));
+            byte[] bytes = new byte[(int) sizes[size]];
+            for (int file = 0; file < files; file++) {
+                random.nextBytes(bytes);
+                Files.write(directory.resolve(file + ".bin"), bytes);
+            }
+        }
+    }
+
+    private static void report(Properties result) {
+        System.out.println(result.getProperty("description"));
+        System.out.printf("requests %s, errors %s, %s requests/s, %s MB/s%n",
+                result.getProperty("requests"), result.getProperty("errors"),
+                result.getProperty("throughput"), result.getProperty("megabytes"));
+        System.out.printf("latency ms  p50 %s  p90 %s  p99 %s  p999 %s  max %s%n",
+                result.getProperty("p50"), result.getProperty("p90"),
+                result.getProperty("p99"), result.getProperty("p999"),
+                result.getProperty("max"));
+    }
+
+    //printing the change of every value, returns false if the throughput
+    //has dropped or a quantile has grown by more than the tolerance
+    private static boolean compare(Properties result, Properties baseline, int tolerance) {
+        System.out.println("baseline: " + baseline.getProperty("description"));
+        boolean passed = true;
+
+        String[] names = {"throughput", "p50", "p90", "p99", "p999"};
+        for (String name : names) {
+            if (baseline.getProperty(name) == null) {
+                continue;
+            }
+
+            double before = Double.parseDouble(baseline.getProperty(name));
+            double after = Double.parseDouble(result.getProperty(name));
+            double change = before == 0 ? 0 : (after - before) / before * 100;
+
+            //a higher throughput is better, a higher latency worse
+            double worse = name.equals("throughput") ? -change : change;
+            boolean regression = worse > tolerance;
+            passed &= !regression;
+
+            System.out.printf(Locale.ROOT, "%-10s %12s -> %12s  %+7.1f%%%s%n", name,
+                    baseline.getProperty(name), result.getProperty(name), change,
+                    regression ? "  REGRESSION" : "");
+        }
+        return passed;
+    }
+
+    private static String describe(ServerOptions options, LoadDriver loadDriver) {
+        return "engine " + options.getString("engine", "blocking")
+                + ", threads " + options.getString("threads", "thread")
+                + ", " + loadDriver.connections + " connections"
+                + ", keep-alive " + loadDriver.keepAlive
+                + ", " + (loadDriver.rate == 0 ? "closed-loop"
+                        : "open-loop at " + loadDriver.rate + " requests/s")
+                + ", mix " + options.getString("mix", "70,25,5")
+                + (options.has("serverargs") ? ", " + options.getString("serverargs", "") : "");
+    }
+
+    private static int[] parseMix(String value) {
+        String[] parts = value.split(",");
+        if (parts.length != SIZES.length) {
+            throw new IllegalArgumentException("Illegal Value for -mix : " + value);
+        }
+
+        int[] mix = new int[parts.length];
+        int sum = 0;
+        for (int i = 0; i < parts.length; i++) {
+            mix[i] = Integer.parseInt(parts[i].trim());
+            sum += mix[i];
+        }
+        if (sum != 100) {
+            throw new IllegalArgumentException("The -mix has to add up to 100 : " + value);
+        }
+        return mix;
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        if (socket == null) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            //the connection is given up anyway
+        }
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/******************************************************************************
+ * The MIMETypeBenchmark compares the lookups of the MIMEType, from the bytes
+ * of the target like the FileHandler does and from a String, with the way
+ * the ending has been cut off before, a substring in lower case which is
+ * looked up in a HashMap.
+ *
+ * <p>It reads the mime.types file of the working directory, so it has to be
+ * run from the root of the project.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MIMETypeBenchmark {
+
+    //a common ending, one in upper case, a long one and a file without any
+    @Param({"/index.html", "/images/LOGO.PNG", "/fonts/font.woff2", "/LICENSE"})
+    public String target;
+
+    private byte[] bytes;
+    private MIMEType mimeType;
+    private HashMap<String, String> types;
+
+    @Setup
+    public void setup() throws IOException {
+        bytes = target.getBytes(StandardCharsets.ISO_8859_1);
+        mimeType = new MIMEType(Paths.get("mime.types"));
+
+        //the endings of the file in a HashMap, like the MIMEType held them
+        types = new HashMap<>();
+        for (String line : Files.readAllLines(Paths.get("mime.types"),
+                StandardCharsets.ISO_8859_1)) {
+            String[] tokens = line.trim().split("\\s+");
+            if (tokens[0].isEmpty() || tokens[0].startsWith("#")) {
+                continue;
+            }
+            for (int i = 1; i < tokens.length && !tokens[i].startsWith("#"); i++) {
+                types.put(tokens[i], tokens[0]);
+            }
+        }
+    }
+
+    @Benchmark
+    public ContentType fromBytes() {
+        return mimeType.getContentType(bytes, 0, bytes.length);
+    }
+
+    @Benchmark
+    public ContentType fromString() {
+        return mimeType.getContentType(target);
+    }
+
+    @Benchmark
+    public String substringHashMap() {
+        String ending = target.substring(target.lastIndexOf('.') + 1).toLowerCase();
+        String type = types.get(ending);
+        return type == null ? "application/octet-stream" : type;
+    }
+}
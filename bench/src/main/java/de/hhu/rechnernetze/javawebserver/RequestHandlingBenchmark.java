@@ -0,0 +1,105 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/******************************************************************************
+ * The RequestHandlingBenchmark goes through what respondToRequest() does
+ * with a request besides the socket: the head is parsed, the ResponseFactory
+ * creates the response, its head is put into the buffer of the connection
+ * and the Metrics record it.
+ *
+ * <p>The files are served from the working directory with a ResponseCache,
+ * so it has to be run from the root of the project.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestHandlingBenchmark {
+
+    //a cached file, a conditional request for it and a missing file
+    @Param({"cached", "notModified", "notFound"})
+    public String request;
+
+    private byte[] bytes;
+    private RequestParser requestParser;
+    private ResponseFactory responseFactory;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setup() throws IOException {
+        MIMEType mimeType = new MIMEType(Paths.get("mime.types"));
+        FileHandler fileHandler = new FileHandler(mimeType,
+                new ResponseCache(16 * 1024 * 1024, 1024 * 1024, false), null, null,
+                new ValidatorCache(), null, false);
+        responseFactory = new ResponseFactory(mimeType, new Routes(fileHandler, null),
+                new Metrics(), null);
+        requestParser = new RequestParser();
+        buffer = ByteBuffer.allocate(1024);
+
+        String target = request.equals("notFound") ? "/missing.html" : "/README.md";
+        String head = "GET " + target + " HTTP/1.1\r\n"
+                + "Host: localhost:6789\r\n"
+                + "User-Agent: curl/8.4.0\r\n"
+                + "Accept: */*\r\n";
+
+        if (request.equals("notModified")) {
+            //the ETag the FileHandler sends for the file
+            bytes = (head + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            HttpResponse response = respond();
+            response.putHead(buffer, true);
+            response.release();
+
+            String sent = new String(buffer.array(), 0, buffer.position(),
+                    StandardCharsets.ISO_8859_1);
+            int start = sent.indexOf("ETag: ") + "ETag: ".length();
+            head += "If-None-Match: " + sent.substring(start, sent.indexOf("\r\n", start))
+                    + "\r\n";
+        }
+
+        bytes = (head + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @Benchmark
+    public ByteBuffer respondToRequest() throws IOException {
+        long started = System.nanoTime();
+        HttpResponse response = respond();
+
+        buffer.clear();
+        response.putHead(buffer, true);
+        response.release();
+
+        responseFactory.getMetrics().recordResponse(
+                requestParser.getRequestHead().getEndpoint(), response.getStatusCode(),
+                buffer.position() + Math.max(response.getContentLength(), 0),
+                System.nanoTime() - started);
+        return buffer;
+    }
+
+    private HttpResponse respond() throws IOException {
+        requestParser.start(bytes, 0);
+        requestParser.parse(bytes.length);
+        return responseFactory.respond(requestParser.getRequestHead());
+    }
+}
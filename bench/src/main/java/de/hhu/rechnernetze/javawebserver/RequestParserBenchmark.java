@@ -0,0 +1,124 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/******************************************************************************
+ * The RequestParserBenchmark compares the RequestParser with the way the
+ * request heads have been read before, a BufferedReader which decodes every
+ * line into a String and a StringTokenizer which splits the request line.
+ *
+ * <p>Run it with <i>-prof gc</i> to compare the bytes allocated per request
+ * besides the throughput.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestParserBenchmark {
+
+    //a request curl sends and one a browser sends
+    @Param({"curl", "browser"})
+    public String client;
+
+    private byte[] request;
+    private RequestParser requestParser;
+
+    @Setup
+    public void setup() {
+        String head;
+        if (client.equals("curl")) {
+            head = "GET /index.html HTTP/1.1\r\n"
+                    + "Host: localhost:6789\r\n"
+                    + "User-Agent: curl/8.4.0\r\n"
+                    + "Accept: */*\r\n"
+                    + "\r\n";
+        } else {
+            head = "GET /images/logo.png HTTP/1.1\r\n"
+                    + "Host: localhost:6789\r\n"
+                    + "Connection: keep-alive\r\n"
+                    + "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 "
+                    + "(KHTML, like Gecko) Chrome/118.0.0.0 Safari/537.36\r\n"
+                    + "Accept: image/avif,image/webp,image/apng,image/*,*/*;q=0.8\r\n"
+                    + "Referer: http://localhost:6789/index.html\r\n"
+                    + "Accept-Encoding: gzip, deflate, br\r\n"
+                    + "Accept-Language: de-DE,de;q=0.9,en-US;q=0.8,en;q=0.7\r\n"
+                    + "If-None-Match: \"5f3c-18b3a1c2d40\"\r\n"
+                    + "If-Modified-Since: Mon, 16 Oct 2023 08:00:00 GMT\r\n"
+                    + "\r\n";
+        }
+
+        request = head.getBytes(StandardCharsets.ISO_8859_1);
+        requestParser = new RequestParser();
+    }
+
+    @Benchmark
+    public void requestParser(Blackhole blackhole) {
+        requestParser.start(request, 0);
+        blackhole.consume(requestParser.parse(request.length));
+
+        RequestHead requestHead = requestParser.getRequestHead();
+        blackhole.consume(requestHead.getMethodId());
+        blackhole.consume(requestHead.isKeepAlive());
+        blackhole.consume(requestHead.hasBody());
+    }
+
+    @Benchmark
+    public void bufferedReader(Blackhole blackhole) throws IOException {
+        //the stream is created per request like the reader was per connection
+        BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(request)));
+
+        StringTokenizer tokens = new StringTokenizer(bufferedReader.readLine());
+        String method = tokens.nextToken();
+        String target = tokens.nextToken();
+        String version = tokens.hasMoreTokens() ? tokens.nextToken() : "HTTP/0.9";
+
+        String connection = null;
+        boolean hasBody = false;
+        String headerLine;
+
+        while ((headerLine = bufferedReader.readLine()) != null && !headerLine.isEmpty()) {
+            int colon = headerLine.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+
+            String value = headerLine.substring(colon + 1).trim();
+            if (headerLine.regionMatches(true, 0, "Connection", 0, colon)) {
+                connection = value;
+            } else if (headerLine.regionMatches(true, 0, "Content-Length", 0, colon)) {
+                hasBody = hasBody || !value.equals("0");
+            }
+        }
+
+        blackhole.consume(method);
+        blackhole.consume(target);
+        blackhole.consume("HTTP/1.1".equals(version)
+                && (connection == null || !connection.equalsIgnoreCase("close")));
+        blackhole.consume(hasBody);
+    }
+}
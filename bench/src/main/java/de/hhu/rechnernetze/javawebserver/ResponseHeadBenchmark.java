@@ -0,0 +1,94 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/******************************************************************************
+ * The ResponseHeadBenchmark measures how the Date header and the head of a
+ * response are created. The Date line HttpDate encodes once a second is
+ * compared with formatting the date for every response, the pre-encoded
+ * head of an HttpResponse with a head which is concatenated from Strings.
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseHeadBenchmark {
+
+    private static final String HEADER_LINES = "ETag: \"5f3c-18b3a1c2d40\"\r\n"
+            + "Last-Modified: Mon, 16 Oct 2023 08:00:00 GMT\r\n"
+            + "Accept-Ranges: bytes\r\n";
+
+    private final ContentType contentType =
+            new ContentType("text/html", "charset=utf-8", true);
+
+    private HttpResponse response;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setup() {
+        response = HttpResponse.withoutBody(HttpStatus.OK, contentType, 24380)
+                .withHeaderLines(HEADER_LINES);
+        buffer = ByteBuffer.allocate(1024);
+    }
+
+    @Benchmark
+    public byte[] cachedDateLine() {
+        return HttpDate.getDateLine();
+    }
+
+    @Benchmark
+    public byte[] formattedDateLine() {
+        return ("Date: " + HttpDate.format(System.currentTimeMillis()) + "\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    //the head of a cached response, which is only copied
+    @Benchmark
+    public ByteBuffer putHead() {
+        buffer.clear();
+        response.putHead(buffer, true);
+        return buffer;
+    }
+
+    //the head of a response which is created for the request
+    @Benchmark
+    public ByteBuffer newResponseHead() {
+        HttpResponse response = HttpResponse.withoutBody(HttpStatus.OK, contentType, 24380)
+                .withHeaderLines(HEADER_LINES);
+        buffer.clear();
+        response.putHead(buffer, true);
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer concatenatedHead() {
+        String head = "HTTP/1.1 200 OK\r\n"
+                + "Date: " + HttpDate.format(System.currentTimeMillis()) + "\r\n"
+                + "Connection: keep-alive\r\n"
+                + "Content-Type: " + contentType.getValue() + "\r\n"
+                + "Content-Length: " + 24380 + "\r\n"
+                + HEADER_LINES
+                + "\r\n";
+        buffer.clear();
+        buffer.put(head.getBytes(StandardCharsets.ISO_8859_1));
+        return buffer;
+    }
+}
@@ -0,0 +1,668 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/******************************************************************************
+ * The AccessLog writes a line for every response in the common or combined
+ * format of Apache or as a JSON object, e.g.
+ *
+ * <pre>
+ * 127.0.0.1 - - [17/Oct/2026:09:12:44 +0200] "GET /index.html HTTP/1.1" 200 24611 "-" "curl/8.4.0"
+ * </pre>
+ *
+ * <p>The engines never touch the file. A connection copies the request line
+ * and the headers into its Entry as soon as the head is complete, because
+ * the read buffer may be overwritten by the body, and records the Entry with
+ * the status when the response has been sent. Recording swaps the arrays of
+ * the Entry and a slot of a ring, whose slots are claimed with a
+ * compare-and-set, so it takes no lock and creates no object.</p>
+ *
+ * <p>A writer thread formats the lines of the ring into a large buffer and
+ * appends it to the file with one write once the buffer is full or its
+ * first line has waited for 10 milliseconds. When the file has grown beyond
+ * its size or its age, it is renamed with the time as suffix and a new one
+ * is started. If the ring is full, the line is dropped or the connection
+ * waits for a free slot, as the policy demands.</p>
+ *
+ * <p>The bytes are those of the whole response with its head, like the
+ * <i>%O</i> of Apache.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class AccessLog {
+
+    static final Logger logger = Logger.getLogger(AccessLog.class.getName());
+
+    //
+    // THE FORMATS
+    //
+    static final String FORMAT_COMMON = "common";
+    static final String FORMAT_COMBINED = "combined";
+    static final String FORMAT_JSON = "json";
+
+    //dropping the line when the ring is full, the engines never wait
+    static final String FULL_DROP = "drop";
+
+    //waiting until the writer has made room, no line is lost
+    static final String FULL_BLOCK = "block";
+
+    static final int DEFAULT_CAPACITY = 8192;
+
+    //the size of the writes to the file
+    private static final int BATCH_SIZE = 256 * 1024;
+
+    //how long the writer sleeps between two rounds, which is also how long
+    //a line may wait in the batch, and how long a blocked connection waits
+    //before it looks again
+    private static final long IDLE_NANOS = 10_000_000;
+    private static final long BLOCKED_NANOS = 50_000;
+
+    private static final DateTimeFormatter COMMON_TIME = DateTimeFormatter
+            .ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.US);
+    private static final DateTimeFormatter JSON_TIME = DateTimeFormatter
+            .ofPattern("yyyy-MM-dd'T'HH:mm:ss", Locale.US);
+    private static final DateTimeFormatter JSON_OFFSET = DateTimeFormatter
+            .ofPattern("xxx", Locale.US);
+    private static final DateTimeFormatter ROTATED_SUFFIX = DateTimeFormatter
+            .ofPattern("yyyyMMdd-HHmmss", Locale.US);
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.ISO_8859_1);
+
+    private final Path file;
+    private final String format;
+    private final boolean block;
+    private final long maxSize;
+    private final long maxAge;
+    private final ZoneId zone = ZoneId.systemDefault();
+
+    //the ring, a slot may be written when its sequence is the position of
+    //the producer and read when it is the position of the writer plus one
+    private final Entry[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private long head = 0;
+
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final Thread writer;
+    private volatile boolean closed = false;
+
+    //owned by the writer thread
+    private ByteBuffer batch = ByteBuffer.allocate(BATCH_SIZE);
+    private FileChannel channel;
+    private long size;
+    private long opened;
+    private long pendingSince;
+    private long second = Long.MIN_VALUE;
+    private byte[] commonTime;
+    private byte[] jsonTime;
+    private byte[] jsonOffset;
+
+    /**************************************************************************
+     * Constructs an AccessLog which appends to the given file and starts its
+     * writer thread.
+     *
+     * @param file The file the lines are appended to
+     * @param format One of the FORMAT constants
+     * @param capacity The number of lines the ring holds, rounded up to a
+     *                 power of two
+     * @param full FULL_DROP or FULL_BLOCK
+     * @param maxSize The size after which the file is rotated or 0 for none
+     * @param maxAge The milliseconds after which the file is rotated or 0
+     *               for none
+     * @throws IllegalArgumentException if an argument is illegal
+     * @throws IOException If the file can not be opened
+     **************************************************************************/
+    public AccessLog(Path file, String format, int capacity, String full, long maxSize,
+                     long maxAge) throws IOException {
+        if (file == null) {
+            logger.log(Level.WARNING, "RECEIVED ILLEGAL ACCESS LOG : " + file);
+            throw new IllegalArgumentException("Illegal File: " + file);
+        }
+
+        if (!FORMAT_COMMON.equals(format) && !FORMAT_COMBINED.equals(format)
+                && !FORMAT_JSON.equals(format)) {
+            logger.log(Level.WARNING, "RECEIVED ILLEGAL FORMAT : " + format);
+            throw new IllegalArgumentException("Illegal Format: " + format);
+        }
+
+        if (!FULL_DROP.equals(full) && !FULL_BLOCK.equals(full)) {
+            logger.log(Level.WARNING, "RECEIVED ILLEGAL POLICY : " + full);
+            throw new IllegalArgumentException("Illegal Policy: " + full);
+        }
+
+        if (capacity <= 0 || capacity > 1 << 24 || maxSize < 0 || maxAge < 0) {
+            logger.log(Level.WARNING, "RECEIVED ILLEGAL ACCESS LOG LIMITS : " + capacity);
+            throw new IllegalArgumentException("Illegal Limits: " + capacity + ", "
+                    + maxSize + ", " + maxAge);
+        }
+
+        this.file = file;
+        this.format = format;
+        this.block = FULL_BLOCK.equals(full);
+        this.maxSize = maxSize;
+        this.maxAge = maxAge;
+
+        int slotCount = Integer.highestOneBit(capacity);
+        if (slotCount < capacity) {
+            slotCount <<= 1;
+        }
+        slots = new Entry[slotCount];
+        sequences = new AtomicLongArray(slotCount);
+        mask = slotCount - 1;
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = new Entry(null);
+            sequences.set(i, i);
+        }
+
+        open(System.currentTimeMillis());
+
+        writer = new Thread(this::drain, "access-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**************************************************************************
+     * Hands the response of the started Entry to the writer. Depending on
+     * the policy the line is dropped or the caller waits if the ring is
+     * full, it never waits for the file.
+     *
+     * @param entry The Entry of the connection
+     * @param status The status code of the response
+     * @param bytes The bytes of the head and the body which have been sent
+     * @param nanos The duration of the request
+     **************************************************************************/
+    public void record(Entry entry, int status, long bytes, long nanos) {
+        long position;
+        int index;
+
+        while (true) {
+            position = tail.get();
+            index = (int) position & mask;
+            long sequence = sequences.get(index);
+
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (sequence < position) {
+                //the writer has not read the line of the previous round yet
+                if (!block || closed) {
+                    dropped.increment();
+                    return;
+                }
+                LockSupport.unpark(writer);
+                LockSupport.parkNanos(this, BLOCKED_NANOS);
+            }
+        }
+
+        //the slot takes the array of the Entry and leaves its own, which the
+        //writer no longer reads, for the next request of the connection
+        Entry slot = slots[index];
+        byte[] bytesOfSlot = slot.bytes;
+        slot.bytes = entry.bytes;
+        entry.bytes = bytesOfSlot;
+
+        slot.address = entry.address;
+        slot.time = entry.time;
+        slot.methodLength = entry.methodLength;
+        slot.targetLength = entry.targetLength;
+        slot.versionLength = entry.versionLength;
+        slot.refererLength = entry.refererLength;
+        slot.userAgentLength = entry.userAgentLength;
+        slot.status = status;
+        slot.bytesSent = bytes;
+        slot.nanos = nanos;
+
+        sequences.set(index, position + 1);
+    }
+
+    /**************************************************************************
+     * Writes the lines which have been recorded before and closes the file.
+     * Lines which are recorded afterwards are dropped.
+     **************************************************************************/
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //the lines which have been dropped because the ring was full
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    //the lines which have been written to the file
+    public long getWritten() {
+        return written.sum();
+    }
+
+    //the loop of the writer thread, the lines are written when the batch is
+    //full or its first line has waited for a round
+    private void drain() {
+        while (true) {
+            //everything recorded before close() is still written
+            boolean closing = closed;
+
+            while (sequences.get((int) head & mask) == head + 1) {
+                Entry slot = slots[(int) head & mask];
+                ensureRoom(slot);
+                format(slot);
+                sequences.set((int) head & mask, head + slots.length);
+                head++;
+            }
+
+            if (batch.position() > 0
+                    && (closing || System.nanoTime() - pendingSince >= IDLE_NANOS)) {
+                writeBatch();
+            }
+
+            if (closing) {
+                break;
+            }
+            LockSupport.parkNanos(this, IDLE_NANOS);
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("AN ERROR OCCURRED WHILE CLOSING THE ACCESS LOG");
+        }
+    }
+
+    //writing the batch if the line may not fit in anymore. Every byte may be
+    //escaped with up to six bytes, the rest of the line is far below 512.
+    private void ensureRoom(Entry slot) {
+        int needed = 6 * slot.getLength() + 512;
+        if (batch.remaining() >= needed) {
+            return;
+        }
+
+        writeBatch();
+        if (batch.capacity() < needed) {
+            batch = ByteBuffer.allocate(needed);
+        }
+    }
+
+    private void writeBatch() {
+        batch.flip();
+
+        try {
+            rotateIfDue(batch.remaining());
+            while (batch.hasRemaining()) {
+                size += channel.write(batch);
+            }
+        } catch (IOException e) {
+            System.err.println("AN ERROR OCCURRED WHILE WRITING THE ACCESS LOG");
+        }
+
+        batch.clear();
+    }
+
+    //renaming the file when the batch would make it too large or when it
+    //is too old, an empty file is never rotated. The old channel is kept
+    //until the new file is open, so the batch is never lost: a file which
+    //can not be renamed, e.g. because logrotate has removed it, is opened
+    //again, and if no file can be opened the lines go on into the old one.
+    private void rotateIfDue(int pending) {
+        long now = System.currentTimeMillis();
+        if (size == 0 || ((maxSize == 0 || size + pending <= maxSize)
+                && (maxAge == 0 || now - opened < maxAge))) {
+            return;
+        }
+
+        String suffix = ROTATED_SUFFIX.format(Instant.ofEpochMilli(now).atZone(zone));
+        Path rotated = file.resolveSibling(file.getFileName() + "." + suffix);
+        for (int i = 1; Files.exists(rotated); i++) {
+            rotated = file.resolveSibling(file.getFileName() + "." + suffix + "." + i);
+        }
+
+        try {
+            Files.move(file, rotated);
+            logger.log(Level.FINE, "ROTATED THE ACCESS LOG");
+        } catch (IOException e) {
+            System.err.println("AN ERROR OCCURRED WHILE ROTATING THE ACCESS LOG");
+        }
+
+        FileChannel old = channel;
+        try {
+            open(now);
+        } catch (IOException e) {
+            System.err.println("AN ERROR OCCURRED WHILE OPENING THE ACCESS LOG");
+            opened = now;
+            return;
+        }
+
+        try {
+            old.close();
+        } catch (IOException e) {
+            System.err.println("AN ERROR OCCURRED WHILE CLOSING THE ACCESS LOG");
+        }
+    }
+
+    //the channel and the size only change when the file has been opened
+    private void open(long now) throws IOException {
+        FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        try {
+            size = fileChannel.size();
+        } catch (IOException e) {
+            fileChannel.close();
+            throw e;
+        }
+        channel = fileChannel;
+        opened = now;
+    }
+
+    //
+    // FORMATTING THE LINES
+    //
+
+    private void format(Entry slot) {
+        if (batch.position() == 0) {
+            pendingSince = System.nanoTime();
+        }
+        updateTime(slot.time);
+
+        if (FORMAT_JSON.equals(format)) {
+            formatJson(slot);
+        } else {
+            formatCommon(slot);
+        }
+
+        batch.put((byte) '\n');
+        written.increment();
+    }
+
+    //host ident user [time] "request line" status bytes "referer" "user-agent"
+    private void formatCommon(Entry slot) {
+        put(slot.address == null ? "-" : slot.address.getHostAddress());
+        put(" - - [");
+        batch.put(commonTime);
+        put("] \"");
+
+        if (slot.methodLength < 0) {
+            batch.put((byte) '-');
+        } else {
+            byte[] bytes = slot.bytes;
+            int position = putEscaped(bytes, 0, slot.methodLength);
+            batch.put((byte) ' ');
+            position = putEscaped(bytes, position, slot.targetLength);
+            if (slot.versionLength > 0) {
+                batch.put((byte) ' ');
+                putEscaped(bytes, position, slot.versionLength);
+            }
+        }
+
+        put("\" ");
+        putNumber(slot.status);
+        batch.put((byte) ' ');
+        if (slot.bytesSent == 0) {
+            batch.put((byte) '-');
+        } else {
+            putNumber(slot.bytesSent);
+        }
+
+        if (FORMAT_COMBINED.equals(format)) {
+            put(" \"");
+            putOptional(slot, slot.getRefererOffset(), slot.refererLength, false);
+            put("\" \"");
+            putOptional(slot, slot.getUserAgentOffset(), slot.userAgentLength, false);
+            batch.put((byte) '"');
+        }
+    }
+
+    private void formatJson(Entry slot) {
+        put("{\"time\":\"");
+        batch.put(jsonTime);
+        batch.put((byte) '.');
+        int millis = (int) Math.floorMod(slot.time, 1000L);
+        batch.put((byte) ('0' + millis / 100));
+        batch.put((byte) ('0' + millis / 10 % 10));
+        batch.put((byte) ('0' + millis % 10));
+        batch.put(jsonOffset);
+
+        put("\",\"remote\":\"");
+        put(slot.address == null ? "" : slot.address.getHostAddress());
+        put("\",\"method\":");
+
+        if (slot.methodLength < 0) {
+            put("null,\"target\":null,\"protocol\":null");
+        } else {
+            byte[] bytes = slot.bytes;
+            batch.put((byte) '"');
+            int position = putJsonEscaped(bytes, 0, slot.methodLength);
+            put("\",\"target\":\"");
+            position = putJsonEscaped(bytes, position, slot.targetLength);
+            put("\",\"protocol\":\"");
+            putJsonEscaped(bytes, position, slot.versionLength);
+            batch.put((byte) '"');
+        }
+
+        put(",\"status\":");
+        putNumber(slot.status);
+        put(",\"bytes\":");
+        putNumber(slot.bytesSent);
+        put(",\"duration_us\":");
+        putNumber(slot.nanos / 1000);
+        put(",\"referer\":");
+        putOptional(slot, slot.getRefererOffset(), slot.refererLength, true);
+        put(",\"user_agent\":");
+        putOptional(slot, slot.getUserAgentOffset(), slot.userAgentLength, true);
+        batch.put((byte) '}');
+    }
+
+    //a missing header is "-" in the common formats and null in JSON
+    private void putOptional(Entry slot, int offset, int length, boolean json) {
+        if (length < 0) {
+            put(json ? "null" : "-");
+        } else if (json) {
+            batch.put((byte) '"');
+            putJsonEscaped(slot.bytes, offset, length);
+            batch.put((byte) '"');
+        } else {
+            putEscaped(slot.bytes, offset, length);
+        }
+    }
+
+    //the times are formatted once a second
+    private void updateTime(long millis) {
+        long second = Math.floorDiv(millis, 1000L);
+        if (second == this.second) {
+            return;
+        }
+
+        this.second = second;
+        ZonedDateTime time = Instant.ofEpochSecond(second).atZone(zone);
+        commonTime = COMMON_TIME.format(time).getBytes(StandardCharsets.ISO_8859_1);
+        jsonTime = JSON_TIME.format(time).getBytes(StandardCharsets.ISO_8859_1);
+        jsonOffset = JSON_OFFSET.format(time).getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    //escaping quotes, backslashes and bytes which are not printable ASCII
+    //like Apache does, returns the position behind the bytes
+    private int putEscaped(byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            int b = bytes[i] & 0xff;
+            if (b == '"' || b == '\\') {
+                batch.put((byte) '\\').put((byte) b);
+            } else if (b < 0x20 || b >= 0x7f) {
+                batch.put((byte) '\\').put((byte) 'x').put(HEX[b >> 4]).put(HEX[b & 0xf]);
+            } else {
+                batch.put((byte) b);
+            }
+        }
+        return end;
+    }
+
+    //the bytes are ISO-8859-1, everything beyond ASCII is written as an
+    //escaped code point so that the line stays valid UTF-8
+    private int putJsonEscaped(byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            int b = bytes[i] & 0xff;
+            if (b == '"' || b == '\\') {
+                batch.put((byte) '\\').put((byte) b);
+            } else if (b < 0x20 || b >= 0x7f) {
+                batch.put((byte) '\\').put((byte) 'u').put((byte) '0').put((byte) '0')
+                        .put(HEX[b >> 4]).put(HEX[b & 0xf]);
+            } else {
+                batch.put((byte) b);
+            }
+        }
+        return end;
+    }
+
+    private void put(String ascii) {
+        for (int i = 0; i < ascii.length(); i++) {
+            batch.put((byte) ascii.charAt(i));
+        }
+    }
+
+    private void putNumber(long number) {
+        if (number < 0) {
+            batch.put((byte) '-');
+            number = -number;
+        }
+
+        long divisor = 1;
+        while (number / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            batch.put((byte) ('0' + number / divisor % 10));
+        }
+    }
+
+    /**************************************************************************
+     * The Entry holds what the AccessLog writes about one request of a
+     * connection. It is started when the head is complete and recorded with
+     * the response, every connection reuses its own Entry.
+     **************************************************************************/
+    static final class Entry {
+
+        private InetAddress address;
+        private long time;
+
+        //the method, the target, the version, the Referer and the
+        //User-Agent one after the other
+        private byte[] bytes = new byte[256];
+        private int methodLength;
+        private int targetLength;
+        private int versionLength;
+        private int refererLength;
+        private int userAgentLength;
+
+        private int status;
+        private long bytesSent;
+        private long nanos;
+
+        /**********************************************************************
+         * Constructs an Entry for the connection of the given client.
+         *
+         * @param address The address of the client or null if unknown
+         **********************************************************************/
+        public Entry(InetAddress address) {
+            this.address = address;
+        }
+
+        /**********************************************************************
+         * Copies the request line and the headers the formats need out of
+         * the buffer of the head. A head without a valid request line is
+         * logged as <i>-</i>.
+         *
+         * @param requestHead The head which is complete or has been rejected
+         **********************************************************************/
+        public void start(RequestHead requestHead) {
+            time = System.currentTimeMillis();
+            methodLength = -1;
+            targetLength = 0;
+            versionLength = 0;
+            refererLength = -1;
+            userAgentLength = -1;
+
+            if (!requestHead.isValid()) {
+                return;
+            }
+
+            int length = requestHead.getMethodLength() + requestHead.getTargetLength()
+                    + requestHead.getVersionLength()
+                    + requestHead.getHeaderLength(RequestHead.REFERER)
+                    + requestHead.getHeaderLength(RequestHead.USER_AGENT);
+            if (length > bytes.length) {
+                bytes = new byte[Math.max(length, 2 * bytes.length)];
+            }
+
+            byte[] buffer = requestHead.getBuffer();
+            int position = 0;
+
+            methodLength = requestHead.getMethodLength();
+            System.arraycopy(buffer, requestHead.getMethodOffset(), bytes, position,
+                    methodLength);
+            position += methodLength;
+
+            targetLength = requestHead.getTargetLength();
+            System.arraycopy(buffer, requestHead.getTargetOffset(), bytes, position,
+                    targetLength);
+            position += targetLength;
+
+            versionLength = requestHead.getVersionLength();
+            System.arraycopy(buffer, requestHead.getVersionOffset(), bytes, position,
+                    versionLength);
+            position += versionLength;
+
+            if (requestHead.hasHeader(RequestHead.REFERER)) {
+                refererLength = requestHead.getHeaderLength(RequestHead.REFERER);
+                System.arraycopy(buffer, requestHead.getHeaderOffset(RequestHead.REFERER),
+                        bytes, position, refererLength);
+                position += refererLength;
+            }
+
+            if (requestHead.hasHeader(RequestHead.USER_AGENT)) {
+                userAgentLength = requestHead.getHeaderLength(RequestHead.USER_AGENT);
+                System.arraycopy(buffer, requestHead.getHeaderOffset(RequestHead.USER_AGENT),
+                        bytes, position, userAgentLength);
+            }
+        }
+
+        //the bytes which have been copied
+        private int getLength() {
+            return Math.max(methodLength, 0) + targetLength + versionLength
+                    + Math.max(refererLength, 0) + Math.max(userAgentLength, 0);
+        }
+
+        private int getRefererOffset() {
+            return methodLength + targetLength + versionLength;
+        }
+
+        private int getUserAgentOffset() {
+            return getRefererOffset() + Math.max(refererLength, 0);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.io.IOException;
+
+/******************************************************************************
+ * A BodyHandler decides what happens with the entity bodies of POST and PUT
+ * requests. The engines read the body and hand it to the BodySink the
+ * handler has opened for the request.
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+interface BodyHandler {
+
+    /**************************************************************************
+     * Opens the sink for the body of the request. The RequestHead is only
+     * valid during this call, so everything the sink needs of it has to be
+     * taken now.
+     *
+     * @param requestHead The request line and the header lines
+     * @return The sink or null if the handler does not take the request,
+     * which is then answered with 403
+     * @throws IOException If the sink can not be opened
+     **************************************************************************/
+    BodySink open(RequestHead requestHead) throws IOException;
+}
@@ -0,0 +1,41 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/******************************************************************************
+ * A BodySink receives the entity body of one request while it arrives. The
+ * engine hands it the decoded bytes chunk by chunk, so that the body never
+ * has to be held in memory as a whole.
+ *
+ * <p>Exactly one of finish() and abort() is called at the end.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+interface BodySink {
+
+    /**************************************************************************
+     * Takes all remaining bytes of the buffer, which are the next bytes of
+     * the body. The buffer is a view of the read buffer of the connection
+     * and is only valid during this call.
+     *
+     * @param chunk The bytes from its position to its limit
+     * @throws IOException If the bytes can not be stored
+     **************************************************************************/
+    void write(ByteBuffer chunk) throws IOException;
+
+    /**************************************************************************
+     * Called when the whole body has arrived.
+     *
+     * @return The response to the request
+     * @throws IOException If the body can not be stored
+     **************************************************************************/
+    HttpResponse finish() throws IOException;
+
+    /**************************************************************************
+     * Called when the body is incomplete, too large or can not be read, so
+     * that everything stored so far can be thrown away.
+     **************************************************************************/
+    void abort();
+}
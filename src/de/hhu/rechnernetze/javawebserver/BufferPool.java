@@ -0,0 +1,87 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/******************************************************************************
+ * The BufferPool keeps ByteBuffers of one size for reuse, because
+ * allocating and freeing direct memory for every response is expensive and
+ * allocating a heap buffer for every connection produces garbage.
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class BufferPool {
+
+    private final int bufferSize;
+    private final int maxBuffers;
+    private final boolean direct;
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledBuffers = new AtomicInteger();
+
+    /**************************************************************************
+     * Constructs an empty BufferPool of direct buffers, the buffers are
+     * allocated on demand.
+     *
+     * @param bufferSize The capacity of every buffer in bytes
+     * @param maxBuffers The number of buffers which are kept for reuse
+     * @throws IllegalArgumentException if one of the arguments is not positive
+     **************************************************************************/
+    public BufferPool(int bufferSize, int maxBuffers) {
+        this(bufferSize, maxBuffers, true);
+    }
+
+    /**************************************************************************
+     * Constructs an empty BufferPool, the buffers are allocated on demand.
+     *
+     * @param bufferSize The capacity of every buffer in bytes
+     * @param maxBuffers The number of buffers which are kept for reuse
+     * @param direct Whether the buffers are direct or heap buffers
+     * @throws IllegalArgumentException if one of the arguments is not positive
+     **************************************************************************/
+    public BufferPool(int bufferSize, int maxBuffers, boolean direct) {
+        if (bufferSize <= 0 || maxBuffers <= 0) {
+            throw new IllegalArgumentException("Illegal BufferPool size "
+                    + bufferSize + " x " + maxBuffers);
+        }
+
+        this.bufferSize = bufferSize;
+        this.maxBuffers = maxBuffers;
+        this.direct = direct;
+    }
+
+    /**************************************************************************
+     * Returns a cleared buffer, either from the pool or a newly allocated one.
+     **************************************************************************/
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+
+        if (buffer == null) {
+            return direct ? ByteBuffer.allocateDirect(bufferSize)
+                    : ByteBuffer.allocate(bufferSize);
+        }
+
+        pooledBuffers.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**************************************************************************
+     * Gives the buffer back, it must not be used by the caller anymore.
+     *
+     * @param buffer A buffer which has been acquired from this pool
+     **************************************************************************/
+    public void release(ByteBuffer buffer) {
+        //if the pool is full the buffer is left to the garbage collector
+        if (pooledBuffers.incrementAndGet() <= maxBuffers) {
+            buffers.offer(buffer);
+        } else {
+            pooledBuffers.decrementAndGet();
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
@@ -0,0 +1,222 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/******************************************************************************
+ * The ByteRanges hold the byte ranges of a Range header, resolved against
+ * the length of the representation like RFC 7233 demands. The ranges are
+ * kept in the order the client asked for them.
+ *
+ * <p>Several ranges are sent as a multipart/byteranges body, whose parts are
+ * separated by the boundary lines this class encodes.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class ByteRanges {
+
+    //more ranges than this are not worth a multipart body, the whole file
+    //is sent instead
+    static final int MAX_RANGES = 32;
+
+    //the boundary only has to be unlikely within the files, so one is
+    //chosen when the server starts
+    static final String BOUNDARY = "BYTERANGES"
+            + Long.toHexString(ThreadLocalRandom.current().nextLong() >>> 1);
+    static final ContentType MULTIPART_TYPE =
+            new ContentType("multipart/byteranges", "boundary=" + BOUNDARY, false);
+
+    private final long[] firsts;
+    private final long[] lasts;
+    private final int count;
+    private final long completeLength;
+
+    private ByteRanges(long[] firsts, long[] lasts, int count, long completeLength) {
+        this.firsts = firsts;
+        this.lasts = lasts;
+        this.count = count;
+        this.completeLength = completeLength;
+    }
+
+    /**************************************************************************
+     * Parses the value of a Range header.
+     *
+     * @param range The value like <i>bytes=0-499,-500</i>
+     * @param completeLength The length of the whole representation
+     * @return The satisfiable ranges, none if no range is satisfiable, or
+     * null if the header has to be ignored, because it is invalid, is not
+     * about bytes or asks for more than the whole representation
+     **************************************************************************/
+    public static ByteRanges parse(String range, long completeLength) {
+        if (range.length() < 6 || !range.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return null;
+        }
+
+        long[] firsts = new long[4];
+        long[] lasts = new long[4];
+        int count = 0;
+        int specs = 0;
+        long total = 0;
+
+        int index = 6;
+        while (index <= range.length()) {
+            int end = range.indexOf(',', index);
+            if (end < 0) {
+                end = range.length();
+            }
+
+            int start = skipWhitespace(range, index, end);
+            int stop = end;
+            while (stop > start && isWhitespace(range.charAt(stop - 1))) {
+                stop--;
+            }
+            index = end + 1;
+
+            //empty list elements are allowed
+            if (start == stop) {
+                continue;
+            }
+
+            if (++specs > MAX_RANGES) {
+                return null;
+            }
+
+            int dash = range.indexOf('-', start);
+            if (dash < 0 || dash >= stop) {
+                return null;
+            }
+
+            long first;
+            long last;
+            if (dash == start) {
+                //the suffix range -n asks for the last n bytes
+                long suffix = parseNumber(range, dash + 1, stop);
+                if (suffix < 0) {
+                    return null;
+                } else if (suffix == 0 || completeLength == 0) {
+                    continue;
+                }
+                first = Math.max(0, completeLength - suffix);
+                last = completeLength - 1;
+            } else {
+                first = parseNumber(range, start, dash);
+                last = dash + 1 == stop ? Long.MAX_VALUE : parseNumber(range, dash + 1, stop);
+                if (first < 0 || last < 0 || last < first) {
+                    return null;
+                } else if (first >= completeLength) {
+                    continue;
+                }
+                last = Math.min(last, completeLength - 1);
+            }
+
+            //overlapping ranges which add up to more than the whole file
+            //would only make the response larger
+            total += last - first + 1;
+            if (total > completeLength) {
+                return null;
+            }
+
+            if (count == firsts.length) {
+                firsts = Arrays.copyOf(firsts, count * 2);
+                lasts = Arrays.copyOf(lasts, count * 2);
+            }
+            firsts[count] = first;
+            lasts[count] = last;
+            count++;
+        }
+
+        if (specs == 0) {
+            return null;
+        }
+
+        return new ByteRanges(firsts, lasts, count, completeLength);
+    }
+
+    //the number of satisfiable ranges, 0 is answered with 416
+    public int getCount() {
+        return count;
+    }
+
+    public long getFirst(int range) {
+        return firsts[range];
+    }
+
+    public long getLength(int range) {
+        return lasts[range] - firsts[range] + 1;
+    }
+
+    public long getCompleteLength() {
+        return completeLength;
+    }
+
+    /**************************************************************************
+     * Returns the Content-Range header line of the range with its CRLF.
+     *
+     * @param range The index of the range
+     **************************************************************************/
+    public String getContentRangeLine(int range) {
+        return "Content-Range: bytes " + firsts[range] + '-' + lasts[range] + '/'
+                + completeLength + "\r\n";
+    }
+
+    /**************************************************************************
+     * Returns the Content-Range header line of the 416 response with its
+     * CRLF.
+     *
+     * @param completeLength The length of the whole representation
+     **************************************************************************/
+    public static String getUnsatisfiedRangeLine(long completeLength) {
+        return "Content-Range: bytes */" + completeLength + "\r\n";
+    }
+
+    /**************************************************************************
+     * Encodes the lines of the multipart body which go in front of every
+     * range, the last element closes the body.
+     *
+     * @param contentType The MIME-Type of the file
+     * @return getCount() + 1 separators
+     **************************************************************************/
+    public byte[][] encodeSeparators(ContentType contentType) {
+        byte[][] separators = new byte[count + 1][];
+        for (int i = 0; i < count; i++) {
+            //the first part needs no CRLF in front of its boundary, but it
+            //does no harm and keeps all parts alike
+            separators[i] = ("\r\n--" + BOUNDARY + "\r\n"
+                    + "Content-Type: " + contentType.getValue() + "\r\n"
+                    + getContentRangeLine(i) + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        }
+        separators[count] = ("\r\n--" + BOUNDARY + "--\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1);
+        return separators;
+    }
+
+    //a number of at most 18 digits or -1
+    private static long parseNumber(String value, int start, int end) {
+        if (start == end || end - start > 18) {
+            return -1;
+        }
+
+        long number = 0;
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+
+    private static int skipWhitespace(String value, int index, int end) {
+        while (index < end && isWhitespace(value.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t';
+    }
+}
@@ -0,0 +1,115 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/******************************************************************************
+ * The CacheControl decides which Cache-Control header is sent with a file.
+ * It is read from a file with one rule per line, like the mime.types file:
+ *
+ * <pre>
+ * # a path prefix, a MIME-Type, a top-level type or * and the directives
+ * /static/        public, max-age=31536000, immutable
+ * text/html       no-cache
+ * image/*         public, max-age=86400
+ * *               max-age=60
+ * </pre>
+ *
+ * <p>The longest matching path prefix wins, then the MIME-Type, the
+ * top-level type and at last the <i>*</i> rule.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class CacheControl {
+
+    static final Logger logger = Logger.getLogger(CacheControl.class.getName());
+
+    //the prefixes are sorted from the longest to the shortest
+    private final ArrayList<String> prefixes = new ArrayList<>();
+    private final ArrayList<String> prefixLines = new ArrayList<>();
+    private final HashMap<String, String> typeLines = new HashMap<>();
+    private String defaultLine = "";
+
+    /**************************************************************************
+     * Reads the rules from the file.
+     *
+     * @param path The file with the rules
+     * @throws IOException If the file can not be read
+     * @throws IllegalArgumentException if a line has no directives
+     **************************************************************************/
+    public CacheControl(Path path) throws IOException {
+        try (BufferedReader bufferedReader = Files.newBufferedReader(path,
+                StandardCharsets.ISO_8859_1)) {
+            String line;
+            while ((line = bufferedReader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    addRule(line);
+                }
+            }
+        }
+
+        logger.log(Level.FINE, "READ " + (prefixes.size() + typeLines.size())
+                + " CACHE-CONTROL RULES");
+    }
+
+    /**************************************************************************
+     * Returns the Cache-Control header line for the file with its CRLF.
+     *
+     * @param fileName The requested path
+     * @param contentType The MIME-Type of the file
+     * @return The line or an empty String if no rule matches
+     **************************************************************************/
+    public String getHeaderLine(String fileName, String contentType) {
+        for (int i = 0; i < prefixes.size(); i++) {
+            if (fileName.startsWith(prefixes.get(i))) {
+                return prefixLines.get(i);
+            }
+        }
+
+        String line = typeLines.get(contentType);
+        if (line == null) {
+            int slash = contentType.indexOf('/');
+            line = slash < 0 ? null : typeLines.get(contentType.substring(0, slash) + "/*");
+        }
+
+        return line == null ? defaultLine : line;
+    }
+
+    private void addRule(String rule) {
+        int space = 0;
+        while (space < rule.length() && !Character.isWhitespace(rule.charAt(space))) {
+            space++;
+        }
+
+        String key = rule.substring(0, space);
+        String directives = rule.substring(space).trim();
+        if (directives.isEmpty()) {
+            logger.log(Level.WARNING, "RECEIVED ILLEGAL CACHE-CONTROL RULE : " + rule);
+            throw new IllegalArgumentException("Illegal Cache-Control rule " + rule);
+        }
+
+        String line = "Cache-Control: " + directives + "\r\n";
+
+        if (key.equals("*")) {
+            defaultLine = line;
+        } else if (key.startsWith("/")) {
+            int i = 0;
+            while (i < prefixes.size() && prefixes.get(i).length() >= key.length()) {
+                i++;
+            }
+            prefixes.add(i, key);
+            prefixLines.add(i, line);
+        } else {
+            typeLines.put(key, line);
+        }
+    }
+}
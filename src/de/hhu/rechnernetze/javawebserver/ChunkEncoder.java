@@ -0,0 +1,121 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/******************************************************************************
+ * The ChunkEncoder pulls a StreamingBody into a pooled buffer and frames it
+ * as chunks of the chunked transfer coding. Both engines send the encoded
+ * chunks as they are.
+ *
+ * <p>The body is produced into the middle of the buffer, so that the chunk
+ * size line can be put in front of it and the line end and the last chunk
+ * behind it without copying the body.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class ChunkEncoder {
+
+    static final int CHUNK_SIZE = 16 * 1024;
+
+    //the buffers the chunks are encoded in, one per streamed response
+    static final BufferPool chunkBuffers = new BufferPool(CHUNK_SIZE, 256);
+
+    //a chunk is smaller than 0x10000 bytes, so four digits and the CRLF go
+    //in front of it, its CRLF and the last chunk 0 CRLF CRLF behind it
+    private static final int SIZE_LINE = 6;
+    private static final int LAST_CHUNK = 7;
+
+    private static final byte[] HEX_DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9',
+            'a', 'b', 'c', 'd', 'e', 'f'};
+
+    private StreamingBody body;
+    private boolean chunked;
+    private ByteBuffer buffer;
+    private boolean finished;
+
+    /**************************************************************************
+     * Starts encoding the body, the previous body must have been finished.
+     *
+     * @param body The body which is sent
+     * @param chunked Whether the chunks are framed or the bytes are sent as
+     *                they are, because the end of the body is marked by
+     *                closing the connection
+     **************************************************************************/
+    public void start(StreamingBody body, boolean chunked) {
+        this.body = body;
+        this.chunked = chunked;
+        this.buffer = chunkBuffers.acquire();
+        this.finished = false;
+    }
+
+    /**************************************************************************
+     * Produces and encodes the next chunk.
+     *
+     * @return The chunk from its position to its limit, which is valid until
+     * the next call, or null if the whole body has been encoded
+     * @throws IOException If the body can not be produced
+     **************************************************************************/
+    public ByteBuffer next() throws IOException {
+        if (finished) {
+            return null;
+        }
+
+        int capacity = buffer.capacity();
+        buffer.clear();
+        buffer.position(SIZE_LINE).limit(capacity - LAST_CHUNK);
+
+        int result;
+        do {
+            result = body.produce(buffer);
+        } while (result == StreamingBody.CONTINUE && buffer.hasRemaining());
+
+        finished = result == StreamingBody.END;
+        int end = buffer.position();
+        int length = end - SIZE_LINE;
+        buffer.limit(capacity);
+
+        if (!chunked) {
+            buffer.limit(end).position(SIZE_LINE);
+            return buffer;
+        }
+
+        //a chunk of length 0 would end the body
+        int start = end;
+        if (length > 0) {
+            start = SIZE_LINE - 2;
+            buffer.put(start, (byte) '\r').put(start + 1, (byte) '\n');
+            for (int rest = length; rest > 0; rest >>>= 4) {
+                buffer.put(--start, HEX_DIGITS[rest & 0xF]);
+            }
+            buffer.put(end++, (byte) '\r').put(end++, (byte) '\n');
+        }
+
+        if (finished) {
+            buffer.put(end++, (byte) '0');
+            buffer.put(end++, (byte) '\r').put(end++, (byte) '\n');
+            buffer.put(end++, (byte) '\r').put(end++, (byte) '\n');
+        }
+
+        buffer.limit(end).position(start);
+        return buffer;
+    }
+
+    //whether the previous chunk has been the last one
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**************************************************************************
+     * Gives the buffer back, after the body has been sent or the connection
+     * has been closed. The body itself is closed by its response.
+     **************************************************************************/
+    public void release() {
+        if (buffer != null) {
+            chunkBuffers.release(buffer);
+            buffer = null;
+            body = null;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/******************************************************************************
+ * The CompressionCache holds the gzip and deflate encoded responses of
+ * compressible files, so that every file is only compressed once per
+ * modification.
+ *
+ * <p>A gzip encoded file which lies next to the requested one, like
+ * <i>style.css.gz</i> next to <i>style.css</i>, is sent instead of
+ * compressing the file. The entries are evicted in least recently used
+ * order as soon as their bytes exceed the capacity and are validated like
+ * the entries of the ResponseCache against the attributes of the files in
+ * the ValidatorCache.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class CompressionCache {
+
+    static final Logger logger = Logger.getLogger(CompressionCache.class.getName());
+
+    //
+    // THE CONTENT CODINGS
+    //
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+
+    //smaller files do not get smaller by compressing them
+    static final long MIN_FILE_SIZE = 256;
+
+    //the bytes an entry is counted with besides its response, so that the
+    //entries of files which do not shrink are limited as well
+    static final long ENTRY_OVERHEAD = 128;
+
+    private final long capacity;
+    private final long maxFileSize;
+
+    //the access order makes the eldest entry the least recently used one
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long size = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder compressions = new LongAdder();
+    private final LongAdder precompressed = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**************************************************************************
+     * Constructs an empty CompressionCache.
+     *
+     * @param capacity The number of compressed bytes all entries may hold
+     * @param maxFileSize The size of the largest file which is compressed
+     * @throws IllegalArgumentException if capacity or maxFileSize are not
+     * positive
+     **************************************************************************/
+    public CompressionCache(long capacity, long maxFileSize) {
+        if (capacity <= 0 || maxFileSize <= 0) {
+            logger.log(Level.WARNING, "RECEIVED ILLEGAL CACHE SIZE : " + capacity);
+            throw new IllegalArgumentException("Illegal CompressionCache size " + capacity
+                    + " / " + maxFileSize);
+        }
+
+        this.capacity = capacity;
+        this.maxFileSize = maxFileSize;
+    }
+
+    /**************************************************************************
+     * Returns the 200 response with the encoded file, either the gzip file
+     * next to it or the file compressed in memory.
+     *
+     * @param path The normalized path of the requested file
+     * @param attributes The attributes of the regular file from the
+     *                   ValidatorCache
+     * @param gzipAttributes The attributes of the regular gzip file next to
+     *                       it from the ValidatorCache or null if there is none
+     * @param contentType The MIME-Type of the file, which has to be
+     *                    compressible
+     * @param coding GZIP or DEFLATE
+     * @param headerLines The validators and other header lines of the
+     *                    encoded file, each followed by a CRLF
+     * @return The response or null if the file is too small or too large or
+     * does not get smaller by compressing it
+     * @throws IOException If the file can not be read
+     **************************************************************************/
+    public HttpResponse get(Path path, BasicFileAttributes attributes,
+                            BasicFileAttributes gzipAttributes, ContentType contentType,
+                            String coding, String headerLines)
+            throws IOException {
+        if (coding.equals(GZIP) && gzipAttributes != null) {
+            HttpResponse response = getPrecompressed(path, attributes, gzipAttributes,
+                    contentType, headerLines);
+            if (response != null) {
+                return response;
+            }
+        }
+
+        String key = coding + ':' + path;
+
+        if (attributes.size() < MIN_FILE_SIZE
+                || attributes.size() > maxFileSize) {
+            remove(key);
+            return null;
+        }
+
+        Entry entry = lookup(key);
+        if (entry != null && entry.isValidFor(attributes, headerLines)) {
+            hits.increment();
+            return entry.response;
+        }
+
+        byte[] bytes = Files.readAllBytes(path);
+        if (bytes.length != attributes.size()) {
+            //the file has been changed while it was read
+            return null;
+        }
+
+        compressions.increment();
+        byte[] compressed = compress(bytes, coding);
+
+        //a file which does not shrink is remembered without a response, so
+        //that it is not compressed again
+        HttpResponse response = null;
+        if (compressed.length < bytes.length) {
+            response = HttpResponse.withBody(HttpStatus.OK, contentType, compressed)
+                    .withHeaderLines("Content-Encoding: " + coding + "\r\n" + headerLines);
+        }
+
+        put(key, new Entry(response, attributes, headerLines));
+        return response;
+    }
+
+    /**************************************************************************
+     * Returns the 200 response with the encoded file like get(), but only if
+     * it does not have to be compressed first, so that a HEAD request never
+     * reads the file.
+     *
+     * @param path The normalized path of the requested file
+     * @param attributes The attributes of the regular file from the
+     *                   ValidatorCache
+     * @param gzipAttributes The attributes of the regular gzip file next to
+     *                       it from the ValidatorCache or null if there is none
+     * @param contentType The MIME-Type of the file, which has to be
+     *                    compressible
+     * @param coding GZIP or DEFLATE
+     * @param headerLines The validators and other header lines of the
+     *                    encoded file, each followed by a CRLF
+     * @return The response or null if the file has not been compressed yet
+     * or is not sent compressed
+     **************************************************************************/
+    public HttpResponse getCached(Path path, BasicFileAttributes attributes,
+                                  BasicFileAttributes gzipAttributes, ContentType contentType,
+                                  String coding, String headerLines) {
+        if (coding.equals(GZIP) && gzipAttributes != null) {
+            HttpResponse response = getPrecompressed(path, attributes, gzipAttributes,
+                    contentType, headerLines);
+            if (response != null) {
+                return response;
+            }
+        }
+
+        Entry entry = lookup(coding + ':' + path);
+        if (entry != null && entry.isValidFor(attributes, headerLines)) {
+            hits.increment();
+            return entry.response;
+        }
+        return null;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getCompressions() {
+        return compressions.sum();
+    }
+
+    //the number of responses with a gzip file which lay next to the file
+    public long getPrecompressed() {
+        return precompressed.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    //the number of compressed bytes all entries hold together
+    public synchronized long getSize() {
+        return size;
+    }
+
+    //the name of the gzip file which may lie next to the file
+    static Path getPrecompressedPath(Path path) {
+        return path.resolveSibling(path.getFileName() + ".gz");
+    }
+
+    //sending the gzip file next to the requested one, if it is not older
+    private HttpResponse getPrecompressed(Path path, BasicFileAttributes attributes,
+                                          BasicFileAttributes gzipAttributes,
+                                          ContentType contentType, String headerLines) {
+        if (gzipAttributes.lastModifiedTime().compareTo(attributes.lastModifiedTime()) < 0) {
+            return null;
+        }
+
+        precompressed.increment();
+        return HttpResponse.withFile(HttpStatus.OK, contentType, getPrecompressedPath(path),
+                gzipAttributes.size())
+                .withHeaderLines("Content-Encoding: gzip\r\n" + headerLines);
+    }
+
+    private static byte[] compress(byte[] bytes, String coding) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 3 + 64);
+
+        //deflate means the zlib format in HTTP, which DeflaterOutputStream
+        //writes
+        try (OutputStream outputStream = coding.equals(GZIP)
+                ? new GZIPOutputStream(compressed, 8192)
+                : new DeflaterOutputStream(compressed)) {
+            outputStream.write(bytes);
+        }
+
+        return compressed.toByteArray();
+    }
+
+    private synchronized Entry lookup(String key) {
+        return entries.get(key);
+    }
+
+    private synchronized void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            size -= entry.size;
+        }
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        Entry old = entries.put(key, entry);
+        if (old != null) {
+            size -= old.size;
+        }
+        size += entry.size;
+
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (size > capacity && eldest.hasNext()) {
+            Entry evicted = eldest.next().getValue();
+            eldest.remove();
+            size -= evicted.size;
+            evictions.increment();
+        }
+
+        if (logger.isLoggable(Level.FINEST)) {
+            logger.log(Level.FINEST, "COMPRESSED FILE : " + key);
+        }
+    }
+
+    //one compressed response and the attributes of the file it has been
+    //compressed from
+    private static final class Entry {
+
+        final HttpResponse response;
+        final long size;
+        final long fileSize;
+        final long lastModified;
+        final Object fileKey;
+        final String headerLines;
+
+        Entry(HttpResponse response, BasicFileAttributes attributes, String headerLines) {
+            this.response = response;
+            this.size = ENTRY_OVERHEAD + (response == null ? 0
+                    : response.getContentLength() + response.getHeaderSize());
+            this.fileSize = attributes.size();
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+            this.fileKey = attributes.fileKey();
+            this.headerLines = headerLines;
+        }
+
+        //the header lines change with the validators of the file, which may
+        //have been older than the file when the entry was created
+        boolean isValidFor(BasicFileAttributes attributes, String headerLines) {
+            return this.headerLines.equals(headerLines)
+                    && fileSize == attributes.size()
+                    && lastModified == attributes.lastModifiedTime().toMillis()
+                    && Objects.equals(fileKey, attributes.fileKey());
+        }
+    }
+}
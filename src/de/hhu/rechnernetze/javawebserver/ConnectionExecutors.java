@@ -0,0 +1,197 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/******************************************************************************
+ * This class creates the Executors which run the HttpRequest objects accepted
+ * by the WebServer.
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class ConnectionExecutors {
+
+    static final Logger logger = Logger.getLogger(ConnectionExecutors.class.getName());
+
+    //answering with a 503 as soon as the pool and its queue are full
+    static final String OVERLOAD_503 = "503";
+
+    //stopping to accept until the queue has room again, so that the clients
+    //are waiting in the backlog of the ServerSocket
+    static final String OVERLOAD_BACKLOG = "backlog";
+
+    //the threads an HTTP/2 connection of the other Executors runs the
+    //handlers of its streams on
+    static final int STREAM_THREADS = 4;
+
+    private static final ThreadFactory streamThreadFactory =
+            new WorkerThreadFactory("http2-stream-");
+
+    private ConnectionExecutors() {
+    }
+
+    /**************************************************************************
+     * Returns an Executor which starts a new Thread for every connection.
+     **************************************************************************/
+    public static Executor threadPerConnection() {
+        return runnable -> new Thread(runnable).start();
+    }
+
+    /**************************************************************************
+     * Returns an Executor which starts a new virtual Thread for every
+     * connection. The blocking reads and writes of the HttpRequest unmount
+     * the virtual Thread, so that a few carrier threads can serve many slow
+     * clients.
+     *
+     * <p>The Executor is looked up reflectively, so that the WebServer still
+     * compiles and runs on a Java version without virtual threads.</p>
+     *
+     * @throws UnsupportedOperationException if the running Java version has
+     * no virtual threads
+     **************************************************************************/
+    public static Executor virtualThreads() {
+        Method method;
+
+        try {
+            method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            logger.log(Level.SEVERE, "THIS JAVA VERSION HAS NO VIRTUAL THREADS");
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or newer");
+        }
+
+        try {
+            return (Executor) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create the virtual thread executor", e);
+        }
+    }
+
+    /**************************************************************************
+     * Returns an Executor with a fixed number of worker threads and a bounded
+     * queue for the connections which are waiting for a worker.
+     *
+     * @param poolSize The number of worker threads
+     * @param queueDepth The number of connections which may wait for a worker
+     * @param overloadPolicy Either <i>503</i> or <i>backlog</i>
+     * @throws IllegalArgumentException if the overload policy is unknown
+     **************************************************************************/
+    public static ThreadPoolExecutor boundedPool(int poolSize, int queueDepth,
+                                                 String overloadPolicy) {
+        RejectedExecutionHandler rejectedExecutionHandler;
+
+        switch (overloadPolicy) {
+            case OVERLOAD_503:
+                rejectedExecutionHandler = ConnectionExecutors::rejectWith503;
+                break;
+
+            case OVERLOAD_BACKLOG:
+                rejectedExecutionHandler = ConnectionExecutors::waitForQueue;
+                break;
+
+            default:
+                throw new IllegalArgumentException("Illegal Overload Policy " + overloadPolicy);
+        }
+
+        return new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueDepth), new WorkerThreadFactory("http-worker-"),
+                rejectedExecutionHandler);
+    }
+
+    /**************************************************************************
+     * Returns the Executor which runs the handlers of the streams of an
+     * HTTP/2 connection. The streams get a Thread of a bounded pool only if
+     * one is idle, otherwise the Thread of the connection runs the handler
+     * itself, so the streams never take more threads than the pool has and
+     * never wait behind the connections in its queue. The other Executors
+     * would start a Thread per stream, their connections get a streamPool()
+     * each instead.
+     *
+     * @param executor The Executor of the connections
+     * @return The Executor or null if every connection needs a streamPool()
+     **************************************************************************/
+    public static Executor forStreams(Executor executor) {
+        if (!(executor instanceof ThreadPoolExecutor)) {
+            return null;
+        }
+
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+        return runnable -> {
+            if (pool.getActiveCount() < pool.getMaximumPoolSize() && pool.getQueue().isEmpty()) {
+                pool.execute(runnable);
+            } else {
+                runnable.run();
+            }
+        };
+    }
+
+    /**************************************************************************
+     * Returns the pool which runs the handlers of the streams of one HTTP/2
+     * connection. Its threads are started when they are needed and end
+     * after a second without a stream, when all of them are busy the Thread
+     * of the connection runs the handler itself. The connection shuts the
+     * pool down when it is closed.
+     **************************************************************************/
+    public static ThreadPoolExecutor streamPool() {
+        return new ThreadPoolExecutor(0, STREAM_THREADS, 1L, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), streamThreadFactory,
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    //the accepting thread writes the 503 itself, this is cheap because the
+    //response fits into the send buffer of the socket. The handler of a
+    //stream is run by the Thread which has handed it over.
+    private static void rejectWith503(Runnable runnable, ThreadPoolExecutor executor) {
+        if (!(runnable instanceof HttpRequest)) {
+            runnable.run();
+            return;
+        }
+
+        logger.log(Level.WARNING, "THE WORKER POOL IS FULL, REJECTING THE CONNECTION");
+        ((HttpRequest) runnable).respondToOverload();
+    }
+
+    //blocking the accepting thread, new connections are queued by the kernel
+    //in the backlog of the ServerSocket until it is full. The handler of a
+    //stream is run by the Thread which has handed it over.
+    private static void waitForQueue(Runnable runnable, ThreadPoolExecutor executor) {
+        if (!(runnable instanceof HttpRequest)) {
+            runnable.run();
+            return;
+        }
+
+        try {
+            executor.getQueue().put(runnable);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for the queue", e);
+        }
+    }
+
+    //naming the worker threads, so that they can be found in a thread dump
+    private static final class WorkerThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        WorkerThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, prefix + counter.incrementAndGet());
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package de.hhu.rechnernetze.javawebserver;
+
+/******************************************************************************
+ * The ConnectionLimits decide how long a persistent connection is kept open
+ * and how large and slow the entity body of a request may be.
+ *
+ * <p>Every connection has one deadline, which depends on what it is waiting
+ * for. The first byte of a request has to arrive within the idle timeout,
+ * the rest of the head within the header timeout after it, no matter how
+ * many bytes trickle in. A body and a response have to make progress within
+ * the body and the write timeout and, on average, go at least at the
+ * minimum rate, which they may fall behind by their timeout at most.</p>
+ *
+ * <p>A connection which has been switched to HTTP/2 carries up to the
+ * maximum of streams at once. It is not closed after the maximum of
+ * requests, its idle timeout starts whenever no bytes are moved.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class ConnectionLimits {
+
+    static final int DEFAULT_IDLE_TIMEOUT = 5000;
+    static final int DEFAULT_MAX_REQUESTS = 100;
+    static final int DEFAULT_HEADER_TIMEOUT = 10000;
+    static final int DEFAULT_BODY_TIMEOUT = 10000;
+    static final int DEFAULT_WRITE_TIMEOUT = 10000;
+    static final long DEFAULT_MIN_RATE = 1024;
+    static final long DEFAULT_MAX_BODY_SIZE = 64L * 1024 * 1024;
+    static final int DEFAULT_MAX_STREAMS = 100;
+
+    private final int idleTimeout;
+    private final int maxRequests;
+    private final int headerTimeout;
+    private final int bodyTimeout;
+    private final int writeTimeout;
+    private final long minRate;
+    private final long maxBodySize;
+    private final int maxStreams;
+
+    /**************************************************************************
+     * Constructs the ConnectionLimits.
+     *
+     * @param idleTimeout The milliseconds a connection is kept open while
+     *                    waiting for the next request
+     * @param maxRequests The number of requests after which the connection
+     *                    is closed, 1 disables persistent connections
+     * @param headerTimeout The milliseconds the rest of a head may take
+     *                      after its first byte
+     * @param bodyTimeout The milliseconds the connection waits for the next
+     *                    bytes of an entity body
+     * @param writeTimeout The milliseconds the connection waits for the
+     *                     client to take the next bytes of a response
+     * @param minRate The bytes per second a body or a response has to be
+     *                transferred with on average
+     * @param maxBodySize The number of bytes an entity body may have
+     * @param maxStreams The number of streams an HTTP/2 connection may have
+     *                   open at once, 0 disables HTTP/2
+     * @throws IllegalArgumentException if one of the arguments is not
+     * positive or maxStreams is negative
+     **************************************************************************/
+    public ConnectionLimits(int idleTimeout, int maxRequests, int headerTimeout,
+                            int bodyTimeout, int writeTimeout, long minRate,
+                            long maxBodySize, int maxStreams) {
+        if (idleTimeout <= 0 || maxRequests <= 0 || headerTimeout <= 0 || bodyTimeout <= 0
+                || writeTimeout <= 0 || minRate <= 0 || maxBodySize <= 0 || maxStreams < 0) {
+            throw new IllegalArgumentException("Illegal ConnectionLimits " + idleTimeout
+                    + " / " + maxRequests + " / " + headerTimeout + " / " + bodyTimeout
+                    + " / " + writeTimeout + " / " + minRate + " / " + maxBodySize
+                    + " / " + maxStreams);
+        }
+
+        this.idleTimeout = idleTimeout;
+        this.maxRequests = maxRequests;
+        this.headerTimeout = headerTimeout;
+        this.bodyTimeout = bodyTimeout;
+        this.writeTimeout = writeTimeout;
+        this.minRate = minRate;
+        this.maxBodySize = maxBodySize;
+        this.maxStreams = maxStreams;
+    }
+
+    /**************************************************************************
+     * Constructs the ConnectionLimits with the default values.
+     **************************************************************************/
+    public ConnectionLimits() {
+        this(DEFAULT_IDLE_TIMEOUT, DEFAULT_MAX_REQUESTS, DEFAULT_HEADER_TIMEOUT,
+                DEFAULT_BODY_TIMEOUT, DEFAULT_WRITE_TIMEOUT, DEFAULT_MIN_RATE,
+                DEFAULT_MAX_BODY_SIZE, DEFAULT_MAX_STREAMS);
+    }
+
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public int getMaxRequests() {
+        return maxRequests;
+    }
+
+    public int getHeaderTimeout() {
+        return headerTimeout;
+    }
+
+    public int getBodyTimeout() {
+        return bodyTimeout;
+    }
+
+    public int getWriteTimeout() {
+        return writeTimeout;
+    }
+
+    public long getMinRate() {
+        return minRate;
+    }
+
+    public long getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    //0 if HTTP/2 is disabled
+    public int getMaxStreams() {
+        return maxStreams;
+    }
+
+    /**************************************************************************
+     * Returns the deadline of a body or a response. The next bytes have to
+     * be transferred within the timeout, and all bytes since the start no
+     * later than the minimum rate allows plus the timeout.
+     *
+     * @param started The time of TimerWheel.now() the transfer has started
+     * @param transferred The bytes which have been transferred since then
+     * @param now The current time of TimerWheel.now()
+     * @param timeout The body or the write timeout
+     **************************************************************************/
+    public long getTransferDeadline(long started, long transferred, long now, int timeout) {
+        return Math.min(now + timeout, started + timeout + getTransferTime(transferred));
+    }
+
+    //the milliseconds the bytes take at the minimum rate
+    public long getTransferTime(long bytes) {
+        return bytes / minRate * 1000 + bytes % minRate * 1000 / minRate;
+    }
+}
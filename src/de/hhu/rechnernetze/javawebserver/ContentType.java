@@ -0,0 +1,63 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.nio.charset.StandardCharsets;
+
+/******************************************************************************
+ * A ContentType is the MIME-Type of a body together with its parameters,
+ * like <i>text/html; charset=utf-8</i>. Its header line is encoded once, so
+ * that a response only copies it into its head.
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class ContentType {
+
+    static final ContentType OCTET_STREAM =
+            new ContentType("application/octet-stream", null, false);
+
+    private final String mediaType;
+    private final String value;
+    private final byte[] headerLine;
+    private final boolean compressible;
+
+    /**************************************************************************
+     * Constructs the ContentType.
+     *
+     * @param mediaType The type and the subtype, like <i>text/html</i>
+     * @param parameters The parameters, like <i>charset=utf-8</i>, or null
+     *                   for none
+     * @param compressible Whether bodies of the type shrink when they are
+     *                     compressed
+     **************************************************************************/
+    public ContentType(String mediaType, String parameters, boolean compressible) {
+        this.mediaType = mediaType;
+        this.value = parameters == null ? mediaType : mediaType + "; " + parameters;
+        this.headerLine = ("Content-Type: " + value + "\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1);
+        this.compressible = compressible;
+    }
+
+    //the type without its parameters, which the Cache-Control rules name
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    //the value of the Content-Type header
+    public String getValue() {
+        return value;
+    }
+
+    //"Content-Type: <value>CRLF", which must not be changed
+    public byte[] getHeaderLine() {
+        return headerLine;
+    }
+
+    public boolean isCompressible() {
+        return compressible;
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+}
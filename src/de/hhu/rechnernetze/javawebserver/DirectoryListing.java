@@ -0,0 +1,162 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/******************************************************************************
+ * The DirectoryListing produces an HTML page with a link to every entry of a
+ * directory. The directory is read completely when the listing is
+ * constructed, before the response starts, so that producing the page never
+ * waits for the file system.
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class DirectoryListing implements StreamingBody {
+
+    //the names are encoded in UTF-8, whatever charset the files have
+    static final ContentType CONTENT_TYPE =
+            new ContentType("text/html", "charset=utf-8", true);
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private final String path;
+
+    //the names of the entries, those of directories ending with a slash
+    private final List<String> names = new ArrayList<>();
+    private int next;
+
+    //the bytes of a line which have not fit into the previous buffer
+    private byte[] pending;
+    private int pendingOffset;
+    private boolean started;
+    private boolean ended;
+
+    /**************************************************************************
+     * Constructs the listing of the directory and reads its entries.
+     *
+     * @param directory The directory which is listed
+     * @param path The decoded path the directory is served at
+     * @throws IOException If the directory can not be read
+     **************************************************************************/
+    public DirectoryListing(Path directory, String path) throws IOException {
+        this.path = path.endsWith("/") ? path : path + "/";
+
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                //the unfinished uploads are not served, so they are not listed
+                if (!name.equals(FileUploadHandler.TEMPORARY_DIRECTORY)) {
+                    names.add(Files.isDirectory(entry) ? name + "/" : name);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int produce(ByteBuffer buffer) {
+        if (pending != null && !putPending(buffer)) {
+            return CONTINUE;
+        }
+
+        if (!started) {
+            started = true;
+            String title = escape(path);
+            setPending("<HTML><HEAD><TITLE>INDEX OF " + title + "</TITLE></HEAD>\n"
+                    + "<BODY><H1>INDEX OF " + title + "</H1>\n<UL>\n");
+            if (!putPending(buffer)) {
+                return CONTINUE;
+            }
+        }
+
+        while (next < names.size()) {
+            String name = names.get(next++);
+            setPending("<LI><A HREF=\"" + escape(encode(path + name)) + "\">" + escape(name)
+                    + "</A></LI>\n");
+            if (!putPending(buffer)) {
+                return CONTINUE;
+            }
+        }
+
+        if (!ended) {
+            ended = true;
+            setPending("</UL></BODY></HTML>\n");
+        }
+        return putPending(buffer) ? END : CONTINUE;
+    }
+
+    @Override
+    public void close() {
+        names.clear();
+    }
+
+    private void setPending(String line) {
+        pending = line.getBytes(StandardCharsets.UTF_8);
+        pendingOffset = 0;
+    }
+
+    //putting as much of the pending line as fits, returns whether all of
+    //it has fit
+    private boolean putPending(ByteBuffer buffer) {
+        int length = Math.min(buffer.remaining(), pending.length - pendingOffset);
+        buffer.put(pending, pendingOffset, length);
+        pendingOffset += length;
+
+        if (pendingOffset < pending.length) {
+            return false;
+        }
+        pending = null;
+        return true;
+    }
+
+    //percent-encoding every byte of the UTF-8 path except the unreserved
+    //characters and the slashes between the segments
+    private static String encode(String path) {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        StringBuilder encoded = new StringBuilder(bytes.length + 16);
+        for (byte b : bytes) {
+            char c = (char) (b & 0xFF);
+            if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'
+                    || c == '-' || c == '.' || c == '_' || c == '~' || c == '/') {
+                encoded.append(c);
+            } else {
+                encoded.append('%').append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xF]);
+            }
+        }
+        return encoded.toString();
+    }
+
+    private static String escape(String text) {
+        StringBuilder escaped = new StringBuilder(text.length() + 16);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&':
+                    escaped.append("&amp;");
+                    break;
+
+                case '<':
+                    escaped.append("&lt;");
+                    break;
+
+                case '>':
+                    escaped.append("&gt;");
+                    break;
+
+                case '"':
+                    escaped.append("&quot;");
+                    break;
+
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,345 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/******************************************************************************
+ * The DocumentIndex holds the names of all files and directories below a
+ * directory in memory, so that a request for a path which does not exist is
+ * answered with 404 without touching the file system. Scanners which try
+ * thousands of made up paths a second then cost a lookup in memory each.
+ *
+ * <p>Every directory is a Node with the sorted names of its entries and the
+ * Nodes of its subdirectories next to them, so a lookup is a binary search
+ * per segment of the path and a file costs little more than its name.</p>
+ *
+ * <p>The index is built when it is constructed and kept current by a
+ * WatchService, whose Thread replaces the entries of a Node copy on write,
+ * so that the lookups take no lock. A file which has just been created may
+ * be reported missing until its event has been seen. Symbolic links and
+ * directories which can not be read or watched are unknown, the paths below
+ * them are looked up in the file system as before.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class DocumentIndex {
+
+    static final Logger logger = Logger.getLogger(DocumentIndex.class.getName());
+
+    private static final String[] NO_NAMES = new String[0];
+    private static final Node[] NO_NODES = new Node[0];
+
+    //everything below an unknown Node may exist
+    private static final Node UNKNOWN = new Node(null);
+
+    private final Path directory;
+    private final Node root;
+    private final WatchService watchService;
+    private final LongAdder rejected = new LongAdder();
+
+    //owned by the Thread of the WatchService once it has been started
+    private final Map<WatchKey, Node> watched = new HashMap<>();
+    private volatile long size = 0;
+
+    /**************************************************************************
+     * Constructs the DocumentIndex of the directory and starts the Thread
+     * which keeps it current.
+     *
+     * @param directory The directory whose files are indexed
+     * @throws IllegalArgumentException if the directory is not a directory
+     * @throws IOException If the directory can not be read or watched
+     **************************************************************************/
+    public DocumentIndex(Path directory) throws IOException {
+        if (directory == null || !Files.isDirectory(directory)) {
+            logger.log(Level.WARNING, "RECEIVED ILLEGAL DIRECTORY : " + directory);
+            throw new IllegalArgumentException("Illegal Directory: " + directory);
+        }
+
+        this.directory = directory;
+        this.watchService = directory.getFileSystem().newWatchService();
+        this.root = new Node(directory);
+
+        if (!scan(root)) {
+            watchService.close();
+            throw new IOException("The directory can not be indexed: " + directory);
+        }
+
+        logger.log(Level.FINE, "INDEXED " + size + " ENTRIES OF " + directory);
+
+        Thread thread = new Thread(this::watch, "document-index");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**************************************************************************
+     * Returns whether the path may exist, which is false if it is not in
+     * the index and true if it is or lies below an unknown entry.
+     *
+     * @param path The normalized path relative to the directory
+     **************************************************************************/
+    public boolean mayExist(Path path) {
+        String name = path.toString();
+        int length = name.length();
+        Node node = root;
+
+        for (int start = 0; start < length; ) {
+            if (node == UNKNOWN) {
+                return true;
+            } else if (node == null) {
+                //a file has no entries
+                rejected.increment();
+                return false;
+            }
+
+            int end = name.indexOf(File.separatorChar, start);
+            if (end < 0) {
+                end = length;
+            }
+
+            Entries entries = node.entries;
+            int index = find(entries.names, name, start, end);
+            if (index < 0) {
+                rejected.increment();
+                return false;
+            }
+
+            node = entries.nodes[index];
+            start = end + 1;
+        }
+
+        return true;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    //the number of files and directories in the index
+    public long getSize() {
+        return size;
+    }
+
+    //the number of lookups which have been answered with false
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    //the binary search of the segment between start and end of the path
+    private static int find(String[] names, String path, int start, int end) {
+        int low = 0;
+        int high = names.length - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int compared = compare(names[middle], path, start, end);
+            if (compared < 0) {
+                low = middle + 1;
+            } else if (compared > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    //comparing like String.compareTo without cutting the segment out
+    private static int compare(String name, String path, int start, int end) {
+        int length = Math.min(name.length(), end - start);
+        for (int i = 0; i < length; i++) {
+            int compared = name.charAt(i) - path.charAt(start + i);
+            if (compared != 0) {
+                return compared;
+            }
+        }
+        return name.length() - (end - start);
+    }
+
+    //reading the entries of the directory of the Node and of all of its
+    //subdirectories. The directory is watched before it is read, so that no
+    //entry created in between is missed. False if it is unknown.
+    private boolean scan(Node node) {
+        try {
+            watched.put(node.path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE), node);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "CAN NOT WATCH THE DIRECTORY : " + node.path);
+            return false;
+        }
+
+        TreeMap<String, Node> entries = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(node.path)) {
+            for (Path entry : stream) {
+                entries.put(entry.getFileName().toString(), child(entry));
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "CAN NOT READ THE DIRECTORY : " + node.path);
+            return false;
+        }
+
+        long previous = count(node);
+        node.entries = new Entries(entries.keySet().toArray(NO_NAMES),
+                entries.values().toArray(NO_NODES));
+        size += entries.size() - previous;
+        return true;
+    }
+
+    //the Node of a directory, null for a file or UNKNOWN
+    private Node child(Path path) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class,
+                    LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            return UNKNOWN;
+        }
+
+        if (attributes.isSymbolicLink()) {
+            return UNKNOWN;
+        } else if (!attributes.isDirectory()) {
+            return null;
+        }
+
+        Node node = new Node(path);
+        return scan(node) ? node : UNKNOWN;
+    }
+
+    //the number of entries below the Node, nothing is known below an
+    //unknown one
+    private static long count(Node node) {
+        if (node == null || node == UNKNOWN) {
+            return 0;
+        }
+
+        Entries entries = node.entries;
+        long count = entries.names.length;
+        for (Node child : entries.nodes) {
+            count += count(child);
+        }
+        return count;
+    }
+
+    //the Thread which applies the events of the WatchService. A directory
+    //whose events have been lost is read again.
+    private void watch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            try {
+                Node node = watched.get(key);
+                if (node != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            scan(node);
+                        } else if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                            add(node, (Path) event.context());
+                        } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                            remove(node, (Path) event.context());
+                        }
+                    }
+                }
+            } catch (RuntimeException e) {
+                System.err.println("AN ERROR OCCURRED WHILE UPDATING THE DOCUMENT INDEX");
+                e.printStackTrace();
+            }
+
+            //the key of a deleted directory is no longer valid
+            if (!key.reset()) {
+                watched.remove(key);
+            }
+        }
+    }
+
+    //a new directory is read by child(), which counts its entries
+    private void add(Node node, Path name) {
+        Node child = child(node.path.resolve(name));
+        String key = name.toString();
+
+        Entries entries = node.entries;
+        int index = Arrays.binarySearch(entries.names, key);
+        if (index >= 0) {
+            size -= count(entries.nodes[index]);
+            Node[] nodes = entries.nodes.clone();
+            nodes[index] = child;
+            node.entries = new Entries(entries.names, nodes);
+        } else {
+            index = -index - 1;
+            node.entries = new Entries(insert(entries.names, index, key),
+                    insert(entries.nodes, index, child));
+            size++;
+        }
+    }
+
+    private void remove(Node node, Path name) {
+        Entries entries = node.entries;
+        int index = Arrays.binarySearch(entries.names, name.toString());
+        if (index < 0) {
+            return;
+        }
+
+        size -= 1 + count(entries.nodes[index]);
+        node.entries = new Entries(delete(entries.names, index),
+                delete(entries.nodes, index));
+    }
+
+    private static <T> T[] insert(T[] array, int index, T value) {
+        T[] inserted = Arrays.copyOf(array, array.length + 1);
+        System.arraycopy(array, index, inserted, index + 1, array.length - index);
+        inserted[index] = value;
+        return inserted;
+    }
+
+    private static <T> T[] delete(T[] array, int index) {
+        T[] deleted = Arrays.copyOf(array, array.length - 1);
+        System.arraycopy(array, index + 1, deleted, index, array.length - index - 1);
+        return deleted;
+    }
+
+    //a directory, the entries are replaced as a whole so that a lookup
+    //always sees names and Nodes which belong together
+    private static final class Node {
+
+        final Path path;
+        volatile Entries entries = new Entries(NO_NAMES, NO_NODES);
+
+        Node(Path path) {
+            this.path = path;
+        }
+    }
+
+    //the sorted names of the entries of a directory and their Nodes, null
+    //for a file
+    private static final class Entries {
+
+        final String[] names;
+        final Node[] nodes;
+
+        Entries(String[] names, Node[] nodes) {
+            this.names = names;
+            this.nodes = nodes;
+        }
+    }
+}
@@ -0,0 +1,497 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/******************************************************************************
+ * The FileHandler answers GET and HEAD requests with the files of a
+ * directory. The path of the request below the prefix the handler has been
+ * mounted at is looked up in the directory by a PathResolver, which
+ * remembers the paths of the targets.
+ *
+ * <p>Small files are answered from the ResponseCache, large ones from
+ * mappings of the MappedFileCache and compressible ones from the
+ * CompressionCache, if the client accepts them. Conditional and range
+ * requests are answered from the validators in the ValidatorCache, which
+ * also holds the attributes of the files the other caches are checked
+ * against, so that a HEAD request or a hit in one of the caches does not
+ * touch the file system. With a DocumentIndex a path which is not in the
+ * directory is not found without looking at the file system at all.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class FileHandler implements RequestHandler {
+
+    final static Logger logger = Logger.getLogger(FileHandler.class.getName());
+
+    private static final String VARY_LINE = "Vary: Accept-Encoding\r\n";
+
+    private final MIMEType mimeType;
+    private final ResponseCache responseCache;
+    private final MappedFileCache mappedFileCache;
+    private final CompressionCache compressionCache;
+    private final ValidatorCache validatorCache;
+    private final CacheControl cacheControl;
+    private final boolean listDirectories;
+    private final DocumentIndex index;
+    private final String links;
+
+    //the path below the prefix is resolved against the directory
+    private final String prefix;
+    private final Path directory;
+    private final PathResolver resolver;
+
+    /**************************************************************************
+     * Constructs a FileHandler which serves the current directory at
+     * <i>/</i>.
+     *
+     * @param mimeType Gives the mimeType for file-endings.
+     * @param responseCache The cache for the responses or null for none
+     * @param mappedFileCache The mappings of large files or null for none
+     * @param compressionCache The compressed responses or null to send all
+     *                         files as they are
+     * @param validatorCache The ETags and modification dates of the files
+     * @param cacheControl The Cache-Control rules or null to send none
+     * @param listDirectories Whether directories are listed or not found
+     * @throws IllegalArgumentException if the specified mimeType or
+     * validatorCache is null
+     **************************************************************************/
+    public FileHandler(MIMEType mimeType, ResponseCache responseCache,
+                       MappedFileCache mappedFileCache, CompressionCache compressionCache,
+                       ValidatorCache validatorCache, CacheControl cacheControl,
+                       boolean listDirectories) {
+        this(mimeType, responseCache, mappedFileCache, compressionCache, validatorCache,
+                cacheControl, listDirectories, null, PathResolver.LINKS_FOLLOW, "/",
+                Paths.get(""));
+    }
+
+    private FileHandler(MIMEType mimeType, ResponseCache responseCache,
+                        MappedFileCache mappedFileCache, CompressionCache compressionCache,
+                        ValidatorCache validatorCache, CacheControl cacheControl,
+                        boolean listDirectories, DocumentIndex index, String links,
+                        String prefix, Path directory) {
+        if (validatorCache == null) {
+            logger.log(Level.WARNING, "RECEIVED ILLEGAL VALIDATORCACHE : " + validatorCache);
+            throw new IllegalArgumentException("Illegal ValidatorCache: " + validatorCache);
+        }
+
+        if (mimeType == null) {
+            logger.log(Level.WARNING, "RECEIVED ILLEGAL MIMETYPE : " + mimeType);
+            throw new IllegalArgumentException("Illegal MIMEType: " + mimeType);
+        }
+
+        this.mimeType = mimeType;
+        this.responseCache = responseCache;
+        this.mappedFileCache = mappedFileCache;
+        this.compressionCache = compressionCache;
+        this.validatorCache = validatorCache;
+        this.cacheControl = cacheControl;
+        this.listDirectories = listDirectories;
+        this.index = index;
+        this.links = links;
+        this.prefix = prefix;
+        this.directory = directory.normalize();
+        this.resolver = new PathResolver(prefix, this.directory, links,
+                validatorCache.getTimeToLive(), PathResolver.DEFAULT_MAX_ENTRIES);
+    }
+
+    /**************************************************************************
+     * Returns a FileHandler with the same caches, which serves the given
+     * directory at the prefix. If this handler has a DocumentIndex the new
+     * one gets an index of its directory.
+     *
+     * @param prefix The path the handler is mounted at, like <i>/static/</i>
+     * @param directory The directory the rest of the path is resolved against
+     * @throws IllegalArgumentException if the prefix does not start and end
+     * with a slash
+     * @throws IOException If the directory can not be indexed
+     **************************************************************************/
+    public FileHandler withDirectory(String prefix, Path directory) throws IOException {
+        if (prefix == null || !prefix.startsWith("/") || !prefix.endsWith("/")
+                || directory == null) {
+            logger.log(Level.WARNING, "RECEIVED ILLEGAL PREFIX : " + prefix);
+            throw new IllegalArgumentException("Illegal prefix " + prefix);
+        }
+
+        return new FileHandler(mimeType, responseCache, mappedFileCache, compressionCache,
+                validatorCache, cacheControl, listDirectories,
+                index == null ? null : createIndex(directory.normalize()), links, prefix,
+                directory);
+    }
+
+    /**************************************************************************
+     * Returns a FileHandler with the same caches and a DocumentIndex of its
+     * directory, which is built at once.
+     *
+     * @throws IOException If the directory can not be indexed
+     **************************************************************************/
+    public FileHandler withIndex() throws IOException {
+        return new FileHandler(mimeType, responseCache, mappedFileCache, compressionCache,
+                validatorCache, cacheControl, listDirectories,
+                createIndex(directory), links, prefix, directory);
+    }
+
+    /**************************************************************************
+     * Returns a FileHandler with the same caches, which follows symbolic
+     * links as the PathResolver is told to. The handlers of withDirectory()
+     * follow them the same way.
+     *
+     * @param links PathResolver.LINKS_FOLLOW or PathResolver.LINKS_INSIDE
+     * @throws IllegalArgumentException if links is neither of them
+     **************************************************************************/
+    public FileHandler withLinks(String links) {
+        return new FileHandler(mimeType, responseCache, mappedFileCache, compressionCache,
+                validatorCache, cacheControl, listDirectories, index, links, prefix,
+                directory);
+    }
+
+    //the normalized working directory is the empty path, which can not be
+    //watched
+    private static DocumentIndex createIndex(Path directory) throws IOException {
+        return new DocumentIndex(directory.toString().isEmpty() ? Paths.get(".") : directory);
+    }
+
+    //null if the responses are not cached
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    //null if no files are mapped
+    public MappedFileCache getMappedFileCache() {
+        return mappedFileCache;
+    }
+
+    //null if no files are compressed
+    public CompressionCache getCompressionCache() {
+        return compressionCache;
+    }
+
+    public ValidatorCache getValidatorCache() {
+        return validatorCache;
+    }
+
+    //null if the directory is not indexed
+    public DocumentIndex getDocumentIndex() {
+        return index;
+    }
+
+    public PathResolver getPathResolver() {
+        return resolver;
+    }
+
+    /**************************************************************************
+     * Answers GET and HEAD requests with the file of the target.
+     *
+     * @param requestHead The request line and the header lines
+     * @return The response or null if there is no such file
+     * @throws IOException If the requested file can not be read
+     **************************************************************************/
+    @Override
+    public HttpResponse respond(RequestHead requestHead) throws IOException {
+        String target = requestHead.getTarget();
+        PathResolver.Resolution resolution = resolver.resolve(target);
+        if (resolution == null
+                || index != null && !index.mayExist(resolution.getRelativePath())
+                || FileUploadHandler.isTemporary(resolution.getRelativePath())) {
+            return null;
+        }
+
+        int query = target.indexOf('?');
+        if (query >= 0) {
+            target = target.substring(0, query);
+        }
+        Path path = resolution.getPath();
+
+        switch (requestHead.getMethodId()) {
+            case RequestHead.METHOD_GET:
+                return respondToGET(target, path, requestHead);
+
+            case RequestHead.METHOD_HEAD:
+                return respondToHEAD(target, path, requestHead);
+
+            default:
+                return null;
+        }
+    }
+
+    //getting the contentType for the file ending straight from the target
+    //in the buffer, the target has been decoded with one char per byte
+    private ContentType contentType(String target, RequestHead requestHead) {
+        return mimeType.getContentType(requestHead.getBuffer(), requestHead.getTargetOffset(),
+                target.length());
+    }
+
+    //the content coding the client accepts for the file or null if it is
+    //sent as it is. gzip is preferred, because more clients understand it.
+    private String contentCoding(ContentType contentType, RequestHead requestHead) {
+        if (!isNegotiable(contentType)) {
+            return null;
+        } else if (requestHead.acceptsEncoding(CompressionCache.GZIP)) {
+            return CompressionCache.GZIP;
+        } else if (requestHead.acceptsEncoding(CompressionCache.DEFLATE)) {
+            return CompressionCache.DEFLATE;
+        }
+        return null;
+    }
+
+    //whether the response depends on the Accept-Encoding header
+    private boolean isNegotiable(ContentType contentType) {
+        return compressionCache != null && contentType.isCompressible();
+    }
+
+    private static int codingIndex(String coding) {
+        if (coding == null) {
+            return ValidatorCache.IDENTITY;
+        }
+        return coding.equals(CompressionCache.GZIP) ? ValidatorCache.GZIP
+                : ValidatorCache.DEFLATE;
+    }
+
+    //the 304 response if the client already has the current version of the
+    //file. If-None-Match overrides If-Modified-Since like RFC 7232 demands.
+    private HttpResponse checkConditions(RequestHead requestHead,
+                                         ValidatorCache.Validators validators, int coding,
+                                         String cacheControlLine, String varyLine) {
+
+        if (requestHead.hasHeader(RequestHead.IF_NONE_MATCH)) {
+            //a client which got the file unencoded, because it did not
+            //shrink, sends the ETag of the unencoded file
+            if (requestHead.matchesETag(validators.getETag(coding))) {
+                return validators.getNotModified(coding, cacheControlLine, varyLine);
+            } else if (requestHead.matchesETag(validators.getETag(ValidatorCache.IDENTITY))) {
+                return validators.getNotModified(ValidatorCache.IDENTITY, cacheControlLine,
+                        varyLine);
+            }
+            return null;
+        }
+
+        if (requestHead.hasHeader(RequestHead.IF_MODIFIED_SINCE)) {
+            //clients send back the date they have got, so it is compared
+            //before it is parsed
+            boolean notModified = requestHead.headerEquals(RequestHead.IF_MODIFIED_SINCE,
+                    validators.getLastModifiedDate());
+
+            if (!notModified) {
+                long since = HttpDate.parse(requestHead.getHeader(RequestHead.IF_MODIFIED_SINCE));
+                notModified = since >= 0 && validators.getLastModified() / 1000 <= since / 1000;
+            }
+
+            if (notModified) {
+                return validators.getNotModified(coding, cacheControlLine, varyLine);
+            }
+        }
+
+        return null;
+    }
+
+    //
+    // RESPONDING TO REQUEST METHODS WITH MORE METHODS
+    //
+    private HttpResponse respondToGET(String target, Path path, RequestHead requestHead)
+            throws IOException {
+
+        if (logger.isLoggable(Level.FINEST)) {
+            logger.log(Level.FINEST, "REQUESTED FILE IS :\t" + path);
+        }
+
+        ValidatorCache.Validators validators = validatorCache.get(path);
+
+        if (validators == null) {
+            return isListed(path) ? respondWithListing(path, requestHead) : null;
+        }
+
+        logger.log(Level.FINEST, "FILE HAS BEEN FOUND");
+
+        ContentType contentType = contentType(target, requestHead);
+        String coding = contentCoding(contentType, requestHead);
+        String cacheControlLine = cacheControl == null ? ""
+                : cacheControl.getHeaderLine(target, contentType.getMediaType());
+        String varyLine = isNegotiable(contentType) ? VARY_LINE : "";
+
+        HttpResponse notModified = checkConditions(requestHead, validators, codingIndex(coding),
+                cacheControlLine, varyLine);
+        if (notModified != null) {
+            return notModified;
+        }
+
+        //ranges are only sent of the file as it is, because the compressed
+        //variants are not stored under a stable length
+        boolean ranged = isRangeRequested(requestHead, validators);
+
+        if (coding != null && !ranged) {
+            HttpResponse compressed = compressionCache.get(path, validators.getAttributes(),
+                    precompressed(path, coding), contentType, coding,
+                    validators.getHeaderLines(codingIndex(coding), cacheControlLine, varyLine));
+            if (compressed != null) {
+                return compressed;
+            }
+        }
+
+        String headerLines = validators.getHeaderLines(ValidatorCache.IDENTITY,
+                cacheControlLine, varyLine);
+        HttpResponse response = respondWithFile(path, validators, contentType, headerLines);
+
+        return ranged ? respondToRange(response, requestHead, contentType, headerLines)
+                : response;
+    }
+
+    //the whole file from the ResponseCache, a mapping or the file system
+    private HttpResponse respondWithFile(Path path, ValidatorCache.Validators validators,
+                                         ContentType contentType, String headerLines)
+            throws IOException {
+
+        BasicFileAttributes attributes = validators.getAttributes();
+
+        if (responseCache != null) {
+            HttpResponse cached = responseCache.get(path, attributes, contentType,
+                    headerLines);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        if (mappedFileCache != null && mappedFileCache.isMapped(attributes.size())) {
+            return HttpResponse.withMappedFile(HttpStatus.OK, contentType,
+                    mappedFileCache.acquire(path, attributes))
+                    .withHeaderLines(headerLines);
+        }
+
+        //the length is taken from the validators, so that the file is only
+        //opened when it is sent.
+        return HttpResponse.withFile(HttpStatus.OK, contentType, path, validators.getSize())
+                .withHeaderLines(headerLines);
+    }
+
+    //the attributes of the gzip file next to the file or null if the client
+    //does not get it
+    private BasicFileAttributes precompressed(Path path, String coding) throws IOException {
+        if (!CompressionCache.GZIP.equals(coding)) {
+            return null;
+        }
+
+        ValidatorCache.Validators validators =
+                validatorCache.get(CompressionCache.getPrecompressedPath(path));
+        return validators == null ? null : validators.getAttributes();
+    }
+
+    private boolean isListed(Path path) throws IOException {
+        return listDirectories && validatorCache.isDirectory(path);
+    }
+
+    //the directory is read before the response starts. The listing is
+    //streamed chunked to HTTP/1.1 clients, older ones get it until the
+    //connection is closed and HTTP/2 clients in DATA frames
+    private HttpResponse respondWithListing(Path directory, RequestHead requestHead)
+            throws IOException {
+        logger.log(Level.FINEST, "LISTING THE DIRECTORY");
+
+        //the links are built from the decoded path, not from the target
+        StringBuilder path = new StringBuilder(prefix);
+        for (Path name : this.directory.relativize(directory)) {
+            if (!name.toString().isEmpty()) {
+                path.append(name).append('/');
+            }
+        }
+
+        return HttpResponse.withStream(HttpStatus.OK, DirectoryListing.CONTENT_TYPE,
+                new DirectoryListing(directory, path.toString()),
+                requestHead.getVersion() == RequestHead.VERSION_1_1);
+    }
+
+    //whether the Range header is evaluated. If-Range makes the client get
+    //the whole file instead, if the file has changed in the meantime, and
+    //it only matches strong validators.
+    private static boolean isRangeRequested(RequestHead requestHead,
+                                            ValidatorCache.Validators validators) {
+        if (!requestHead.hasHeader(RequestHead.RANGE)) {
+            return false;
+        } else if (!requestHead.hasHeader(RequestHead.IF_RANGE)) {
+            return true;
+        }
+
+        return !validators.isWeak()
+                && (requestHead.headerEquals(RequestHead.IF_RANGE,
+                        validators.getETag(ValidatorCache.IDENTITY))
+                || requestHead.headerEquals(RequestHead.IF_RANGE,
+                        validators.getLastModifiedDate()));
+    }
+
+    //the 206 response with the requested ranges of the whole file, 416 if
+    //none of them lies within the file, or the whole file if the Range
+    //header has to be ignored
+    private HttpResponse respondToRange(HttpResponse response, RequestHead requestHead,
+                                        ContentType contentType, String headerLines) {
+
+        long length = response.getContentLength();
+        ByteRanges ranges = ByteRanges.parse(requestHead.getHeader(RequestHead.RANGE), length);
+
+        if (ranges == null) {
+            logger.log(Level.FINEST, "IGNORING THE RANGE HEADER");
+            return response;
+        }
+
+        if (ranges.getCount() == 0) {
+            logger.log(Level.FINEST, "RANGE NOT SATISFIABLE");
+            response.release();
+            return HttpResponse.withoutBody(HttpStatus.RANGE_NOT_SATISFIABLE, contentType, 0)
+                    .withHeaderLines(ByteRanges.getUnsatisfiedRangeLine(length) + headerLines);
+        }
+
+        return response.withRanges(ranges, contentType, headerLines);
+    }
+
+    //answering from the validators, so that no file has to be touched
+    private HttpResponse respondToHEAD(String target, Path path, RequestHead requestHead)
+            throws IOException {
+
+        if (logger.isLoggable(Level.FINEST)) {
+            logger.log(Level.FINEST, "REQUESTED FILE IS :\t" + path);
+        }
+
+        ValidatorCache.Validators validators = validatorCache.get(path);
+
+        if (validators == null) {
+            if (isListed(path)) {
+                return respondWithListing(path, requestHead).withoutBody();
+            }
+
+            logger.log(Level.FINEST, "FILE NOT FOUND");
+            return null;
+        }
+
+        logger.log(Level.FINEST, "FILE HAS BEEN FOUND");
+
+        ContentType contentType = contentType(target, requestHead);
+        String coding = contentCoding(contentType, requestHead);
+        String cacheControlLine = cacheControl == null ? ""
+                : cacheControl.getHeaderLine(target, contentType.getMediaType());
+        String varyLine = isNegotiable(contentType) ? VARY_LINE : "";
+
+        HttpResponse notModified = checkConditions(requestHead, validators, codingIndex(coding),
+                cacheControlLine, varyLine);
+        if (notModified != null) {
+            return notModified;
+        }
+
+        //the head of the compressed response if it is at hand, so that it
+        //matches GET. The file is not compressed for a HEAD request, until
+        //then it is answered with the head of the unencoded file.
+        if (coding != null) {
+            HttpResponse compressed = compressionCache.getCached(path, validators.getAttributes(),
+                    precompressed(path, coding), contentType, coding,
+                    validators.getHeaderLines(codingIndex(coding), cacheControlLine, varyLine));
+            if (compressed != null) {
+                return compressed.withoutBody();
+            }
+        }
+
+        return HttpResponse.withoutBody(HttpStatus.OK, contentType, validators.getSize())
+                .withHeaderLines(validators.getHeaderLines(ValidatorCache.IDENTITY,
+                        cacheControlLine, varyLine));
+    }
+}
@@ -0,0 +1,214 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/******************************************************************************
+ * The FileUploadHandler stores the bodies of PUT and POST requests as files
+ * within the upload directory, under the path of the request target below
+ * the prefix the handler has been mounted at. The body is written straight
+ * to disk while it arrives.
+ *
+ * <p>The body is written into a temporary file in a hidden directory of the
+ * upload directory, which replaces the target only when the body is
+ * complete. So a file is never seen half uploaded and an aborted upload
+ * leaves nothing behind. The hidden directory is on the same file system as
+ * the targets, so the file is moved atomically, and it is neither listed
+ * nor served. Only the upload directory itself is created, a target in a
+ * directory which does not exist is rejected.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class FileUploadHandler implements BodyHandler {
+
+    static final Logger logger = Logger.getLogger(FileUploadHandler.class.getName());
+
+    //the answers carry no body, so they are shared by all uploads
+    private static final HttpResponse CREATED =
+            HttpResponse.withoutContent(HttpStatus.CREATED, "Content-Length: 0\r\n");
+    private static final HttpResponse REPLACED =
+            HttpResponse.withoutContent(HttpStatus.NO_CONTENT, "");
+
+    //the directory the bodies are written into until they are complete
+    static final String TEMPORARY_DIRECTORY = ".upload-parts";
+
+    private final Path directory;
+    private final Path temporaryDirectory;
+    private final PathResolver resolver;
+
+    /**************************************************************************
+     * Constructs a FileUploadHandler which stores the files in the directory.
+     *
+     * @param directory The directory the targets are resolved against
+     * @throws IllegalArgumentException if the directory does not exist
+     * @throws IOException If the temporary directory can not be created
+     **************************************************************************/
+    public FileUploadHandler(Path directory) throws IOException {
+        this(directory, "/");
+    }
+
+    /**************************************************************************
+     * Constructs a FileUploadHandler which stores the files of the targets
+     * below the prefix in the directory.
+     *
+     * @param directory The directory the targets are resolved against
+     * @param prefix The path the handler is mounted at, like <i>/incoming/</i>
+     * @throws IllegalArgumentException if the directory does not exist or the
+     * prefix does not start and end with a slash
+     * @throws IOException If the temporary directory can not be created
+     **************************************************************************/
+    public FileUploadHandler(Path directory, String prefix) throws IOException {
+        if (directory == null || !Files.isDirectory(directory)) {
+            logger.log(Level.WARNING, "RECEIVED ILLEGAL UPLOAD DIRECTORY : " + directory);
+            throw new IllegalArgumentException("Illegal upload directory " + directory);
+        }
+
+        if (prefix == null || !prefix.startsWith("/") || !prefix.endsWith("/")) {
+            logger.log(Level.WARNING, "RECEIVED ILLEGAL PREFIX : " + prefix);
+            throw new IllegalArgumentException("Illegal prefix " + prefix);
+        }
+
+        this.directory = directory.toAbsolutePath().normalize();
+        this.resolver = new PathResolver(prefix, this.directory, PathResolver.LINKS_FOLLOW, 0,
+                PathResolver.DEFAULT_MAX_ENTRIES);
+        this.temporaryDirectory = this.directory.resolve(TEMPORARY_DIRECTORY);
+        Files.createDirectories(temporaryDirectory);
+        deleteTemporaryFiles();
+    }
+
+    /**************************************************************************
+     * Returns whether the path lies within the temporary directory of an
+     * upload directory, which must not be served.
+     *
+     * @param relativePath The path relative to the directory of a handler
+     **************************************************************************/
+    static boolean isTemporary(Path relativePath) {
+        if (!relativePath.toString().contains(TEMPORARY_DIRECTORY)) {
+            return false;
+        }
+
+        for (Path name : relativePath) {
+            if (name.toString().equals(TEMPORARY_DIRECTORY)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //the uploads which have been interrupted by a crash of the server
+    private void deleteTemporaryFiles() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(temporaryDirectory,
+                ".upload-*.part")) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**************************************************************************
+     * Opens a temporary file for the body of a PUT or POST request.
+     *
+     * @param requestHead The request line and the header lines
+     * @return The sink or null if the target lies outside of the upload
+     * directory, is a directory or its directory does not exist
+     * @throws IOException If the temporary file can not be created
+     **************************************************************************/
+    @Override
+    public BodySink open(RequestHead requestHead) throws IOException {
+        Path target = resolve(requestHead.getTarget());
+        if (target == null || Files.isDirectory(target)
+                || !Files.isDirectory(target.getParent())) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.log(Level.FINE, "REJECTING THE UPLOAD TO " + requestHead.getTarget());
+            }
+            return null;
+        }
+
+        Path temporary = Files.createTempFile(temporaryDirectory, ".upload-", ".part");
+
+        try {
+            return new Upload(target, temporary,
+                    FileChannel.open(temporary, StandardOpenOption.WRITE));
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+    }
+
+    //the path within the upload directory or null if the target leaves it,
+    //names a directory or lies within the temporary directory
+    private Path resolve(String target) {
+        PathResolver.Resolution resolution = resolver.resolve(target);
+        if (resolution == null || resolution.getRelativePath().toString().isEmpty()
+                || isTemporary(resolution.getRelativePath())) {
+            return null;
+        }
+
+        //the target starts with the prefix, so it is not empty
+        int query = target.indexOf('?');
+        return target.charAt((query < 0 ? target.length() : query) - 1) == '/' ? null
+                : resolution.getPath();
+    }
+
+    /**************************************************************************
+     * The Upload writes the body of one request into its temporary file.
+     **************************************************************************/
+    private static final class Upload implements BodySink {
+
+        private final Path target;
+        private final Path temporary;
+        private final FileChannel fileChannel;
+
+        Upload(Path target, Path temporary, FileChannel fileChannel) {
+            this.target = target;
+            this.temporary = temporary;
+            this.fileChannel = fileChannel;
+        }
+
+        @Override
+        public void write(ByteBuffer chunk) throws IOException {
+            while (chunk.hasRemaining()) {
+                fileChannel.write(chunk);
+            }
+        }
+
+        //moving the complete file to its target
+        @Override
+        public HttpResponse finish() throws IOException {
+            fileChannel.close();
+
+            boolean replaced = Files.exists(target);
+            try {
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Files.deleteIfExists(temporary);
+                throw e;
+            }
+
+            if (logger.isLoggable(Level.FINE)) {
+                logger.log(Level.FINE, "STORED THE UPLOAD " + target);
+            }
+            return replaced ? REPLACED : CREATED;
+        }
+
+        @Override
+        public void abort() {
+            try {
+                fileChannel.close();
+                Files.deleteIfExists(temporary);
+            } catch (IOException e) {
+                System.err.println("AN ERROR OCCURRED WHILE DELETING THE UPLOAD " + temporary);
+            }
+        }
+    }
+}
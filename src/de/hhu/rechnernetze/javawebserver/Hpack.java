@@ -0,0 +1,287 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/******************************************************************************
+ * The Hpack class holds what the HpackDecoder and the HpackEncoder of every
+ * HTTP/2 connection share: the static table of RFC 7541, the Huffman code of
+ * the string literals and the Table the dynamic entries are kept in.
+ *
+ * <p>The Huffman code is canonical, so only the length of the code of every
+ * symbol is written down here. The codes are assigned in the order of their
+ * lengths and symbols when the class is loaded, and a tree is built from
+ * them which the decoder walks bit by bit. The encoder never uses it, its
+ * literals are sent as they are.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class Hpack {
+
+    //the size of the dynamic tables until SETTINGS_HEADER_TABLE_SIZE says
+    //otherwise, which is also the largest one this server keeps
+    static final int DEFAULT_TABLE_SIZE = 4096;
+
+    //the size every entry is charged with on top of its name and value
+    static final int ENTRY_OVERHEAD = 32;
+
+    //the static table, index 0 is unused
+    private static final String[] STATIC_NAMES = {null,
+            ":authority", ":method", ":method", ":path", ":path", ":scheme", ":scheme",
+            ":status", ":status", ":status", ":status", ":status", ":status", ":status",
+            "accept-charset", "accept-encoding", "accept-language", "accept-ranges",
+            "accept", "access-control-allow-origin", "age", "allow", "authorization",
+            "cache-control", "content-disposition", "content-encoding", "content-language",
+            "content-length", "content-location", "content-range", "content-type", "cookie",
+            "date", "etag", "expect", "expires", "from", "host", "if-match",
+            "if-modified-since", "if-none-match", "if-range", "if-unmodified-since",
+            "last-modified", "link", "location", "max-forwards", "proxy-authenticate",
+            "proxy-authorization", "range", "referer", "refresh", "retry-after", "server",
+            "set-cookie", "strict-transport-security", "transfer-encoding", "user-agent",
+            "vary", "via", "www-authenticate"};
+    private static final String[] STATIC_VALUES = {null,
+            "", "GET", "POST", "/", "/index.html", "http", "https",
+            "200", "204", "206", "304", "400", "404", "500",
+            "", "gzip, deflate"};
+
+    static final int STATIC_TABLE_LENGTH = STATIC_NAMES.length - 1;
+
+    //the first index of every name and the index of every name and value
+    private static final HashMap<String, Integer> STATIC_NAME_INDEXES = new HashMap<>();
+    private static final HashMap<String, Integer> STATIC_FIELD_INDEXES = new HashMap<>();
+
+    //the lengths of the codes of the symbols 0 to 255 and of EOS
+    private static final int[] CODE_LENGTHS = {
+            13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+            28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+            6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+            5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+            13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+            7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+            15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+            6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+            20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+            24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+            22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+            21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+            26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+            19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+            20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+            26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+            30};
+
+    private static final int EOS = 256;
+
+    //the tree of the Huffman code, the children of node n are at 2n and
+    //2n + 1. A child is the index of the next node or the complement of
+    //its symbol, 0 if there is no code which starts like this.
+    private static final int[] TREE = buildTree();
+
+    static {
+        for (int i = STATIC_TABLE_LENGTH; i > 0; i--) {
+            STATIC_NAME_INDEXES.put(STATIC_NAMES[i], i);
+            if (i < STATIC_VALUES.length && !STATIC_VALUES[i].isEmpty()) {
+                STATIC_FIELD_INDEXES.put(STATIC_NAMES[i] + '\n' + STATIC_VALUES[i], i);
+            }
+        }
+    }
+
+    private Hpack() {
+    }
+
+    //the name at the index of the static table
+    static String getStaticName(int index) {
+        return STATIC_NAMES[index];
+    }
+
+    //the value at the index of the static table, empty if it has none
+    static String getStaticValue(int index) {
+        return index < STATIC_VALUES.length ? STATIC_VALUES[index] : "";
+    }
+
+    //the index of the name and the value in the static table or 0
+    static int getStaticIndex(String name, String value) {
+        Integer index = STATIC_FIELD_INDEXES.get(name + '\n' + value);
+        return index == null ? 0 : index;
+    }
+
+    //the first index of the name in the static table or 0
+    static int getStaticNameIndex(String name) {
+        Integer index = STATIC_NAME_INDEXES.get(name);
+        return index == null ? 0 : index;
+    }
+
+    /**************************************************************************
+     * Decodes a string literal which has been encoded with the Huffman code.
+     *
+     * @param bytes The block the literal is part of
+     * @param offset The index of the first byte of the literal
+     * @param length The number of bytes of the literal
+     * @return The string or null if the code is invalid, contains EOS or is
+     * padded with more than seven bits or with anything but ones
+     **************************************************************************/
+    static String decodeHuffman(byte[] bytes, int offset, int length) {
+        //a symbol has at least five bits
+        byte[] decoded = new byte[length * 8 / 5];
+        int decodedLength = 0;
+
+        int node = 1;
+        int depth = 0;
+        boolean ones = true;
+
+        for (int i = offset; i < offset + length; i++) {
+            int b = bytes[i];
+            for (int bit = 7; bit >= 0; bit--) {
+                int set = b >>> bit & 1;
+                int child = TREE[2 * node + set];
+                depth++;
+                ones &= set == 1;
+
+                if (child == 0) {
+                    return null;
+                } else if (child > 0) {
+                    node = child;
+                } else if (~child == EOS) {
+                    return null;
+                } else {
+                    decoded[decodedLength++] = (byte) ~child;
+                    node = 1;
+                    depth = 0;
+                    ones = true;
+                }
+            }
+        }
+
+        if (depth > 7 || !ones) {
+            return null;
+        }
+        return new String(decoded, 0, decodedLength, StandardCharsets.ISO_8859_1);
+    }
+
+    //assigning the canonical codes and linking them into the tree
+    private static int[] buildTree() {
+        int[] tree = new int[4 * (EOS + 1)];
+        int nodes = 2;
+        int code = 0;
+        int previousLength = 0;
+
+        for (int length = 1; length <= 30; length++) {
+            for (int symbol = 0; symbol <= EOS; symbol++) {
+                if (CODE_LENGTHS[symbol] != length) {
+                    continue;
+                }
+
+                if (previousLength > 0) {
+                    code = code + 1 << length - previousLength;
+                }
+                previousLength = length;
+
+                int node = 1;
+                for (int bit = length - 1; bit > 0; bit--) {
+                    int slot = 2 * node + (code >>> bit & 1);
+                    if (tree[slot] == 0) {
+                        tree[slot] = nodes++;
+                    }
+                    node = tree[slot];
+                }
+                tree[2 * node + (code & 1)] = ~symbol;
+            }
+        }
+        return tree;
+    }
+
+    /**************************************************************************
+     * The Table holds the dynamic entries of one direction of a connection,
+     * the newest entry has the index 0. Adding an entry evicts the oldest
+     * ones until the size of all entries fits into the maximum again.
+     **************************************************************************/
+    static final class Table {
+
+        private String[] names = new String[16];
+        private String[] values = new String[16];
+        private int newest = -1;
+        private int length = 0;
+        private int size = 0;
+        private int maxSize;
+
+        //the number of entries which have ever been added
+        private long inserted = 0;
+
+        Table(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        /**********************************************************************
+         * Adds the entry. An entry which is larger than the table empties it
+         * and is not added.
+         *
+         * @return Whether the entry has been added
+         **********************************************************************/
+        public boolean add(String name, String value) {
+            int entrySize = ENTRY_OVERHEAD + name.length() + value.length();
+            evict(maxSize - entrySize);
+            if (entrySize > maxSize) {
+                return false;
+            }
+
+            if (length == names.length) {
+                grow();
+            }
+
+            newest = (newest + 1) & (names.length - 1);
+            names[newest] = name;
+            values[newest] = value;
+            length++;
+            size += entrySize;
+            inserted++;
+            return true;
+        }
+
+        //the name of the entry, 0 is the newest one
+        public String getName(int index) {
+            return names[(newest - index) & (names.length - 1)];
+        }
+
+        public String getValue(int index) {
+            return values[(newest - index) & (names.length - 1)];
+        }
+
+        //the number of entries
+        public int getLength() {
+            return length;
+        }
+
+        public long getInserted() {
+            return inserted;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            evict(maxSize);
+        }
+
+        private void evict(int until) {
+            while (size > until && length > 0) {
+                int oldest = (newest - length + 1) & (names.length - 1);
+                size -= ENTRY_OVERHEAD + names[oldest].length() + values[oldest].length();
+                names[oldest] = null;
+                values[oldest] = null;
+                length--;
+            }
+        }
+
+        //doubling the ring, the oldest entry goes to the front
+        private void grow() {
+            String[] grownNames = new String[2 * names.length];
+            String[] grownValues = new String[2 * names.length];
+            for (int i = 0; i < length; i++) {
+                grownNames[length - 1 - i] = getName(i);
+                grownValues[length - 1 - i] = getValue(i);
+            }
+            names = grownNames;
+            values = grownValues;
+            newest = length - 1;
+        }
+    }
+}
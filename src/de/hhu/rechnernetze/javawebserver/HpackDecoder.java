@@ -0,0 +1,177 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.nio.charset.StandardCharsets;
+
+/******************************************************************************
+ * The HpackDecoder turns the header blocks a client sends on one HTTP/2
+ * connection back into its header fields. It keeps the dynamic table of the
+ * client, so every block has to be decoded in the order it has arrived, even
+ * the blocks of streams which are refused.
+ *
+ * <p>The fields of the last block are kept in two arrays, like the headers
+ * of a RequestHead. A block with more fields than fit into them is decoded
+ * to its end all the same, so that the dynamic table stays in step, and is
+ * reported as too large.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class HpackDecoder {
+
+    //the pseudo-headers, the well-known and the other headers of a request
+    static final int MAX_FIELDS = 4 + RequestHead.HEADERS + RequestHead.MAX_OTHER_HEADERS;
+
+    private final Hpack.Table table = new Hpack.Table(Hpack.DEFAULT_TABLE_SIZE);
+
+    private final String[] names = new String[MAX_FIELDS];
+    private final String[] values = new String[MAX_FIELDS];
+    private int fields;
+    private boolean tooLarge;
+
+    private byte[] block;
+    private int position;
+    private int end;
+
+    /**************************************************************************
+     * Decodes one complete header block.
+     *
+     * @param block The bytes of the HEADERS and CONTINUATION frames
+     * @param offset The index of the first byte of the block
+     * @param length The number of bytes of the block
+     * @return false if the block can not be decoded, which is a
+     * COMPRESSION_ERROR of the connection
+     **************************************************************************/
+    public boolean decode(byte[] block, int offset, int length) {
+        this.block = block;
+        this.position = offset;
+        this.end = offset + length;
+        fields = 0;
+        tooLarge = false;
+
+        boolean fieldSeen = false;
+        while (position < end) {
+            int b = block[position] & 0xFF;
+            String name;
+            String value;
+
+            if ((b & 0x80) != 0) {
+                //an indexed field
+                int index = readInteger(7);
+                name = getName(index);
+                value = getValue(index);
+            } else if ((b & 0x20) != 0 && (b & 0x40) == 0) {
+                //a dynamic table size update, only in front of the fields
+                int size = readInteger(5);
+                if (fieldSeen || size < 0 || size > Hpack.DEFAULT_TABLE_SIZE) {
+                    return false;
+                }
+                table.setMaxSize(size);
+                continue;
+            } else {
+                //a literal with incremental indexing, without indexing or
+                //never indexed
+                boolean indexed = (b & 0x40) != 0;
+                int index = readInteger(indexed ? 6 : 4);
+                name = index == 0 ? readString() : getName(index);
+                value = name == null ? null : readString();
+
+                if (indexed && value != null) {
+                    table.add(name, value);
+                }
+            }
+
+            if (name == null || value == null) {
+                return false;
+            }
+
+            fieldSeen = true;
+            if (fields == MAX_FIELDS) {
+                tooLarge = true;
+            } else {
+                names[fields] = name;
+                values[fields] = value;
+                fields++;
+            }
+        }
+        return true;
+    }
+
+    //the number of fields of the last block
+    public int getFieldCount() {
+        return fields;
+    }
+
+    public String getFieldName(int field) {
+        return names[field];
+    }
+
+    public String getFieldValue(int field) {
+        return values[field];
+    }
+
+    //whether the last block had more fields than are kept
+    public boolean isTooLarge() {
+        return tooLarge;
+    }
+
+    //the name at the index of the static or the dynamic table, null if
+    //there is none
+    private String getName(int index) {
+        if (index > 0 && index <= Hpack.STATIC_TABLE_LENGTH) {
+            return Hpack.getStaticName(index);
+        }
+
+        index -= Hpack.STATIC_TABLE_LENGTH + 1;
+        return index >= 0 && index < table.getLength() ? table.getName(index) : null;
+    }
+
+    private String getValue(int index) {
+        if (index > 0 && index <= Hpack.STATIC_TABLE_LENGTH) {
+            return Hpack.getStaticValue(index);
+        }
+
+        index -= Hpack.STATIC_TABLE_LENGTH + 1;
+        return index >= 0 && index < table.getLength() ? table.getValue(index) : null;
+    }
+
+    //an integer with a prefix of the given bits, -1 if it is cut off or
+    //larger than an int
+    private int readInteger(int prefixBits) {
+        int max = (1 << prefixBits) - 1;
+        int value = block[position++] & max;
+        if (value < max) {
+            return value;
+        }
+
+        for (int shift = 0; shift < 28; shift += 7) {
+            if (position == end) {
+                return -1;
+            }
+
+            int b = block[position++] & 0xFF;
+            value += (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value >= 0 ? value : -1;
+            }
+        }
+        return -1;
+    }
+
+    //a string literal, null if it is cut off or its Huffman code is invalid
+    private String readString() {
+        if (position == end) {
+            return null;
+        }
+
+        boolean huffman = (block[position] & 0x80) != 0;
+        int length = readInteger(7);
+        if (length < 0 || length > end - position) {
+            return null;
+        }
+
+        String string = huffman ? Hpack.decodeHuffman(block, position, length)
+                : new String(block, position, length, StandardCharsets.ISO_8859_1);
+        position += length;
+        return string;
+    }
+}
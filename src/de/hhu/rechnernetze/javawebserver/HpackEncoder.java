@@ -0,0 +1,215 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Set;
+
+/******************************************************************************
+ * The HpackEncoder turns the head of an HttpResponse into the header block
+ * of an HTTP/2 stream. It keeps the dynamic table the client decodes with,
+ * so the blocks have to be sent in the order they have been encoded.
+ *
+ * <p>A field which is in the static or the dynamic table is sent as its
+ * index. The fields which are the same for many responses, like the
+ * Content-Type or the Date of the current second, are added to the dynamic
+ * table, so that the responses to a page with many assets mostly consist of
+ * indexes. Fields which change with every response are sent as literals
+ * without indexing, which would only push the useful entries out.</p>
+ *
+ * <p>The HTTP/1.1 header lines of the responses are lowercased, the ones
+ * which only concern the connection are left out. The literals are not
+ * Huffman coded, most of what is left after the indexing are digits and
+ * validators, which hardly get shorter.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class HpackEncoder {
+
+    //the header fields HTTP/2 does not allow, RFC 9113 section 8.2.2
+    static final Set<String> CONNECTION_HEADERS = Set.of("connection", "keep-alive",
+            "proxy-connection", "transfer-encoding", "upgrade");
+
+    //the fields which are added to the dynamic table
+    private static final Set<String> INDEXED_HEADERS = Set.of("accept-ranges", "allow",
+            "cache-control", "content-encoding", "content-language", "content-type", "date",
+            "server", "vary");
+
+    private final Hpack.Table table = new Hpack.Table(Hpack.DEFAULT_TABLE_SIZE);
+
+    //the number of the insertion of the newest entry with the field or the
+    //name, which may have been evicted since
+    private final HashMap<String, Long> fieldInsertions = new HashMap<>();
+    private final HashMap<String, Long> nameInsertions = new HashMap<>();
+
+    //the size of the table the client has asked for, -1 if it is unchanged
+    private int pendingTableSize = -1;
+
+    private byte[] block = new byte[1024];
+    private int length;
+
+    /**************************************************************************
+     * Sets the size of the dynamic table from the SETTINGS_HEADER_TABLE_SIZE
+     * of the client, which is announced at the start of the next block.
+     *
+     * @param size The size the client allows, which is kept within the
+     *             default size
+     **************************************************************************/
+    public void setMaxTableSize(int size) {
+        pendingTableSize = Math.min(size, Hpack.DEFAULT_TABLE_SIZE);
+    }
+
+    /**************************************************************************
+     * Encodes the status and the header lines of the response into a new
+     * block.
+     *
+     * @param status The status code
+     * @param dateLine The Date header line
+     * @param headerLines The header lines followed by the empty line
+     **************************************************************************/
+    public void encode(int status, byte[] dateLine, byte[] headerLines) {
+        length = 0;
+
+        if (pendingTableSize >= 0) {
+            table.setMaxSize(pendingTableSize);
+            writeInteger(0x20, 5, pendingTableSize);
+            pendingTableSize = -1;
+        }
+
+        encodeField(":status", Integer.toString(status), false);
+        encodeLines(dateLine);
+        encodeLines(headerLines);
+    }
+
+    //the block the last call of encode() has produced, up to getLength()
+    public byte[] getBlock() {
+        return block;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    //splitting "Name: value\r\n" lines up to the empty line
+    private void encodeLines(byte[] lines) {
+        int lineStart = 0;
+        while (lineStart < lines.length && lines[lineStart] != '\r') {
+            int lineEnd = lineStart;
+            while (lineEnd < lines.length && lines[lineEnd] != '\r') {
+                lineEnd++;
+            }
+
+            int colon = lineStart;
+            while (colon < lineEnd && lines[colon] != ':') {
+                colon++;
+            }
+
+            int valueStart = colon + 1;
+            while (valueStart < lineEnd && lines[valueStart] == ' ') {
+                valueStart++;
+            }
+
+            String name = new String(lines, lineStart, colon - lineStart,
+                    StandardCharsets.ISO_8859_1).toLowerCase();
+            if (colon < lineEnd && !CONNECTION_HEADERS.contains(name)) {
+                encodeField(name, new String(lines, valueStart, lineEnd - valueStart,
+                        StandardCharsets.ISO_8859_1), INDEXED_HEADERS.contains(name));
+            }
+
+            lineStart = lineEnd + 2;
+        }
+    }
+
+    private void encodeField(String name, String value, boolean indexed) {
+        String field = name + '\n' + value;
+        int index = Hpack.getStaticIndex(name, value);
+        if (index == 0) {
+            index = getDynamicIndex(fieldInsertions.get(field));
+        }
+
+        if (index > 0) {
+            writeInteger(0x80, 7, index);
+            return;
+        }
+
+        int nameIndex = Hpack.getStaticNameIndex(name);
+        if (nameIndex == 0) {
+            nameIndex = getDynamicIndex(nameInsertions.get(name));
+        }
+
+        if (indexed) {
+            writeInteger(0x40, 6, nameIndex);
+        } else {
+            writeInteger(0x00, 4, nameIndex);
+        }
+        if (nameIndex == 0) {
+            writeString(name);
+        }
+        writeString(value);
+
+        if (indexed && table.add(name, value)) {
+            long insertion = table.getInserted() - 1;
+            fieldInsertions.put(field, insertion);
+            nameInsertions.put(name, insertion);
+
+            if (fieldInsertions.size() > 2 * table.getLength() + 32) {
+                forgetEvicted();
+            }
+        }
+    }
+
+    //the index of the entry with the insertion or 0 if it has been evicted
+    private int getDynamicIndex(Long insertion) {
+        if (insertion == null) {
+            return 0;
+        }
+
+        int entry = (int) (table.getInserted() - 1 - insertion);
+        return entry < table.getLength() ? Hpack.STATIC_TABLE_LENGTH + 1 + entry : 0;
+    }
+
+    //the maps only keep the entries of the table, the oldest go in first
+    //so that the newest insertion of a field wins
+    private void forgetEvicted() {
+        fieldInsertions.clear();
+        nameInsertions.clear();
+
+        for (int i = table.getLength() - 1; i >= 0; i--) {
+            long insertion = table.getInserted() - 1 - i;
+            fieldInsertions.put(table.getName(i) + '\n' + table.getValue(i), insertion);
+            nameInsertions.put(table.getName(i), insertion);
+        }
+    }
+
+    private void writeInteger(int flags, int prefixBits, int value) {
+        ensure(6);
+        int max = (1 << prefixBits) - 1;
+        if (value < max) {
+            block[length++] = (byte) (flags | value);
+            return;
+        }
+
+        block[length++] = (byte) (flags | max);
+        value -= max;
+        while (value >= 0x80) {
+            block[length++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        block[length++] = (byte) value;
+    }
+
+    private void writeString(String string) {
+        writeInteger(0x00, 7, string.length());
+        ensure(string.length());
+        for (int i = 0; i < string.length(); i++) {
+            block[length++] = (byte) string.charAt(i);
+        }
+    }
+
+    private void ensure(int bytes) {
+        if (length + bytes > block.length) {
+            block = Arrays.copyOf(block, Math.max(2 * block.length, length + bytes));
+        }
+    }
+}
@@ -0,0 +1,1553 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/******************************************************************************
+ * The Http2Connection speaks cleartext HTTP/2 (h2c) on a connection of the
+ * blocking engine. The HttpRequest hands the connection over when the client
+ * starts with the connection preface, because it knows that the server
+ * speaks HTTP/2, or when it asks to switch with <i>Upgrade: h2c</i>, in
+ * which case the response to that request is sent on the first stream.
+ *
+ * <p>The Thread of the connection reads and writes the frames of all
+ * streams. Its SocketChannel is switched to non-blocking and waits in a
+ * Selector of its own, so the connection takes no other Thread than the one
+ * the Executor has given it. The header block of every request is decoded by
+ * the HpackDecoder and written down as a head of HTTP/2.0, which the
+ * RequestParser parses like any other. The ResponseFactory answers the
+ * streams on the Executor like the requests of HTTP/1.1, so a slow handler
+ * holds back neither the frames nor the responses of the other streams.</p>
+ *
+ * <p>A stream whose handler is running counts against the maximum of
+ * streams until the handler has returned, even if the client has reset it.
+ * A client which keeps resetting streams before they are answered makes
+ * the server work for nothing and is told to go away.</p>
+ *
+ * <p>The streams which have been answered send in turn, one DATA frame of
+ * each, so a large file does not hold back the small ones behind it and no
+ * stream has to wait for another one to be finished. The bytes of a file
+ * are read from its FileChannel straight into the buffer of the frames,
+ * behind the header of their frame.</p>
+ *
+ * <p>Every stream and the connection have a window of the bytes the client
+ * is prepared to receive, which it enlarges with WINDOW_UPDATE frames. The
+ * windows of the request bodies are given back as soon as their bytes have
+ * been handed to the BodySink, so a body is never held in memory.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class Http2Connection {
+
+    static final Logger logger = Logger.getLogger(Http2Connection.class.getName());
+
+    //the preface every client starts with, the RequestParser takes its first
+    //18 bytes for the head "PRI * HTTP/2.0"
+    static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n"
+            .getBytes(StandardCharsets.ISO_8859_1);
+    static final int PREFACE_HEAD = 18;
+
+    //
+    // THE FRAME TYPES
+    //
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int PRIORITY = 0x2;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PUSH_PROMISE = 0x5;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+
+    //
+    // THE FLAGS
+    //
+    private static final int END_STREAM = 0x1;
+    private static final int ACK = 0x1;
+    private static final int END_HEADERS = 0x4;
+    private static final int PADDED = 0x8;
+    private static final int PRIORITY_FLAG = 0x20;
+
+    //
+    // THE SETTINGS
+    //
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    private static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    //
+    // THE ERROR CODES
+    //
+    private static final int NO_ERROR = 0x0;
+    private static final int PROTOCOL_ERROR = 0x1;
+    private static final int INTERNAL_ERROR = 0x2;
+    private static final int FLOW_CONTROL_ERROR = 0x3;
+    private static final int STREAM_CLOSED = 0x5;
+    private static final int FRAME_SIZE_ERROR = 0x6;
+    private static final int REFUSED_STREAM = 0x7;
+    private static final int COMPRESSION_ERROR = 0x9;
+    private static final int ENHANCE_YOUR_CALM = 0xB;
+
+    //the result of reading the frames when the client has closed the
+    //connection, which is not answered with GOAWAY
+    private static final int CLOSED = -1;
+
+    static final int FRAME_HEADER = 9;
+
+    //the largest frame which is received or sent, the default of
+    //SETTINGS_MAX_FRAME_SIZE, which is small enough to interleave the streams
+    static final int MAX_FRAME_SIZE = 16384;
+
+    //the window the streams and the connection start with
+    static final int DEFAULT_WINDOW = 65535;
+    static final long MAX_WINDOW = Integer.MAX_VALUE;
+
+    //the window of the request bodies of every stream and of the connection
+    static final int RECEIVE_WINDOW = 1024 * 1024;
+
+    //the largest header block which is accepted before it is decoded
+    static final int MAX_HEADER_BLOCK = 64 * 1024;
+
+    //the frames which may wait for the socket, a client which causes more
+    //of them is flooding the connection
+    static final int MAX_CONTROL_FRAMES = 1024;
+
+    //the streams a client may reset before they have been answered, every
+    //stream which is answered completely gives one back
+    static final int MAX_RESETS = 100;
+
+    //the buffers the frames are written from, they hold four DATA frames
+    static final BufferPool frameBuffers =
+            new BufferPool(4 * (FRAME_HEADER + MAX_FRAME_SIZE), 64);
+
+    private final Socket socket;
+    private final ResponseFactory responseFactory;
+    private final ConnectionLimits connectionLimits;
+    private final TimerWheel.Timeout deadline;
+    private final Executor executor;
+    private final ThreadPoolExecutor streamPool;
+    private final AccessLog accessLog;
+
+    //owned by the Thread of the connection
+    private SocketChannel channel;
+    private Selector selector;
+    private SelectionKey key;
+    private final byte[] readBuffer = new byte[2 * (FRAME_HEADER + MAX_FRAME_SIZE)];
+    private final ByteBuffer readView = ByteBuffer.wrap(readBuffer);
+    private int readPosition = 0;
+    private int readEnd = 0;
+    private int prefaceLeft = 0;
+    private final HpackDecoder decoder = new HpackDecoder();
+    private final RequestParser requestParser = new RequestParser();
+    private final byte[] head = new byte[RequestParser.DEFAULT_MAX_HEAD_SIZE];
+    private int headLength = 0;
+    private byte[] headerBlock = new byte[MAX_FRAME_SIZE];
+    private int headerBlockLength = 0;
+    private int lastStreamId = 0;
+
+    //the stream and the flags of a header block which is continued, 0 if
+    //there is none
+    private int continuedStream = 0;
+    private int continuedFlags = 0;
+
+    //the frames are put into the buffer, those which do not fit wait in
+    //pending and go first
+    private final HpackEncoder encoder = new HpackEncoder();
+    private ByteBuffer out;
+    private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+
+    private final HashMap<Integer, Stream> streams = new HashMap<>();
+    private final ArrayDeque<Stream> active = new ArrayDeque<>();
+    private long sendWindow = DEFAULT_WINDOW;
+    private int initialWindow = DEFAULT_WINDOW;
+    private boolean goAwaySent = false;
+    private boolean goAwayReceived = false;
+    private int resetsLeft = MAX_RESETS;
+
+    //a write the socket has not taken completely, since when and how many
+    //bytes it has taken since then
+    private boolean writing = false;
+    private long writeStarted = 0;
+    private long bytesWritten = 0;
+
+    //guarded by this, the Executor hands the responses over
+    private final ArrayDeque<Stream> answered = new ArrayDeque<>();
+    private boolean closed = false;
+
+    /**************************************************************************
+     * Constructs the Http2Connection of the socket, which has been read by
+     * an HttpRequest so far.
+     *
+     * @param socket The socket of the connection, which must have a channel
+     * @param responseFactory Creates the responses to the streams
+     * @param connectionLimits The idle and the write timeout, the minimum
+     *                         rate and the maximum of streams and bodies
+     * @param deadline The deadline of the connection, which closes its
+     *                 socket
+     * @param executor Runs the handlers of the streams or null to run them
+     *                 on a ConnectionExecutors.streamPool() of the connection
+     **************************************************************************/
+    public Http2Connection(Socket socket, ResponseFactory responseFactory,
+                           ConnectionLimits connectionLimits, TimerWheel.Timeout deadline,
+                           Executor executor) {
+        this.socket = socket;
+        this.responseFactory = responseFactory;
+        this.connectionLimits = connectionLimits;
+        this.deadline = deadline;
+        this.streamPool = executor == null ? ConnectionExecutors.streamPool() : null;
+        this.executor = executor == null ? streamPool : executor;
+        this.accessLog = responseFactory.getAccessLog();
+    }
+
+    /**************************************************************************
+     * Returns whether the head is the start of the connection preface.
+     *
+     * @param requestHead A complete head
+     **************************************************************************/
+    static boolean isPreface(RequestHead requestHead) {
+        return requestHead.getMethodId() == RequestHead.METHOD_PRI
+                && requestHead.getVersion() == RequestHead.VERSION_2_0
+                && requestHead.getTargetLength() == 1
+                && requestHead.getBuffer()[requestHead.getTargetOffset()] == '*';
+    }
+
+    /**************************************************************************
+     * Returns the settings of the client if it asks to switch to h2c with the
+     * request. A request with a body is answered with HTTP/1.1, because its
+     * body would have to be read before the switch.
+     *
+     * @param requestHead A complete head
+     * @return The payload of the SETTINGS frame in <i>HTTP2-Settings</i> or
+     * null if the connection is not switched
+     **************************************************************************/
+    static byte[] getUpgradeSettings(RequestHead requestHead) {
+        if (requestHead.getVersion() != RequestHead.VERSION_1_1
+                || !requestHead.headerContainsToken(RequestHead.UPGRADE, "h2c")
+                || !requestHead.hasHeader(RequestHead.HTTP2_SETTINGS)
+                || requestHead.hasBody()) {
+            return null;
+        }
+
+        try {
+            byte[] settings = Base64.getUrlDecoder().decode(
+                    requestHead.getHeader(RequestHead.HTTP2_SETTINGS));
+            return settings.length % 6 == 0 ? settings : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**************************************************************************
+     * Serves the connection after the client has sent the head of the
+     * preface, until the connection is closed.
+     *
+     * @param bytes The buffer the head has been read into
+     * @param offset The index behind the head
+     * @param end The index behind the bytes which have been read
+     * @throws IOException If the connection can not be read
+     **************************************************************************/
+    public void servePriorKnowledge(byte[] bytes, int offset, int end) throws IOException {
+        logger.log(Level.FINE, "SERVING THE CONNECTION WITH HTTP/2");
+        serve(bytes, offset, end, PREFACE_HEAD, null);
+    }
+
+    /**************************************************************************
+     * Serves the connection after it has been switched with 101 Switching
+     * Protocols, until the connection is closed. The response to the
+     * request which has asked for the switch is sent on stream 1.
+     *
+     * @param requestHead The head of the request, which has been answered
+     * @param response The response to it, which is released by this object
+     * @param settings The settings of the client from getUpgradeSettings()
+     * @param started The System.nanoTime() the request has started at
+     * @param bytes The buffer the head has been read into
+     * @param offset The index behind the head
+     * @param end The index behind the bytes which have been read
+     * @throws IOException If the connection can not be read
+     **************************************************************************/
+    public void serveUpgrade(RequestHead requestHead, HttpResponse response, byte[] settings,
+                             long started, byte[] bytes, int offset, int end)
+            throws IOException {
+        logger.log(Level.FINE, "SWITCHING THE CONNECTION TO HTTP/2");
+
+        Stream stream = new Stream(1, DEFAULT_WINDOW);
+        stream.started = started;
+        stream.endpoint = requestHead.getEndpoint();
+        stream.remoteClosed = true;
+        if (accessLog != null) {
+            stream.entry = new AccessLog.Entry(socket.getInetAddress());
+            stream.entry.start(requestHead);
+        }
+        streams.put(1, stream);
+        lastStreamId = 1;
+
+        int error = applySettings(settings, 0, settings.length);
+        stream.window = initialWindow;
+        answer(stream, response);
+
+        serve(bytes, offset, end, 0, error != NO_ERROR ? error : null);
+    }
+
+    //reading and writing the frames whenever the Selector reports that the
+    //socket is ready or the Executor has answered a stream, until the
+    //connection is done or the client has closed it
+    private void serve(byte[] bytes, int offset, int end, int prefaceRead, Integer error)
+            throws IOException {
+        System.arraycopy(bytes, offset, readBuffer, 0, end - offset);
+        readEnd = end - offset;
+        prefaceLeft = PREFACE.length - prefaceRead;
+
+        channel = socket.getChannel();
+        selector = Selector.open();
+        out = frameBuffers.acquire();
+
+        //the preface of the server, which also enlarges the window of the
+        //connection for the request bodies
+        byte[] settings = frame(SETTINGS, 0, 0, 18);
+        putSetting(settings, FRAME_HEADER, SETTINGS_MAX_CONCURRENT_STREAMS,
+                connectionLimits.getMaxStreams());
+        putSetting(settings, FRAME_HEADER + 6, SETTINGS_INITIAL_WINDOW_SIZE, RECEIVE_WINDOW);
+        putSetting(settings, FRAME_HEADER + 12, SETTINGS_MAX_HEADER_LIST_SIZE, head.length);
+        queueControl(settings);
+        queueControl(windowUpdate(0, RECEIVE_WINDOW - DEFAULT_WINDOW));
+
+        try {
+            channel.configureBlocking(false);
+            key = channel.register(selector, SelectionKey.OP_READ);
+            touch();
+
+            int result = error != null ? error : readFrames();
+            while (result != CLOSED && !deadline.hasExpired()) {
+                if (result != NO_ERROR && !goAwaySent) {
+                    goAway(result);
+                }
+                if (writeFrames()) {
+                    return;
+                }
+
+                //the frames of a client which is told to go away are not read
+                key.interestOps((goAwaySent ? 0 : SelectionKey.OP_READ)
+                        | (writing ? SelectionKey.OP_WRITE : 0));
+                selector.select();
+                selector.selectedKeys().clear();
+
+                if (!goAwaySent) {
+                    result = read() ? readFrames() : CLOSED;
+                }
+            }
+        } finally {
+            close();
+        }
+    }
+
+    //reading what the socket holds behind the unread bytes, false if the
+    //client has closed the connection
+    private boolean read() throws IOException {
+        if (readPosition > 0) {
+            System.arraycopy(readBuffer, readPosition, readBuffer, 0, readEnd - readPosition);
+            readEnd -= readPosition;
+            readPosition = 0;
+        }
+
+        readView.limit(readBuffer.length).position(readEnd);
+        int read = channel.read(readView);
+        if (read == -1) {
+            return false;
+        } else if (read > 0) {
+            readEnd += read;
+            touch();
+        }
+        return true;
+    }
+
+    //handling the complete frames which have been read, returns the error
+    //code the connection is closed with or NO_ERROR if more bytes are needed
+    private int readFrames() {
+        //the rest of the preface, the client has sent something else if it
+        //does not match
+        if (prefaceLeft > 0) {
+            int length = Math.min(prefaceLeft, readEnd - readPosition);
+            for (int i = 0; i < length; i++) {
+                if (readBuffer[readPosition + i] != PREFACE[PREFACE.length - prefaceLeft + i]) {
+                    logger.log(Level.FINE, "THE CLIENT HAS SENT AN INVALID PREFACE");
+                    return PROTOCOL_ERROR;
+                }
+            }
+            readPosition += length;
+            prefaceLeft -= length;
+        }
+
+        while (prefaceLeft == 0 && readEnd - readPosition >= FRAME_HEADER) {
+            int p = readPosition;
+            int length = (readBuffer[p] & 0xFF) << 16 | (readBuffer[p + 1] & 0xFF) << 8
+                    | readBuffer[p + 2] & 0xFF;
+            int type = readBuffer[p + 3] & 0xFF;
+            int flags = readBuffer[p + 4] & 0xFF;
+            int streamId = getInt(readBuffer, p + 5) & 0x7FFFFFFF;
+
+            if (length > MAX_FRAME_SIZE) {
+                return FRAME_SIZE_ERROR;
+            }
+            if (readEnd - readPosition < FRAME_HEADER + length) {
+                break;
+            }
+
+            int payload = readPosition + FRAME_HEADER;
+            readPosition = payload + length;
+
+            //a header block must not be interrupted by any other frame
+            if (continuedStream != 0 && (type != CONTINUATION || streamId != continuedStream)) {
+                return PROTOCOL_ERROR;
+            }
+
+            int error;
+            switch (type) {
+                case DATA:
+                    error = onData(streamId, flags, payload, length);
+                    break;
+                case HEADERS:
+                    error = onHeaders(streamId, flags, payload, length);
+                    break;
+                case CONTINUATION:
+                    error = onContinuation(streamId, flags, payload, length);
+                    break;
+                case PRIORITY:
+                    error = streamId == 0 ? PROTOCOL_ERROR
+                            : length != 5 ? FRAME_SIZE_ERROR : NO_ERROR;
+                    break;
+                case RST_STREAM:
+                    error = onRstStream(streamId, length);
+                    break;
+                case SETTINGS:
+                    error = onSettings(streamId, flags, payload, length);
+                    break;
+                case PING:
+                    error = onPing(streamId, flags, payload, length);
+                    break;
+                case GOAWAY:
+                    error = onGoAway(streamId, length);
+                    break;
+                case WINDOW_UPDATE:
+                    error = onWindowUpdate(streamId, payload, length);
+                    break;
+                case PUSH_PROMISE:
+                    error = PROTOCOL_ERROR;
+                    break;
+                default:
+                    //frames of unknown types are ignored
+                    error = NO_ERROR;
+                    break;
+            }
+
+            if (error != NO_ERROR) {
+                return error;
+            }
+        }
+        return NO_ERROR;
+    }
+
+    private int onData(int streamId, int flags, int payload, int length) {
+        if (streamId == 0) {
+            return PROTOCOL_ERROR;
+        }
+
+        //the padding counts for the windows
+        int frameLength = length;
+        if ((flags & PADDED) != 0) {
+            int padding = length > 0 ? readBuffer[payload] & 0xFF : length;
+            if (padding >= length) {
+                return PROTOCOL_ERROR;
+            }
+            payload++;
+            length -= padding + 1;
+        }
+
+        if (frameLength > 0 && !queueControl(windowUpdate(0, frameLength))) {
+            return ENHANCE_YOUR_CALM;
+        }
+
+        Stream stream = streams.get(streamId);
+        if (stream == null) {
+            //the stream has been closed, its frames may still be on their way
+            return streamId > lastStreamId ? PROTOCOL_ERROR : NO_ERROR;
+        } else if (stream.remoteClosed) {
+            resetStream(stream, STREAM_CLOSED);
+            return NO_ERROR;
+        }
+
+        if (stream.sink != null) {
+            receive(stream, payload, length);
+        }
+
+        if ((flags & END_STREAM) != 0) {
+            endRequest(stream);
+        } else if (frameLength > 0) {
+            queueControl(windowUpdate(streamId, frameLength));
+        }
+        return NO_ERROR;
+    }
+
+    //handing the bytes of the body to the sink, a body which is too long is
+    //answered at once
+    private void receive(Stream stream, int offset, int length) {
+        stream.received += length;
+
+        long maxBodySize = connectionLimits.getMaxBodySize();
+        if (stream.received > maxBodySize
+                || stream.expectedLength >= 0 && stream.received > stream.expectedLength) {
+            stream.sink.abort();
+            stream.sink = null;
+            answer(stream, responseFactory.respondToRejectedBody(stream.received > maxBodySize
+                    ? RequestBody.TOO_LARGE : RequestBody.MALFORMED));
+            return;
+        }
+
+        try {
+            stream.sink.write(ByteBuffer.wrap(readBuffer, offset, length));
+        } catch (IOException e) {
+            System.err.println("AN ERROR OCCURRED WHILE RECEIVING THE BODY OF A STREAM");
+            resetStream(stream, INTERNAL_ERROR);
+        }
+    }
+
+    //the client has sent the whole request, its body is answered now
+    private void endRequest(Stream stream) {
+        stream.remoteClosed = true;
+
+        BodySink sink = stream.sink;
+        if (sink == null) {
+            return;
+        }
+        stream.sink = null;
+
+        if (stream.expectedLength >= 0 && stream.received != stream.expectedLength) {
+            sink.abort();
+            answer(stream, responseFactory.respondToRejectedBody(RequestBody.MALFORMED));
+            return;
+        }
+
+        try {
+            answer(stream, sink.finish());
+        } catch (IOException e) {
+            System.err.println("AN ERROR OCCURRED WHILE RECEIVING THE BODY OF A STREAM");
+            resetStream(stream, INTERNAL_ERROR);
+        }
+    }
+
+    private int onHeaders(int streamId, int flags, int payload, int length) {
+        if (streamId == 0) {
+            return PROTOCOL_ERROR;
+        }
+
+        if ((flags & PADDED) != 0) {
+            int padding = length > 0 ? readBuffer[payload] & 0xFF : length;
+            if (padding >= length) {
+                return PROTOCOL_ERROR;
+            }
+            payload++;
+            length -= padding + 1;
+        }
+
+        //the priority is not used, the streams are sent in turn
+        if ((flags & PRIORITY_FLAG) != 0) {
+            if (length < 5) {
+                return FRAME_SIZE_ERROR;
+            }
+            payload += 5;
+            length -= 5;
+        }
+
+        headerBlockLength = 0;
+        appendHeaderBlock(payload, length);
+
+        if ((flags & END_HEADERS) == 0) {
+            continuedStream = streamId;
+            continuedFlags = flags;
+            return NO_ERROR;
+        }
+        return onHeaderBlock(streamId, flags);
+    }
+
+    private int onContinuation(int streamId, int flags, int payload, int length) {
+        if (continuedStream == 0) {
+            return PROTOCOL_ERROR;
+        }
+        if (headerBlockLength + length > MAX_HEADER_BLOCK) {
+            return ENHANCE_YOUR_CALM;
+        }
+
+        appendHeaderBlock(payload, length);
+
+        if ((flags & END_HEADERS) == 0) {
+            return NO_ERROR;
+        }
+        continuedStream = 0;
+        return onHeaderBlock(streamId, continuedFlags);
+    }
+
+    private void appendHeaderBlock(int offset, int length) {
+        if (headerBlockLength + length > headerBlock.length) {
+            headerBlock = Arrays.copyOf(headerBlock,
+                    Math.max(2 * headerBlock.length, headerBlockLength + length));
+        }
+        System.arraycopy(readBuffer, offset, headerBlock, headerBlockLength, length);
+        headerBlockLength += length;
+    }
+
+    //decoding the complete header block, which opens a new stream or holds
+    //the trailers of a request body
+    private int onHeaderBlock(int streamId, int flags) {
+        if (!decoder.decode(headerBlock, 0, headerBlockLength)) {
+            return COMPRESSION_ERROR;
+        }
+
+        boolean endStream = (flags & END_STREAM) != 0;
+        if (streamId <= lastStreamId) {
+            Stream stream = streams.get(streamId);
+            if (stream == null) {
+                return NO_ERROR;
+            } else if (stream.remoteClosed) {
+                return STREAM_CLOSED;
+            } else if (!endStream) {
+                return PROTOCOL_ERROR;
+            }
+
+            //the trailers are not used
+            endRequest(stream);
+            return NO_ERROR;
+        }
+
+        if ((streamId & 1) == 0) {
+            return PROTOCOL_ERROR;
+        }
+        lastStreamId = streamId;
+
+        if (goAwayReceived) {
+            return NO_ERROR;
+        } else if (streams.size() >= connectionLimits.getMaxStreams()) {
+            return queueControl(rstStream(streamId, REFUSED_STREAM))
+                    ? NO_ERROR : ENHANCE_YOUR_CALM;
+        }
+
+        openStream(streamId, endStream);
+        return NO_ERROR;
+    }
+
+    //handing the request of the header block to the Executor, or opening
+    //the sink of its body
+    private void openStream(int streamId, boolean endStream) {
+        Stream stream = new Stream(streamId, 0);
+        stream.started = System.nanoTime();
+
+        int result = decoder.isTooLarge() ? RequestParser.HEAD_TOO_LARGE : writeHead();
+        requestParser.start(head, 0);
+        if (result == RequestParser.COMPLETE) {
+            result = requestParser.parse(headLength);
+        }
+
+        RequestHead requestHead = requestParser.getRequestHead();
+        if (accessLog != null) {
+            stream.entry = new AccessLog.Entry(socket.getInetAddress());
+            stream.entry.start(requestHead);
+        }
+
+        stream.window = initialWindow;
+        stream.remoteClosed = endStream;
+        streams.put(streamId, stream);
+
+        try {
+            HttpResponse response;
+            BodySink sink = result == RequestParser.COMPLETE
+                    ? responseFactory.openBody(requestHead) : null;
+
+            if (result != RequestParser.COMPLETE) {
+                response = responseFactory.respondToRejected(result);
+            } else if (sink == null) {
+                dispatch(stream);
+                return;
+            } else if (endStream) {
+                response = sink.finish();
+            } else {
+                long length = requestHead.hasHeader(RequestHead.CONTENT_LENGTH)
+                        ? requestHead.getHeaderAsLong(RequestHead.CONTENT_LENGTH) : -1;
+                stream.endpoint = requestHead.getEndpoint();
+
+                if (length <= connectionLimits.getMaxBodySize()) {
+                    stream.sink = sink;
+                    stream.expectedLength = length;
+                    return;
+                }
+
+                sink.abort();
+                response = responseFactory.respondToRejectedBody(RequestBody.TOO_LARGE);
+            }
+
+            stream.endpoint = requestHead.getEndpoint();
+            answer(stream, response);
+        } catch (IOException e) {
+            System.err.println("AN ERROR OCCURRED WHILE ANSWERING A STREAM");
+            resetStream(stream, INTERNAL_ERROR);
+        }
+    }
+
+    //running the handler on the Executor with a copy of the head, the
+    //buffer of the head is needed for the next header block
+    private void dispatch(Stream stream) {
+        byte[] copy = Arrays.copyOf(head, headLength);
+        stream.dispatched = true;
+        executor.execute(() -> respond(stream, copy));
+    }
+
+    //the head is parsed again, it has already been parsed once, so the
+    //result is COMPLETE. A handler which fails leaves the response null,
+    //the stream is reset then.
+    private void respond(Stream stream, byte[] bytes) {
+        RequestParser parser = new RequestParser();
+        parser.start(bytes, 0);
+        parser.parse(bytes.length);
+        RequestHead requestHead = parser.getRequestHead();
+
+        HttpResponse response = null;
+        try {
+            response = responseFactory.respond(requestHead);
+            stream.endpoint = requestHead.getEndpoint();
+        } catch (IOException e) {
+            System.err.println("AN ERROR OCCURRED WHILE ANSWERING A STREAM");
+        } finally {
+            answer(stream, response);
+            selector.wakeup();
+        }
+    }
+
+    //writing the fields of the header block as a head of HTTP/2.0. Returns
+    //COMPLETE, MALFORMED for a request RFC 9113 does not allow, like one
+    //with a header of HTTP/1.1 connections, or HEAD_TOO_LARGE.
+    private int writeHead() {
+        String method = null;
+        String scheme = null;
+        String path = null;
+        String authority = null;
+        boolean regular = false;
+        boolean host = false;
+
+        int fields = decoder.getFieldCount();
+        for (int i = 0; i < fields; i++) {
+            String name = decoder.getFieldName(i);
+            String value = decoder.getFieldValue(i);
+            if (!isFieldValue(value)) {
+                return RequestParser.MALFORMED;
+            }
+
+            if (!name.startsWith(":")) {
+                if (!isToken(name, true) || HpackEncoder.CONNECTION_HEADERS.contains(name)
+                        || name.equals("te") && !value.equals("trailers")) {
+                    return RequestParser.MALFORMED;
+                }
+                regular = true;
+                host |= name.equals("host");
+                continue;
+            }
+
+            //the pseudo-headers come first and only once
+            if (regular) {
+                return RequestParser.MALFORMED;
+            } else if (name.equals(":method") && method == null) {
+                method = value;
+            } else if (name.equals(":scheme") && scheme == null) {
+                scheme = value;
+            } else if (name.equals(":path") && path == null) {
+                path = value;
+            } else if (name.equals(":authority") && authority == null) {
+                authority = value;
+            } else {
+                return RequestParser.MALFORMED;
+            }
+        }
+
+        if (method == null || scheme == null || path == null || !isToken(method, false)
+                || path.isEmpty() || path.indexOf(' ') >= 0) {
+            return RequestParser.MALFORMED;
+        }
+
+        headLength = 0;
+        boolean fits = put(method) && put(" ") && put(path) && put(" HTTP/2.0\r\n");
+        if (authority != null && !host) {
+            fits = fits && put("Host: ") && put(authority) && put("\r\n");
+        }
+        for (int i = 0; i < fields && fits; i++) {
+            String name = decoder.getFieldName(i);
+            if (!name.startsWith(":")) {
+                fits = put(name) && put(": ") && put(decoder.getFieldValue(i)) && put("\r\n");
+            }
+        }
+        fits = fits && put("\r\n");
+
+        return fits ? RequestParser.COMPLETE : RequestParser.HEAD_TOO_LARGE;
+    }
+
+    //the chars of the string are ISO-8859-1
+    private boolean put(String string) {
+        if (headLength + string.length() > head.length) {
+            return false;
+        }
+        for (int i = 0; i < string.length(); i++) {
+            head[headLength++] = (byte) string.charAt(i);
+        }
+        return true;
+    }
+
+    //a method or a field name, the latter has to be in lower case
+    private static boolean isToken(String token, boolean lowerCase) {
+        if (token.isEmpty()) {
+            return false;
+        }
+
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (!RequestParser.isTokenChar(c) || lowerCase && c >= 'A' && c <= 'Z') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //a value must not end the line of the head
+    private static boolean isFieldValue(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\r' || c == '\n' || c == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int onRstStream(int streamId, int length) {
+        if (length != 4) {
+            return FRAME_SIZE_ERROR;
+        } else if (streamId == 0 || streamId > lastStreamId) {
+            return PROTOCOL_ERROR;
+        }
+
+        Stream stream = streams.get(streamId);
+        if (stream == null) {
+            return NO_ERROR;
+        }
+
+        cancel(stream);
+        if (--resetsLeft < 0) {
+            logger.log(Level.FINE, "THE CLIENT RESETS TOO MANY STREAMS");
+            return ENHANCE_YOUR_CALM;
+        }
+        return NO_ERROR;
+    }
+
+    private int onSettings(int streamId, int flags, int payload, int length) {
+        if (streamId != 0) {
+            return PROTOCOL_ERROR;
+        } else if ((flags & ACK) != 0) {
+            return length == 0 ? NO_ERROR : FRAME_SIZE_ERROR;
+        } else if (length % 6 != 0) {
+            return FRAME_SIZE_ERROR;
+        }
+
+        int error = applySettings(readBuffer, payload, length);
+        if (error != NO_ERROR) {
+            return error;
+        }
+        return queueControl(frame(SETTINGS, ACK, 0, 0)) ? NO_ERROR : ENHANCE_YOUR_CALM;
+    }
+
+    //the settings which concern a server that does not push
+    private int applySettings(byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i += 6) {
+            int setting = (bytes[i] & 0xFF) << 8 | bytes[i + 1] & 0xFF;
+            long value = getInt(bytes, i + 2) & 0xFFFFFFFFL;
+
+            switch (setting) {
+                case SETTINGS_HEADER_TABLE_SIZE:
+                    encoder.setMaxTableSize((int) Math.min(value, Hpack.DEFAULT_TABLE_SIZE));
+                    break;
+
+                case SETTINGS_ENABLE_PUSH:
+                    if (value > 1) {
+                        return PROTOCOL_ERROR;
+                    }
+                    break;
+
+                case SETTINGS_INITIAL_WINDOW_SIZE:
+                    if (value > MAX_WINDOW || !setInitialWindow((int) value)) {
+                        return FLOW_CONTROL_ERROR;
+                    }
+                    break;
+
+                case SETTINGS_MAX_FRAME_SIZE:
+                    if (value < MAX_FRAME_SIZE || value > 0xFFFFFF) {
+                        return PROTOCOL_ERROR;
+                    }
+                    break;
+
+                default:
+                    break;
+            }
+        }
+        return NO_ERROR;
+    }
+
+    //moving the windows of all streams by the change of the initial window,
+    //false if one of them overflows
+    private boolean setInitialWindow(int window) {
+        int delta = window - initialWindow;
+        initialWindow = window;
+
+        boolean valid = true;
+        for (Stream stream : streams.values()) {
+            stream.window += delta;
+            valid &= stream.window <= MAX_WINDOW;
+        }
+        return valid;
+    }
+
+    private int onPing(int streamId, int flags, int payload, int length) {
+        if (length != 8) {
+            return FRAME_SIZE_ERROR;
+        } else if (streamId != 0) {
+            return PROTOCOL_ERROR;
+        } else if ((flags & ACK) != 0) {
+            return NO_ERROR;
+        }
+
+        byte[] ping = frame(PING, ACK, 0, 8);
+        System.arraycopy(readBuffer, payload, ping, FRAME_HEADER, 8);
+        return queueControl(ping) ? NO_ERROR : ENHANCE_YOUR_CALM;
+    }
+
+    //the client opens no more streams, the connection is closed when the
+    //open ones have been answered
+    private int onGoAway(int streamId, int length) {
+        if (streamId != 0) {
+            return PROTOCOL_ERROR;
+        } else if (length < 8) {
+            return FRAME_SIZE_ERROR;
+        }
+
+        logger.log(Level.FINE, "THE CLIENT HAS SENT GOAWAY");
+        goAwayReceived = true;
+        return NO_ERROR;
+    }
+
+    private int onWindowUpdate(int streamId, int payload, int length) {
+        if (length != 4) {
+            return FRAME_SIZE_ERROR;
+        }
+
+        int increment = getInt(readBuffer, payload) & 0x7FFFFFFF;
+        if (streamId == 0) {
+            if (increment == 0) {
+                return PROTOCOL_ERROR;
+            }
+            sendWindow += increment;
+            return sendWindow <= MAX_WINDOW ? NO_ERROR : FLOW_CONTROL_ERROR;
+        }
+
+        Stream stream = streams.get(streamId);
+        if (stream == null) {
+            return streamId > lastStreamId ? PROTOCOL_ERROR : NO_ERROR;
+        } else if (increment == 0) {
+            resetStream(stream, PROTOCOL_ERROR);
+            return NO_ERROR;
+        }
+
+        stream.window += increment;
+        if (stream.window > MAX_WINDOW) {
+            resetStream(stream, FLOW_CONTROL_ERROR);
+        }
+        return NO_ERROR;
+    }
+
+    //handing the response over to the Thread of the connection, which
+    //resets the stream if it is null. A stream which has been reset in the
+    //meantime is not answered any more, but closed by the Thread.
+    private synchronized void answer(Stream stream, HttpResponse response) {
+        if (closed) {
+            if (response != null) {
+                response.release();
+            }
+            return;
+        }
+
+        stream.response = response;
+        answered.addLast(stream);
+    }
+
+    //the stream is closed with the error code
+    private void resetStream(Stream stream, int error) {
+        queueControl(rstStream(stream.id, error));
+        cancel(stream);
+    }
+
+    //the stream is not answered any further, a response which has already
+    //been handed over is released when it is the turn of the stream. A
+    //stream whose handler is running is closed when the handler returns.
+    private void cancel(Stream stream) {
+        stream.remoteClosed = true;
+        synchronized (this) {
+            stream.reset = true;
+            if (stream.response == null && !stream.dispatched) {
+                streams.remove(stream.id);
+            }
+        }
+
+        if (stream.sink != null) {
+            stream.sink.abort();
+            stream.sink = null;
+        }
+    }
+
+    //false if too many frames are waiting
+    private boolean queueControl(byte[] frame) {
+        if (pending.size() >= MAX_CONTROL_FRAMES) {
+            return false;
+        }
+        put(frame);
+        return true;
+    }
+
+    private void goAway(int error) {
+        logger.log(Level.FINE, "CLOSING THE HTTP/2 CONNECTION WITH THE ERROR " + error);
+
+        byte[] goAway = frame(GOAWAY, 0, 0, 8);
+        putInt(goAway, FRAME_HEADER, lastStreamId);
+        putInt(goAway, FRAME_HEADER + 4, error);
+        put(goAway);
+        goAwaySent = true;
+    }
+
+    //releasing the streams, the frame buffer and the Selector. A response
+    //the Executor hands over later is released by answer().
+    private void close() {
+        synchronized (this) {
+            closed = true;
+            answered.clear();
+        }
+        if (streamPool != null) {
+            streamPool.shutdown();
+        }
+
+        for (Stream stream : streams.values()) {
+            if (stream.sink != null) {
+                stream.sink.abort();
+            }
+            stream.release();
+        }
+        streams.clear();
+        active.clear();
+        pending.clear();
+        frameBuffers.release(out);
+
+        try {
+            selector.close();
+            channel.configureBlocking(true);
+        } catch (IOException e) {
+            //the socket is closed by the HttpRequest anyway
+        }
+    }
+
+    //
+    // THE WRITER
+    //
+
+    //putting the frames into the buffer and writing it until the socket
+    //takes no more or nothing is left to send. Returns true when the
+    //connection is done: the GOAWAY has been sent, or the client has sent
+    //one and all of its streams have been answered.
+    private boolean writeFrames() throws IOException {
+        do {
+            fill();
+        } while (out.position() > 0 && flush());
+
+        if (writing || !pending.isEmpty()) {
+            return false;
+        } else if (goAwaySent) {
+            return true;
+        } else if (goAwayReceived && streams.isEmpty()) {
+            socket.shutdownOutput();
+            return true;
+        }
+        return false;
+    }
+
+    //the frames which have been waiting go first, then every stream which
+    //may send gets one turn as long as a whole DATA frame fits
+    private void fill() throws IOException {
+        takeAnswered();
+
+        ByteBuffer frame;
+        while ((frame = pending.peekFirst()) != null && out.hasRemaining()) {
+            Stream.put(frame, out, out.remaining());
+            if (!frame.hasRemaining()) {
+                pending.pollFirst();
+            }
+        }
+
+        for (int i = active.size(); i > 0 && !goAwaySent && pending.isEmpty()
+                && out.remaining() >= FRAME_HEADER + MAX_FRAME_SIZE; i--) {
+            Stream stream = nextStream();
+            if (stream == null) {
+                return;
+            }
+            writeStream(stream);
+        }
+    }
+
+    //the streams the Executor has answered take their turns from now on,
+    //a stream whose handler has failed is reset, one which has been reset
+    //while its handler was running is closed
+    private void takeAnswered() {
+        while (true) {
+            Stream stream;
+            synchronized (this) {
+                stream = answered.pollFirst();
+            }
+
+            if (stream == null) {
+                return;
+            } else if (stream.reset) {
+                finish(stream, false);
+            } else if (stream.response == null) {
+                System.err.println("AN ERROR OCCURRED WHILE ANSWERING A STREAM");
+                resetStream(stream, INTERNAL_ERROR);
+            } else {
+                active.addLast(stream);
+            }
+        }
+    }
+
+    //the next stream which has been reset, has to send its headers or may
+    //send data, the others keep their turn
+    private Stream nextStream() {
+        for (int i = active.size(); i > 0; i--) {
+            Stream stream = active.pollFirst();
+            if (stream.reset || !stream.headersSent || stream.window > 0 && sendWindow > 0) {
+                return stream;
+            }
+            active.addLast(stream);
+        }
+        return null;
+    }
+
+    private void writeStream(Stream stream) throws IOException {
+        if (stream.reset) {
+            finish(stream, false);
+        } else if (!stream.headersSent) {
+            writeHeaders(stream);
+        } else {
+            writeData(stream);
+        }
+    }
+
+    //the status and the headers of the response, which end the stream if
+    //there is no body
+    private void writeHeaders(Stream stream) throws IOException {
+        HttpResponse response = stream.response;
+        try {
+            stream.openBody();
+        } catch (IOException e) {
+            System.err.println("AN ERROR OCCURRED WHILE OPENING THE BODY OF A STREAM");
+            put(rstStream(stream.id, INTERNAL_ERROR));
+            finish(stream, false);
+            return;
+        }
+
+        encoder.encode(response.getStatusCode(), HttpDate.getDateLine(),
+                response.getHeaderLines());
+        byte[] block = encoder.getBlock();
+        int length = encoder.getLength();
+        boolean end = !stream.hasData();
+
+        int type = HEADERS;
+        for (int offset = 0; offset < length; ) {
+            int part = Math.min(length - offset, MAX_FRAME_SIZE);
+            int flags = (offset + part == length ? END_HEADERS : 0)
+                    | (type == HEADERS && end ? END_STREAM : 0);
+
+            if (pending.isEmpty() && out.remaining() >= FRAME_HEADER + part) {
+                putFrameHeader(out, part, type, flags, stream.id);
+                out.put(block, offset, part);
+            } else {
+                byte[] frame = frame(type, flags, stream.id, part);
+                System.arraycopy(block, offset, frame, FRAME_HEADER, part);
+                pending.addLast(ByteBuffer.wrap(frame));
+            }
+
+            stream.bytesSent += FRAME_HEADER + part;
+            offset += part;
+            type = CONTINUATION;
+        }
+
+        stream.headersSent = true;
+        if (end) {
+            finish(stream, true);
+        } else {
+            active.addLast(stream);
+        }
+    }
+
+    //one DATA frame as large as the windows allow, the buffer has room for
+    //the largest one
+    private void writeData(Stream stream) {
+        int max = (int) Math.max(0, Math.min(MAX_FRAME_SIZE,
+                Math.min(stream.window, sendWindow)));
+
+        int start = out.position();
+        out.position(start + FRAME_HEADER);
+
+        int length;
+        try {
+            length = max > 0 ? stream.putData(out, max) : 0;
+        } catch (IOException e) {
+            System.err.println("AN ERROR OCCURRED WHILE READING THE BODY OF A STREAM");
+            out.position(start);
+            put(rstStream(stream.id, INTERNAL_ERROR));
+            finish(stream, false);
+            return;
+        }
+
+        if (length == 0 && stream.hasData()) {
+            //nothing to send yet, the stream waits for its window
+            out.position(start);
+            active.addLast(stream);
+            return;
+        }
+
+        stream.window -= length;
+        sendWindow -= length;
+
+        boolean end = !stream.hasData();
+        int position = out.position();
+        out.position(start);
+        putFrameHeader(out, length, DATA, end ? END_STREAM : 0, stream.id);
+        out.position(position);
+        stream.bytesSent += FRAME_HEADER + length;
+
+        if (end) {
+            finish(stream, true);
+        } else {
+            active.addLast(stream);
+        }
+    }
+
+    //closing the stream, which has been answered completely or not. The
+    //client stops sending a body nobody reads when the stream is reset.
+    private void finish(Stream stream, boolean completed) {
+        streams.remove(stream.id);
+        boolean unread = !stream.remoteClosed;
+        stream.remoteClosed = true;
+
+        if (completed && unread) {
+            put(rstStream(stream.id, NO_ERROR));
+        }
+
+        if (completed) {
+            resetsLeft = Math.min(MAX_RESETS, resetsLeft + 1);
+            long nanos = System.nanoTime() - stream.started;
+            int status = stream.response.getStatusCode();
+            responseFactory.getMetrics().recordResponse(stream.endpoint, status,
+                    stream.bytesSent, nanos);
+            if (accessLog != null) {
+                accessLog.record(stream.entry, status, stream.bytesSent, nanos);
+            }
+        }
+        stream.release();
+    }
+
+    //a frame goes into the buffer if nothing is waiting and it fits
+    private void put(byte[] frame) {
+        if (pending.isEmpty() && out.remaining() >= frame.length) {
+            out.put(frame);
+        } else {
+            pending.addLast(ByteBuffer.wrap(frame));
+        }
+    }
+
+    //writing what the socket takes, false if bytes are left. A write the
+    //client does not take has to make progress within the write timeout and
+    //go at the minimum rate since it has stalled, like the responses of the
+    //selector engine.
+    private boolean flush() throws IOException {
+        out.flip();
+        int written = channel.write(out);
+        boolean flushed = !out.hasRemaining();
+        out.compact();
+
+        if (flushed) {
+            if (writing) {
+                writing = false;
+                deadline.setDeadline(TimerWheel.now() + connectionLimits.getIdleTimeout());
+            }
+        } else if (!writing) {
+            writing = true;
+            writeStarted = TimerWheel.now();
+            bytesWritten = 0;
+            deadline.setDeadline(writeStarted + connectionLimits.getWriteTimeout());
+        } else if (written > 0) {
+            bytesWritten += written;
+            deadline.setDeadline(connectionLimits.getTransferDeadline(writeStarted,
+                    bytesWritten, TimerWheel.now(), connectionLimits.getWriteTimeout()));
+        }
+        return flushed;
+    }
+
+    //
+    // THE DEADLINE
+    //
+
+    //bytes have been read, the idle timeout starts again unless a write is
+    //in progress
+    private void touch() {
+        if (!writing) {
+            deadline.setDeadline(TimerWheel.now() + connectionLimits.getIdleTimeout());
+        }
+    }
+
+    //
+    // THE FRAMES
+    //
+
+    //a frame with its header and room for the payload
+    private static byte[] frame(int type, int flags, int streamId, int length) {
+        byte[] frame = new byte[FRAME_HEADER + length];
+        frame[0] = (byte) (length >>> 16);
+        frame[1] = (byte) (length >>> 8);
+        frame[2] = (byte) length;
+        frame[3] = (byte) type;
+        frame[4] = (byte) flags;
+        putInt(frame, 5, streamId);
+        return frame;
+    }
+
+    private static byte[] rstStream(int streamId, int error) {
+        byte[] frame = frame(RST_STREAM, 0, streamId, 4);
+        putInt(frame, FRAME_HEADER, error);
+        return frame;
+    }
+
+    private static byte[] windowUpdate(int streamId, int increment) {
+        byte[] frame = frame(WINDOW_UPDATE, 0, streamId, 4);
+        putInt(frame, FRAME_HEADER, increment);
+        return frame;
+    }
+
+    private static void putSetting(byte[] frame, int offset, int setting, int value) {
+        frame[offset] = (byte) (setting >>> 8);
+        frame[offset + 1] = (byte) setting;
+        putInt(frame, offset + 2, value);
+    }
+
+    private static void putFrameHeader(ByteBuffer out, int length, int type, int flags,
+                                       int streamId) {
+        out.put((byte) (length >>> 16)).put((byte) (length >>> 8)).put((byte) length);
+        out.put((byte) type).put((byte) flags).putInt(streamId);
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static int getInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8 | bytes[offset + 3] & 0xFF;
+    }
+
+    /**************************************************************************
+     * A Stream is one request and its response. Its body is held like the
+     * engines hold it: as buffers, as the ranges of a file with their
+     * separators, or as a StreamingBody, which is sent without the chunked
+     * framing, because the DATA frames already delimit it.
+     **************************************************************************/
+    private static final class Stream {
+
+        final int id;
+
+        //guarded by the connection, the Executor hands the response over
+        HttpResponse response;
+        boolean reset;
+
+        //owned by the Thread of the connection, a dispatched stream waits
+        //for its handler even if it has been reset
+        long window;
+        boolean remoteClosed;
+        boolean dispatched;
+
+        //the sink while the body of the request arrives
+        BodySink sink;
+        long received;
+        long expectedLength = -1;
+
+        //the body once the response has been handed over, a part is a
+        //buffer, a range of the file or a separator
+        boolean headersSent;
+        private ByteBuffer[] buffers;
+        private long[] ranges;
+        private byte[][] separators;
+        private FileChannel fileChannel;
+        private ChunkEncoder chunkEncoder;
+        private ByteBuffer chunk;
+        private int parts;
+        private int part;
+        private long offset;
+        private boolean released;
+
+        //what the Metrics and the AccessLog get
+        int endpoint = Metrics.NO_ENDPOINT;
+        long started;
+        long bytesSent;
+        AccessLog.Entry entry;
+
+        Stream(int id, long window) {
+            this.id = id;
+            this.window = window;
+        }
+
+        void openBody() throws IOException {
+            if (response.getBody() != null) {
+                buffers = new ByteBuffer[]{response.getBody()};
+            } else if (response.getRegions() != null) {
+                buffers = response.getRegions();
+            } else if (response.getFile() != null) {
+                ranges = response.getFileRanges();
+                separators = response.getSeparators();
+                fileChannel = FileChannel.open(response.getFile(), StandardOpenOption.READ);
+            } else if (response.getStream() != null) {
+                chunkEncoder = new ChunkEncoder();
+                chunkEncoder.start(response.getStream(), false);
+            }
+
+            if (buffers != null) {
+                parts = buffers.length;
+            } else if (ranges != null) {
+                parts = separators == null ? ranges.length / 2 : ranges.length + 1;
+            }
+        }
+
+        //whether bytes of the body are left, the empty parts are skipped
+        boolean hasData() {
+            if (chunkEncoder != null) {
+                return !chunkEncoder.isFinished() || chunk != null && chunk.hasRemaining();
+            }
+
+            while (part < parts && getRemaining() == 0) {
+                part++;
+                offset = 0;
+            }
+            return part < parts;
+        }
+
+        private long getRemaining() {
+            if (buffers != null) {
+                return buffers[part].remaining();
+            } else if (separators != null && part % 2 == 0) {
+                return separators[part / 2].length - offset;
+            }
+            int range = separators == null ? part : part / 2;
+            return ranges[2 * range + 1] - offset;
+        }
+
+        //putting up to max bytes of the body into the buffer, the ranges of
+        //the file are read at their positions straight into it
+        int putData(ByteBuffer out, int max) throws IOException {
+            int written = 0;
+
+            while (written < max && hasData()) {
+                int length;
+
+                if (chunkEncoder != null) {
+                    if (chunk == null || !chunk.hasRemaining()) {
+                        chunk = chunkEncoder.next();
+                        if (chunk == null || !chunk.hasRemaining()) {
+                            break;
+                        }
+                    }
+                    length = put(chunk, out, max - written);
+                } else if (buffers != null) {
+                    length = put(buffers[part], out, max - written);
+                } else if (separators != null && part % 2 == 0) {
+                    length = (int) Math.min(max - written, getRemaining());
+                    out.put(separators[part / 2], (int) offset, length);
+                    offset += length;
+                } else {
+                    int range = separators == null ? part : part / 2;
+                    int limit = out.limit();
+                    out.limit(out.position() + (int) Math.min(max - written, getRemaining()));
+                    try {
+                        length = fileChannel.read(out, ranges[2 * range] + offset);
+                    } finally {
+                        out.limit(limit);
+                    }
+                    if (length <= 0) {
+                        throw new IOException("The file has been truncated");
+                    }
+                    offset += length;
+                }
+
+                written += length;
+            }
+            return written;
+        }
+
+        private static int put(ByteBuffer source, ByteBuffer out, int max) {
+            int length = Math.min(max, source.remaining());
+            int limit = source.limit();
+            source.limit(source.position() + length);
+            out.put(source);
+            source.limit(limit);
+            return length;
+        }
+
+        //giving back the file, the chunk buffer and what the response holds
+        void release() {
+            if (released) {
+                return;
+            }
+            released = true;
+
+            if (chunkEncoder != null) {
+                chunkEncoder.release();
+            }
+            if (fileChannel != null) {
+                try {
+                    fileChannel.close();
+                } catch (IOException e) {
+                    System.err.println("AN ERROR OCCURRED WHILE CLOSING THE FILE");
+                }
+            }
+            if (response != null) {
+                response.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/******************************************************************************
+ * The HttpDate holds the encoded Date header line which all responses share.
+ * A clock thread formats it once a second, so that no request has to format
+ * a date on its own.
+ *
+ * <p>The dates are formatted like RFC 7231 demands, e.g.
+ * <i>Sun, 06 Nov 1994 08:49:37 GMT</i>.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class HttpDate {
+
+    static final DateTimeFormatter FORMAT = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+            .withZone(ZoneOffset.UTC);
+
+    //the array is replaced, never changed, so readers need no lock
+    private static volatile byte[] dateLine = encodeDateLine(System.currentTimeMillis());
+
+    static {
+        ScheduledExecutorService clock = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "http-date-clock");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        //ticking right after every full second
+        long now = System.currentTimeMillis();
+        clock.scheduleAtFixedRate(() -> dateLine = encodeDateLine(System.currentTimeMillis()),
+                1000 - now % 1000, 1000, TimeUnit.MILLISECONDS);
+    }
+
+    private HttpDate() {
+    }
+
+    /**************************************************************************
+     * Returns the Date header line of the current second with its CRLF. The
+     * array is shared and must not be changed.
+     **************************************************************************/
+    public static byte[] getDateLine() {
+        return dateLine;
+    }
+
+    /**************************************************************************
+     * Formats the time like the Date header.
+     *
+     * @param millis The milliseconds since the epoch
+     **************************************************************************/
+    public static String format(long millis) {
+        return FORMAT.format(Instant.ofEpochMilli(millis));
+    }
+
+    /**************************************************************************
+     * Parses a date formatted like the Date header.
+     *
+     * @param date The date like <i>Sun, 06 Nov 1994 08:49:37 GMT</i>
+     * @return The milliseconds since the epoch or -1 if it can not be parsed
+     **************************************************************************/
+    public static long parse(String date) {
+        try {
+            return Instant.from(FORMAT.parse(date)).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    private static byte[] encodeDateLine(long millis) {
+        return ("Date: " + format(millis) + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
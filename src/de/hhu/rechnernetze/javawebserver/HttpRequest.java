@@ -2,17 +2,36 @@ package de.hhu.rechnernetze.javawebserver;
 
 import java.io.*;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.StringTokenizer;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /******************************************************************************
- * The HttpRequest class will handle the received HTTP request within an own
- * Thread.
+ * The HttpRequest class will handle the received HTTP requests of one
+ * connection within an own Thread. The connection is kept open for further
+ * requests as long as the client and the ConnectionLimits allow it.
+ *
+ * <p>The entity body of a POST or PUT request is read in parts of the read
+ * buffer and handed to the BodySink the ResponseFactory has opened for it.</p>
+ *
+ * <p>A blocking read or write can not be given a deadline of its own, so the
+ * deadline of every connection is kept in one TimerWheel, which closes the
+ * socket when it has passed. Large bodies are written in parts, so that a
+ * write which has been started is never given more time than its bytes need
+ * at the minimum rate of the ConnectionLimits.</p>
+ *
+ * <p>A client which starts with the preface of HTTP/2 or asks to switch to
+ * it with <i>Upgrade: h2c</i> is handed over to an Http2Connection, which
+ * serves the connection from then on.</p>
  *
  * @author Zeljko Bekcic
  * @version 1.0
@@ -22,68 +41,171 @@ final class HttpRequest implements Runnable {
     final static String CRLF = "\r\n";
     final static Logger logger = Logger.getLogger(HttpRequest.class.getName());
 
-    MIMEType mimeType;
+    //the header lines of the 503 response, which is sent without a Date
+    //header because it has to be as cheap as possible
+    final static byte[] OVERLOAD_HEADER_LINES = ("Connection: close" + CRLF +
+            "Retry-After: 1" + CRLF +
+            "Content-Length: 0" + CRLF +
+            CRLF).getBytes(StandardCharsets.ISO_8859_1);
+
+    //the buffers for sockets without a channel, where sendfile is not possible
+    final static BufferPool fileBuffers = new BufferPool(256 * 1024, 64);
+
+    //the heap buffers the request heads are read into, one per connection
+    final static BufferPool headBuffers =
+            new BufferPool(RequestParser.DEFAULT_MAX_HEAD_SIZE, 1024, false);
+
+    //the deadlines of all connections
+    final static TimerWheel deadlines = TimerWheel.startThread("connection-deadlines");
+
+    //the largest part of a body which is written with one call
+    final static int WRITE_PART = 256 * 1024;
+
+    ResponseFactory responseFactory;
+    ConnectionLimits connectionLimits;
     Socket socket;
 
-    DataOutputStream dataOutputStream=null;
-    BufferedReader bufferedReader=null;
+    //runs the handlers of the streams of an HTTP/2 connection, null if
+    //every connection has a pool of its own
+    final Executor streamExecutor;
+
+    //a BufferedOutputStream instead of a DataOutputStream, because the
+    //synchronized methods of the DataOutputStream would pin a virtual thread
+    //to its carrier while it is blocked in a socket write.
+    OutputStream outputStream=null;
+    InputStream inputStream=null;
+
+    //the head is parsed in place, pipelined requests stay in the buffer
+    //between readPosition and readEnd until they are answered.
+    final RequestParser requestParser = new RequestParser();
+    ByteBuffer readBuffer=null;
+    int readPosition=0;
+    int readEnd=0;
+
+    final RequestBody requestBody;
+    final ChunkEncoder chunkEncoder = new ChunkEncoder();
+
+    //the bytes of the response which is being sent, for the Metrics
+    long bytesSent=0;
+
+    //the deadline of the connection and the start of the response
+    TimerWheel.Timeout deadline=null;
+    long writeStarted=0;
+
+    //what the AccessLog writes about the request, null if there is none
+    final AccessLog accessLog;
+    final AccessLog.Entry accessLogEntry;
 
 
     /**************************************************************************
      * Constructs an basic HttpRequest with the given socket.
      *
      * @param socket The socket which holds the connection to whom requested one.
-     * @param mimeType Gives the mimeType for file-endings.
+     * @param responseFactory Creates the responses to the requests.
      * @throws IllegalArgumentException if the specified socket is null
      **************************************************************************/
-    public HttpRequest(Socket socket, MIMEType mimeType) {
+    public HttpRequest(Socket socket, ResponseFactory responseFactory) {
+        this(socket, responseFactory, new ConnectionLimits());
+    }
+
+    /**************************************************************************
+     * Constructs an HttpRequest which keeps the connection open within the
+     * given limits.
+     *
+     * @param socket The socket which holds the connection to whom requested one.
+     * @param responseFactory Creates the responses to the requests.
+     * @param connectionLimits The idle timeout and the maximum of requests
+     * @throws IllegalArgumentException if the specified socket is null
+     **************************************************************************/
+    public HttpRequest(Socket socket, ResponseFactory responseFactory,
+                       ConnectionLimits connectionLimits) {
+        this(socket, responseFactory, connectionLimits, Runnable::run);
+    }
+
+    /**************************************************************************
+     * Constructs an HttpRequest which keeps the connection open within the
+     * given limits and answers the streams of HTTP/2 on the given Executor.
+     *
+     * @param socket The socket which holds the connection to whom requested one.
+     * @param responseFactory Creates the responses to the requests.
+     * @param connectionLimits The idle timeout and the maximum of requests
+     * @param streamExecutor Runs the handlers of the streams of HTTP/2 or
+     *                       null to give every connection a pool of its own
+     * @throws IllegalArgumentException if the specified socket is null
+     **************************************************************************/
+    public HttpRequest(Socket socket, ResponseFactory responseFactory,
+                       ConnectionLimits connectionLimits, Executor streamExecutor) {
         if (socket == null) {
             logger.log(Level.WARNING, "RECEIVED ILLEGAL SOCKET : " + socket);
             throw new IllegalArgumentException("Illegal Socket: " + socket);
         }
         this.socket = socket;
 
-        if (mimeType == null) {
-            logger.log(Level.WARNING, "RECEIVED ILLEGAL MIMETYPE : " + socket);
-            throw new IllegalArgumentException("Illegal MIMEType: " + socket);
+        if (responseFactory == null) {
+            logger.log(Level.WARNING, "RECEIVED ILLEGAL RESPONSEFACTORY : " + socket);
+            throw new IllegalArgumentException("Illegal ResponseFactory: " + socket);
         }
 
-        this.mimeType = mimeType;
+        this.responseFactory = responseFactory;
+        this.connectionLimits = connectionLimits;
+        this.streamExecutor = streamExecutor;
+        this.requestBody = new RequestBody(connectionLimits.getMaxBodySize());
+        this.accessLog = responseFactory.getAccessLog();
+        this.accessLogEntry = accessLog != null ? new AccessLog.Entry(socket.getInetAddress())
+                : null;
     }
 
     /**************************************************************************
-     * Handling the HTTP request within this method
+     * Handling the HTTP requests within this method
      **************************************************************************/
     @Override
     public void run() {
+        Metrics metrics = responseFactory.getMetrics();
+        metrics.connectionOpened();
+
         processHttpRequest();
         close();
+
+        metrics.connectionClosed();
     }
 
     //closing the streams
     public void close() {
+        //the socket of an expired connection has already been closed
+        boolean expired = deadline != null && deadline.hasExpired();
+        if (deadline != null) {
+            deadline.cancel();
+        }
+
         try {
-            dataOutputStream.close();
+            outputStream.close();
         } catch (IOException e) {
-            System.err.println("AN ERROR OCCURRED WHILE CLOSING THE " +
-                    "DATAOUTPUTSTREAM");
-            e.printStackTrace();
+            if (!expired) {
+                System.err.println("AN ERROR OCCURRED WHILE CLOSING THE " +
+                        "OUTPUTSTREAM");
+                e.printStackTrace();
+            }
         } catch (NullPointerException e) {
-            System.err.println("THE DATAOUTPUTSTREAM HAS NOT BEEN CLOSED " +
+            System.err.println("THE OUTPUTSTREAM HAS NOT BEEN CLOSED " +
                     "BECAUSE IT WAS NULL");
         }
 
         try {
-            bufferedReader.close();
+            inputStream.close();
         } catch (IOException e) {
             System.err.println("AN ERROR OCCURRED WHILE CLOSING THE " +
-                    "BUFFEREDREADER");
+                    "INPUTSTREAM");
             e.printStackTrace();
         } catch (NullPointerException e) {
-            System.err.println("THE BUFFEREDREADER HAS NOT BEEN CLOSED " +
+            System.err.println("THE INPUTSTREAM HAS NOT BEEN CLOSED " +
                     "BECAUSE IT WAS NULL");
         }
 
+        if (readBuffer != null) {
+            headBuffers.release(readBuffer);
+            readBuffer = null;
+        }
+
         try {
             socket.close();
         } catch (IOException e) {
@@ -92,255 +214,454 @@ final class HttpRequest implements Runnable {
         }
     }
 
-    //checking if the file exists
-    private boolean checkIfFileExists(Path path){
-        File file = path.toFile();
-        return file.isFile() && file.exists();
+    /**************************************************************************
+     * Answering with 503 without reading the request, this is used when
+     * there is no worker left to handle the connection.
+     **************************************************************************/
+    public void respondToOverload() {
+        responseFactory.getMetrics().connectionRejected();
+
+        try {
+            outputStream = new BufferedOutputStream(socket.getOutputStream());
+            outputStream.write(HttpStatus.SERVICE_UNAVAILABLE);
+            outputStream.write(OVERLOAD_HEADER_LINES);
+            outputStream.flush();
+        } catch (IOException e) {
+            System.err.println("AN ERROR OCCURRED WHILE REJECTING THE CONNECTION");
+        }
+
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.err.println("AN ERROR OCCURRED WHILE CLOSING THE SOCKET");
+            e.printStackTrace();
+        }
     }
 
     //processing the http request and then closing the streams.
     private void processHttpRequest() {
         try {
-            dataOutputStream = new DataOutputStream(socket.getOutputStream());
-            bufferedReader = new BufferedReader(
-                    new InputStreamReader(socket.getInputStream()));
-            respondToRequest();
+            outputStream = new BufferedOutputStream(socket.getOutputStream());
+            inputStream = socket.getInputStream();
+            readBuffer = headBuffers.acquire();
+            deadline = deadlines.schedule(this::expire,
+                    TimerWheel.now() + connectionLimits.getIdleTimeout());
+
+            int requests = 0;
+            boolean keepAlive = true;
+
+            while (keepAlive) {
+                requests++;
+                keepAlive = respondToRequest(requests < connectionLimits.getMaxRequests());
+            }
         } catch( IOException e){
-            System.err.println("AN ERROR OCCURRED WHILE PROCESSING THE HTTP " +
-                    "REQUEST");
+            if (deadline != null && deadline.hasExpired()) {
+                logger.log(Level.FINE, "CLOSING THE CONNECTION WHICH HAS MISSED ITS DEADLINE");
+            } else {
+                System.err.println("AN ERROR OCCURRED WHILE PROCESSING THE HTTP " +
+                        "REQUEST");
+            }
         }
     }
 
-    //reading the file the user asked for
-    //I am using this method only to get the byte size of the requested File.
-    private String readFile(FileInputStream fileInputStream) throws IOException {
-        byte[] buffer = new byte[1024];
-        int bytes = 0;
-
-        String content = "";
+    //closing the socket from the Thread of the TimerWheel. Closing alone does
+    //not wake a Thread blocked in sendfile, shutting both directions down
+    //first makes the blocked read or write throw
+    private void expire() {
+        try {
+            if (!socket.isClosed()) {
+                socket.shutdownInput();
+                socket.shutdownOutput();
+            }
+        } catch (IOException e) {
+            //the connection has been reset by the client
+        }
 
-        while ((bytes = fileInputStream.read(buffer)) != -1) {
-            content += new String(buffer);
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.err.println("AN ERROR OCCURRED WHILE CLOSING THE SOCKET");
         }
-        return content;
     }
 
-    //sending the file safe
-    //problems occurred if I have not used this method for sending the entity body
-    private void sendBytes(FileInputStream fileInputStream) throws IOException {
+    //the deadline of writing the next bytes. A blocking write can not be
+    //watched while it is in progress, so it may take as long as its bytes
+    //need at the minimum rate on top of the write timeout.
+    private void armWrite(long bytes) {
+        long now = TimerWheel.now() + connectionLimits.getTransferTime(bytes);
+        deadline.setDeadline(connectionLimits.getTransferDeadline(writeStarted,
+                bytesSent + bytes, now, connectionLimits.getWriteTimeout()));
+    }
 
-        byte[] buffer = new byte[1024];
-        int bytes = 0;
+    //sending the ranges of the file, each behind its multipart separator if
+    //there are any. If the socket has a channel the kernel copies the file
+    //straight to the socket (sendfile), otherwise it is copied through a
+    //large direct buffer. Both read from the position of the range, so the
+    //bytes in front of it are never read.
+    private void sendFile(Path file, long[] ranges, byte[][] separators) throws IOException {
+
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            SocketChannel socketChannel = socket.getChannel();
+
+            for (int i = 0; i < ranges.length / 2; i++) {
+                if (separators != null) {
+                    outputStream.write(separators[i]);
+                    bytesSent += separators[i].length;
+                }
+
+                //the head has to be on the wire before the body
+                outputStream.flush();
+
+                if (socketChannel != null) {
+                    transferRange(fileChannel, ranges[2 * i], ranges[2 * i + 1],
+                            socketChannel, file);
+                } else {
+                    sendFileThroughBuffer(fileChannel, ranges[2 * i], ranges[2 * i + 1]);
+                }
+            }
+
+            if (separators != null) {
+                outputStream.write(separators[separators.length - 1]);
+                bytesSent += separators[separators.length - 1].length;
+            }
+        }
+    }
 
-        while ((bytes = fileInputStream.read(buffer)) != -1) {
-            dataOutputStream.write(buffer, 0, bytes);
+    private void transferRange(FileChannel fileChannel, long position, long length,
+                               SocketChannel socketChannel, Path file) throws IOException {
+        long end = position + length;
+        while (position < end) {
+            long part = Math.min(end - position, WRITE_PART);
+            armWrite(part);
+            long bytes = fileChannel.transferTo(position, part, socketChannel);
+            if (bytes <= 0) {
+                throw new IOException("The file has been truncated: " + file);
+            }
+            position += bytes;
+            bytesSent += bytes;
         }
     }
 
-    //getting the contentType for the file ending
-    private String contentType(String fileName) {
-        //if the file has no data type at the end it will pass nearly the
-        //entire string and get me the default value
-        int lastDelimiter = fileName.lastIndexOf('/') + 1;
-        String file = fileName.substring(lastDelimiter);
-        lastDelimiter = file.lastIndexOf('.') + 1;
-        String fileEnding = file.substring((lastDelimiter));
+    private void sendFileThroughBuffer(FileChannel fileChannel, long position, long length)
+            throws IOException {
+
+        WritableByteChannel channel = Channels.newChannel(socket.getOutputStream());
+        ByteBuffer buffer = fileBuffers.acquire();
 
-         return mimeType.getMIMEType(fileEnding);
+        try {
+            long remaining = length;
+            while (remaining > 0) {
+                buffer.clear();
+                if (remaining < buffer.capacity()) {
+                    buffer.limit((int) remaining);
+                }
+                int read = fileChannel.read(buffer, position);
+                if (read == -1) {
+                    throw new IOException("The file has been truncated");
+                }
+                buffer.flip();
+                armWrite(read);
+                remaining -= read;
+                position += read;
+                bytesSent += read;
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        } finally {
+            fileBuffers.release(buffer);
+        }
     }
 
-    //responding to the request depending on the HTTP request method
-    private void respondToRequest() throws IOException {
+    //heap bodies are written behind the head with one flush, direct bodies
+    //go straight from their off-heap memory to the socket channel.
+    private void sendBody(ByteBuffer body) throws IOException {
+        if (body.hasArray()) {
+            armWrite(body.remaining());
+            bytesSent += body.remaining();
+            outputStream.write(body.array(), body.arrayOffset() + body.position(),
+                    body.remaining());
+            return;
+        }
 
-        String requestLine = bufferedReader.readLine();
+        outputStream.flush();
 
-        logger.log(Level.FINE, "REQUESTLINE :\t" + requestLine);
+        WritableByteChannel channel = socket.getChannel();
+        if (channel == null) {
+            channel = Channels.newChannel(socket.getOutputStream());
+        }
 
-        StringTokenizer tokens = new StringTokenizer(requestLine);
-        String method = tokens.nextToken();
-        String fileName = tokens.nextToken();
+        int limit = body.limit();
+        while (body.hasRemaining()) {
+            body.limit(Math.min(limit, body.position() + WRITE_PART));
+            armWrite(body.remaining());
+            bytesSent += channel.write(body);
+            body.limit(limit);
+        }
+    }
 
-        //appending the filename to a dot to prevent that the server thinks,
-        //that the file is located at the root, the dot is for the current
-        //directory.
-        fileName = "." + fileName;
+    //sending every chunk as soon as it has been produced, the head goes out
+    //together with the first one
+    private void sendStream(HttpResponse response) throws IOException {
+        chunkEncoder.start(response.getStream(), response.isChunked());
 
-        logger.log(Level.FINER, "REQUEST METHOD :\t" + method);
+        try {
+            ByteBuffer chunk;
+            while ((chunk = chunkEncoder.next()) != null) {
+                sendBody(chunk);
+            }
+        } finally {
+            chunkEncoder.release();
+        }
+    }
 
-        switch (method){
-            case "GET":
-                respondToGET(fileName);
-                break;
+    //reading the request line and the header lines, then sending the
+    //response the ResponseFactory has created for them. Returns whether the
+    //connection stays open for the next request.
+    private boolean respondToRequest(boolean mayKeepAlive) throws IOException {
 
-            case "HEAD":
-                respondToHEAD(fileName);
-                break;
+        byte[] bytes = readBuffer.array();
+        if (readPosition == readEnd) {
+            readPosition = 0;
+            readEnd = 0;
+        }
 
-            case "POST":
-                respondToPOST();
+        requestParser.start(bytes, readPosition);
+        RequestHead requestHead = requestParser.getRequestHead();
+        int result;
+
+        //the first byte of the head has to arrive within the idle timeout,
+        //the rest of it within the header timeout, however slowly it comes
+        boolean headStarted = readEnd > readPosition;
+        deadline.setDeadline(TimerWheel.now() + (headStarted
+                ? connectionLimits.getHeaderTimeout() : connectionLimits.getIdleTimeout()));
+
+        //reading until the head is complete or has been rejected
+        while ((result = requestParser.parse(readEnd)) == RequestParser.NEED_MORE) {
+            if (readEnd == bytes.length) {
+                compact(bytes);
+                continue;
+            }
+
+            int read = inputStream.read(bytes, readEnd, bytes.length - readEnd);
+            if (read == -1) {
                 break;
+            }
+            readEnd += read;
 
-            default:
-                respondToInvalid();
-                break;
+            if (!headStarted) {
+                headStarted = true;
+                deadline.setDeadline(TimerWheel.now() + connectionLimits.getHeaderTimeout());
+            }
         }
-    }
-
-    //
-    // RESPONDING TO REQUEST METHODS WITH MORE METHODS
-    //
-    private void respondToGET(String fileName) throws IOException {
 
-        logger.log(Level.FINEST, "REQUESTED FILE IS :\t" + fileName);
+        if (result == RequestParser.NEED_MORE && !requestHead.isValid()) {
+            logger.log(Level.FINE, "THE CONNECTION HAS BEEN CLOSED BEFORE A REQUEST");
+            return false;
+        }
 
-        boolean fileExists = checkIfFileExists(Paths.get(fileName));
+        //a client which knows that the server speaks HTTP/2 starts with its
+        //preface, the connection is handed over for good. Its frames are
+        //read and written without blocking, which needs the channel.
+        boolean http2 = result == RequestParser.COMPLETE && connectionLimits.getMaxStreams() > 0
+                && socket.getChannel() != null;
+        if (http2 && Http2Connection.isPreface(requestHead)) {
+            new Http2Connection(socket, responseFactory, connectionLimits, deadline, streamExecutor)
+                    .servePriorKnowledge(bytes, requestParser.getHeadEnd(), readEnd);
+            return false;
+        }
 
-        SimpleDateFormat simpleDateFormat =
-                new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss ");
+        //the duration of the request starts with its complete head
+        long started = System.nanoTime();
+        if (accessLog != null) {
+            accessLogEntry.start(requestHead);
+        }
 
-        String statusLine = "";
-        String contentType = "";
-        String contentLength = "";
-        String entityBody = "";
-        String date = "Date: " + simpleDateFormat.format(new Date());
+        boolean keepAlive = mayKeepAlive && result == RequestParser.COMPLETE
+                && requestHead.isKeepAlive();
+        boolean unread = result != RequestParser.COMPLETE && result != RequestParser.NEED_MORE;
 
-        String userAgent;
+        if (result == RequestParser.COMPLETE) {
+            readPosition = requestParser.getHeadEnd();
+        }
 
-        //looping to the user agent, everything else is not relevant now.
-        while(!(userAgent = bufferedReader.readLine())
-                .toUpperCase().startsWith("USER-AGENT:"));
+        byte[] settings = http2 ? Http2Connection.getUpgradeSettings(requestHead) : null;
+        if (settings != null) {
+            upgrade(requestHead, settings, started);
+            return false;
+        }
 
-        logger.log(Level.FINEST, "THE REQUESTED FILE IS : " + fileName);
+        BodySink bodySink = result == RequestParser.COMPLETE
+                ? responseFactory.openBody(requestHead) : null;
+        HttpResponse response;
 
-        if (fileExists) {
-            statusLine = "HTTP/1.0 200 OK";
-            contentType = "Content-Type: " + contentType(fileName);
-            entityBody = readFile(new FileInputStream(Paths.get(fileName).toFile()));
+        if (bodySink != null) {
+            int bodyResult = receiveBody(requestHead, bodySink);
+            keepAlive = keepAlive && bodyResult == RequestBody.COMPLETE
+                    && !requestBody.isAmbiguous();
+            unread = bodyResult != RequestBody.COMPLETE;
 
-            logger.log(Level.FINEST, "FILE HAS BEEN FOUND");
+            response = bodyResult == RequestBody.COMPLETE ? bodySink.finish()
+                    : responseFactory.respondToRejectedBody(bodyResult);
+        } else if (unread) {
+            response = responseFactory.respondToRejected(result);
         } else {
-            statusLine = "HTTP/1.0 404 Not Found";
-            contentType = "Content-type: " + contentType("htm");
-            entityBody = "<HTML>\n" +
-                    "    <HEAD>\n" +
-                    "        <TITLE>\n" +
-                    "            NOT FOUND" +
-                    "        </TITLE>\n" +
-                    "    </HEAD>\n" +
-                    "    <BODY>\n" +
-                    "       I COULD NOT FIND THE FILE YOUR WERE ASKING FOR" +
-                    "<p>" +
-                    "BUT I KNOW YOU IP-ADDRESS, WHICH IS :<b> " +
-                    socket.getRemoteSocketAddress().toString() +
-                    "</b></p><p>" +
-                    "AND YOUR USER AGENT WHICH IS: <b>" +
-                    //removing the user-agent: substring and trimming the
-                    // string so that it looks nice
-                    userAgent.substring(new String("USER-AGENT: ").length()).trim() +
-                    "</b><br>" +
-                    "</BODY>\n" +
-                    "</HTML>";
-
-        }
-
-        contentLength = "Content-Length: " + entityBody.getBytes("UTF-8").length;
-
-        //pushing these to you back
-        dataOutputStream.writeBytes(statusLine + CRLF);
-        dataOutputStream.writeBytes(date + CRLF);
-        dataOutputStream.writeBytes(contentType + CRLF);
-        dataOutputStream.writeBytes(contentLength + CRLF);
-        dataOutputStream.writeBytes(CRLF);
-
-        if (fileExists) {
-            FileInputStream fileInputStream = new FileInputStream(
-                    Paths.get(fileName).toFile()
-            );
-            sendBytes(fileInputStream);
-            fileInputStream.close();
-        } else {
-            dataOutputStream.writeBytes(entityBody);
+            //a body nobody takes is not read, so it ends the connection,
+            //otherwise its bytes would be taken for the next request.
+            if (requestHead.hasBody()) {
+                keepAlive = false;
+                unread = true;
+            }
+
+            //a head which has been cut off by the client is answered as far
+            //as it has been read, like a HTTP/0.9 request without headers
+            response = responseFactory.respond(requestHead);
         }
-    }
 
-    private void respondToHEAD(String fileName) throws IOException {
+        //a streamed body which is not chunked ends with the connection
+        if (response.getStream() != null && !response.isChunked()) {
+            keepAlive = false;
+        }
 
-        logger.log(Level.FINEST, "REQUESTED FILE IS :\t" + fileName);
+        try {
+            //pushing these to you back
+            bytesSent = 0;
+            writeStarted = TimerWheel.now();
+            armWrite(response.getHeadSize(keepAlive));
+            response.writeHead(outputStream, keepAlive);
+            bytesSent = response.getHeadSize(keepAlive);
+
+            if (response.getFile() != null) {
+                sendFile(response.getFile(), response.getFileRanges(),
+                        response.getSeparators());
+            } else if (response.getBody() != null) {
+                sendBody(response.getBody());
+            } else if (response.getRegions() != null) {
+                for (ByteBuffer region : response.getRegions()) {
+                    sendBody(region);
+                }
+            } else if (response.getStream() != null) {
+                sendStream(response);
+            }
+        } finally {
+            response.release();
+        }
 
-        boolean fileExists = checkIfFileExists(Paths.get(fileName));
+        //if the next pipelined request has already arrived, its response is
+        //sent together with this one
+        if (!keepAlive || (readPosition == readEnd && inputStream.available() == 0)) {
+            outputStream.flush();
+        }
 
-        SimpleDateFormat simpleDateFormat =
-                new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss ");
+        long nanos = System.nanoTime() - started;
+        responseFactory.getMetrics().recordResponse(requestHead.getEndpoint(),
+                response.getStatusCode(), bytesSent, nanos);
+        if (accessLog != null) {
+            accessLog.record(accessLogEntry, response.getStatusCode(), bytesSent, nanos);
+        }
 
-        String statusLine = "";
-        String contentType = "";
-        String entityBody = "";
-        String contentLength = "";
-        String date = "Date: " + simpleDateFormat.format(new Date());
+        if (unread) {
+            discardInput();
+        }
 
-        logger.log(Level.FINEST, "THE REQUESTED FILE IS : " + fileName);
+        return keepAlive;
+    }
 
-        if (fileExists) {
-            statusLine = "HTTP/1.0 200 OK";
-            contentType = "Content-type: " + contentType(fileName);
-            logger.log(Level.FINEST, "FILE HAS BEEN FOUND");
-            entityBody = readFile(new FileInputStream(Paths.get(fileName).toFile()));
-        } else {
-            statusLine = "HTTP/1.0 404 Not Found";
-            contentType = "Content-type: " + contentType("htm");
-            contentLength = "Content-Length: " + entityBody.getBytes("UTF-8").length;
-            logger.log(Level.FINEST, "FILE NOT FOUND");
-        }
+    //switching the connection to HTTP/2 after a request without a body,
+    //whose response is sent on the first stream
+    private void upgrade(RequestHead requestHead, byte[] settings, long started)
+            throws IOException {
+        BodySink bodySink = responseFactory.openBody(requestHead);
+        HttpResponse response = bodySink != null ? bodySink.finish()
+                : responseFactory.respond(requestHead);
 
-        contentLength = "Content-Length: " + entityBody.getBytes("UTF-8").length;
+        try {
+            deadline.setDeadline(TimerWheel.now() + connectionLimits.getWriteTimeout());
+            outputStream.write(HttpStatus.SWITCHING_PROTOCOLS);
+            outputStream.flush();
+        } catch (IOException e) {
+            response.release();
+            throw e;
+        }
 
-        dataOutputStream.writeBytes(statusLine + CRLF);
-        dataOutputStream.writeBytes(date + CRLF);
-        dataOutputStream.writeBytes(contentType + CRLF);
-        dataOutputStream.writeBytes(contentLength + CRLF);
-        dataOutputStream.writeBytes(CRLF);
+        new Http2Connection(socket, responseFactory, connectionLimits, deadline, streamExecutor)
+                .serveUpgrade(requestHead, response, settings, started, readBuffer.array(),
+                        readPosition, readEnd);
     }
 
-    private void respondToPOST() throws IOException {
+    //reading the entity body into the sink, beginning with the bytes which
+    //have been read together with the head. Returns COMPLETE or the reason
+    //why the body has been rejected, in which case the sink is aborted.
+    private int receiveBody(RequestHead requestHead, BodySink bodySink) throws IOException {
+        byte[] bytes = readBuffer.array();
+        int result = requestBody.start(requestHead);
+        long started = TimerWheel.now();
+        long received = 0;
 
-        SimpleDateFormat simpleDateFormat =
-                new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss ");
+        try {
+            //the client only sends the body after the interim response
+            if (result == RequestBody.NEED_MORE && requestHead.expectsContinue()
+                    && readPosition == readEnd) {
+                outputStream.write(HttpStatus.CONTINUE);
+                outputStream.flush();
+            }
+
+            while (result == RequestBody.NEED_MORE) {
+                if (readPosition == readEnd) {
+                    deadline.setDeadline(connectionLimits.getTransferDeadline(started,
+                            received, TimerWheel.now(), connectionLimits.getBodyTimeout()));
+
+                    int read = inputStream.read(bytes, 0, bytes.length);
+                    if (read == -1) {
+                        logger.log(Level.FINE, "THE CONNECTION HAS BEEN CLOSED WITHIN A BODY");
+                        result = RequestBody.MALFORMED;
+                        break;
+                    }
+                    readPosition = 0;
+                    readEnd = read;
+                    received += read;
+                }
+
+                result = requestBody.decode(bytes, readPosition, readEnd, bodySink);
+                readPosition = requestBody.getPosition();
+            }
+        } catch (IOException e) {
+            bodySink.abort();
+            throw e;
+        }
 
-        String statusLine = "HTTP/1.0 501 NOT IMPLEMENTED YET";
-        String contentType = "Content-type: " + contentType("htm");
-        String date = "Date: " + simpleDateFormat.format(new Date());
-        String entityBody = "<HTML>" +
-                "<HEAD><TITLE>NOT IMPLEMENTED YEY</TITLE></HEAD>" +
-                "<BODY>I COULD NOT FIND THE FILE YOU WERE ASKING FOR</BODY></HTML>";
-        String contentLength = "Content-Length: " + entityBody.getBytes("UTF-8").length;
+        if (result != RequestBody.COMPLETE) {
+            bodySink.abort();
+        }
+        return result;
+    }
 
-        dataOutputStream.writeBytes(statusLine + CRLF);
-        dataOutputStream.writeBytes(date + CRLF);
-        dataOutputStream.writeBytes(contentType + CRLF);
-        dataOutputStream.writeBytes(contentLength + CRLF);
-        dataOutputStream.writeBytes(CRLF);
-        dataOutputStream.writeBytes(entityBody);
+    //reading what is left of a rejected request before closing the socket,
+    //otherwise the unread bytes make the kernel reset the connection and
+    //the client may lose the response. A client which keeps on sending is
+    //given one second.
+    private void discardInput() throws IOException {
+        socket.shutdownOutput();
+        socket.setSoTimeout(1000);
 
+        byte[] bytes = readBuffer.array();
+        long deadline = System.currentTimeMillis() + 1000;
+        try {
+            while (inputStream.read(bytes) != -1 && System.currentTimeMillis() < deadline) {
+                //the bytes are thrown away
+            }
+        } catch (SocketTimeoutException e) {
+            logger.log(Level.FINE, "THE CLIENT HAS NOT CLOSED THE REJECTED CONNECTION");
+        }
     }
 
-    private void respondToInvalid() throws IOException {
-
-        SimpleDateFormat simpleDateFormat =
-                new SimpleDateFormat("'Date:' EEE, dd. MMM yyyy HH:mm:ss z");
-
-        String statusLine = "HTTP/1.0 400 BAD REQUEST";
-        String contentType = "Content-type: " + contentType("htm");
-        String date = "Date: " + simpleDateFormat.format(new Date());
-        String entityBody = "<HTML>" +
-                "<HEAD><TITLE>BAD REQUEST</TITLE></HEAD>" +
-                "<BODY>I DON'T KNOW WHAT YOU WANT ME TO DO</BODY></HTML>";
-        String contentLength = "Content-Length: " + entityBody.getBytes("UTF-8").length;
-
-        dataOutputStream.writeBytes(statusLine + CRLF);
-        dataOutputStream.writeBytes(date + CRLF);
-        dataOutputStream.writeBytes(contentType + CRLF);
-        dataOutputStream.writeBytes(contentLength + CRLF);
-        dataOutputStream.writeBytes(CRLF);
-        dataOutputStream.writeBytes(entityBody);
+    //moving the unfinished head to the start of the buffer and parsing it
+    //again from there
+    private void compact(byte[] bytes) {
+        int headStart = requestParser.getHeadStart();
+        System.arraycopy(bytes, headStart, bytes, 0, readEnd - headStart);
+        readEnd -= headStart;
+        readPosition = 0;
+        requestParser.start(bytes, 0);
     }
 }
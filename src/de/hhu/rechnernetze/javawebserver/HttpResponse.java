@@ -0,0 +1,471 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/******************************************************************************
+ * The HttpResponse class holds everything which has to be sent back for one
+ * request. The body is either held in a ByteBuffer, is a file, which the
+ * engine sends on its own way, or is a mapped file. A 206 response sends only
+ * ranges of them, which are held as slices of the buffers or as positions
+ * within the file. A body of unknown length is a StreamingBody, which the
+ * engine sends chunked while it is produced.
+ *
+ * <p>An HttpResponse is immutable, so that the ResponseCache can hand the
+ * same object to many requests. The status line is one of the encoded
+ * HttpStatus constants and the Date header line is shared by all responses
+ * of one second, all other header lines are encoded once per response, so
+ * sending the head only copies bytes.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class HttpResponse {
+
+    private static final byte[] KEEP_ALIVE =
+            "Connection: keep-alive\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] CLOSE =
+            "Connection: close\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] CONTENT_LENGTH =
+            "Content-Length: ".getBytes(StandardCharsets.ISO_8859_1);
+    private static final String TRANSFER_ENCODING = "Transfer-Encoding: chunked\r\n";
+
+    private final byte[] statusLine;
+    private final long contentLength;
+    private final ByteBuffer body;
+    private final ByteBuffer[] regions;
+    private final Path file;
+    private final MappedFileCache.MappedFile mappedFile;
+
+    //the position and the length of every range of the file which is sent,
+    //with the multipart separators in front of the ranges if there are more
+    private final long[] fileRanges;
+    private final byte[][] separators;
+
+    //a streamed body is produced for one request only
+    private final StreamingBody stream;
+    private final boolean chunked;
+
+    //the header lines after the Date header, followed by the empty line
+    private final byte[] headerLines;
+
+    private HttpResponse(byte[] statusLine, byte[] headerLines, long contentLength,
+                         ByteBuffer body, Path file, MappedFileCache.MappedFile mappedFile) {
+        this(statusLine, headerLines, contentLength, body, null, file,
+                file == null ? null : new long[]{0, contentLength}, null, mappedFile);
+    }
+
+    private HttpResponse(byte[] statusLine, byte[] headerLines, long contentLength,
+                         ByteBuffer body, ByteBuffer[] regions, Path file, long[] fileRanges,
+                         byte[][] separators, MappedFileCache.MappedFile mappedFile) {
+        this(statusLine, headerLines, contentLength, body, regions, file, fileRanges,
+                separators, mappedFile, null, false);
+    }
+
+    private HttpResponse(byte[] statusLine, byte[] headerLines, long contentLength,
+                         ByteBuffer body, ByteBuffer[] regions, Path file, long[] fileRanges,
+                         byte[][] separators, MappedFileCache.MappedFile mappedFile,
+                         StreamingBody stream, boolean chunked) {
+        this.statusLine = statusLine;
+        this.headerLines = headerLines;
+        this.contentLength = contentLength;
+        this.body = body;
+        this.regions = regions;
+        this.file = file;
+        this.fileRanges = fileRanges;
+        this.separators = separators;
+        this.mappedFile = mappedFile;
+        this.stream = stream;
+        this.chunked = chunked;
+    }
+
+    //encoding "Content-Type: <type>CRLFContent-Length: <length>CRLFCRLF"
+    //straight into one array, the first line is encoded by the ContentType
+    private static byte[] encodeHeaderLines(ContentType contentType, long contentLength) {
+        int digits = 1;
+        for (long rest = contentLength / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+
+        byte[] typeLine = contentType.getHeaderLine();
+        int lengthEnd = typeLine.length + CONTENT_LENGTH.length + digits;
+        byte[] lines = new byte[lengthEnd + 4];
+
+        System.arraycopy(typeLine, 0, lines, 0, typeLine.length);
+        System.arraycopy(CONTENT_LENGTH, 0, lines, typeLine.length, CONTENT_LENGTH.length);
+
+        long rest = contentLength;
+        for (int i = lengthEnd - 1; i >= lengthEnd - digits; i--) {
+            lines[i] = (byte) ('0' + rest % 10);
+            rest /= 10;
+        }
+
+        lines[lengthEnd] = '\r';
+        lines[lengthEnd + 1] = '\n';
+        lines[lengthEnd + 2] = '\r';
+        lines[lengthEnd + 3] = '\n';
+        return lines;
+    }
+
+    /**************************************************************************
+     * Creates a response whose body is held in memory.
+     *
+     * @param statusLine One of the HttpStatus constants
+     * @param contentType The MIME-Type of the body
+     * @param body The entity body
+     **************************************************************************/
+    public static HttpResponse withBody(byte[] statusLine, ContentType contentType, byte[] body) {
+        return withBody(statusLine, contentType, ByteBuffer.wrap(body));
+    }
+
+    /**************************************************************************
+     * Creates a response whose body is held in a heap or direct ByteBuffer.
+     * The buffer must not be changed afterwards.
+     *
+     * @param statusLine One of the HttpStatus constants
+     * @param contentType The MIME-Type of the body
+     * @param body The entity body from its position to its limit
+     **************************************************************************/
+    public static HttpResponse withBody(byte[] statusLine, ContentType contentType,
+                                        ByteBuffer body) {
+        return new HttpResponse(statusLine, encodeHeaderLines(contentType, body.remaining()),
+                body.remaining(), body, null, null);
+    }
+
+    /**************************************************************************
+     * Creates a response whose body is the content of the file.
+     *
+     * @param statusLine One of the HttpStatus constants
+     * @param contentType The MIME-Type of the file
+     * @param file The file which will be sent as the entity body
+     * @param contentLength The size of the file
+     **************************************************************************/
+    public static HttpResponse withFile(byte[] statusLine, ContentType contentType, Path file,
+                                        long contentLength) {
+        return new HttpResponse(statusLine, encodeHeaderLines(contentType, contentLength),
+                contentLength, null, file, null);
+    }
+
+    /**************************************************************************
+     * Creates a response whose body is sent from the regions of the mapped
+     * file. The engine has to call release() when the response is sent.
+     *
+     * @param statusLine One of the HttpStatus constants
+     * @param contentType The MIME-Type of the file
+     * @param mappedFile A mapping acquired from the MappedFileCache
+     **************************************************************************/
+    public static HttpResponse withMappedFile(byte[] statusLine, ContentType contentType,
+                                              MappedFileCache.MappedFile mappedFile) {
+        return new HttpResponse(statusLine,
+                encodeHeaderLines(contentType, mappedFile.getSize()), mappedFile.getSize(),
+                null, null, mappedFile);
+    }
+
+    /**************************************************************************
+     * Creates a response whose body is produced while it is sent, because
+     * its length is not known before. It can only be sent once, the engine
+     * has to call release() when the response is sent.
+     *
+     * @param statusLine One of the HttpStatus constants
+     * @param contentType The MIME-Type of the body
+     * @param stream Produces the body
+     * @param chunked Whether the body is sent with the chunked transfer
+     *                coding, otherwise the connection is closed behind it,
+     *                like HTTP/1.0 demands
+     **************************************************************************/
+    public static HttpResponse withStream(byte[] statusLine, ContentType contentType,
+                                          StreamingBody stream, boolean chunked) {
+        byte[] typeLine = contentType.getHeaderLine();
+        byte[] end = ((chunked ? TRANSFER_ENCODING : "") + "\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1);
+        byte[] lines = Arrays.copyOf(typeLine, typeLine.length + end.length);
+        System.arraycopy(end, 0, lines, typeLine.length, end.length);
+
+        return new HttpResponse(statusLine, lines, -1, null, null, null, null, null, null,
+                stream, chunked);
+    }
+
+    /**************************************************************************
+     * Creates a response without an entity body, like the answer to HEAD.
+     *
+     * @param statusLine One of the HttpStatus constants
+     * @param contentType The MIME-Type the body would have
+     * @param contentLength The length the body would have
+     **************************************************************************/
+    public static HttpResponse withoutBody(byte[] statusLine, ContentType contentType,
+                                           long contentLength) {
+        return new HttpResponse(statusLine, encodeHeaderLines(contentType, contentLength),
+                contentLength, null, null, null);
+    }
+
+    /**************************************************************************
+     * Creates a response which has neither a body nor the Content-Type and
+     * Content-Length headers, like 304 Not Modified.
+     *
+     * @param statusLine One of the HttpStatus constants
+     * @param headerLines The header lines, each followed by a CRLF
+     **************************************************************************/
+    public static HttpResponse withoutContent(byte[] statusLine, String headerLines) {
+        byte[] lines = (headerLines + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        return new HttpResponse(statusLine, lines, 0, null, null, null);
+    }
+
+    /**************************************************************************
+     * Returns a copy of this response with one more header line. The copy
+     * takes over what this response holds, so only one of them may be
+     * released.
+     *
+     * @param name The name of the header
+     * @param value The value of the header
+     **************************************************************************/
+    public HttpResponse withHeader(String name, String value) {
+        return withHeaderLines(name + ": " + value + "\r\n");
+    }
+
+    /**************************************************************************
+     * Returns a copy of this response with more header lines, like
+     * withHeader().
+     *
+     * @param lines The header lines, each followed by a CRLF
+     **************************************************************************/
+    public HttpResponse withHeaderLines(String lines) {
+        if (lines.isEmpty()) {
+            return this;
+        }
+
+        byte[] line = lines.getBytes(StandardCharsets.ISO_8859_1);
+
+        //inserting the lines in front of the empty line
+        byte[] headLines = Arrays.copyOf(headerLines, headerLines.length + line.length);
+        System.arraycopy(line, 0, headLines, headerLines.length - 2, line.length);
+        headLines[headLines.length - 2] = '\r';
+        headLines[headLines.length - 1] = '\n';
+
+        return new HttpResponse(statusLine, headLines, contentLength, body, regions, file,
+                fileRanges, separators, mappedFile, stream, chunked);
+    }
+
+    /**************************************************************************
+     * Returns the 206 response which sends the ranges of this response's
+     * body. A single range is sent as it is, several ranges as a
+     * multipart/byteranges body. The copy takes over what this response
+     * holds, so only one of them may be released.
+     *
+     * @param ranges The satisfiable ranges within getContentLength()
+     * @param contentType The MIME-Type of this response's body
+     * @param headerLines More header lines, each followed by a CRLF
+     * @throws IllegalArgumentException if a range lies behind the body
+     **************************************************************************/
+    public HttpResponse withRanges(ByteRanges ranges, ContentType contentType, String headerLines) {
+        int count = ranges.getCount();
+        if (count == 0 || ranges.getCompleteLength() != contentLength) {
+            throw new IllegalArgumentException("Illegal ranges for a body of "
+                    + contentLength + " bytes");
+        }
+
+        byte[][] parts = count == 1 ? null : ranges.encodeSeparators(contentType);
+
+        long length = 0;
+        long[] partRanges = new long[count * 2];
+        for (int i = 0; i < count; i++) {
+            partRanges[2 * i] = ranges.getFirst(i);
+            partRanges[2 * i + 1] = ranges.getLength(i);
+            length += ranges.getLength(i) + (parts == null ? 0 : parts[i].length);
+        }
+
+        byte[] lines;
+        if (parts == null) {
+            lines = encodeHeaderLines(contentType, length);
+            headerLines = ranges.getContentRangeLine(0) + headerLines;
+        } else {
+            length += parts[count].length;
+            lines = encodeHeaderLines(ByteRanges.MULTIPART_TYPE, length);
+        }
+
+        HttpResponse partial;
+        if (file != null) {
+            partial = new HttpResponse(HttpStatus.PARTIAL_CONTENT, lines, length, null, null,
+                    file, partRanges, parts, null);
+        } else if (parts == null && body != null) {
+            partial = new HttpResponse(HttpStatus.PARTIAL_CONTENT, lines, length,
+                    body.slice(body.position() + (int) partRanges[0], (int) partRanges[1]),
+                    null, null, null, null, null);
+        } else {
+            ByteBuffer[] source = body != null ? new ByteBuffer[]{body} : getRegions();
+            partial = new HttpResponse(HttpStatus.PARTIAL_CONTENT, lines, length, null,
+                    slice(source, partRanges, parts), null, null, null, mappedFile);
+        }
+
+        return partial.withHeaderLines(headerLines);
+    }
+
+    //the slices of the buffers which hold the ranges, with the separators
+    //in front of them
+    private static ByteBuffer[] slice(ByteBuffer[] source, long[] ranges, byte[][] parts) {
+        ArrayList<ByteBuffer> slices = new ArrayList<>();
+
+        for (int i = 0; i < ranges.length / 2; i++) {
+            if (parts != null) {
+                slices.add(ByteBuffer.wrap(parts[i]));
+            }
+
+            //finding the buffers the range is spread over
+            long position = ranges[2 * i];
+            long remaining = ranges[2 * i + 1];
+            for (int j = 0; j < source.length && remaining > 0; j++) {
+                int size = source[j].remaining();
+                if (position >= size) {
+                    position -= size;
+                    continue;
+                }
+
+                int length = (int) Math.min(remaining, size - position);
+                slices.add(source[j].slice(source[j].position() + (int) position, length));
+                remaining -= length;
+                position = 0;
+            }
+        }
+
+        if (parts != null) {
+            slices.add(ByteBuffer.wrap(parts[parts.length - 1]));
+        }
+        return slices.toArray(new ByteBuffer[0]);
+    }
+
+    /**************************************************************************
+     * Returns the answer to HEAD for this response, with the same header
+     * lines but without the body. The copy holds nothing which has to be
+     * released.
+     **************************************************************************/
+    public HttpResponse withoutBody() {
+        return new HttpResponse(statusLine, headerLines, contentLength, null, null, null);
+    }
+
+    /**************************************************************************
+     * Returns the number of bytes of the status line, the header lines and
+     * the empty line.
+     *
+     * @param keepAlive Whether the connection stays open after the response
+     **************************************************************************/
+    public int getHeadSize(boolean keepAlive) {
+        return statusLine.length + HttpDate.getDateLine().length
+                + (keepAlive ? KEEP_ALIVE.length : CLOSE.length) + headerLines.length;
+    }
+
+    /**************************************************************************
+     * Writes the status line and the header lines followed by an empty line
+     * into the stream. They are sent with the next flush of the stream.
+     *
+     * @param outputStream A buffered stream
+     * @param keepAlive Whether the connection stays open after the response
+     * @throws IOException If an IO-Error occurs
+     **************************************************************************/
+    public void writeHead(OutputStream outputStream, boolean keepAlive) throws IOException {
+        outputStream.write(statusLine);
+        outputStream.write(HttpDate.getDateLine());
+        outputStream.write(keepAlive ? KEEP_ALIVE : CLOSE);
+        outputStream.write(headerLines);
+    }
+
+    /**************************************************************************
+     * Puts the status line and the header lines followed by an empty line
+     * into the buffer, which needs room for getHeadSize() bytes.
+     *
+     * @param buffer The buffer the head is written from
+     * @param keepAlive Whether the connection stays open after the response
+     **************************************************************************/
+    public void putHead(ByteBuffer buffer, boolean keepAlive) {
+        buffer.put(statusLine);
+        buffer.put(HttpDate.getDateLine());
+        buffer.put(keepAlive ? KEEP_ALIVE : CLOSE);
+        buffer.put(headerLines);
+    }
+
+    //the header lines after the Date header followed by the empty line, which
+    //HTTP/2 sends as header fields. The array must not be changed.
+    public byte[] getHeaderLines() {
+        return headerLines;
+    }
+
+    //the number of bytes of the header lines which are held by this object
+    public int getHeaderSize() {
+        return headerLines.length;
+    }
+
+    public int getStatusCode() {
+        return HttpStatus.getCode(statusLine);
+    }
+
+    //-1 if the body is streamed
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    //null if the length of the body is known
+    public StreamingBody getStream() {
+        return stream;
+    }
+
+    //whether the streamed body is sent chunked, otherwise the connection
+    //has to be closed behind it
+    public boolean isChunked() {
+        return chunked;
+    }
+
+    //null if there is no body or the body is a file, otherwise a duplicate
+    //whose position can be moved without affecting other requests
+    public ByteBuffer getBody() {
+        return body == null ? null : body.duplicate();
+    }
+
+    //null if the body is not a file
+    public Path getFile() {
+        return file;
+    }
+
+    //null if the body is not held in several buffers, like a mapped file or
+    //the ranges of a buffer, otherwise duplicates of the buffers
+    public ByteBuffer[] getRegions() {
+        if (regions == null) {
+            return mappedFile == null ? null : mappedFile.getRegions();
+        }
+
+        ByteBuffer[] duplicates = new ByteBuffer[regions.length];
+        for (int i = 0; i < regions.length; i++) {
+            duplicates[i] = regions[i].duplicate();
+        }
+        return duplicates;
+    }
+
+    //null if the body is not a file, otherwise the position and the length
+    //of every range of the file which is sent. The array must not be changed.
+    public long[] getFileRanges() {
+        return fileRanges;
+    }
+
+    //null if the file is not sent as a multipart body, otherwise the lines in
+    //front of every range and the line which closes the body. The arrays
+    //must not be changed.
+    public byte[][] getSeparators() {
+        return separators;
+    }
+
+    /**************************************************************************
+     * Gives back what the response holds, this has to be called exactly once
+     * after the response has been sent or its connection has been closed.
+     **************************************************************************/
+    public void release() {
+        if (mappedFile != null) {
+            mappedFile.release();
+        }
+
+        if (stream != null) {
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.nio.charset.StandardCharsets;
+
+/******************************************************************************
+ * The HttpStatus holds the status lines the server sends, encoded once with
+ * their CRLF, so that no response has to build its status line again.
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class HttpStatus {
+
+    //the whole interim responses, their empty lines included
+    static final byte[] CONTINUE = statusLine("100 Continue\r\n");
+    static final byte[] SWITCHING_PROTOCOLS = statusLine("101 Switching Protocols\r\n"
+            + "Connection: Upgrade\r\n"
+            + "Upgrade: h2c\r\n");
+
+    static final byte[] OK = statusLine("200 OK");
+    static final byte[] CREATED = statusLine("201 Created");
+    static final byte[] NO_CONTENT = statusLine("204 No Content");
+    static final byte[] PARTIAL_CONTENT = statusLine("206 Partial Content");
+    static final byte[] NOT_MODIFIED = statusLine("304 Not Modified");
+    static final byte[] BAD_REQUEST = statusLine("400 BAD REQUEST");
+    static final byte[] FORBIDDEN = statusLine("403 Forbidden");
+    static final byte[] NOT_FOUND = statusLine("404 Not Found");
+    static final byte[] PAYLOAD_TOO_LARGE = statusLine("413 Payload Too Large");
+    static final byte[] URI_TOO_LONG = statusLine("414 URI Too Long");
+    static final byte[] RANGE_NOT_SATISFIABLE = statusLine("416 Range Not Satisfiable");
+    static final byte[] HEADER_FIELDS_TOO_LARGE =
+            statusLine("431 Request Header Fields Too Large");
+    static final byte[] NOT_IMPLEMENTED = statusLine("501 NOT IMPLEMENTED YET");
+    static final byte[] SERVICE_UNAVAILABLE = statusLine("503 Service Unavailable");
+
+    private HttpStatus() {
+    }
+
+    /**************************************************************************
+     * Returns the three digit code of the encoded status line.
+     *
+     * @param statusLine One of the constants of this class
+     **************************************************************************/
+    public static int getCode(byte[] statusLine) {
+        //the code follows "HTTP/1.1 "
+        return (statusLine[9] - '0') * 100 + (statusLine[10] - '0') * 10
+                + (statusLine[11] - '0');
+    }
+
+    private static byte[] statusLine(String status) {
+        return ("HTTP/1.1 " + status + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
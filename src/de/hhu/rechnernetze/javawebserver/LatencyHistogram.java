@@ -0,0 +1,115 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/******************************************************************************
+ * The LatencyHistogram counts durations in buckets whose width grows with
+ * their value, like a HdrHistogram. Below 32 microseconds every microsecond
+ * has its own bucket, above that every power of two is split into 16
+ * buckets, so a quantile is off by less than 7 percent.
+ *
+ * <p>The buckets are LongAdders, so that the connections of all threads
+ * record into the same histogram without waiting for each other and
+ * without creating any object.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int LINEAR_BUCKETS = 2 * SUB_BUCKETS;
+
+    //2^40 microseconds are about 12 days, longer durations are counted in
+    //the last bucket
+    private static final int MAX_EXPONENT = 40;
+    static final int BUCKETS = LINEAR_BUCKETS + (MAX_EXPONENT - SUB_BITS - 1) * SUB_BUCKETS;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder sum = new LongAdder();
+
+    /**************************************************************************
+     * Constructs an empty LatencyHistogram.
+     **************************************************************************/
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**************************************************************************
+     * Counts the duration in its bucket.
+     *
+     * @param nanos The duration in nanoseconds
+     **************************************************************************/
+    public void record(long nanos) {
+        buckets[bucket(Math.max(nanos, 0) / 1000)].increment();
+        sum.add(nanos);
+    }
+
+    //the sum of all recorded durations in nanoseconds
+    public long getSum() {
+        return sum.sum();
+    }
+
+    //the counts of the buckets at the moment, the quantiles of one scrape are
+    //read from the same counts
+    public long[] getCounts() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    /**************************************************************************
+     * Returns the duration below which the given part of the counted
+     * durations lie.
+     *
+     * @param counts The counts of the buckets, from getCounts()
+     * @param total The sum of the counts
+     * @param quantile The part between 0 and 1, like 0.99
+     * @return The highest duration of the bucket in microseconds or 0 if
+     * nothing has been counted
+     **************************************************************************/
+    public static long getValueAt(long[] counts, long total, double quantile) {
+        long rank = Math.max((long) Math.ceil(quantile * total), 1);
+        long seen = 0;
+
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return highestValue(i);
+            }
+        }
+        return 0;
+    }
+
+    //the bucket of a duration in microseconds
+    private static int bucket(long micros) {
+        if (micros < LINEAR_BUCKETS) {
+            return (int) micros;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - SUB_BITS - 1) * SUB_BUCKETS + sub;
+    }
+
+    //the highest duration in microseconds which falls into the bucket
+    private static long highestValue(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + SUB_BITS + 1;
+        int sub = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BITS);
+        return (SUB_BUCKETS + sub) * width + width - 1;
+    }
+}
@@ -1,27 +1,39 @@
 package de.hhu.rechnernetze.javawebserver;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.HashMap;
-import java.util.StringTokenizer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /******************************************************************************
- * This class is wrapping a HashMap<String, String> and which is automatically
- * filled with the given values from the given file.
+ * This class maps the file endings to their ContentTypes, which are read
+ * from a mime.types file.
+ *
+ * <p>The endings are kept in an open addressed table, which is filled once
+ * and only read afterwards. They are compared case-insensitive straight
+ * from the bytes of the requested path, so a lookup creates no object.
+ * Text types get the charset parameter.</p>
  *
  * @author Zeljko Bekcic
  * @version 1.0
  ******************************************************************************/
-class MIMEType {
-    private final HashMap<String, String> mimeTypes = new HashMap<>();
+final class MIMEType {
 
     static final Logger logger = Logger.getLogger(MIMEType.class.getName());
 
+    //the charset text files are assumed to be written in
+    static final String DEFAULT_CHARSET = "utf-8";
+
+    //the endings in lower case and their types at the same index, the
+    //length of the table is a power of two
+    private final byte[][] endings;
+    private final ContentType[] contentTypes;
+    private final int mask;
+
     /**************************************************************************
      * This creates an instance of the MIMEType class which pulls then the mime
      * types from the Path.
@@ -33,6 +45,19 @@ class MIMEType {
      * @param path To the MIME Type file.
      **************************************************************************/
     public MIMEType(Path path) throws IOException {
+        this(path, DEFAULT_CHARSET);
+    }
+
+    /**************************************************************************
+     * This creates an instance of the MIMEType class which pulls the mime
+     * types from the Path and sends text types with the given charset.
+     *
+     * @param path To the MIME Type file.
+     * @param charset The charset of the text files or null to send none
+     * @throws IllegalArgumentException if the path does not point to a file
+     * or the charset is not supported
+     **************************************************************************/
+    public MIMEType(Path path, String charset) throws IOException {
 
         //
         // catching arguments which would lead to an illegal object state.
@@ -44,69 +69,265 @@ class MIMEType {
             throw new IllegalArgumentException("Illegal Path " + path);
         }
 
-        File file = new File(path.toString());
-
         //If you pass a path to a directory you will get an Exception
-        if(!file.isFile()) {
+        if(!Files.isRegularFile(path)) {
             logger.log(Level.SEVERE, "THE PROVIDED PATH TO THE FILE IS NOT A FILE");
             throw new IllegalArgumentException("Illegal Path " + path +
                     " The path is not pointing to a file.");
         }
 
+        if(charset != null && !Charset.isSupported(charset)) {
+            logger.log(Level.SEVERE, "RECEIVED ILLEGAL CHARSET : " + charset);
+            throw new IllegalArgumentException("Illegal charset " + charset);
+        }
 
+        byte[] bytes = Files.readAllBytes(path);
 
-        logger.log(Level.FINEST, "STARTING PARSING DATA FROM THE PROVIDED FILE : " + path.toString());
-
-        FileReader fileReader = new FileReader(file);
-        BufferedReader bufferedReader = new BufferedReader(fileReader);
+        //the endings at their positions in the file, the types only once
+        int count = countEndings(bytes);
+        int[] endingOffsets = new int[count];
+        int[] endingLengths = new int[count];
+        ContentType[] endingTypes = new ContentType[count];
+        HashMap<String, ContentType> types = new HashMap<>();
+        parse(bytes, charset, types, endingOffsets, endingLengths, endingTypes);
 
-        String line;
+        int capacity = 16;
+        while (capacity < count * 2) {
+            capacity <<= 1;
+        }
+        endings = new byte[capacity][];
+        contentTypes = new ContentType[capacity];
+        mask = capacity - 1;
 
-        while((line = bufferedReader.readLine()) != null){
-            //Skipping the commented lines with line.contains("#")
-            if(line.length() != 0 && !line.contains("#")){
-                loadMIMETypeToHashMap(line);
-            }
+        //a later line wins over an earlier one, like it did in the HashMap
+        for (int i = 0; i < count; i++) {
+            put(bytes, endingOffsets[i], endingLengths[i], endingTypes[i]);
         }
 
-        logger.log(Level.INFO, "FINISHED PARSING DATA FROM THE GIVEN FILE SUCCESSFUL");
+        logger.log(Level.FINE, "READ " + types.size() + " MIME-TYPES WITH " + count
+                + " ENDINGS FROM " + path);
+    }
+
+    /**************************************************************************
+     * Returns the ContentType of the file, which is looked up by the ending
+     * behind its last dot, or by the whole name if it has none.
+     *
+     * @param fileName The name or the path of the file
+     * @return Either the ContentType of the ending or the default value,
+     * which is <i>application/octet-stream</i>
+     **************************************************************************/
+    public ContentType getContentType(String fileName) {
+        int start = endingStart(fileName, 0, fileName.length());
+        int hash = 0;
+        for (int i = start; i < fileName.length(); i++) {
+            hash = 31 * hash + toLowerCase((byte) fileName.charAt(i));
+        }
 
-        fileReader.close();
-        bufferedReader.close();
+        for (int slot = mix(hash) & mask; endings[slot] != null; slot = (slot + 1) & mask) {
+            byte[] ending = endings[slot];
+            if (ending.length == fileName.length() - start
+                    && regionMatches(ending, fileName, start)) {
+                return contentTypes[slot];
+            }
+        }
+        return ContentType.OCTET_STREAM;
     }
 
     /**************************************************************************
-     * Returns the top-level MIME-Type for the given data ending.
+     * Returns the ContentType of the file, like getContentType(String), whose
+     * path is given as a slice of the bytes it has been read into.
      *
-     * @param dataEnding The data ending you want the MIME-Type for.
-     * @return Either the MIME-Type for the file ending you passed to the
-     * method or the default value, which is <i>application/octet-stream</i>
+     * @param bytes The bytes holding the path
+     * @param offset The start of the path
+     * @param length The length of the path without its query
+     * @return Either the ContentType of the ending or the default value
      **************************************************************************/
-    public String getMIMEType(String dataEnding){
-        return mimeTypes.getOrDefault(dataEnding, "application/octet-stream");
-    }
-
-
-    //This method receives a MIME Type String (one single line) and puts it in a
-    //HashMap. If the given MIME Type has no parameters (consists only of the
-    //top-level type and the subtype name), then this MIME Type will not be
-    //added to the HashMap.
-    private void loadMIMETypeToHashMap(String mimeTypeString){
-        //Splitting the given String into the type and parameters
-        StringTokenizer stringTokenizer = new StringTokenizer(mimeTypeString);
-
-        //only splitt if the line has there are two or more token, otherwise
-        //there is no key for the type.
-        if(stringTokenizer.countTokens()>=2){
-            String type = stringTokenizer.nextToken();
-            String token = null;
-            while(stringTokenizer.hasMoreTokens()){
-                token = stringTokenizer.nextToken();
-                logger.info("MAPPING VALUE : " + type + " TO KEY : " + token);
-                mimeTypes.put(token, type);
+    public ContentType getContentType(byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        int start = endingStart(bytes, offset, end);
+        int slot = find(bytes, start, end - start, hash(bytes, start, end));
+        return endings[slot] == null ? ContentType.OCTET_STREAM : contentTypes[slot];
+    }
+
+    //text, scripts, JSON and XML based formats are compressible, images,
+    //audio, video and archives are already compressed
+    static boolean isCompressibleType(String type){
+        return type.startsWith("text/")
+                || type.endsWith("+xml") || type.endsWith("+json")
+                || type.equals("application/javascript")
+                || type.equals("application/x-javascript")
+                || type.equals("application/ecmascript")
+                || type.equals("application/json")
+                || type.equals("application/xml")
+                || type.equals("application/xml-dtd")
+                || type.equals("application/wasm")
+                || type.equals("image/x-icon")
+                || type.equals("image/bmp");
+    }
+
+    //the number of endings in the file, which is the number of tokens behind
+    //the first one of every line
+    private static int countEndings(byte[] bytes) {
+        int count = 0;
+        for (int line = 0; line < bytes.length; line = lineEnd(bytes, line) + 1) {
+            int end = contentEnd(bytes, line);
+            int tokens = 0;
+            for (int i = skipSpace(bytes, line); i < end;
+                 i = skipSpace(bytes, tokenEnd(bytes, i))) {
+                tokens++;
+            }
+            count += Math.max(tokens - 1, 0);
+        }
+        return count;
+    }
+
+    //going through the lines "type ending ending ...", a # starts a comment
+    private static void parse(byte[] bytes, String charset, HashMap<String, ContentType> types,
+                              int[] endingOffsets, int[] endingLengths,
+                              ContentType[] endingTypes) {
+        int count = 0;
+        for (int line = 0; line < bytes.length; line = lineEnd(bytes, line) + 1) {
+            int end = contentEnd(bytes, line);
+            int typeStart = skipSpace(bytes, line);
+            if (typeStart == end) {
+                continue;
             }
 
+            int typeEnd = tokenEnd(bytes, typeStart);
+            ContentType contentType = null;
+
+            for (int i = skipSpace(bytes, typeEnd); i < end;
+                 i = skipSpace(bytes, tokenEnd(bytes, i))) {
+                if (contentType == null) {
+                    String type = new String(bytes, typeStart, typeEnd - typeStart,
+                            StandardCharsets.ISO_8859_1);
+                    contentType = types.computeIfAbsent(type, name -> new ContentType(name,
+                            charset != null && name.startsWith("text/")
+                                    ? "charset=" + charset : null,
+                            isCompressibleType(name)));
+                }
+
+                endingOffsets[count] = i;
+                endingLengths[count] = tokenEnd(bytes, i) - i;
+                endingTypes[count] = contentType;
+                count++;
+            }
         }
     }
 
-}
\ No newline at end of file
+    private void put(byte[] bytes, int offset, int length, ContentType contentType) {
+        int slot = find(bytes, offset, length, hash(bytes, offset, offset + length));
+        if (endings[slot] == null) {
+            byte[] ending = new byte[length];
+            for (int i = 0; i < length; i++) {
+                ending[i] = toLowerCase(bytes[offset + i]);
+            }
+            endings[slot] = ending;
+        }
+        contentTypes[slot] = contentType;
+    }
+
+    //the slot of the ending or the empty slot where it belongs
+    private int find(byte[] bytes, int offset, int length, int hash) {
+        int slot = mix(hash) & mask;
+        while (endings[slot] != null
+                && !regionMatches(endings[slot], bytes, offset, length)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(byte[] bytes, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + toLowerCase(bytes[i]);
+        }
+        return hash;
+    }
+
+    //spreading the bits, so that similar endings do not cluster
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean regionMatches(byte[] ending, byte[] bytes, int offset, int length) {
+        if (ending.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (ending[i] != toLowerCase(bytes[offset + i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean regionMatches(byte[] ending, String fileName, int offset) {
+        for (int i = 0; i < ending.length; i++) {
+            if (ending[i] != toLowerCase((byte) fileName.charAt(offset + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte toLowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    //the start of the ending behind the last dot of the last segment, or of
+    //the segment if it has no dot
+    private static int endingStart(byte[] bytes, int offset, int end) {
+        for (int i = end - 1; i >= offset; i--) {
+            if (bytes[i] == '.' || bytes[i] == '/') {
+                return i + 1;
+            }
+        }
+        return offset;
+    }
+
+    private static int endingStart(String fileName, int offset, int end) {
+        for (int i = end - 1; i >= offset; i--) {
+            char c = fileName.charAt(i);
+            if (c == '.' || c == '/') {
+                return i + 1;
+            }
+        }
+        return offset;
+    }
+
+    private static int lineEnd(byte[] bytes, int position) {
+        while (position < bytes.length && bytes[position] != '\n') {
+            position++;
+        }
+        return position;
+    }
+
+    //the end of the line without its comment
+    private static int contentEnd(byte[] bytes, int position) {
+        while (position < bytes.length && bytes[position] != '\n' && bytes[position] != '#') {
+            position++;
+        }
+        return position;
+    }
+
+    private static int skipSpace(byte[] bytes, int position) {
+        while (position < bytes.length && isSpace(bytes[position])) {
+            position++;
+        }
+        return position;
+    }
+
+    private static int tokenEnd(byte[] bytes, int position) {
+        while (position < bytes.length && !isSpace(bytes[position])
+                && bytes[position] != '\n' && bytes[position] != '#') {
+            position++;
+        }
+        return position;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+}
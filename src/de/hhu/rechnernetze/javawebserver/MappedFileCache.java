@@ -0,0 +1,267 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/******************************************************************************
+ * The MappedFileCache maps large files into memory and shares one mapping
+ * between all requests for the same file, so that concurrent downloads are
+ * served straight from the page cache.
+ *
+ * <p>Every mapping is reference counted. It is unmapped when nobody uses it
+ * anymore and it has either been replaced by a newer version of the file or
+ * been evicted, because more than the maximum number of mappings are kept.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class MappedFileCache {
+
+    static final Logger logger = Logger.getLogger(MappedFileCache.class.getName());
+
+    //a MappedByteBuffer can not be larger than 2 GB, larger files are mapped
+    //in several regions
+    static final long REGION_SIZE = 1L << 30;
+
+    //Unsafe.invokeCleaner unmaps a buffer at once instead of waiting for
+    //the garbage collector, it is null if this Java version has none.
+    private static final Object unsafe;
+    private static final Method invokeCleaner;
+
+    static {
+        Object theUnsafe = null;
+        Method cleaner = null;
+
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            theUnsafe = field.get(null);
+            cleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.log(Level.INFO, "MAPPINGS WILL BE UNMAPPED BY THE GARBAGE COLLECTOR");
+        }
+
+        unsafe = theUnsafe;
+        invokeCleaner = cleaner;
+    }
+
+    private final long threshold;
+    private final int maxMappings;
+
+    //the access order makes the eldest entry the least recently used one
+    private final LinkedHashMap<String, MappedFile> mappings = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LongAdder responses = new LongAdder();
+    private final LongAdder mapped = new LongAdder();
+    private final LongAdder unmapped = new LongAdder();
+
+    /**************************************************************************
+     * Constructs an empty MappedFileCache.
+     *
+     * @param threshold The size from which on files are mapped
+     * @param maxMappings The number of mappings which are kept while they are
+     *                    not used
+     * @throws IllegalArgumentException if one of the arguments is not positive
+     **************************************************************************/
+    public MappedFileCache(long threshold, int maxMappings) {
+        if (threshold <= 0 || maxMappings <= 0) {
+            logger.log(Level.WARNING, "RECEIVED ILLEGAL MAPPING LIMITS : " + threshold);
+            throw new IllegalArgumentException("Illegal MappedFileCache limits " + threshold
+                    + " / " + maxMappings);
+        }
+
+        this.threshold = threshold;
+        this.maxMappings = maxMappings;
+    }
+
+    /**************************************************************************
+     * Returns whether a file of the given size is served from a mapping.
+     **************************************************************************/
+    public boolean isMapped(long fileSize) {
+        return fileSize >= threshold;
+    }
+
+    /**************************************************************************
+     * Returns the mapping of the file with one more reference, the caller has
+     * to release it when the response has been sent.
+     *
+     * @param path The normalized path of the file
+     * @param attributes The current attributes of the file
+     * @throws IOException If the file can not be mapped
+     **************************************************************************/
+    public MappedFile acquire(Path path, BasicFileAttributes attributes) throws IOException {
+        String key = path.toString();
+
+        synchronized (this) {
+            MappedFile mappedFile = mappings.get(key);
+            if (mappedFile != null && mappedFile.isValidFor(attributes)) {
+                mappedFile.references++;
+                responses.increment();
+                return mappedFile;
+            }
+        }
+
+        //mapping outside of the lock, if two threads map the same file at
+        //once the second mapping replaces the first one.
+        MappedFile mappedFile = new MappedFile(this, path, attributes);
+        mapped.increment();
+
+        synchronized (this) {
+            mappedFile.references++;
+            responses.increment();
+
+            MappedFile old = mappings.put(key, mappedFile);
+            if (old != null) {
+                retire(old);
+            }
+
+            Iterator<Map.Entry<String, MappedFile>> eldest = mappings.entrySet().iterator();
+            while (mappings.size() > maxMappings && eldest.hasNext()) {
+                MappedFile idle = eldest.next().getValue();
+                if (idle.references == 0) {
+                    eldest.remove();
+                    retire(idle);
+                }
+            }
+        }
+
+        if (logger.isLoggable(Level.FINEST)) {
+            logger.log(Level.FINEST, "MAPPED FILE : " + key);
+        }
+        return mappedFile;
+    }
+
+    public long getThreshold() {
+        return threshold;
+    }
+
+    public int getMaxMappings() {
+        return maxMappings;
+    }
+
+    //the number of responses which have been served from a mapping
+    public long getResponses() {
+        return responses.sum();
+    }
+
+    public long getMapped() {
+        return mapped.sum();
+    }
+
+    public long getUnmapped() {
+        return unmapped.sum();
+    }
+
+    public synchronized int getMappings() {
+        return mappings.size();
+    }
+
+    //called with the lock held, the mapping is unmapped as soon as its last
+    //reference has been released
+    private void retire(MappedFile mappedFile) {
+        mappedFile.retired = true;
+        if (mappedFile.references == 0) {
+            mappedFile.unmap();
+        }
+    }
+
+    private synchronized void release(MappedFile mappedFile) {
+        mappedFile.references--;
+        if (mappedFile.references == 0 && mappedFile.retired) {
+            mappedFile.unmap();
+        }
+    }
+
+    /**************************************************************************
+     * One file mapped into memory in regions of at most REGION_SIZE bytes.
+     * The references are guarded by the lock of the MappedFileCache.
+     **************************************************************************/
+    static final class MappedFile {
+
+        private final MappedFileCache cache;
+        private final MappedByteBuffer[] regions;
+        private final long size;
+        private final long lastModified;
+        private final Object fileKey;
+
+        private int references = 0;
+        private boolean retired = false;
+
+        private MappedFile(MappedFileCache cache, Path path, BasicFileAttributes attributes)
+                throws IOException {
+            this.cache = cache;
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+            this.fileKey = attributes.fileKey();
+
+            int count = (int) ((size + REGION_SIZE - 1) / REGION_SIZE);
+            regions = new MappedByteBuffer[count];
+
+            try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+                for (int i = 0; i < count; i++) {
+                    long position = i * REGION_SIZE;
+                    regions[i] = fileChannel.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(REGION_SIZE, size - position));
+                }
+            }
+        }
+
+        /**********************************************************************
+         * Returns duplicates of the regions, whose positions can be moved
+         * without affecting other requests.
+         **********************************************************************/
+        public ByteBuffer[] getRegions() {
+            ByteBuffer[] duplicates = new ByteBuffer[regions.length];
+            for (int i = 0; i < regions.length; i++) {
+                duplicates[i] = regions[i].duplicate();
+            }
+            return duplicates;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        //giving back the reference taken by acquire
+        public void release() {
+            cache.release(this);
+        }
+
+        private boolean isValidFor(BasicFileAttributes attributes) {
+            return size == attributes.size()
+                    && lastModified == attributes.lastModifiedTime().toMillis()
+                    && Objects.equals(fileKey, attributes.fileKey());
+        }
+
+        private void unmap() {
+            cache.unmapped.increment();
+
+            if (invokeCleaner == null) {
+                return;
+            }
+
+            for (MappedByteBuffer region : regions) {
+                try {
+                    invokeCleaner.invoke(unsafe, region);
+                } catch (ReflectiveOperationException e) {
+                    logger.log(Level.WARNING, "COULD NOT UNMAP A REGION");
+                }
+            }
+        }
+    }
+}
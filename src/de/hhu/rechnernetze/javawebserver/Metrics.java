@@ -0,0 +1,147 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/******************************************************************************
+ * The Metrics count what the engines do: the accepted, rejected and open
+ * connections, the responses by their status code, the bytes sent and the
+ * durations of the requests per endpoint.
+ *
+ * <p>Every counter is a LongAdder, which threads increment in their own
+ * cells, so recording never waits for a lock and creates no object. The
+ * sums are only added up when the MetricsHandler reads them.</p>
+ *
+ * <p>An endpoint is a route of the ResponseFactory. The endpoints are added
+ * before the server starts, requests no route has taken are counted at
+ * NO_ENDPOINT.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class Metrics {
+
+    //the endpoint of the requests no route has taken
+    static final int NO_ENDPOINT = 0;
+
+    //the status codes which are counted, from 100 to 599
+    static final int MIN_STATUS = 100;
+    static final int MAX_STATUS = 599;
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder active = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder[] statuses = new LongAdder[MAX_STATUS - MIN_STATUS + 1];
+
+    //the method and the pattern of every endpoint and its durations
+    private String[] methods = {null};
+    private String[] patterns = {null};
+    private LatencyHistogram[] histograms = {new LatencyHistogram()};
+
+    /**************************************************************************
+     * Constructs Metrics with nothing counted.
+     **************************************************************************/
+    public Metrics() {
+        for (int i = 0; i < statuses.length; i++) {
+            statuses[i] = new LongAdder();
+        }
+    }
+
+    /**************************************************************************
+     * Adds an endpoint, this has to be done before the server starts.
+     *
+     * @param method The name of the method of the route
+     * @param pattern The path or the prefix of the route
+     * @return The number of the endpoint
+     **************************************************************************/
+    public synchronized int addEndpoint(String method, String pattern) {
+        int endpoint = histograms.length;
+        methods = Arrays.copyOf(methods, endpoint + 1);
+        patterns = Arrays.copyOf(patterns, endpoint + 1);
+        histograms = Arrays.copyOf(histograms, endpoint + 1);
+
+        methods[endpoint] = method;
+        patterns[endpoint] = pattern;
+        histograms[endpoint] = new LatencyHistogram();
+        return endpoint;
+    }
+
+    //a connection has been accepted
+    public void connectionAccepted() {
+        accepted.increment();
+    }
+
+    //a connection has been answered with 503 without reading it
+    public void connectionRejected() {
+        rejected.increment();
+    }
+
+    //a connection is being handled
+    public void connectionOpened() {
+        active.increment();
+    }
+
+    //a connection which has been opened is closed
+    public void connectionClosed() {
+        active.decrement();
+    }
+
+    /**************************************************************************
+     * Counts a response which has been sent completely.
+     *
+     * @param endpoint The endpoint of the request
+     * @param status The status code of the response
+     * @param bytes The number of bytes of the head and the body
+     * @param nanos The time from the complete head of the request to the
+     *              end of the response
+     **************************************************************************/
+    public void recordResponse(int endpoint, int status, long bytes, long nanos) {
+        if (status >= MIN_STATUS && status <= MAX_STATUS) {
+            statuses[status - MIN_STATUS].increment();
+        }
+        bytesSent.add(bytes);
+        histograms[endpoint].record(nanos);
+    }
+
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getActive() {
+        return active.sum();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    //the number of responses with the status code
+    public long getResponses(int status) {
+        return status < MIN_STATUS || status > MAX_STATUS ? 0
+                : statuses[status - MIN_STATUS].sum();
+    }
+
+    //the number of endpoints including NO_ENDPOINT
+    public int getEndpoints() {
+        return histograms.length;
+    }
+
+    //null for NO_ENDPOINT
+    public String getMethod(int endpoint) {
+        return methods[endpoint];
+    }
+
+    //null for NO_ENDPOINT
+    public String getPattern(int endpoint) {
+        return patterns[endpoint];
+    }
+
+    public LatencyHistogram getHistogram(int endpoint) {
+        return histograms[endpoint];
+    }
+}
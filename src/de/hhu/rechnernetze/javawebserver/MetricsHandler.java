@@ -0,0 +1,306 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+
+/******************************************************************************
+ * The MetricsHandler answers GET and HEAD requests with the Metrics and the
+ * counters of the caches in the text format of Prometheus, e.g.
+ *
+ * <pre>
+ * webserver_responses_total{code="200"} 1027
+ * webserver_request_duration_seconds{method="GET",route="/*",quantile="0.99"} 0.000255
+ * webserver_cache_hit_ratio{cache="response"} 0.98
+ * </pre>
+ *
+ * <p>The durations are a summary over the whole run of the server, the
+ * quantiles are read from the LatencyHistogram of every endpoint. The text
+ * is created anew for every request, so reading it costs nothing while
+ * nobody asks for it.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class MetricsHandler implements RequestHandler {
+
+    static final ContentType CONTENT_TYPE =
+            new ContentType("text/plain", "version=0.0.4; charset=utf-8", true);
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final Metrics metrics;
+    private final FileHandler fileHandler;
+    private final AccessLog accessLog;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    /**************************************************************************
+     * Constructs a MetricsHandler.
+     *
+     * @param metrics The Metrics the engines record in
+     * @param fileHandler The handler whose caches are reported or null for
+     *                    none
+     * @throws IllegalArgumentException if the metrics are null
+     **************************************************************************/
+    public MetricsHandler(Metrics metrics, FileHandler fileHandler) {
+        this(metrics, fileHandler, null);
+    }
+
+    /**************************************************************************
+     * Constructs a MetricsHandler which also reports the lines the
+     * AccessLog has written and dropped.
+     *
+     * @param metrics The Metrics the engines record in
+     * @param fileHandler The handler whose caches are reported or null for
+     *                    none
+     * @param accessLog The AccessLog or null for none
+     * @throws IllegalArgumentException if the metrics are null
+     **************************************************************************/
+    public MetricsHandler(Metrics metrics, FileHandler fileHandler, AccessLog accessLog) {
+        if (metrics == null) {
+            throw new IllegalArgumentException("Illegal Metrics: " + metrics);
+        }
+
+        this.metrics = metrics;
+        this.fileHandler = fileHandler;
+        this.accessLog = accessLog;
+    }
+
+    @Override
+    public HttpResponse respond(RequestHead requestHead) {
+        StringBuilder text = new StringBuilder(4096);
+
+        appendConnections(text);
+        appendResponses(text);
+        appendDurations(text);
+        if (fileHandler != null) {
+            appendCaches(text);
+        }
+        if (accessLog != null) {
+            appendAccessLog(text);
+        }
+
+        HttpResponse response = HttpResponse.withBody(HttpStatus.OK, CONTENT_TYPE,
+                text.toString().getBytes(StandardCharsets.UTF_8));
+        return requestHead.getMethodId() == RequestHead.METHOD_HEAD
+                ? response.withoutBody() : response;
+    }
+
+    private void appendConnections(StringBuilder text) {
+        family(text, "webserver_connections_accepted_total", "counter",
+                "The connections which have been accepted.");
+        sample(text, "webserver_connections_accepted_total", metrics.getAccepted());
+
+        family(text, "webserver_connections_rejected_total", "counter",
+                "The connections which have been answered with 503 when no worker was left.");
+        sample(text, "webserver_connections_rejected_total", metrics.getRejected());
+
+        family(text, "webserver_connections_active", "gauge",
+                "The connections which are open at the moment.");
+        sample(text, "webserver_connections_active", metrics.getActive());
+
+        family(text, "webserver_threads", "gauge", "The live threads of the server.");
+        sample(text, "webserver_threads", threads.getThreadCount());
+
+        family(text, "webserver_threads_started_total", "counter",
+                "The threads which have been started since the server has started.");
+        sample(text, "webserver_threads_started_total", threads.getTotalStartedThreadCount());
+    }
+
+    private void appendResponses(StringBuilder text) {
+        family(text, "webserver_responses_total", "counter",
+                "The responses which have been sent by their status code.");
+        for (int status = Metrics.MIN_STATUS; status <= Metrics.MAX_STATUS; status++) {
+            long responses = metrics.getResponses(status);
+            if (responses > 0) {
+                text.append("webserver_responses_total{code=\"").append(status).append("\"} ")
+                        .append(responses).append('\n');
+            }
+        }
+
+        family(text, "webserver_response_bytes_total", "counter",
+                "The bytes of the heads and the bodies which have been sent.");
+        sample(text, "webserver_response_bytes_total", metrics.getBytesSent());
+    }
+
+    //a summary per endpoint, the requests without one are reported with an
+    //empty method and route
+    private void appendDurations(StringBuilder text) {
+        String name = "webserver_request_duration_seconds";
+        family(text, name, "summary",
+                "The time from the complete request head to the end of the response.");
+
+        for (int endpoint = 0; endpoint < metrics.getEndpoints(); endpoint++) {
+            LatencyHistogram histogram = metrics.getHistogram(endpoint);
+            long[] counts = histogram.getCounts();
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+
+            String labels = "method=\"" + escape(metrics.getMethod(endpoint))
+                    + "\",route=\"" + escape(metrics.getPattern(endpoint)) + "\"";
+
+            for (double quantile : QUANTILES) {
+                text.append(name).append('{').append(labels).append(",quantile=\"")
+                        .append(quantile).append("\"} ");
+                if (total == 0) {
+                    text.append("NaN");
+                } else {
+                    text.append(LatencyHistogram.getValueAt(counts, total, quantile) / 1e6);
+                }
+                text.append('\n');
+            }
+
+            text.append(name).append("_sum{").append(labels).append("} ")
+                    .append(histogram.getSum() / 1e9).append('\n');
+            text.append(name).append("_count{").append(labels).append("} ")
+                    .append(total).append('\n');
+        }
+    }
+
+    //every cache as hits and misses, the ratio is reported too so that it
+    //can be read without a query
+    private void appendCaches(StringBuilder text) {
+        ResponseCache responseCache = fileHandler.getResponseCache();
+        MappedFileCache mappedFileCache = fileHandler.getMappedFileCache();
+        CompressionCache compressionCache = fileHandler.getCompressionCache();
+        ValidatorCache validatorCache = fileHandler.getValidatorCache();
+
+        PathResolver pathResolver = fileHandler.getPathResolver();
+
+        String[] caches = {"response", "mmap", "compression", "validator", "path"};
+        long[] hits = new long[caches.length];
+        long[] misses = new long[caches.length];
+        boolean[] present = new boolean[caches.length];
+
+        if (responseCache != null) {
+            present[0] = true;
+            hits[0] = responseCache.getHits();
+            misses[0] = responseCache.getMisses();
+        }
+
+        //a response from a mapping which has not been created for it
+        if (mappedFileCache != null) {
+            present[1] = true;
+            misses[1] = mappedFileCache.getMapped();
+            hits[1] = Math.max(mappedFileCache.getResponses() - misses[1], 0);
+        }
+
+        //a compressed response which has to be compressed first
+        if (compressionCache != null) {
+            present[2] = true;
+            hits[2] = compressionCache.getHits();
+            misses[2] = compressionCache.getCompressions();
+        }
+
+        present[3] = true;
+        hits[3] = validatorCache.getHits();
+        misses[3] = validatorCache.getMisses();
+
+        present[4] = true;
+        hits[4] = pathResolver.getHits();
+        misses[4] = pathResolver.getMisses();
+
+        family(text, "webserver_cache_hits_total", "counter",
+                "The lookups which have been answered from the cache.");
+        for (int i = 0; i < caches.length; i++) {
+            if (present[i]) {
+                cacheSample(text, "webserver_cache_hits_total", caches[i], hits[i]);
+            }
+        }
+
+        family(text, "webserver_cache_misses_total", "counter",
+                "The lookups which have not been answered from the cache.");
+        for (int i = 0; i < caches.length; i++) {
+            if (present[i]) {
+                cacheSample(text, "webserver_cache_misses_total", caches[i], misses[i]);
+            }
+        }
+
+        family(text, "webserver_cache_hit_ratio", "gauge",
+                "The hits of the cache divided by all of its lookups.");
+        for (int i = 0; i < caches.length; i++) {
+            if (present[i]) {
+                long lookups = hits[i] + misses[i];
+                text.append("webserver_cache_hit_ratio{cache=\"").append(caches[i])
+                        .append("\"} ").append(lookups == 0 ? "NaN"
+                                : Double.toString((double) hits[i] / lookups)).append('\n');
+            }
+        }
+
+        if (responseCache != null || compressionCache != null) {
+            family(text, "webserver_cache_evictions_total", "counter",
+                    "The entries which have been removed to make room for others.");
+            if (responseCache != null) {
+                cacheSample(text, "webserver_cache_evictions_total", "response",
+                        responseCache.getEvictions());
+            }
+            if (compressionCache != null) {
+                cacheSample(text, "webserver_cache_evictions_total", "compression",
+                        compressionCache.getEvictions());
+            }
+
+            family(text, "webserver_cache_size_bytes", "gauge",
+                    "The bytes the entries of the cache hold together.");
+            if (responseCache != null) {
+                cacheSample(text, "webserver_cache_size_bytes", "response",
+                        responseCache.getSize());
+            }
+            if (compressionCache != null) {
+                cacheSample(text, "webserver_cache_size_bytes", "compression",
+                        compressionCache.getSize());
+            }
+        }
+
+        if (mappedFileCache != null) {
+            family(text, "webserver_mmap_mappings", "gauge",
+                    "The files which are mapped at the moment.");
+            sample(text, "webserver_mmap_mappings", mappedFileCache.getMappings());
+        }
+
+        DocumentIndex index = fileHandler.getDocumentIndex();
+        if (index != null) {
+            family(text, "webserver_index_entries", "gauge",
+                    "The files and directories in the index of the document root.");
+            sample(text, "webserver_index_entries", index.getSize());
+
+            family(text, "webserver_index_rejected_total", "counter",
+                    "The requests for paths which are not in the index.");
+            sample(text, "webserver_index_rejected_total", index.getRejected());
+        }
+    }
+
+    private void appendAccessLog(StringBuilder text) {
+        family(text, "webserver_access_log_lines_total", "counter",
+                "The lines which have been written to the access log.");
+        sample(text, "webserver_access_log_lines_total", accessLog.getWritten());
+
+        family(text, "webserver_access_log_dropped_total", "counter",
+                "The lines which have been dropped because the ring of the access log was full.");
+        sample(text, "webserver_access_log_dropped_total", accessLog.getDropped());
+    }
+
+    private static void family(StringBuilder text, String name, String type, String help) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder text, String name, long value) {
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void cacheSample(StringBuilder text, String name, String cache,
+                                    long value) {
+        text.append(name).append("{cache=\"").append(cache).append("\"} ")
+                .append(value).append('\n');
+    }
+
+    //the value of a label with backslashes, quotes and line feeds escaped
+    private static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
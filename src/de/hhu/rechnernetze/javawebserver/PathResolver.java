@@ -0,0 +1,322 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/******************************************************************************
+ * The PathResolver turns the target of a request below a prefix into the
+ * path of a file within a directory. The query is cut off, every segment is
+ * percent-decoded as UTF-8 and <i>.</i> and <i>..</i> are applied in one
+ * pass over the target, a target which leaves the directory or contains an
+ * encoded slash or NUL is rejected.
+ *
+ * <p>The resolutions are remembered by the target, so that the hot targets
+ * are only decoded once. The map is bounded by clearing it when it is full,
+ * a few decodings are cheaper than ordering the entries.</p>
+ *
+ * <p>Symbolic links are either followed wherever they lead or only if they
+ * stay within the directory. The real path of a target is then checked
+ * again after the time to live, so that a link which is created later is
+ * noticed.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class PathResolver {
+
+    static final Logger logger = Logger.getLogger(PathResolver.class.getName());
+
+    //following symbolic links wherever they lead
+    static final String LINKS_FOLLOW = "follow";
+
+    //rejecting targets whose real path lies outside of the directory
+    static final String LINKS_INSIDE = "inside";
+
+    static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    //the resolution of every rejected target
+    private static final Resolution REJECTED = new Resolution(null, null);
+
+    private final String prefix;
+    private final Path directory;
+    private final boolean inside;
+    private final long timeToLive;
+    private final int maxEntries;
+
+    //the real path of the directory, which is read on the first check
+    private volatile Path realDirectory;
+
+    private final ConcurrentHashMap<String, Resolution> resolutions = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**************************************************************************
+     * Constructs a PathResolver for the targets below the prefix.
+     *
+     * @param prefix The path the directory is mounted at, like <i>/static/</i>
+     * @param directory The normalized directory the targets are resolved
+     *                  against
+     * @param links LINKS_FOLLOW or LINKS_INSIDE
+     * @param timeToLive The milliseconds the real path of a target is trusted
+     * @param maxEntries The number of targets which are remembered
+     * @throws IllegalArgumentException if an argument is illegal
+     **************************************************************************/
+    public PathResolver(String prefix, Path directory, String links, long timeToLive,
+                        int maxEntries) {
+        if (prefix == null || !prefix.startsWith("/") || !prefix.endsWith("/")
+                || directory == null) {
+            logger.log(Level.WARNING, "RECEIVED ILLEGAL PREFIX : " + prefix);
+            throw new IllegalArgumentException("Illegal prefix " + prefix);
+        }
+
+        if (!LINKS_FOLLOW.equals(links) && !LINKS_INSIDE.equals(links)) {
+            logger.log(Level.WARNING, "RECEIVED ILLEGAL LINKS : " + links);
+            throw new IllegalArgumentException("Illegal Value for -links : " + links);
+        }
+
+        if (timeToLive < 0 || maxEntries <= 0) {
+            throw new IllegalArgumentException("Illegal PathResolver " + timeToLive
+                    + " / " + maxEntries);
+        }
+
+        this.prefix = prefix;
+        this.directory = directory;
+        this.inside = links.equals(LINKS_INSIDE);
+        this.timeToLive = timeToLive;
+        this.maxEntries = maxEntries;
+    }
+
+    /**************************************************************************
+     * Returns the Resolution of the target.
+     *
+     * @param target The target of the request, with or without its query
+     * @return The Resolution or null if the target does not lie below the
+     * prefix, leaves the directory or can not be a path
+     **************************************************************************/
+    public Resolution resolve(String target) {
+        Resolution resolution = resolutions.get(target);
+        if (resolution != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+            resolution = decode(target);
+
+            if (resolutions.size() >= maxEntries) {
+                resolutions.clear();
+            }
+            resolutions.put(target, resolution);
+        }
+
+        if (resolution == REJECTED) {
+            return null;
+        }
+        return !inside || isInside(resolution) ? resolution : null;
+    }
+
+    /**************************************************************************
+     * Returns whether the path of the target is canonical, so that the
+     * Router, which matches the bytes of the target as they are, routes it
+     * like its decoded path. A path with an empty, a . or a .. segment or
+     * with a percent-encoded unreserved character is not. Targets which do
+     * not start with a slash are left to the handlers.
+     *
+     * @param bytes The bytes holding the target
+     * @param offset The start of the target
+     * @param length The length of the target including its query
+     * @return Whether the target may be routed
+     **************************************************************************/
+    static boolean isCanonical(byte[] bytes, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && bytes[end] != '?') {
+            end++;
+        }
+        if (end == offset || bytes[offset] != '/') {
+            return true;
+        }
+
+        int start = offset + 1;
+        for (int i = start; i <= end; i++) {
+            if (i < end && bytes[i] != '/') {
+                if (bytes[i] == '%' && i + 2 < end
+                        && isUnreserved(Character.digit(bytes[i + 1], 16) << 4
+                        | Character.digit(bytes[i + 2], 16))) {
+                    return false;
+                }
+                continue;
+            }
+
+            //the empty segment after a trailing slash is the directory
+            int segmentLength = i - start;
+            if (segmentLength == 0 && i < end
+                    || segmentLength == 1 && bytes[start] == '.'
+                    || segmentLength == 2 && bytes[start] == '.' && bytes[start + 1] == '.') {
+                return false;
+            }
+            start = i + 1;
+        }
+        return true;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    //percent-decoding the segments into one array, the start of every
+    //segment is kept so that .. can drop the last one again
+    private Resolution decode(String target) {
+        if (!target.startsWith(prefix)) {
+            return REJECTED;
+        }
+
+        int end = target.indexOf('?');
+        if (end < 0) {
+            end = target.length();
+        }
+
+        byte[] bytes = new byte[end - prefix.length()];
+        int[] starts = new int[bytes.length / 2 + 1];
+        int segments = 0;
+        int length = 0;
+
+        for (int i = prefix.length(); i <= end; ) {
+            int next = target.indexOf('/', i);
+            if (next < 0 || next > end) {
+                next = end;
+            }
+
+            int start = length;
+            if (segments > 0) {
+                bytes[length++] = '/';
+            }
+            int segment = length;
+
+            for (int j = i; j < next; j++) {
+                int c = target.charAt(j);
+                if (c == '%') {
+                    int high = j + 2 < next ? Character.digit(target.charAt(j + 1), 16) : -1;
+                    int low = j + 2 < next ? Character.digit(target.charAt(j + 2), 16) : -1;
+                    if (high < 0 || low < 0) {
+                        return REJECTED;
+                    }
+                    c = high << 4 | low;
+                    j += 2;
+                }
+
+                //an encoded slash would be a separator in the path
+                if (c == '/' || c == '\\' || c == 0) {
+                    return REJECTED;
+                }
+                bytes[length++] = (byte) c;
+            }
+
+            int segmentLength = length - segment;
+            if (segmentLength == 0 || segmentLength == 1 && bytes[segment] == '.') {
+                length = start;
+            } else if (segmentLength == 2 && bytes[segment] == '.' && bytes[segment + 1] == '.') {
+                if (segments == 0) {
+                    return REJECTED;
+                }
+                length = starts[--segments];
+            } else {
+                starts[segments++] = start;
+            }
+
+            i = next + 1;
+        }
+
+        try {
+            Path relativePath = Paths.get(new String(bytes, 0, length, StandardCharsets.UTF_8));
+            return new Resolution(relativePath, directory.resolve(relativePath));
+        } catch (InvalidPathException e) {
+            return REJECTED;
+        }
+    }
+
+    //whether the decoded byte is a letter, a digit, - . _ or ~, an invalid
+    //escape is negative and left to decode()
+    private static boolean isUnreserved(int c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'
+                || c == '-' || c == '.' || c == '_' || c == '~';
+    }
+
+    //whether the real path of the target or of its nearest existing parent
+    //lies within the real path of the directory
+    private boolean isInside(Resolution resolution) {
+        long now = System.currentTimeMillis();
+        if (now - resolution.checkedAt <= timeToLive) {
+            return resolution.inside;
+        }
+
+        boolean inside;
+        try {
+            Path real = realDirectory;
+            if (real == null) {
+                real = directory.toAbsolutePath().toRealPath();
+                realDirectory = real;
+            }
+
+            inside = false;
+            for (Path path = resolution.path.toAbsolutePath(); path != null;
+                 path = path.getParent()) {
+                try {
+                    inside = path.toRealPath().startsWith(real);
+                    break;
+                } catch (NoSuchFileException e) {
+                    //the target does not exist yet, its parent decides
+                }
+            }
+        } catch (IOException e) {
+            inside = false;
+        }
+
+        if (!inside && logger.isLoggable(Level.FINE)) {
+            logger.log(Level.FINE, "REJECTING THE LINK OUT OF THE DIRECTORY : " + resolution.path);
+        }
+
+        resolution.inside = inside;
+        resolution.checkedAt = now;
+        return inside;
+    }
+
+    /**************************************************************************
+     * The Resolution of a target is the path of its file relative to the
+     * directory and within it.
+     **************************************************************************/
+    static final class Resolution {
+
+        private final Path relativePath;
+        private final Path path;
+
+        //the last check of the real path
+        private volatile boolean inside = false;
+        private volatile long checkedAt = Long.MIN_VALUE / 2;
+
+        Resolution(Path relativePath, Path path) {
+            this.relativePath = relativePath;
+            this.path = path;
+        }
+
+        //the path relative to the directory, which is empty for the
+        //directory itself
+        public Path getRelativePath() {
+            return relativePath;
+        }
+
+        //the path of the file within the directory
+        public Path getPath() {
+            return path;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/******************************************************************************
+ * The RequestBody decodes the entity body of a request, which is either
+ * delimited by its Content-Length or sent with the chunked transfer coding,
+ * and hands the decoded bytes to a BodySink.
+ *
+ * <p>The body may arrive in any number of parts, every call to decode()
+ * consumes all bytes it is given up to the end of the body. The bytes of a
+ * chunk are handed on as views of the read buffer, so nothing is copied and
+ * nothing is allocated. Like the head, the lines of the chunked coding may
+ * end with CRLF or a bare LF.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class RequestBody {
+
+    //
+    // THE RESULTS OF START AND DECODE
+    //
+    static final int NEED_MORE = 0;
+    static final int COMPLETE = 1;
+    static final int MALFORMED = 2;
+    static final int TOO_LARGE = 3;
+    static final int NOT_IMPLEMENTED = 4;
+
+    //a chunk size line may carry extensions, which are skipped, and the
+    //body may be followed by trailer lines, which are skipped too
+    static final int MAX_LINE_LENGTH = 1024;
+    static final int MAX_TRAILER_SIZE = 8192;
+
+    //
+    // THE STATES OF THE DECODER
+    //
+    private static final int LENGTH = 0;
+    private static final int CHUNK_SIZE = 1;
+    private static final int CHUNK_EXTENSION = 2;
+    private static final int CHUNK_SIZE_LF = 3;
+    private static final int CHUNK_DATA = 4;
+    private static final int CHUNK_DATA_CR = 5;
+    private static final int CHUNK_DATA_LF = 6;
+    private static final int TRAILER = 7;
+    private static final int TRAILER_LINE = 8;
+    private static final int TRAILER_LF = 9;
+    private static final int DONE = 10;
+
+    private final long maxBodySize;
+
+    private ByteBuffer view;
+    private int state;
+    private long remaining;
+    private long received;
+    private int sizeDigits;
+    private int lineLength;
+    private int trailerSize;
+    private int position;
+    private boolean ambiguous;
+
+    /**************************************************************************
+     * Constructs a RequestBody which rejects bodies larger than the limit.
+     *
+     * @param maxBodySize The number of bytes a body may have
+     * @throws IllegalArgumentException if the limit is negative
+     **************************************************************************/
+    public RequestBody(long maxBodySize) {
+        if (maxBodySize < 0) {
+            throw new IllegalArgumentException("Illegal RequestBody limit " + maxBodySize);
+        }
+
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**************************************************************************
+     * Starts decoding the body of the request, forgetting the previous one.
+     * A request without Content-Length and Transfer-Encoding has an empty
+     * body.
+     *
+     * @param requestHead The head of the request
+     * @return NEED_MORE if bytes of the body have to be decoded, COMPLETE if
+     * the body is empty, otherwise the reason why the body is rejected
+     **************************************************************************/
+    public int start(RequestHead requestHead) {
+        received = 0;
+        remaining = 0;
+        sizeDigits = 0;
+        lineLength = 0;
+        trailerSize = 0;
+
+        boolean chunked = requestHead.hasHeader(RequestHead.TRANSFER_ENCODING);
+        ambiguous = chunked && requestHead.hasHeader(RequestHead.CONTENT_LENGTH);
+
+        if (chunked) {
+            //chunked has to be the only transfer coding
+            if (requestHead.getHeaderLength(RequestHead.TRANSFER_ENCODING) != 7
+                    || !requestHead.headerContainsToken(RequestHead.TRANSFER_ENCODING,
+                    "chunked")) {
+                state = DONE;
+                return NOT_IMPLEMENTED;
+            }
+            state = CHUNK_SIZE;
+            return NEED_MORE;
+        }
+
+        if (!requestHead.hasHeader(RequestHead.CONTENT_LENGTH)) {
+            state = DONE;
+            return COMPLETE;
+        }
+
+        long length = requestHead.getHeaderAsLong(RequestHead.CONTENT_LENGTH);
+        if (length < 0) {
+            state = DONE;
+            return MALFORMED;
+        } else if (length > maxBodySize) {
+            state = DONE;
+            return TOO_LARGE;
+        }
+
+        remaining = length;
+        state = length == 0 ? DONE : LENGTH;
+        return length == 0 ? COMPLETE : NEED_MORE;
+    }
+
+    /**************************************************************************
+     * Decodes the bytes from offset to end and hands the bytes of the body to
+     * the sink. Afterwards getPosition() is the index behind the last byte
+     * which belongs to the body.
+     *
+     * @param buffer The bytes the body is read into
+     * @param offset The index of the first byte which has not been decoded
+     * @param end The index behind the last byte which has been read
+     * @param sink Receives the bytes of the body
+     * @return COMPLETE if the end of the body has been found, NEED_MORE if
+     * more bytes are needed, otherwise the reason why the body is rejected
+     * @throws IOException If the sink can not store the bytes
+     **************************************************************************/
+    public int decode(byte[] buffer, int offset, int end, BodySink sink) throws IOException {
+        if (view == null || view.array() != buffer) {
+            view = ByteBuffer.wrap(buffer);
+        }
+
+        position = offset;
+        while (position < end) {
+            if (state == LENGTH || state == CHUNK_DATA) {
+                int length = (int) Math.min(remaining, end - position);
+                view.limit(position + length).position(position);
+                sink.write(view);
+                view.clear();
+
+                position += length;
+                remaining -= length;
+                if (remaining == 0) {
+                    if (state == LENGTH) {
+                        state = DONE;
+                        return COMPLETE;
+                    }
+                    state = CHUNK_DATA_CR;
+                }
+                continue;
+            }
+
+            int result = decodeFraming(buffer[position++]);
+            if (result != NEED_MORE) {
+                return result;
+            }
+        }
+
+        return NEED_MORE;
+    }
+
+    //the index behind the last decoded byte
+    public int getPosition() {
+        return position;
+    }
+
+    //a request with Content-Length and Transfer-Encoding could be a request
+    //smuggling attempt, so its connection is not kept open
+    public boolean isAmbiguous() {
+        return ambiguous;
+    }
+
+    //the chunk size lines, the line ends of the chunks and the trailer
+    private int decodeFraming(byte b) {
+        switch (state) {
+            case CHUNK_SIZE:
+                int digit = Character.digit(b, 16);
+                if (digit >= 0) {
+                    if (++sizeDigits > 15) {
+                        return reject(MALFORMED);
+                    }
+                    remaining = remaining * 16 + digit;
+                    return NEED_MORE;
+                } else if (sizeDigits == 0) {
+                    return reject(MALFORMED);
+                } else if (b == ';' || b == ' ' || b == '\t') {
+                    state = CHUNK_EXTENSION;
+                    lineLength = 0;
+                    return NEED_MORE;
+                }
+                return endChunkSizeLine(b);
+
+            case CHUNK_EXTENSION:
+                if (b == '\r' || b == '\n') {
+                    return endChunkSizeLine(b);
+                } else if (++lineLength > MAX_LINE_LENGTH) {
+                    return reject(MALFORMED);
+                }
+                return NEED_MORE;
+
+            case CHUNK_SIZE_LF:
+                return b == '\n' ? startChunk() : reject(MALFORMED);
+
+            case CHUNK_DATA_CR:
+                if (b == '\n') {
+                    return startChunkSizeLine();
+                }
+                state = CHUNK_DATA_LF;
+                return b == '\r' ? NEED_MORE : reject(MALFORMED);
+
+            case CHUNK_DATA_LF:
+                return b == '\n' ? startChunkSizeLine() : reject(MALFORMED);
+
+            case TRAILER:
+                if (b == '\n') {
+                    state = DONE;
+                    return COMPLETE;
+                }
+                state = b == '\r' ? TRAILER_LF : TRAILER_LINE;
+                return countTrailer();
+
+            case TRAILER_LINE:
+                if (b == '\n') {
+                    state = TRAILER;
+                } else if (b == '\r') {
+                    state = TRAILER_LF;
+                }
+                return countTrailer();
+
+            case TRAILER_LF:
+                if (b != '\n') {
+                    return reject(MALFORMED);
+                }
+                //a CR at the start of a line belongs to the empty line
+                if (lineLength == 1) {
+                    state = DONE;
+                    return COMPLETE;
+                }
+                state = TRAILER;
+                lineLength = 0;
+                return NEED_MORE;
+
+            default:
+                return reject(MALFORMED);
+        }
+    }
+
+    private int endChunkSizeLine(byte b) {
+        if (b == '\n') {
+            return startChunk();
+        } else if (b == '\r') {
+            state = CHUNK_SIZE_LF;
+            return NEED_MORE;
+        }
+        return reject(MALFORMED);
+    }
+
+    //the chunk of size 0 ends the body, only the trailer follows
+    private int startChunk() {
+        if (remaining == 0) {
+            state = TRAILER;
+            lineLength = 0;
+            return NEED_MORE;
+        }
+
+        received += remaining;
+        if (received > maxBodySize) {
+            return reject(TOO_LARGE);
+        }
+
+        state = CHUNK_DATA;
+        return NEED_MORE;
+    }
+
+    private int startChunkSizeLine() {
+        state = CHUNK_SIZE;
+        remaining = 0;
+        sizeDigits = 0;
+        return NEED_MORE;
+    }
+
+    private int countTrailer() {
+        lineLength++;
+        if (state == TRAILER) {
+            lineLength = 0;
+        }
+        return ++trailerSize > MAX_TRAILER_SIZE ? reject(MALFORMED) : NEED_MORE;
+    }
+
+    private int reject(int result) {
+        state = DONE;
+        return result;
+    }
+}
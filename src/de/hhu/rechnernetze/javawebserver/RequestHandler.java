@@ -0,0 +1,24 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.io.IOException;
+
+/******************************************************************************
+ * A RequestHandler answers the requests the Router hands it for the method
+ * and the path it has been mounted at, like the files of a directory.
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+interface RequestHandler {
+
+    /**************************************************************************
+     * Creates the response to the request. The RequestHead is only valid
+     * during this call.
+     *
+     * @param requestHead The request line and the header lines
+     * @return The response or null if the handler has nothing for the
+     * target, which is then answered with 404
+     * @throws IOException If the response can not be created
+     **************************************************************************/
+    HttpResponse respond(RequestHead requestHead) throws IOException;
+}
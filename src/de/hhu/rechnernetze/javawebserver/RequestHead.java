@@ -0,0 +1,594 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/******************************************************************************
+ * The RequestHead holds the request line and the header lines of one request
+ * as slices of the buffer they have been read into, so that parsing a request
+ * does not create any object. Strings are only created when a value is asked
+ * for as a String.
+ *
+ * <p>The well-known headers are found by their id, all other headers by their
+ * index. A RequestHead is reused for all requests of a connection and is only
+ * valid until the buffer is overwritten.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class RequestHead {
+
+    //
+    // THE REQUEST METHODS
+    //
+    static final int METHOD_OTHER = 0;
+    static final int METHOD_GET = 1;
+    static final int METHOD_HEAD = 2;
+    static final int METHOD_POST = 3;
+    static final int METHOD_PUT = 4;
+    static final int METHOD_DELETE = 5;
+    static final int METHOD_OPTIONS = 6;
+    static final int METHOD_TRACE = 7;
+    static final int METHOD_CONNECT = 8;
+    static final int METHOD_PATCH = 9;
+    static final int METHOD_PRI = 10;
+    static final int METHODS = 11;
+
+    private static final String[] METHOD_NAMES = {null, "GET", "HEAD", "POST", "PUT",
+            "DELETE", "OPTIONS", "TRACE", "CONNECT", "PATCH", "PRI"};
+    private static final byte[][] METHOD_BYTES = toBytes(METHOD_NAMES, false);
+
+    //
+    // THE PROTOCOL VERSIONS
+    //
+    static final int VERSION_OTHER = 0;
+    static final int VERSION_0_9 = 1;
+    static final int VERSION_1_0 = 2;
+    static final int VERSION_1_1 = 3;
+    static final int VERSION_2_0 = 4;
+
+    private static final byte[] HTTP_1_0 = "HTTP/1.0".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] HTTP_1_1 = "HTTP/1.1".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] HTTP_2_0 = "HTTP/2.0".getBytes(StandardCharsets.ISO_8859_1);
+
+    //
+    // THE WELL-KNOWN HEADERS
+    //
+    static final int HOST = 0;
+    static final int USER_AGENT = 1;
+    static final int CONNECTION = 2;
+    static final int CONTENT_LENGTH = 3;
+    static final int TRANSFER_ENCODING = 4;
+    static final int ACCEPT_ENCODING = 5;
+    static final int IF_NONE_MATCH = 6;
+    static final int IF_MODIFIED_SINCE = 7;
+    static final int RANGE = 8;
+    static final int IF_RANGE = 9;
+    static final int UPGRADE = 10;
+    static final int HTTP2_SETTINGS = 11;
+    static final int EXPECT = 12;
+    static final int CONTENT_TYPE = 13;
+    static final int REFERER = 14;
+    static final int HEADERS = 15;
+
+    private static final String[] HEADER_NAMES = {"Host", "User-Agent", "Connection",
+            "Content-Length", "Transfer-Encoding", "Accept-Encoding", "If-None-Match",
+            "If-Modified-Since", "Range", "If-Range", "Upgrade", "HTTP2-Settings", "Expect",
+            "Content-Type", "Referer"};
+    private static final byte[][] HEADER_BYTES = toBytes(HEADER_NAMES, true);
+
+    //the number of other headers a request may have
+    static final int MAX_OTHER_HEADERS = 64;
+
+    private byte[] buffer;
+    private int method;
+    private int methodOffset;
+    private int methodLength;
+    private int targetOffset;
+    private int targetLength;
+    private int versionOffset;
+    private int versionLength;
+    private int version;
+    private boolean valid;
+    private int endpoint;
+
+    //whether a header which decides how the request is framed or routed
+    //has been sent twice in a way which can not be resolved
+    private boolean conflicting;
+
+    private final int[] headerOffsets = new int[HEADERS];
+    private final int[] headerLengths = new int[HEADERS];
+
+    private int otherHeaders;
+    private final int[] otherNameOffsets = new int[MAX_OTHER_HEADERS];
+    private final int[] otherNameLengths = new int[MAX_OTHER_HEADERS];
+    private final int[] otherValueOffsets = new int[MAX_OTHER_HEADERS];
+    private final int[] otherValueLengths = new int[MAX_OTHER_HEADERS];
+
+    /**************************************************************************
+     * Constructs an empty RequestHead, it is filled by the RequestParser.
+     **************************************************************************/
+    public RequestHead() {
+        reset(null);
+    }
+
+    //forgetting the previous request, the slices will point into the buffer
+    void reset(byte[] buffer) {
+        this.buffer = buffer;
+        method = METHOD_OTHER;
+        version = VERSION_OTHER;
+        valid = false;
+        otherHeaders = 0;
+        endpoint = Metrics.NO_ENDPOINT;
+        conflicting = false;
+
+        for (int i = 0; i < HEADERS; i++) {
+            headerOffsets[i] = -1;
+            headerLengths[i] = 0;
+        }
+    }
+
+    //called by the RequestParser with the three parts of the request line,
+    //the version has a length of 0 for a HTTP/0.9 request
+    void setRequestLine(int methodOffset, int methodLength, int targetOffset,
+                        int targetLength, int versionOffset, int versionLength) {
+        this.methodOffset = methodOffset;
+        this.methodLength = methodLength;
+        this.targetOffset = targetOffset;
+        this.targetLength = targetLength;
+        this.versionOffset = versionOffset;
+        this.versionLength = versionLength;
+        this.method = METHOD_OTHER;
+
+        for (int i = 1; i < METHOD_BYTES.length; i++) {
+            if (equals(buffer, methodOffset, methodLength, METHOD_BYTES[i], false)) {
+                this.method = i;
+                break;
+            }
+        }
+
+        if (versionLength == 0) {
+            version = VERSION_0_9;
+        } else if (equals(buffer, versionOffset, versionLength, HTTP_1_1, false)) {
+            version = VERSION_1_1;
+        } else if (equals(buffer, versionOffset, versionLength, HTTP_1_0, false)) {
+            version = VERSION_1_0;
+        } else if (equals(buffer, versionOffset, versionLength, HTTP_2_0, false)) {
+            version = VERSION_2_0;
+        } else {
+            version = VERSION_OTHER;
+        }
+
+        valid = true;
+    }
+
+    //called by the RequestParser for every header line, returns false if the
+    //request has too many headers. A repeated Host or Transfer-Encoding and
+    //differing Content-Lengths are recorded as conflicting, RFC 7230
+    //section 3.3.3, because another server could frame the body with the
+    //other value.
+    boolean addHeader(int nameOffset, int nameLength, int valueOffset, int valueLength) {
+        for (int i = 0; i < HEADERS; i++) {
+            if (equals(buffer, nameOffset, nameLength, HEADER_BYTES[i], true)) {
+                if (headerOffsets[i] >= 0 && (i == HOST || i == TRANSFER_ENCODING
+                        || i == CONTENT_LENGTH && !Arrays.equals(buffer, valueOffset,
+                        valueOffset + valueLength, buffer, headerOffsets[i],
+                        headerOffsets[i] + headerLengths[i]))) {
+                    conflicting = true;
+                }
+                headerOffsets[i] = valueOffset;
+                headerLengths[i] = valueLength;
+                return true;
+            }
+        }
+
+        if (otherHeaders == MAX_OTHER_HEADERS) {
+            return false;
+        }
+
+        otherNameOffsets[otherHeaders] = nameOffset;
+        otherNameLengths[otherHeaders] = nameLength;
+        otherValueOffsets[otherHeaders] = valueOffset;
+        otherValueLengths[otherHeaders] = valueLength;
+        otherHeaders++;
+        return true;
+    }
+
+    //false if the request line could not be parsed
+    public boolean isValid() {
+        return valid;
+    }
+
+    //one of the METHOD constants
+    public int getMethodId() {
+        return method;
+    }
+
+    //the METHOD constant of the method name or METHOD_OTHER
+    static int getMethodId(String name) {
+        for (int i = 1; i < METHOD_NAMES.length; i++) {
+            if (METHOD_NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        return METHOD_OTHER;
+    }
+
+    //the name of one of the METHOD constants, null for METHOD_OTHER
+    static String getMethodName(int method) {
+        return METHOD_NAMES[method];
+    }
+
+    //the endpoint of the Metrics whose route has taken the request
+    public int getEndpoint() {
+        return endpoint;
+    }
+
+    void setEndpoint(int endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    //the name of a known method is a constant, only other methods are decoded
+    public String getMethod() {
+        return method == METHOD_OTHER ? decode(methodOffset, methodLength)
+                : METHOD_NAMES[method];
+    }
+
+    public String getTarget() {
+        return decode(targetOffset, targetLength);
+    }
+
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int getTargetOffset() {
+        return targetOffset;
+    }
+
+    public int getTargetLength() {
+        return targetLength;
+    }
+
+    public int getMethodOffset() {
+        return methodOffset;
+    }
+
+    public int getMethodLength() {
+        return methodLength;
+    }
+
+    //the version as it has been sent, empty for a HTTP/0.9 request
+    public int getVersionOffset() {
+        return versionOffset;
+    }
+
+    public int getVersionLength() {
+        return versionLength;
+    }
+
+    //one of the VERSION constants
+    public int getVersion() {
+        return version;
+    }
+
+    //whether the request has the well-known header
+    public boolean hasHeader(int header) {
+        return headerOffsets[header] >= 0;
+    }
+
+    //whether a header which frames or routes the request has been sent
+    //twice with a different meaning, which is answered with 400
+    public boolean hasConflictingHeaders() {
+        return conflicting;
+    }
+
+    //the offset of the value of the well-known header or -1
+    public int getHeaderOffset(int header) {
+        return headerOffsets[header];
+    }
+
+    public int getHeaderLength(int header) {
+        return headerLengths[header];
+    }
+
+    //the value of the well-known header or null
+    public String getHeader(int header) {
+        return hasHeader(header) ? decode(headerOffsets[header], headerLengths[header]) : null;
+    }
+
+    //null if the request has no User-Agent header
+    public String getUserAgent() {
+        return getHeader(USER_AGENT);
+    }
+
+    /**************************************************************************
+     * Returns whether the value of the well-known header contains the token,
+     * compared case-insensitive, like <i>close</i> in <i>Connection: close</i>.
+     *
+     * @param header The id of the header
+     * @param token The token in lower case
+     **************************************************************************/
+    public boolean headerContainsToken(int header, String token) {
+        int offset = headerOffsets[header];
+        if (offset < 0) {
+            return false;
+        }
+
+        int end = offset + headerLengths[header];
+        int length = token.length();
+
+        for (int i = offset; i + length <= end; i++) {
+            //the token has to start and end at a delimiter
+            if (i > offset && isTokenChar(buffer[i - 1])) {
+                continue;
+            }
+            if (i + length < end && isTokenChar(buffer[i + length])) {
+                continue;
+            }
+
+            int j = 0;
+            while (j < length && toLowerCase(buffer[i + j]) == token.charAt(j)) {
+                j++;
+            }
+            if (j == length) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**************************************************************************
+     * Returns whether the If-None-Match header lists the ETag or is
+     * <i>*</i>. The tags are compared weakly, so <i>W/"x"</i> matches
+     * <i>"x"</i>, like RFC 7232 demands for If-None-Match.
+     *
+     * @param eTag The ETag of the file with its quotes
+     **************************************************************************/
+    public boolean matchesETag(String eTag) {
+        int offset = headerOffsets[IF_NONE_MATCH];
+        if (offset < 0) {
+            return false;
+        }
+
+        int end = offset + headerLengths[IF_NONE_MATCH];
+        int tagStart = eTag.startsWith("W/") ? 2 : 0;
+        int tagLength = eTag.length() - tagStart;
+
+        for (int start = offset; start < end; ) {
+            int elementEnd = start;
+            while (elementEnd < end && buffer[elementEnd] != ',') {
+                elementEnd++;
+            }
+
+            int valueStart = skipWhiteSpace(start, elementEnd);
+            int valueEnd = elementEnd;
+            while (valueEnd > valueStart
+                    && (buffer[valueEnd - 1] == ' ' || buffer[valueEnd - 1] == '\t')) {
+                valueEnd--;
+            }
+
+            if (valueEnd - valueStart == 1 && buffer[valueStart] == '*') {
+                return true;
+            }
+            if (valueEnd - valueStart > 2 && buffer[valueStart] == 'W'
+                    && buffer[valueStart + 1] == '/') {
+                valueStart += 2;
+            }
+            if (valueEnd - valueStart == tagLength
+                    && regionEquals(valueStart, eTag, tagStart, tagLength)) {
+                return true;
+            }
+
+            start = elementEnd + 1;
+        }
+
+        return false;
+    }
+
+    /**************************************************************************
+     * Returns whether the value of the well-known header is exactly the
+     * given String, compared case-sensitive.
+     *
+     * @param header The id of the header
+     * @param value The expected value
+     **************************************************************************/
+    public boolean headerEquals(int header, String value) {
+        int offset = headerOffsets[header];
+        return offset >= 0 && headerLengths[header] == value.length()
+                && regionEquals(offset, value, 0, value.length());
+    }
+
+    private boolean regionEquals(int offset, String string, int start, int length) {
+        for (int i = 0; i < length; i++) {
+            if (buffer[offset + i] != string.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**************************************************************************
+     * Returns whether the Accept-Encoding header allows the content coding.
+     * A coding listed with <i>q=0</i> is refused, a coding which is not
+     * listed is accepted if <i>*</i> is listed with a weight above zero.
+     *
+     * @param coding The content coding in lower case, like <i>gzip</i>
+     **************************************************************************/
+    public boolean acceptsEncoding(String coding) {
+        int offset = headerOffsets[ACCEPT_ENCODING];
+        if (offset < 0) {
+            return false;
+        }
+
+        int end = offset + headerLengths[ACCEPT_ENCODING];
+        int wildcard = -1;
+
+        //going through the elements of the list like "gzip;q=0.8, br"
+        for (int start = offset; start < end; ) {
+            int elementEnd = start;
+            while (elementEnd < end && buffer[elementEnd] != ',') {
+                elementEnd++;
+            }
+
+            int tokenStart = skipWhiteSpace(start, elementEnd);
+            int tokenEnd = tokenStart;
+            while (tokenEnd < elementEnd && isTokenChar(buffer[tokenEnd])) {
+                tokenEnd++;
+            }
+
+            if (equalsToken(tokenStart, tokenEnd - tokenStart, coding)) {
+                return hasWeight(tokenEnd, elementEnd);
+            }
+            if (tokenEnd - tokenStart == 1 && buffer[tokenStart] == '*') {
+                wildcard = hasWeight(tokenEnd, elementEnd) ? 1 : 0;
+            }
+
+            start = elementEnd + 1;
+        }
+
+        return wildcard == 1;
+    }
+
+    //whether the parameters of a list element have no "q=0", "q=0.0" etc.
+    private boolean hasWeight(int position, int end) {
+        for (; position < end - 1; position++) {
+            if (toLowerCase(buffer[position]) == 'q' && buffer[position + 1] == '='
+                    && (buffer[position - 1] == ';' || buffer[position - 1] == ' '
+                    || buffer[position - 1] == '\t')) {
+                for (int i = position + 2; i < end && isTokenChar(buffer[i]); i++) {
+                    if (buffer[i] >= '1' && buffer[i] <= '9') {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int skipWhiteSpace(int position, int end) {
+        while (position < end && (buffer[position] == ' ' || buffer[position] == '\t')) {
+            position++;
+        }
+        return position;
+    }
+
+    private boolean equalsToken(int offset, int length, String token) {
+        if (length != token.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (toLowerCase(buffer[offset + i]) != token.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**************************************************************************
+     * Returns the value of the well-known header as a number, without
+     * creating a String.
+     *
+     * @param header The id of the header
+     * @return The number or -1 if the header is missing or not a number
+     **************************************************************************/
+    public long getHeaderAsLong(int header) {
+        int offset = headerOffsets[header];
+        int length = headerLengths[header];
+        if (offset < 0 || length == 0 || length > 18) {
+            return -1;
+        }
+
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    //the number of headers which are not well-known
+    public int getOtherHeaderCount() {
+        return otherHeaders;
+    }
+
+    public String getOtherHeaderName(int index) {
+        return decode(otherNameOffsets[index], otherNameLengths[index]);
+    }
+
+    public String getOtherHeaderValue(int index) {
+        return decode(otherValueOffsets[index], otherValueLengths[index]);
+    }
+
+    //whether the request announced an entity body
+    public boolean hasBody() {
+        return hasHeader(TRANSFER_ENCODING)
+                || (hasHeader(CONTENT_LENGTH) && getHeaderAsLong(CONTENT_LENGTH) != 0);
+    }
+
+    //whether the client waits for 100 Continue before it sends the body
+    public boolean expectsContinue() {
+        return version == VERSION_1_1 && headerContainsToken(EXPECT, "100-continue");
+    }
+
+    /**************************************************************************
+     * Returns whether the client wants to keep the connection open. HTTP/1.1
+     * connections are persistent unless the client sends <i>Connection:
+     * close</i>, HTTP/1.0 connections only if it sends <i>Connection:
+     * keep-alive</i>.
+     **************************************************************************/
+    public boolean isKeepAlive() {
+        if (version == VERSION_1_1) {
+            return !headerContainsToken(CONNECTION, "close");
+        }
+
+        return version == VERSION_1_0 && headerContainsToken(CONNECTION, "keep-alive");
+    }
+
+    private String decode(int offset, int length) {
+        return new String(buffer, offset, length, StandardCharsets.ISO_8859_1);
+    }
+
+    private static boolean isTokenChar(byte b) {
+        return b != ' ' && b != '\t' && b != ',' && b != ';';
+    }
+
+    //comparing the bytes with the name, which is in lower case if the
+    //comparison is case-insensitive
+    private static boolean equals(byte[] bytes, int offset, int length, byte[] name,
+                                  boolean ignoreCase) {
+        if (length != name.length) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            int b = ignoreCase ? toLowerCase(bytes[offset + i]) : bytes[offset + i];
+            if (b != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //only the letters A to Z are folded, setting the 0x20 bit of any byte
+    //would also turn a CR into a dash
+    private static int toLowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? b | 0x20 : b;
+    }
+
+    private static byte[][] toBytes(String[] names, boolean lowerCase) {
+        byte[][] bytes = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] != null) {
+                String name = lowerCase ? names[i].toLowerCase() : names[i];
+                bytes[i] = name.getBytes(StandardCharsets.ISO_8859_1);
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,237 @@
+package de.hhu.rechnernetze.javawebserver;
+
+/******************************************************************************
+ * The RequestParser finds the request line and the header lines of a request
+ * in the bytes a connection has read, without decoding them into Strings.
+ * It records them as slices in its RequestHead.
+ *
+ * <p>The head may arrive in several parts, every call to parse() only scans
+ * the bytes which have arrived since the previous call. Empty lines in front
+ * of the request line are skipped, a line may end with CRLF or a bare LF.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class RequestParser {
+
+    //
+    // THE RESULTS OF PARSE
+    //
+    static final int NEED_MORE = 0;
+    static final int COMPLETE = 1;
+    static final int MALFORMED = 2;
+    static final int REQUEST_LINE_TOO_LONG = 3;
+    static final int HEAD_TOO_LARGE = 4;
+
+    static final int DEFAULT_MAX_REQUEST_LINE = 4096;
+    static final int DEFAULT_MAX_HEAD_SIZE = 8192;
+
+    //the characters of a token, RFC 7230 section 3.2.6
+    private static final String TOKEN_CHARS = "!#$%&'*+-.^_`|~";
+
+    private final RequestHead requestHead = new RequestHead();
+    private final int maxRequestLine;
+    private final int maxHeadSize;
+
+    private byte[] buffer;
+    private int headStart;
+    private int lineStart;
+    private int scanPosition;
+    private int headEnd;
+    private boolean requestLineParsed;
+
+    /**************************************************************************
+     * Constructs a RequestParser with the given limits.
+     *
+     * @param maxRequestLine The length of the longest request line
+     * @param maxHeadSize The number of bytes the request line and all header
+     *                    lines may have together
+     * @throws IllegalArgumentException if one of the limits is not positive
+     **************************************************************************/
+    public RequestParser(int maxRequestLine, int maxHeadSize) {
+        if (maxRequestLine <= 0 || maxHeadSize < maxRequestLine) {
+            throw new IllegalArgumentException("Illegal RequestParser limits "
+                    + maxRequestLine + " / " + maxHeadSize);
+        }
+
+        this.maxRequestLine = maxRequestLine;
+        this.maxHeadSize = maxHeadSize;
+    }
+
+    /**************************************************************************
+     * Constructs a RequestParser with the default limits.
+     **************************************************************************/
+    public RequestParser() {
+        this(DEFAULT_MAX_REQUEST_LINE, DEFAULT_MAX_HEAD_SIZE);
+    }
+
+    /**************************************************************************
+     * Starts parsing a new head, forgetting the previous one.
+     *
+     * @param buffer The bytes the head is read into
+     * @param offset The index of the first byte of the head
+     **************************************************************************/
+    public void start(byte[] buffer, int offset) {
+        this.buffer = buffer;
+        headStart = offset;
+        lineStart = offset;
+        scanPosition = offset;
+        headEnd = -1;
+        requestLineParsed = false;
+        requestHead.reset(buffer);
+    }
+
+    /**************************************************************************
+     * Scans the bytes up to end which have not been scanned yet.
+     *
+     * @param end The index behind the last byte which has been read
+     * @return COMPLETE if the empty line behind the headers has been found,
+     * NEED_MORE if more bytes are needed, otherwise the reason why the head
+     * is rejected
+     **************************************************************************/
+    public int parse(int end) {
+        for (; scanPosition < end; scanPosition++) {
+            if (buffer[scanPosition] != '\n') {
+                continue;
+            }
+
+            int lineEnd = scanPosition;
+            if (lineEnd > lineStart && buffer[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+
+            int result;
+            if (!requestLineParsed) {
+                result = parseRequestLine(lineEnd);
+            } else if (lineEnd == lineStart) {
+                headEnd = scanPosition + 1;
+                scanPosition++;
+                return COMPLETE;
+            } else {
+                result = parseHeaderLine(lineEnd);
+            }
+
+            if (result != NEED_MORE) {
+                return result;
+            }
+
+            lineStart = scanPosition + 1;
+            if (lineStart - headStart > maxHeadSize) {
+                return HEAD_TOO_LARGE;
+            }
+        }
+
+        if (!requestLineParsed && end - lineStart > maxRequestLine) {
+            return REQUEST_LINE_TOO_LONG;
+        }
+        if (end - headStart >= maxHeadSize) {
+            return HEAD_TOO_LARGE;
+        }
+        return NEED_MORE;
+    }
+
+    //the head the parser fills
+    public RequestHead getRequestHead() {
+        return requestHead;
+    }
+
+    //the index of the first byte of the head, behind skipped empty lines
+    public int getHeadStart() {
+        return headStart;
+    }
+
+    //the index behind the empty line, where the body or the next request
+    //starts, or -1 if the head is not complete
+    public int getHeadEnd() {
+        return headEnd;
+    }
+
+    //splitting the request line at the spaces, a missing version makes it a
+    //HTTP/0.9 request
+    private int parseRequestLine(int lineEnd) {
+        if (lineEnd == lineStart) {
+            //empty lines in front of the request line are ignored
+            headStart = scanPosition + 1;
+            return NEED_MORE;
+        }
+
+        if (lineEnd - lineStart > maxRequestLine) {
+            return REQUEST_LINE_TOO_LONG;
+        }
+
+        int methodStart = skipSpaces(lineStart, lineEnd);
+        int methodEnd = skipToken(methodStart, lineEnd);
+        int targetStart = skipSpaces(methodEnd, lineEnd);
+        int targetEnd = skipToken(targetStart, lineEnd);
+        int versionStart = skipSpaces(targetEnd, lineEnd);
+        int versionEnd = skipToken(versionStart, lineEnd);
+
+        if (methodEnd == methodStart || targetEnd == targetStart) {
+            return MALFORMED;
+        }
+
+        requestHead.setRequestLine(methodStart, methodEnd - methodStart,
+                targetStart, targetEnd - targetStart,
+                versionStart, versionEnd - versionStart);
+        requestLineParsed = true;
+        return NEED_MORE;
+    }
+
+    //splitting the header line at the colon and removing the white space
+    //around the value. Folded lines, names which are not tokens and values
+    //with control characters like a bare CR are rejected like RFC 7230
+    //demands, another server could read them as a different header.
+    private int parseHeaderLine(int lineEnd) {
+        int colon = lineStart;
+        while (colon < lineEnd && buffer[colon] != ':') {
+            if (!isTokenChar(buffer[colon])) {
+                return MALFORMED;
+            }
+            colon++;
+        }
+
+        if (colon == lineEnd || colon == lineStart) {
+            return MALFORMED;
+        }
+
+        for (int i = colon + 1; i < lineEnd; i++) {
+            byte b = buffer[i];
+            if (b >= 0 && b < ' ' && b != '\t' || b == 0x7F) {
+                return MALFORMED;
+            }
+        }
+
+        int valueStart = skipSpaces(colon + 1, lineEnd);
+        int valueEnd = lineEnd;
+        while (valueEnd > valueStart
+                && (buffer[valueEnd - 1] == ' ' || buffer[valueEnd - 1] == '\t')) {
+            valueEnd--;
+        }
+
+        if (!requestHead.addHeader(lineStart, colon - lineStart,
+                valueStart, valueEnd - valueStart)) {
+            return HEAD_TOO_LARGE;
+        }
+        return requestHead.hasConflictingHeaders() ? MALFORMED : NEED_MORE;
+    }
+
+    //whether the byte may be part of a header name or a method
+    static boolean isTokenChar(int b) {
+        return b >= '0' && b <= '9' || b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z'
+                || b > ' ' && b < 0x7F && TOKEN_CHARS.indexOf(b) >= 0;
+    }
+
+    private int skipSpaces(int position, int end) {
+        while (position < end && (buffer[position] == ' ' || buffer[position] == '\t')) {
+            position++;
+        }
+        return position;
+    }
+
+    private int skipToken(int position, int end) {
+        while (position < end && buffer[position] != ' ' && buffer[position] != '\t') {
+            position++;
+        }
+        return position;
+    }
+}
@@ -0,0 +1,200 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/******************************************************************************
+ * The ResponseCache keeps the complete 200 responses of small files in
+ * memory, so that a hit neither opens nor reads the file.
+ *
+ * <p>The entries are evicted in least recently used order as soon as their
+ * bytes exceed the capacity. Every hit is validated against the size, the
+ * modification time and the file key (the inode on unix) of the file, which
+ * the ValidatorCache has read, so a changed file is read again.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class ResponseCache {
+
+    static final Logger logger = Logger.getLogger(ResponseCache.class.getName());
+
+    private final long capacity;
+    private final long maxFileSize;
+    private final boolean direct;
+
+    //the access order makes the eldest entry the least recently used one
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long size = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**************************************************************************
+     * Constructs an empty ResponseCache.
+     *
+     * @param capacity The number of bytes all entries may hold together
+     * @param maxFileSize The size of the largest file which will be cached
+     * @param direct Whether the bodies are held in direct ByteBuffers outside
+     *               of the heap
+     * @throws IllegalArgumentException if capacity or maxFileSize are not
+     * positive
+     **************************************************************************/
+    public ResponseCache(long capacity, long maxFileSize, boolean direct) {
+        if (capacity <= 0 || maxFileSize <= 0) {
+            logger.log(Level.WARNING, "RECEIVED ILLEGAL CACHE SIZE : " + capacity);
+            throw new IllegalArgumentException("Illegal ResponseCache size " + capacity
+                    + " / " + maxFileSize);
+        }
+
+        this.capacity = capacity;
+        this.maxFileSize = Math.min(maxFileSize, capacity);
+        this.direct = direct;
+    }
+
+    /**************************************************************************
+     * Returns the cached 200 response for the file or reads the file into a
+     * new entry if it is small enough.
+     *
+     * @param path The normalized path of the requested file
+     * @param attributes The attributes of the regular file from the
+     *                   ValidatorCache, the entry is checked against them
+     * @param contentType The MIME-Type of the file
+     * @param headerLines The validators and other header lines of the file,
+     *                    each followed by a CRLF
+     * @return The response or null if the file is too large to be cached or
+     * has been changed while it was read
+     * @throws IOException If the file can not be read
+     **************************************************************************/
+    public HttpResponse get(Path path, BasicFileAttributes attributes,
+                            ContentType contentType, String headerLines)
+            throws IOException {
+        String key = path.toString();
+
+        Entry entry = lookup(key);
+        if (entry != null && entry.isValidFor(attributes, headerLines)) {
+            hits.increment();
+            return entry.response;
+        }
+
+        misses.increment();
+
+        if (attributes.size() > maxFileSize) {
+            remove(key);
+            return null;
+        }
+
+        //the file is read outside of the lock, two threads may read the same
+        //file at once, then the second entry simply replaces the first one.
+        byte[] bytes = Files.readAllBytes(path);
+        if (bytes.length != attributes.size()) {
+            //the file has been changed while it was read
+            return null;
+        }
+
+        ByteBuffer body;
+        if (direct) {
+            body = ByteBuffer.allocateDirect(bytes.length);
+            body.put(bytes).flip();
+        } else {
+            body = ByteBuffer.wrap(bytes);
+        }
+
+        HttpResponse response = HttpResponse.withBody(HttpStatus.OK, contentType, body)
+                .withHeaderLines(headerLines);
+        put(key, new Entry(response, attributes, headerLines));
+        return response;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    //the number of bytes all entries hold together
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getEntries() {
+        return entries.size();
+    }
+
+    private synchronized Entry lookup(String key) {
+        return entries.get(key);
+    }
+
+    private synchronized void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            size -= entry.size;
+        }
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        Entry old = entries.put(key, entry);
+        if (old != null) {
+            size -= old.size;
+        }
+        size += entry.size;
+
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (size > capacity && eldest.hasNext()) {
+            Entry evicted = eldest.next().getValue();
+            eldest.remove();
+            size -= evicted.size;
+            evictions.increment();
+        }
+
+        if (logger.isLoggable(Level.FINEST)) {
+            logger.log(Level.FINEST, "CACHED FILE : " + key);
+        }
+    }
+
+    //one cached response and the attributes of the file it has been read from
+    private static final class Entry {
+
+        final HttpResponse response;
+        final long size;
+        final long fileSize;
+        final long lastModified;
+        final Object fileKey;
+        final String headerLines;
+
+        Entry(HttpResponse response, BasicFileAttributes attributes, String headerLines) {
+            this.response = response;
+            this.size = response.getContentLength() + response.getHeaderSize();
+            this.fileSize = attributes.size();
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+            this.fileKey = attributes.fileKey();
+            this.headerLines = headerLines;
+        }
+
+        //the header lines change with the validators of the file, which may
+        //have been older than the file when the entry was created
+        boolean isValidFor(BasicFileAttributes attributes, String headerLines) {
+            return this.headerLines.equals(headerLines)
+                    && fileSize == attributes.size()
+                    && lastModified == attributes.lastModifiedTime().toMillis()
+                    && Objects.equals(fileKey, attributes.fileKey());
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/******************************************************************************
+ * The ResponseFactory decides how a request is answered. It is shared by the
+ * blocking and the selector engine, so that both answer valid and invalid
+ * requests the same way.
+ *
+ * <p>A valid request is handed to the RequestHandler the Router finds for
+ * its method and path, like the FileHandler of a directory, and its entity
+ * body to the BodyHandler found the same way. Requests no route matches are
+ * answered with the shared error responses.</p>
+ *
+ * <p>Every route is an endpoint of the Metrics, the endpoint which has
+ * taken a request is noted in its RequestHead for the engines, which also
+ * hand every response to the AccessLog if there is one.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class ResponseFactory {
+
+    final static Logger logger = Logger.getLogger(ResponseFactory.class.getName());
+
+    private final Router<RequestHandler> handlers;
+    private final Router<BodyHandler> bodyHandlers;
+    private final Metrics metrics;
+    private final AccessLog accessLog;
+
+    //the endpoints of the Metrics at the numbers of the routes
+    private final int[] endpoints;
+    private final int[] bodyEndpoints;
+
+    //the error responses are immutable, so they are created once and shared
+    //by all requests
+    private final HttpResponse badRequest;
+    private final HttpResponse notFound;
+    private final HttpResponse notFoundHead;
+    private final HttpResponse notImplemented;
+    private final HttpResponse forbidden;
+    private final HttpResponse payloadTooLarge;
+    private final HttpResponse uriTooLong;
+    private final HttpResponse headerFieldsTooLarge;
+
+    /**************************************************************************
+     * Constructs a ResponseFactory which looks up the MIME-Types of the files
+     * in the given MIMEType.
+     *
+     * @param mimeType Gives the mimeType for file-endings.
+     * @throws IllegalArgumentException if the specified mimeType is null
+     **************************************************************************/
+    public ResponseFactory(MIMEType mimeType) {
+        this(mimeType, new Routes(new FileHandler(mimeType, null, null, null,
+                new ValidatorCache(), null, false), null), new Metrics(), null);
+    }
+
+    /**************************************************************************
+     * Constructs a ResponseFactory which hands the requests to the handlers
+     * of the routes and adds the routes as endpoints to the Metrics. The
+     * Routes must not be changed afterwards, the engines write the
+     * responses to the AccessLog.
+     *
+     * @param mimeType Gives the mimeType of the error responses.
+     * @param routes The RequestHandlers and the BodyHandlers, a POST or PUT
+     *               request no route matches is answered with 501
+     * @param metrics The Metrics the engines record the requests in
+     * @param accessLog The AccessLog or null for none
+     * @throws IllegalArgumentException if the mimeType, the routes or the
+     * metrics are null
+     **************************************************************************/
+    public ResponseFactory(MIMEType mimeType, Routes routes, Metrics metrics,
+                           AccessLog accessLog) {
+        if (mimeType == null) {
+            logger.log(Level.WARNING, "RECEIVED ILLEGAL MIMETYPE : " + mimeType);
+            throw new IllegalArgumentException("Illegal MIMEType: " + mimeType);
+        }
+
+        if (routes == null) {
+            logger.log(Level.WARNING, "RECEIVED ILLEGAL ROUTES : " + routes);
+            throw new IllegalArgumentException("Illegal Routes: " + routes);
+        }
+
+        if (metrics == null) {
+            logger.log(Level.WARNING, "RECEIVED ILLEGAL METRICS : " + metrics);
+            throw new IllegalArgumentException("Illegal Metrics: " + metrics);
+        }
+
+        this.handlers = routes.getHandlers();
+        this.bodyHandlers = routes.getBodyHandlers();
+        this.metrics = metrics;
+        this.accessLog = accessLog;
+        this.endpoints = addEndpoints(metrics, handlers);
+        this.bodyEndpoints = addEndpoints(metrics, bodyHandlers);
+
+        ContentType html = mimeType.getContentType("htm");
+
+        badRequest = HttpResponse.withBody(HttpStatus.BAD_REQUEST, html, encode("<HTML>" +
+                "<HEAD><TITLE>BAD REQUEST</TITLE></HEAD>" +
+                "<BODY>I DON'T KNOW WHAT YOU WANT ME TO DO</BODY></HTML>"));
+
+        notFound = HttpResponse.withBody(HttpStatus.NOT_FOUND, html, encode("<HTML>\n" +
+                "    <HEAD>\n" +
+                "        <TITLE>\n" +
+                "            NOT FOUND" +
+                "        </TITLE>\n" +
+                "    </HEAD>\n" +
+                "    <BODY>\n" +
+                "       I COULD NOT FIND THE FILE YOUR WERE ASKING FOR" +
+                "</BODY>\n" +
+                "</HTML>"));
+        notFoundHead = HttpResponse.withoutBody(HttpStatus.NOT_FOUND, html,
+                notFound.getContentLength());
+
+        notImplemented = HttpResponse.withBody(HttpStatus.NOT_IMPLEMENTED, html,
+                encode("<HTML>" +
+                "<HEAD><TITLE>NOT IMPLEMENTED YEY</TITLE></HEAD>" +
+                "<BODY>I COULD NOT FIND THE FILE YOU WERE ASKING FOR</BODY></HTML>"));
+
+        forbidden = HttpResponse.withBody(HttpStatus.FORBIDDEN, html, encode("<HTML>" +
+                "<HEAD><TITLE>FORBIDDEN</TITLE></HEAD>" +
+                "<BODY>YOU MAY NOT STORE A FILE THERE</BODY></HTML>"));
+
+        payloadTooLarge = HttpResponse.withBody(HttpStatus.PAYLOAD_TOO_LARGE, html,
+                encode("<HTML>" +
+                "<HEAD><TITLE>PAYLOAD TOO LARGE</TITLE></HEAD>" +
+                "<BODY>THE BODY OF YOUR REQUEST IS TOO LARGE</BODY></HTML>"));
+
+        uriTooLong = HttpResponse.withoutBody(HttpStatus.URI_TOO_LONG, html, 0);
+        headerFieldsTooLarge = HttpResponse.withoutBody(HttpStatus.HEADER_FIELDS_TOO_LARGE,
+                html, 0);
+    }
+
+    /**************************************************************************
+     * Creates the response with the handler of the route the request
+     * matches.
+     *
+     * @param requestHead The request line and the header lines
+     * @throws IOException If the response can not be created
+     **************************************************************************/
+    public HttpResponse respond(RequestHead requestHead) throws IOException {
+
+        if (!requestHead.isValid() || !isCanonical(requestHead)) {
+            return respondToInvalid();
+        }
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.log(Level.FINER, "REQUEST METHOD :\t" + requestHead.getMethodId());
+        }
+
+        int route = handlers.route(requestHead);
+        if (route == Router.NO_ROUTE) {
+            return respondToUnhandled(requestHead);
+        }
+
+        requestHead.setEndpoint(endpoints[route]);
+        HttpResponse response = handlers.getHandler(route).respond(requestHead);
+
+        return response != null ? response : respondToUnhandled(requestHead);
+    }
+
+    //the routes match the target as it is, so a target which decodes to
+    //another path is rejected before it could take the wrong route
+    private static boolean isCanonical(RequestHead requestHead) {
+        return PathResolver.isCanonical(requestHead.getBuffer(), requestHead.getTargetOffset(),
+                requestHead.getTargetLength());
+    }
+
+    //a request no handler has answered
+    private HttpResponse respondToUnhandled(RequestHead requestHead) {
+        switch (requestHead.getMethodId()){
+            case RequestHead.METHOD_GET:
+                logger.log(Level.FINEST, "FILE NOT FOUND");
+                return notFound;
+
+            case RequestHead.METHOD_HEAD:
+                return notFoundHead;
+
+            case RequestHead.METHOD_POST:
+            case RequestHead.METHOD_PUT:
+                //the body has not been taken
+                return bodyHandlers.find(requestHead) == null ? notImplemented : forbidden;
+
+            default:
+                return respondToInvalid();
+        }
+    }
+
+    /**************************************************************************
+     * Opens the BodySink for the entity body of the request with the
+     * BodyHandler of the route it matches. If there is none, respond()
+     * answers the request.
+     *
+     * @param requestHead The request line and the header lines
+     * @return The sink or null if the body is not taken
+     * @throws IOException If the sink can not be opened
+     **************************************************************************/
+    public BodySink openBody(RequestHead requestHead) throws IOException {
+        if (!requestHead.isValid() || !isCanonical(requestHead)) {
+            return null;
+        }
+
+        int route = bodyHandlers.route(requestHead);
+        if (route == Router.NO_ROUTE) {
+            return null;
+        }
+
+        requestHead.setEndpoint(bodyEndpoints[route]);
+        return bodyHandlers.getHandler(route).open(requestHead);
+    }
+
+    //the Metrics the engines record the requests in
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    //the AccessLog the engines write the responses to or null for none
+    public AccessLog getAccessLog() {
+        return accessLog;
+    }
+
+    /**************************************************************************
+     * Creates the response to an entity body the RequestBody has rejected.
+     *
+     * @param bodyResult The result of RequestBody.start() or decode()
+     **************************************************************************/
+    public HttpResponse respondToRejectedBody(int bodyResult) {
+        switch (bodyResult) {
+            case RequestBody.TOO_LARGE:
+                return payloadTooLarge;
+
+            case RequestBody.NOT_IMPLEMENTED:
+                return notImplemented;
+
+            default:
+                return badRequest;
+        }
+    }
+
+    /**************************************************************************
+     * Creates the 400 response, which is also sent when the request can not
+     * be parsed.
+     **************************************************************************/
+    public HttpResponse respondToInvalid() {
+        return badRequest;
+    }
+
+    /**************************************************************************
+     * Creates the response to a head the RequestParser has rejected.
+     *
+     * @param parseResult The result of RequestParser.parse()
+     **************************************************************************/
+    public HttpResponse respondToRejected(int parseResult) {
+        switch (parseResult) {
+            case RequestParser.REQUEST_LINE_TOO_LONG:
+                return uriTooLong;
+
+            case RequestParser.HEAD_TOO_LARGE:
+                return headerFieldsTooLarge;
+
+            default:
+                return badRequest;
+        }
+    }
+
+    //adding every route of the Router as an endpoint
+    private static int[] addEndpoints(Metrics metrics, Router<?> router) {
+        int[] endpoints = new int[router.size()];
+        for (int route = 0; route < endpoints.length; route++) {
+            endpoints[route] = metrics.addEndpoint(
+                    RequestHead.getMethodName(router.getMethod(route)),
+                    router.getPattern(route));
+        }
+        return endpoints;
+    }
+
+    private static byte[] encode(String entityBody) {
+        return entityBody.getBytes(StandardCharsets.UTF_8);
+    }
+}
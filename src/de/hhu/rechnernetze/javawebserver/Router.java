@@ -0,0 +1,290 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/******************************************************************************
+ * The Router finds the handler for the method and the path of a request. The
+ * routes are kept in a radix tree of their bytes, so a request is matched by
+ * walking its path once, whatever number of routes there are, and without
+ * creating any object.
+ *
+ * <p>A route is either an exact path like <i>/metrics</i> or a prefix like
+ * <i>/static/*</i>, which matches every path starting with <i>/static/</i>.
+ * An exact route wins over a prefix, a longer prefix over a shorter one. The
+ * query of the target is not matched.</p>
+ *
+ * <p>The routes are added before the server starts, after that the Router
+ * is only read and is shared by all connections. Every route gets the next
+ * number, by which the Metrics tell the endpoints apart.</p>
+ *
+ * @param <H> The type of the handlers
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class Router<H> {
+
+    static final Logger logger = Logger.getLogger(Router.class.getName());
+
+    //the number route() returns if no route matches
+    static final int NO_ROUTE = -1;
+
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    //the root has an empty label, all routes start below it with a slash
+    private final Node root = new Node(new byte[0]);
+
+    //the handler, the method and the pattern of every route at its number
+    private Object[] handlers = new Object[8];
+    private int[] methods = new int[8];
+    private String[] patterns = new String[8];
+    private int routes;
+
+    /**************************************************************************
+     * Adds the route for the method.
+     *
+     * @param method One of the METHOD constants of the RequestHead
+     * @param pattern The exact path or the prefix followed by <i>*</i>
+     * @param handler The handler of the matching requests
+     * @throws IllegalArgumentException if the pattern does not start with a
+     * slash, the method is unknown or the route has already been added
+     **************************************************************************/
+    public void add(int method, String pattern, H handler) {
+        if (pattern == null || !pattern.startsWith("/") || handler == null
+                || method <= RequestHead.METHOD_OTHER || method >= RequestHead.METHODS) {
+            logger.log(Level.WARNING, "RECEIVED ILLEGAL ROUTE : " + pattern);
+            throw new IllegalArgumentException("Illegal route " + pattern);
+        }
+
+        boolean prefix = pattern.endsWith("*");
+        String path = prefix ? pattern.substring(0, pattern.length() - 1) : pattern;
+        Node node = insert(path.getBytes(StandardCharsets.ISO_8859_1));
+
+        int[] nodeRoutes = prefix ? node.prefixRoutes : node.exactRoutes;
+        if (nodeRoutes[method] != NO_ROUTE) {
+            logger.log(Level.WARNING, "RECEIVED DUPLICATE ROUTE : " + pattern);
+            throw new IllegalArgumentException("Duplicate route " + pattern);
+        }
+
+        if (routes == handlers.length) {
+            handlers = Arrays.copyOf(handlers, routes * 2);
+            methods = Arrays.copyOf(methods, routes * 2);
+            patterns = Arrays.copyOf(patterns, routes * 2);
+        }
+
+        handlers[routes] = handler;
+        methods[routes] = method;
+        patterns[routes] = pattern;
+        nodeRoutes[method] = routes++;
+    }
+
+    //the number of routes, counting every method on its own
+    public int size() {
+        return routes;
+    }
+
+    @SuppressWarnings("unchecked")
+    public H getHandler(int route) {
+        return (H) handlers[route];
+    }
+
+    //one of the METHOD constants of the RequestHead
+    public int getMethod(int route) {
+        return methods[route];
+    }
+
+    public String getPattern(int route) {
+        return patterns[route];
+    }
+
+    /**************************************************************************
+     * Finds the handler for the method and the target of the request.
+     *
+     * @param requestHead The request line and the header lines
+     * @return The handler or null if no route matches
+     **************************************************************************/
+    public H find(RequestHead requestHead) {
+        int route = route(requestHead);
+        return route == NO_ROUTE ? null : getHandler(route);
+    }
+
+    /**************************************************************************
+     * Finds the number of the route for the method and the target of the
+     * request.
+     *
+     * @param requestHead The request line and the header lines
+     * @return The number of the route or NO_ROUTE if no route matches
+     **************************************************************************/
+    public int route(RequestHead requestHead) {
+        return route(requestHead.getMethodId(), requestHead.getBuffer(),
+                requestHead.getTargetOffset(), requestHead.getTargetLength());
+    }
+
+    /**************************************************************************
+     * Finds the handler for the method and the target, which is given as a
+     * slice of the bytes it has been read into.
+     *
+     * @param method One of the METHOD constants of the RequestHead
+     * @param bytes The bytes holding the target
+     * @param offset The start of the target
+     * @param length The length of the target including its query
+     * @return The handler or null if no route matches
+     **************************************************************************/
+    public H find(int method, byte[] bytes, int offset, int length) {
+        int route = route(method, bytes, offset, length);
+        return route == NO_ROUTE ? null : getHandler(route);
+    }
+
+    /**************************************************************************
+     * Finds the number of the route for the method and the target, which is
+     * given as a slice of the bytes it has been read into.
+     *
+     * @param method One of the METHOD constants of the RequestHead
+     * @param bytes The bytes holding the target
+     * @param offset The start of the target
+     * @param length The length of the target including its query
+     * @return The number of the route or NO_ROUTE if no route matches
+     **************************************************************************/
+    public int route(int method, byte[] bytes, int offset, int length) {
+        if (method <= RequestHead.METHOD_OTHER || method >= RequestHead.METHODS) {
+            return NO_ROUTE;
+        }
+
+        int end = offset;
+        while (end < offset + length && bytes[end] != '?') {
+            end++;
+        }
+
+        Node node = root;
+        int match = root.prefixRoutes[method];
+
+        for (int position = offset; position < end; ) {
+            Node child = node.child(bytes[position]);
+            if (child == null || !child.matches(bytes, position, end)) {
+                return match;
+            }
+
+            node = child;
+            position += child.label.length;
+            if (node.prefixRoutes[method] != NO_ROUTE) {
+                match = node.prefixRoutes[method];
+            }
+        }
+
+        int exact = node.exactRoutes[method];
+        return exact != NO_ROUTE ? exact : match;
+    }
+
+    //the node of the path, splitting the labels on the way where the path
+    //leaves them
+    private Node insert(byte[] path) {
+        Node node = root;
+        int position = 0;
+
+        while (position < path.length) {
+            Node child = node.child(path[position]);
+            if (child == null) {
+                child = new Node(Arrays.copyOfRange(path, position, path.length));
+                node.addChild(child);
+                return child;
+            }
+
+            int common = 0;
+            while (common < child.label.length && position + common < path.length
+                    && child.label[common] == path[position + common]) {
+                common++;
+            }
+
+            if (common < child.label.length) {
+                child.split(common);
+            }
+
+            node = child;
+            position += common;
+        }
+
+        return node;
+    }
+
+    /**************************************************************************
+     * A Node holds the routes of the path which ends at it, the children
+     * are sorted by the first byte of their labels.
+     **************************************************************************/
+    private static final class Node {
+
+        byte[] label;
+        byte[] firstBytes = new byte[0];
+        Node[] children = NO_CHILDREN;
+        int[] exactRoutes = noRoutes();
+        int[] prefixRoutes = noRoutes();
+
+        Node(byte[] label) {
+            this.label = label;
+        }
+
+        static int[] noRoutes() {
+            int[] routes = new int[RequestHead.METHODS];
+            Arrays.fill(routes, NO_ROUTE);
+            return routes;
+        }
+
+        Node child(byte first) {
+            for (int i = 0; i < firstBytes.length; i++) {
+                if (firstBytes[i] == first) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        //whether the whole label lies at the position
+        boolean matches(byte[] bytes, int position, int end) {
+            if (end - position < label.length) {
+                return false;
+            }
+            for (int i = 1; i < label.length; i++) {
+                if (bytes[position + i] != label[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void addChild(Node child) {
+            int i = 0;
+            while (i < firstBytes.length && firstBytes[i] < child.label[0]) {
+                i++;
+            }
+
+            byte[] bytes = new byte[firstBytes.length + 1];
+            Node[] nodes = new Node[children.length + 1];
+            System.arraycopy(firstBytes, 0, bytes, 0, i);
+            System.arraycopy(children, 0, nodes, 0, i);
+            bytes[i] = child.label[0];
+            nodes[i] = child;
+            System.arraycopy(firstBytes, i, bytes, i + 1, firstBytes.length - i);
+            System.arraycopy(children, i, nodes, i + 1, children.length - i);
+
+            firstBytes = bytes;
+            children = nodes;
+        }
+
+        //keeping the first bytes of the label, the rest with the children
+        //and the routes moves into a new child
+        void split(int length) {
+            Node rest = new Node(Arrays.copyOfRange(label, length, label.length));
+            rest.firstBytes = firstBytes;
+            rest.children = children;
+            rest.exactRoutes = exactRoutes;
+            rest.prefixRoutes = prefixRoutes;
+
+            label = Arrays.copyOf(label, length);
+            firstBytes = new byte[]{rest.label[0]};
+            children = new Node[]{rest};
+            exactRoutes = noRoutes();
+            prefixRoutes = noRoutes();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/******************************************************************************
+ * The Routes hold the Router of the RequestHandlers and the Router of the
+ * BodyHandlers of a server. They can be read from a file with one route per
+ * line, like the mime.types file:
+ *
+ * <pre>
+ * # the methods, the path or prefix, the handler and its directory
+ * GET,HEAD     /*              files       .
+ * GET,HEAD     /assets/*       files       public
+ * PUT,POST     /incoming/*     uploads     /tmp/uploads
+ * </pre>
+ *
+ * <p>A <i>files</i> route serves the files of its directory, an
+ * <i>uploads</i> route stores the bodies in its directory. The path of a
+ * request below the prefix is looked up in the directory.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class Routes {
+
+    static final Logger logger = Logger.getLogger(Routes.class.getName());
+
+    private final Router<RequestHandler> handlers = new Router<>();
+    private final Router<BodyHandler> bodyHandlers = new Router<>();
+
+    /**************************************************************************
+     * Constructs empty Routes, the handlers are added to the Routers.
+     **************************************************************************/
+    public Routes() {
+    }
+
+    /**************************************************************************
+     * Constructs the default Routes, which serve the files of the
+     * FileHandler at <i>/</i> for GET and HEAD and hand the bodies of POST
+     * and PUT requests to the BodyHandler.
+     *
+     * @param fileHandler The handler of the files
+     * @param bodyHandler The handler of the bodies or null for none
+     **************************************************************************/
+    public Routes(FileHandler fileHandler, BodyHandler bodyHandler) {
+        handlers.add(RequestHead.METHOD_GET, "/*", fileHandler);
+        handlers.add(RequestHead.METHOD_HEAD, "/*", fileHandler);
+
+        if (bodyHandler != null) {
+            bodyHandlers.add(RequestHead.METHOD_POST, "/*", bodyHandler);
+            bodyHandlers.add(RequestHead.METHOD_PUT, "/*", bodyHandler);
+        }
+    }
+
+    /**************************************************************************
+     * Reads the routes from the file.
+     *
+     * @param path The file with the routes
+     * @param fileHandler The handler whose caches the <i>files</i> routes
+     *                    share
+     * @throws IOException If the file can not be read or the directory of
+     * an indexed <i>files</i> route can not be indexed
+     * @throws IllegalArgumentException if a line is not a route
+     **************************************************************************/
+    public Routes(Path path, FileHandler fileHandler) throws IOException {
+        try (BufferedReader bufferedReader = Files.newBufferedReader(path,
+                StandardCharsets.ISO_8859_1)) {
+            String line;
+            while ((line = bufferedReader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    addRoute(line, fileHandler);
+                }
+            }
+        }
+
+        logger.log(Level.FINE, "READ " + (handlers.size() + bodyHandlers.size()) + " ROUTES");
+    }
+
+    public Router<RequestHandler> getHandlers() {
+        return handlers;
+    }
+
+    public Router<BodyHandler> getBodyHandlers() {
+        return bodyHandlers;
+    }
+
+    private void addRoute(String route, FileHandler fileHandler) throws IOException {
+        String[] parts = route.split("\\s+");
+        if (parts.length != 4) {
+            logger.log(Level.WARNING, "RECEIVED ILLEGAL ROUTE : " + route);
+            throw new IllegalArgumentException("Illegal route " + route);
+        }
+
+        String pattern = parts[1];
+        //the prefix of an exact path is its directory
+        String prefix = pattern.substring(0, pattern.lastIndexOf('/') + 1);
+        Path directory = Paths.get(parts[3]);
+
+        RequestHandler handler = null;
+        BodyHandler bodyHandler = null;
+
+        switch (parts[2]) {
+            case "files":
+                handler = fileHandler.withDirectory(prefix, directory);
+                break;
+
+            case "uploads":
+                bodyHandler = new FileUploadHandler(directory, prefix);
+                break;
+
+            default:
+                logger.log(Level.WARNING, "RECEIVED ILLEGAL HANDLER : " + parts[2]);
+                throw new IllegalArgumentException("Illegal handler " + parts[2]);
+        }
+
+        for (String name : parts[0].split(",")) {
+            int method = RequestHead.getMethodId(name);
+            if (handler != null) {
+                handlers.add(method, pattern, handler);
+            } else {
+                bodyHandlers.add(method, pattern, bodyHandler);
+            }
+        }
+    }
+}
@@ -0,0 +1,497 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/******************************************************************************
+ * The SelectorConnection holds the state of one connection of a SelectorLoop.
+ * The request head is parsed incrementally in the read buffer while it
+ * arrives, the response is written as far as the socket accepts it without
+ * blocking.
+ *
+ * <p>Pipelined requests stay in the read buffer while the response to the
+ * previous request is written and are parsed as soon as it is complete.</p>
+ *
+ * <p>The entity body of a POST or PUT request is decoded whenever a part of
+ * it has been read and handed to the BodySink the ResponseFactory has opened
+ * for it, so that the read buffer can be reused for the next part.</p>
+ *
+ * <p>The connection moves its deadline in the TimerWheel of its loop from
+ * the idle timeout to the deadline of the head, the body and the response,
+ * whenever it has read or written something.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class SelectorConnection {
+
+    static final Logger logger = Logger.getLogger(SelectorConnection.class.getName());
+
+    //the heap buffers the request heads are read into, one per connection
+    static final BufferPool headBuffers =
+            new BufferPool(RequestParser.DEFAULT_MAX_HEAD_SIZE, 1024, false);
+
+    private final SocketChannel socketChannel;
+    private final ResponseFactory responseFactory;
+    private final ConnectionLimits connectionLimits;
+    private final Metrics metrics;
+    private final AccessLog accessLog;
+    private final AccessLog.Entry accessLogEntry;
+
+    private final RequestParser requestParser = new RequestParser();
+    private final RequestBody requestBody;
+    private BodySink bodySink;
+    private int bodyResult;
+    private ByteBuffer readBuffer = headBuffers.acquire();
+    private int readPosition = 0;
+    private int requests = 0;
+
+    //the deadline of what the connection is waiting for
+    private final TimerWheel.Timeout deadline;
+    private boolean headStarted = false;
+    private long bodyStarted;
+    private long bodyReceived;
+    private long writeStarted;
+
+    private HttpResponse response;
+    private boolean keepAlive;
+    private ByteBuffer interim;
+    private ByteBuffer headBuffer = ByteBuffer.allocate(1024);
+    private final ByteBuffer[] buffers = new ByteBuffer[2];
+    private int bufferCount;
+    private ByteBuffer[] regions;
+    private int region;
+    private FileChannel fileChannel;
+    private long[] fileRanges;
+    private byte[][] separators;
+    private int filePart;
+    private ByteBuffer separator;
+    private long filePosition;
+    private long fileEnd;
+    private final ChunkEncoder chunkEncoder = new ChunkEncoder();
+    private boolean streaming;
+    private ByteBuffer chunk;
+
+    //what the Metrics record about the response which is being written
+    private long requestStarted;
+    private int endpoint;
+    private long bytesSent;
+
+    /**************************************************************************
+     * Constructs a SelectorConnection for the given non-blocking channel.
+     *
+     * @param socketChannel The channel which holds the connection
+     * @param responseFactory Creates the responses to the requests.
+     * @param connectionLimits The idle timeout and the maximum of requests
+     * @param deadlines The TimerWheel of the loop, which closes the
+     *                  connection when it misses its deadline
+     **************************************************************************/
+    public SelectorConnection(SocketChannel socketChannel, ResponseFactory responseFactory,
+                              ConnectionLimits connectionLimits, TimerWheel deadlines) {
+        this.socketChannel = socketChannel;
+        this.responseFactory = responseFactory;
+        this.connectionLimits = connectionLimits;
+        this.requestBody = new RequestBody(connectionLimits.getMaxBodySize());
+        this.metrics = responseFactory.getMetrics();
+        this.accessLog = responseFactory.getAccessLog();
+        this.accessLogEntry = accessLog != null
+                ? new AccessLog.Entry(socketChannel.socket().getInetAddress()) : null;
+        requestParser.start(readBuffer.array(), 0);
+        this.deadline = deadlines.schedule(this::expire,
+                TimerWheel.now() + connectionLimits.getIdleTimeout());
+        metrics.connectionOpened();
+    }
+
+    /**************************************************************************
+     * Reads what has arrived and parses the complete lines of the head.
+     *
+     * @return true if a head is complete and the response has been created
+     * @throws IOException If an IO-Error occurs or the client has closed
+     **************************************************************************/
+    public boolean read() throws IOException {
+        int read = socketChannel.read(readBuffer);
+        if (read == -1) {
+            RequestHead requestHead = requestParser.getRequestHead();
+            if (bodySink != null || !requestHead.isValid()) {
+                throw new IOException("The connection has been closed by the client");
+            }
+
+            //a head which has been cut off by the client is answered as far
+            //as it has been read, like a HTTP/0.9 request without headers
+            startRequest();
+            prepareResponse(responseFactory.respond(requestHead), false);
+            return true;
+        }
+
+        if (read > 0) {
+            if (bodySink != null) {
+                bodyReceived += read;
+                deadline.setDeadline(connectionLimits.getTransferDeadline(bodyStarted,
+                        bodyReceived, TimerWheel.now(), connectionLimits.getBodyTimeout()));
+            } else if (!headStarted) {
+                //the rest of the head has to arrive within the header
+                //timeout, however slowly it comes
+                headStarted = true;
+                deadline.setDeadline(TimerWheel.now() + connectionLimits.getHeaderTimeout());
+            }
+        }
+        return parse();
+    }
+
+    /**************************************************************************
+     * Parses the bytes which have not been parsed yet.
+     *
+     * @return true if a head is complete and the response has been created
+     * @throws IOException If the requested file can not be read
+     **************************************************************************/
+    public boolean parse() throws IOException {
+        if (bodySink != null) {
+            return receiveBody();
+        }
+
+        int result = requestParser.parse(readBuffer.position());
+
+        if (result == RequestParser.NEED_MORE) {
+            if (!readBuffer.hasRemaining()) {
+                //making room for the rest of the head
+                compact();
+            }
+            return false;
+        }
+
+        startRequest();
+
+        if (result != RequestParser.COMPLETE) {
+            logger.log(Level.FINE, "THE REQUEST HEAD HAS BEEN REJECTED");
+            prepareResponse(responseFactory.respondToRejected(result), false);
+            return true;
+        }
+
+        RequestHead requestHead = requestParser.getRequestHead();
+        requests++;
+        readPosition = requestParser.getHeadEnd();
+
+        boolean keepAlive = requests < connectionLimits.getMaxRequests()
+                && requestHead.isKeepAlive();
+
+        bodySink = responseFactory.openBody(requestHead);
+        if (bodySink != null) {
+            this.keepAlive = keepAlive;
+            bodyStarted = TimerWheel.now();
+            bodyReceived = 0;
+            deadline.setDeadline(bodyStarted + connectionLimits.getBodyTimeout());
+            bodyResult = requestBody.start(requestHead);
+
+            //the client only sends the body after the interim response
+            if (bodyResult == RequestBody.NEED_MORE && requestHead.expectsContinue()
+                    && readPosition == readBuffer.position()) {
+                sendContinue();
+            }
+            return receiveBody();
+        }
+
+        //a body nobody takes is not read, so it ends the connection
+        prepareResponse(responseFactory.respond(requestHead),
+                keepAlive && !requestHead.hasBody());
+        return true;
+    }
+
+    //the duration of the request starts with its complete head, which is
+    //copied for the AccessLog before the body overwrites it
+    private void startRequest() {
+        requestStarted = System.nanoTime();
+        if (accessLog != null) {
+            accessLogEntry.start(requestParser.getRequestHead());
+        }
+    }
+
+    //decoding the part of the body which has been read. All its bytes are
+    //handed to the sink, so the read buffer starts over for the next part.
+    private boolean receiveBody() throws IOException {
+        int result = bodyResult;
+        if (result == RequestBody.NEED_MORE) {
+            try {
+                result = requestBody.decode(readBuffer.array(), readPosition,
+                        readBuffer.position(), bodySink);
+            } catch (IOException e) {
+                abortBody();
+                throw e;
+            }
+            readPosition = requestBody.getPosition();
+        }
+
+        if (result == RequestBody.NEED_MORE) {
+            readBuffer.clear();
+            readPosition = 0;
+            return false;
+        }
+
+        BodySink finished = bodySink;
+        bodySink = null;
+
+        if (result != RequestBody.COMPLETE) {
+            logger.log(Level.FINE, "THE REQUEST BODY HAS BEEN REJECTED");
+            finished.abort();
+            prepareResponse(responseFactory.respondToRejectedBody(result), false);
+            return true;
+        }
+
+        prepareResponse(finished.finish(), keepAlive && !requestBody.isAmbiguous());
+        return true;
+    }
+
+    //writing the interim response at once. If the socket does not take all
+    //of it, the rest goes out in front of the final response.
+    private void sendContinue() throws IOException {
+        interim = ByteBuffer.wrap(HttpStatus.CONTINUE);
+        socketChannel.write(interim);
+    }
+
+    private void abortBody() {
+        if (bodySink != null) {
+            bodySink.abort();
+            bodySink = null;
+        }
+    }
+
+    /**************************************************************************
+     * Writes as much of the response as the socket accepts.
+     *
+     * @return true if the whole response has been written
+     * @throws IOException If an IO-Error occurs
+     **************************************************************************/
+    public boolean write() throws IOException {
+        //the head and a body in memory go out with one gathering write
+        while (buffers[0].hasRemaining() || buffers[bufferCount - 1].hasRemaining()) {
+            long bytes = socketChannel.write(buffers, 0, bufferCount);
+            if (bytes == 0) {
+                return false;
+            }
+            bytesSent += bytes;
+            madeProgress();
+        }
+
+        for (; regions != null && region < regions.length; region++) {
+            bytesSent += socketChannel.write(regions[region]);
+            if (regions[region].hasRemaining()) {
+                return false;
+            }
+            madeProgress();
+        }
+
+        //every range of the file goes out behind its multipart separator
+        while (fileChannel != null) {
+            if (separator != null && separator.hasRemaining()) {
+                bytesSent += socketChannel.write(separator);
+                if (separator.hasRemaining()) {
+                    return false;
+                }
+                madeProgress();
+            }
+
+            if (filePosition < fileEnd) {
+                long bytes = fileChannel.transferTo(filePosition, fileEnd - filePosition,
+                        socketChannel);
+                if (bytes == 0) {
+                    if (filePosition >= fileChannel.size()) {
+                        throw new IOException("The file has been truncated: "
+                                + response.getFile());
+                    }
+                    return false;
+                }
+                filePosition += bytes;
+                bytesSent += bytes;
+                madeProgress();
+                continue;
+            }
+
+            if (filePart == fileRanges.length / 2) {
+                break;
+            }
+            startFilePart(filePart + 1);
+        }
+
+        //the next chunk of a streamed body is only produced when the socket
+        //has taken the previous one
+        while (streaming) {
+            if (chunk == null || !chunk.hasRemaining()) {
+                chunk = chunkEncoder.next();
+                if (chunk == null) {
+                    streaming = false;
+                    break;
+                }
+            }
+
+            bytesSent += socketChannel.write(chunk);
+            if (chunk.hasRemaining()) {
+                return false;
+            }
+            madeProgress();
+        }
+
+        return true;
+    }
+
+    //the response has to go on within the write timeout and at the
+    //minimum rate
+    private void madeProgress() {
+        deadline.setDeadline(connectionLimits.getTransferDeadline(writeStarted, bytesSent,
+                TimerWheel.now(), connectionLimits.getWriteTimeout()));
+    }
+
+    /**************************************************************************
+     * Releases the written response.
+     *
+     * @return true if the connection stays open for the next request
+     **************************************************************************/
+    public boolean finishResponse() {
+        long nanos = System.nanoTime() - requestStarted;
+        metrics.recordResponse(endpoint, response.getStatusCode(), bytesSent, nanos);
+        if (accessLog != null) {
+            accessLog.record(accessLogEntry, response.getStatusCode(), bytesSent, nanos);
+        }
+        releaseResponse();
+
+        //starting at the beginning of the buffer again, if no pipelined
+        //bytes are left
+        if (readPosition == readBuffer.position()) {
+            readBuffer.clear();
+            readPosition = 0;
+        }
+        requestParser.start(readBuffer.array(), readPosition);
+
+        //a pipelined head has already started
+        headStarted = readPosition < readBuffer.position();
+        deadline.setDeadline(TimerWheel.now() + (headStarted
+                ? connectionLimits.getHeaderTimeout() : connectionLimits.getIdleTimeout()));
+
+        return keepAlive;
+    }
+
+    //called by the TimerWheel of the loop
+    private void expire() {
+        logger.log(Level.FINE, "CLOSING THE CONNECTION WHICH HAS MISSED ITS DEADLINE");
+        close();
+    }
+
+    //closing the file and the connection
+    public void close() {
+        deadline.cancel();
+        releaseResponse();
+        abortBody();
+
+        if (readBuffer != null) {
+            headBuffers.release(readBuffer);
+            readBuffer = null;
+            metrics.connectionClosed();
+        }
+
+        try {
+            socketChannel.close();
+        } catch (IOException e) {
+            System.err.println("AN ERROR OCCURRED WHILE CLOSING THE SOCKET");
+        }
+    }
+
+    private void prepareResponse(HttpResponse response, boolean keepAlive)
+            throws IOException {
+        //a streamed body which is not chunked ends with the connection
+        if (response.getStream() != null && !response.isChunked()) {
+            keepAlive = false;
+        }
+
+        this.response = response;
+        this.keepAlive = keepAlive;
+        endpoint = requestParser.getRequestHead().getEndpoint();
+        bytesSent = 0;
+        writeStarted = TimerWheel.now();
+        deadline.setDeadline(writeStarted + connectionLimits.getWriteTimeout());
+
+        //the head is copied into a buffer of the connection, which goes out
+        //together with a body in memory in one gathering write
+        int pending = interim == null ? 0 : interim.remaining();
+        int headSize = pending + response.getHeadSize(keepAlive);
+        if (headSize > headBuffer.capacity()) {
+            headBuffer = ByteBuffer.allocate(headSize);
+        }
+        headBuffer.clear();
+        if (interim != null) {
+            headBuffer.put(interim);
+            interim = null;
+        }
+        response.putHead(headBuffer, keepAlive);
+        headBuffer.flip();
+
+        ByteBuffer body = response.getBody();
+        buffers[0] = headBuffer;
+        buffers[1] = body;
+        bufferCount = body == null ? 1 : 2;
+
+        regions = response.getRegions();
+        region = 0;
+
+        if (response.getFile() != null) {
+            fileChannel = FileChannel.open(response.getFile(), StandardOpenOption.READ);
+            fileRanges = response.getFileRanges();
+            separators = response.getSeparators();
+            startFilePart(0);
+        }
+
+        if (response.getStream() != null) {
+            chunkEncoder.start(response.getStream(), response.isChunked());
+            streaming = true;
+            chunk = null;
+        }
+    }
+
+    //the part after the last range only holds the line which closes a
+    //multipart body
+    private void startFilePart(int part) {
+        filePart = part;
+        separator = separators == null ? null : ByteBuffer.wrap(separators[part]);
+
+        if (part < fileRanges.length / 2) {
+            filePosition = fileRanges[2 * part];
+            fileEnd = filePosition + fileRanges[2 * part + 1];
+        } else {
+            filePosition = 0;
+            fileEnd = 0;
+        }
+    }
+
+    private void releaseResponse() {
+        chunkEncoder.release();
+        streaming = false;
+        chunk = null;
+
+        if (response != null) {
+            response.release();
+            response = null;
+            buffers[1] = null;
+        }
+
+        if (fileChannel != null) {
+            try {
+                fileChannel.close();
+            } catch (IOException e) {
+                System.err.println("AN ERROR OCCURRED WHILE CLOSING THE FILE");
+            }
+            fileChannel = null;
+        }
+    }
+
+    //moving the unfinished head to the start of the read buffer, where it
+    //is parsed again
+    private void compact() {
+        readBuffer.flip();
+        readBuffer.position(requestParser.getHeadStart());
+        readBuffer.compact();
+        readPosition = 0;
+        requestParser.start(readBuffer.array(), 0);
+    }
+}
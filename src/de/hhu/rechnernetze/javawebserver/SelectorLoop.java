@@ -0,0 +1,147 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/******************************************************************************
+ * The SelectorLoop handles all connections registered to it within one
+ * Thread. Every connection is read and written non-blocking as soon as its
+ * Selector reports that it is ready. The deadlines of the connections are
+ * kept in a TimerWheel, which the loop advances after every select.
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class SelectorLoop implements Runnable {
+
+    static final Logger logger = Logger.getLogger(SelectorLoop.class.getName());
+
+    private final Selector selector;
+    private final ResponseFactory responseFactory;
+    private final ConnectionLimits connectionLimits;
+    private final TimerWheel deadlines =
+            new TimerWheel(TimerWheel.DEFAULT_TICK, TimerWheel.DEFAULT_SLOTS);
+
+    //the accepting thread must not register the channels itself, because
+    //register() blocks while this loop is waiting in select().
+    private final ConcurrentLinkedQueue<SocketChannel> pendingChannels =
+            new ConcurrentLinkedQueue<>();
+
+    /**************************************************************************
+     * Constructs a SelectorLoop with an own Selector.
+     *
+     * @param responseFactory Creates the responses to the requests.
+     * @param connectionLimits The idle timeout and the maximum of requests
+     * @throws IOException If the Selector can not be opened
+     **************************************************************************/
+    public SelectorLoop(ResponseFactory responseFactory, ConnectionLimits connectionLimits)
+            throws IOException {
+        this.selector = Selector.open();
+        this.responseFactory = responseFactory;
+        this.connectionLimits = connectionLimits;
+    }
+
+    /**************************************************************************
+     * Hands an accepted connection to this loop, this can be called from any
+     * Thread.
+     *
+     * @param socketChannel The accepted connection
+     **************************************************************************/
+    public void register(SocketChannel socketChannel) {
+        pendingChannels.add(socketChannel);
+        selector.wakeup();
+    }
+
+    /**************************************************************************
+     * Waiting for ready connections and handling them, until you stop the
+     * Thread manually.
+     **************************************************************************/
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                //waking up at least once a tick to expire the deadlines
+                selector.select(deadlines.getTick());
+            } catch (IOException e) {
+                System.err.println("AN ERROR OCCURRED WHILE SELECTING");
+                e.printStackTrace();
+                return;
+            }
+
+            registerPendingChannels();
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                handle(key);
+            }
+
+            deadlines.advance(TimerWheel.now());
+        }
+    }
+
+    //registering the channels the accepting thread has handed to this loop
+    private void registerPendingChannels() {
+        SocketChannel socketChannel;
+
+        while ((socketChannel = pendingChannels.poll()) != null) {
+            try {
+                socketChannel.configureBlocking(false);
+                //the head and the body of a file are separate writes, with
+                //Nagle's algorithm the body would wait for the delayed ACK
+                socketChannel.socket().setTcpNoDelay(true);
+                SelectorConnection connection = new SelectorConnection(socketChannel,
+                        responseFactory, connectionLimits, deadlines);
+                socketChannel.register(selector, SelectionKey.OP_READ, connection);
+            } catch (IOException e) {
+                System.err.println("AN ERROR OCCURRED WHILE REGISTERING THE CONNECTION");
+                closeQuietly(socketChannel);
+            }
+        }
+    }
+
+    //reading or writing the connection of the key, depending on what it is
+    //waiting for. After a response the next pipelined request is answered at
+    //once, if it is already in the read buffer.
+    private void handle(SelectionKey key) {
+        SelectorConnection connection = (SelectorConnection) key.attachment();
+
+        try {
+            boolean ready = key.isReadable() ? connection.read() : key.isWritable();
+
+            while (ready) {
+                if (!connection.write()) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+
+                if (!connection.finishResponse()) {
+                    connection.close();
+                    return;
+                }
+
+                ready = connection.parse();
+            }
+
+            key.interestOps(SelectionKey.OP_READ);
+        } catch (IOException e) {
+            logger.log(Level.FINE, "AN ERROR OCCURRED WHILE PROCESSING THE HTTP REQUEST");
+            connection.close();
+        }
+    }
+
+    private static void closeQuietly(SocketChannel socketChannel) {
+        try {
+            socketChannel.close();
+        } catch (IOException e) {
+            System.err.println("AN ERROR OCCURRED WHILE CLOSING THE SOCKET");
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/******************************************************************************
+ * This class is the non-blocking alternative to the WebServer. It accepts the
+ * incoming connections and hands them round robin to a fixed number of
+ * SelectorLoops, which handle all of their connections with one Thread each.
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+public final class SelectorWebServer implements Runnable {
+
+    static final Logger logger = Logger.getLogger(SelectorWebServer.class.getName());
+
+    private ServerSocketChannel serverSocketChannel;
+    private SelectorLoop[] selectorLoops;
+    private int nextLoop = 0;
+    private Metrics metrics;
+
+    /**************************************************************************
+     * Instancing a SelectorWebServer who listens to the given port.
+     *
+     * @param  port  The port to what the SelectorWebServer will listen
+     * @param  backlog The number of connections the kernel queues, while the
+     *                 SelectorWebServer is not accepting
+     * @param  responseFactory Creates the responses to the requests.
+     * @param  connectionLimits The idle timeout and the maximum of requests
+     * @param  loops The number of SelectorLoops, one per core is a good choice
+     * @throws IOException If an IO-Error occurs this Exception will be thrown
+     **************************************************************************/
+    public SelectorWebServer(int port, int backlog, ResponseFactory responseFactory,
+                             ConnectionLimits connectionLimits, int loops)
+            throws IOException {
+
+        if(responseFactory == null){
+            logger.log(Level.WARNING, "AN ILLEGAL RESPONSEFACTORY HAS BEEN PASSED");
+            throw new IllegalArgumentException("Illegal ResponseFactory " + responseFactory);
+        }
+
+        if(loops < 1){
+            logger.log(Level.WARNING, "AN ILLEGAL NUMBER OF LOOPS HAS BEEN PASSED");
+            throw new IllegalArgumentException("Illegal number of loops " + loops);
+        }
+
+        selectorLoops = new SelectorLoop[loops];
+        for (int i = 0; i < loops; i++) {
+            selectorLoops[i] = new SelectorLoop(responseFactory, connectionLimits);
+        }
+
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.bind(new InetSocketAddress(port), backlog);
+        metrics = responseFactory.getMetrics();
+    }
+
+    /**************************************************************************
+     * Starting the SelectorLoops and accepting connections in this Thread,
+     * until you stop the Thread manually.
+     **************************************************************************/
+    @Override
+    public void run() {
+
+        logger.log(Level.FINEST, "STARTING TO RUN THE SELECTORWEBSERVER IN AN OWN THREAD");
+
+        for (int i = 0; i < selectorLoops.length; i++) {
+            new Thread(selectorLoops[i], "selector-loop-" + (i + 1)).start();
+        }
+
+        try {
+            while (true) {
+                //the accepting is blocking, only the accepted connections are
+                //handled non-blocking by the loops.
+                SocketChannel socketChannel = serverSocketChannel.accept();
+                logger.log(Level.INFO, "ACCEPTING INCOMING CONNECTION");
+                metrics.connectionAccepted();
+
+                selectorLoops[nextLoop].register(socketChannel);
+                nextLoop = (nextLoop + 1) % selectorLoops.length;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
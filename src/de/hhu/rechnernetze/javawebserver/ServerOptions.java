@@ -0,0 +1,158 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/******************************************************************************
+ * This class is wrapping a HashMap<String, String> which is filled with the
+ * <i>-name value</i> pairs passed on the command line.
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class ServerOptions {
+
+    static final Logger logger = Logger.getLogger(ServerOptions.class.getName());
+
+    private final HashMap<String, String> options = new HashMap<>();
+
+    /**************************************************************************
+     * Parses the given command line arguments, which have to be passed as
+     * pairs like <i>-mime path/to/mime.types -pool 64</i>.
+     *
+     * @param args The command line arguments
+     * @throws IllegalArgumentException if an option has no value or does not
+     * start with a dash
+     **************************************************************************/
+    public ServerOptions(String[] args) {
+        if (args == null || args.length % 2 != 0) {
+            throw new IllegalArgumentException("Every option needs a value");
+        }
+
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("-") || args[i].length() == 1) {
+                logger.log(Level.WARNING, "RECEIVED ILLEGAL OPTION : " + args[i]);
+                throw new IllegalArgumentException("Illegal Option " + args[i]);
+            }
+            options.put(args[i].substring(1), args[i + 1]);
+        }
+    }
+
+    /**************************************************************************
+     * Returns whether the option has been passed on the command line.
+     *
+     * @param name The name of the option without the leading dash
+     **************************************************************************/
+    public boolean has(String name) {
+        return options.containsKey(name);
+    }
+
+    /**************************************************************************
+     * Returns the value of the option or the default value.
+     *
+     * @param name The name of the option without the leading dash
+     * @param defaultValue The value if the option has not been passed
+     **************************************************************************/
+    public String getString(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    /**************************************************************************
+     * Returns the value of the option as a positive int or the default value.
+     *
+     * @param name The name of the option without the leading dash
+     * @param defaultValue The value if the option has not been passed
+     * @throws IllegalArgumentException if the value is not a positive number
+     **************************************************************************/
+    public int getInt(String name, int defaultValue) {
+        String value = options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            int number = Integer.parseInt(value);
+            if (number > 0) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            //falling through to the exception below
+        }
+
+        throw new IllegalArgumentException("Illegal Value for -" + name + " : " + value);
+    }
+
+    /**************************************************************************
+     * Returns the value of the option as a positive number of bytes or the
+     * default value. The value may end with <i>k</i>, <i>m</i> or <i>g</i>.
+     *
+     * @param name The name of the option without the leading dash
+     * @param defaultValue The value if the option has not been passed
+     * @throws IllegalArgumentException if the value is not a positive size
+     **************************************************************************/
+    public long getSize(String name, long defaultValue) {
+        String value = options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        long unit = 1;
+        String number = value;
+
+        switch (Character.toLowerCase(value.charAt(value.length() - 1))) {
+            case 'k':
+                unit = 1024L;
+                break;
+
+            case 'm':
+                unit = 1024L * 1024;
+                break;
+
+            case 'g':
+                unit = 1024L * 1024 * 1024;
+                break;
+        }
+
+        if (unit != 1) {
+            number = value.substring(0, value.length() - 1);
+        }
+
+        try {
+            long size = Long.parseLong(number);
+            if (size > 0 && size <= Long.MAX_VALUE / unit) {
+                return size * unit;
+            }
+        } catch (NumberFormatException e) {
+            //falling through to the exception below
+        }
+
+        throw new IllegalArgumentException("Illegal Value for -" + name + " : " + value);
+    }
+
+    /**************************************************************************
+     * Returns the value of the option as a boolean or the default value.
+     *
+     * @param name The name of the option without the leading dash
+     * @param defaultValue The value if the option has not been passed
+     * @throws IllegalArgumentException if the value is neither <i>true</i>
+     * nor <i>false</i>
+     **************************************************************************/
+    public boolean getBoolean(String name, boolean defaultValue) {
+        String value = options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        switch (value) {
+            case "true":
+                return true;
+
+            case "false":
+                return false;
+
+            default:
+                throw new IllegalArgumentException("Illegal Value for -" + name + " : " + value);
+        }
+    }
+}
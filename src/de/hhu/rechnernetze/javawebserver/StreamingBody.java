@@ -0,0 +1,48 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/******************************************************************************
+ * A StreamingBody produces an entity body whose length is not known before
+ * it has been sent, like a page which is generated while it is sent. It is
+ * sent with the chunked transfer coding to HTTP/1.1 clients and delimited by
+ * closing the connection for older ones.
+ *
+ * <p>The engine pulls the body piece by piece into pooled buffers, so that
+ * the selector engine only asks for the next piece when the socket has taken
+ * the previous one. produce() must therefore never block.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+interface StreamingBody {
+
+    //
+    // THE RESULTS OF PRODUCE
+    //
+
+    //the buffer is sent when it is full, produce() is called again
+    int CONTINUE = 0;
+
+    //the buffer is sent at once, so the client gets what has been produced
+    int FLUSH = 1;
+
+    //the buffer holds the last bytes of the body
+    int END = 2;
+
+    /**************************************************************************
+     * Puts the next bytes of the body into the buffer.
+     *
+     * @param buffer Takes the bytes from its position up to its limit
+     * @return CONTINUE, FLUSH or END
+     * @throws IOException If the body can not be produced
+     **************************************************************************/
+    int produce(ByteBuffer buffer) throws IOException;
+
+    /**************************************************************************
+     * Gives back what the body holds. It is called exactly once, whether the
+     * body has been sent completely or not.
+     **************************************************************************/
+    void close();
+}
@@ -0,0 +1,268 @@
+package de.hhu.rechnernetze.javawebserver;
+
+/******************************************************************************
+ * The TimerWheel holds the deadlines of many connections in a ring of slots,
+ * one slot per tick. A Timeout is linked into the slot of the tick its
+ * deadline falls into, so that scheduling, cancelling and expiring are O(1)
+ * and a tick only looks at the Timeouts of its own slot, instead of a timer
+ * per socket or a scan over all connections.
+ *
+ * <p>Deadlines further away than one round of the wheel stay in their slot
+ * and are looked at again a round later. A deadline which is moved to a
+ * later time is only written, the Timeout is moved when its old slot is
+ * reached. Only a deadline which is moved to an earlier time has to be
+ * linked into its new slot at once.</p>
+ *
+ * <p>The deadlines are milliseconds of the monotonic clock of now().
+ * Scheduling and changing a Timeout may be done from any Thread, the wheel
+ * is advanced by one Thread, either a SelectorLoop or the Thread of
+ * startThread(), which runs the actions of the expired Timeouts.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class TimerWheel {
+
+    //a tick of 100 ms and 512 slots make a round of 51.2 seconds
+    static final int DEFAULT_TICK = 100;
+    static final int DEFAULT_SLOTS = 512;
+
+    private final int tick;
+    private final Timeout[] slots;
+    private final int mask;
+
+    //the last tick which has been expired
+    private long currentTick;
+
+    /**************************************************************************
+     * Constructs a TimerWheel which is advanced by the caller.
+     *
+     * @param tick The milliseconds of one slot
+     * @param slots The number of slots, rounded up to a power of two
+     * @throws IllegalArgumentException if one of the arguments is not positive
+     **************************************************************************/
+    public TimerWheel(int tick, int slots) {
+        if (tick <= 0 || slots <= 0 || slots > 1 << 20) {
+            throw new IllegalArgumentException("Illegal TimerWheel " + tick + " / " + slots);
+        }
+
+        int slotCount = Integer.highestOneBit(slots);
+        if (slotCount < slots) {
+            slotCount <<= 1;
+        }
+
+        this.tick = tick;
+        this.slots = new Timeout[slotCount];
+        this.mask = slotCount - 1;
+        this.currentTick = now() / tick;
+    }
+
+    /**************************************************************************
+     * Starts a daemon Thread which advances a new TimerWheel with the
+     * default tick.
+     *
+     * @param name The name of the Thread
+     **************************************************************************/
+    public static TimerWheel startThread(String name) {
+        TimerWheel timerWheel = new TimerWheel(DEFAULT_TICK, DEFAULT_SLOTS);
+
+        Thread thread = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(timerWheel.tick);
+                    timerWheel.advance(now());
+                } catch (InterruptedException e) {
+                    return;
+                } catch (RuntimeException e) {
+                    System.err.println("AN ERROR OCCURRED WHILE EXPIRING A DEADLINE");
+                    e.printStackTrace();
+                }
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+
+        return timerWheel;
+    }
+
+    //the milliseconds of the monotonic clock the deadlines are measured in
+    static long now() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    public int getTick() {
+        return tick;
+    }
+
+    /**************************************************************************
+     * Schedules the action for the deadline.
+     *
+     * @param action What is done when the deadline has passed, it is run by
+     *               the Thread which advances the wheel
+     * @param deadline The time of now() when the action is run
+     * @return The Timeout whose deadline can be changed or cancelled
+     **************************************************************************/
+    public synchronized Timeout schedule(Runnable action, long deadline) {
+        Timeout timeout = new Timeout(this, action, deadline);
+        link(timeout, currentTick + 1);
+        return timeout;
+    }
+
+    /**************************************************************************
+     * Expires the Timeouts of all ticks up to now and runs their actions.
+     *
+     * @param now The current time of now()
+     **************************************************************************/
+    public void advance(long now) {
+        Timeout expired = null;
+
+        synchronized (this) {
+            long target = now / tick;
+
+            //after a long pause every slot is looked at once
+            for (long t = Math.max(currentTick + 1, target - mask); t <= target; t++) {
+                currentTick = t;
+
+                int index = (int) (t & mask);
+                Timeout timeout = slots[index];
+                slots[index] = null;
+
+                while (timeout != null) {
+                    Timeout next = timeout.next;
+                    timeout.prev = null;
+                    timeout.next = null;
+                    timeout.index = -1;
+
+                    if (timeout.deadline <= now) {
+                        timeout.expired = true;
+                        timeout.next = expired;
+                        expired = timeout;
+                    } else {
+                        //the deadline has been moved or lies in a later round
+                        link(timeout, t + 1);
+                    }
+                    timeout = next;
+                }
+            }
+
+            if (target > currentTick) {
+                currentTick = target;
+            }
+        }
+
+        //the actions are run without the lock, an expired Timeout is never
+        //linked again
+        while (expired != null) {
+            Timeout next = expired.next;
+            expired.next = null;
+            expired.action.run();
+            expired = next;
+        }
+    }
+
+    //moving a Timeout whose deadline is earlier than the one of its slot
+    private synchronized void relink(Timeout timeout) {
+        if (timeout.expired || timeout.cancelled) {
+            return;
+        }
+        unlink(timeout);
+        link(timeout, currentTick + 1);
+    }
+
+    private synchronized void cancel(Timeout timeout) {
+        timeout.cancelled = true;
+        if (!timeout.expired) {
+            unlink(timeout);
+        }
+    }
+
+    //a deadline which has already passed goes into the next tick
+    private void link(Timeout timeout, long earliestTick) {
+        long t = Math.max(timeout.deadline / tick, earliestTick);
+        int index = (int) (t & mask);
+
+        timeout.index = index;
+        timeout.prev = null;
+        timeout.next = slots[index];
+        if (timeout.next != null) {
+            timeout.next.prev = timeout;
+        }
+        slots[index] = timeout;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.index < 0) {
+            return;
+        }
+
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            slots[timeout.index] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.index = -1;
+    }
+
+    /**************************************************************************
+     * The Timeout is the deadline of one connection, which moves it from
+     * phase to phase, e.g. from the idle timeout to the deadline of the
+     * head, and cancels it when it is closed.
+     **************************************************************************/
+    static final class Timeout {
+
+        private final TimerWheel timerWheel;
+        private final Runnable action;
+
+        //only written by the connection, read by the wheel
+        private volatile long deadline;
+        private volatile boolean expired = false;
+
+        //guarded by the lock of the wheel
+        private boolean cancelled = false;
+        private Timeout prev;
+        private Timeout next;
+        private int index = -1;
+
+        private Timeout(TimerWheel timerWheel, Runnable action, long deadline) {
+            this.timerWheel = timerWheel;
+            this.action = action;
+            this.deadline = deadline;
+        }
+
+        /**********************************************************************
+         * Moves the deadline, this must only be called by one Thread at a
+         * time.
+         *
+         * @param deadline The time of now() when the action is run
+         **********************************************************************/
+        public void setDeadline(long deadline) {
+            long previous = this.deadline;
+            this.deadline = deadline;
+
+            if (deadline < previous) {
+                timerWheel.relink(this);
+            }
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+
+        //the action is not run if it has not expired yet
+        public void cancel() {
+            timerWheel.cancel(this);
+        }
+
+        //whether the deadline has passed and the action has been run or is
+        //about to be run
+        public boolean hasExpired() {
+            return expired;
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/******************************************************************************
+ * The ValidatorCache remembers the attributes, the ETag and the Last-Modified
+ * date of the served files, so that a conditional request can be answered
+ * with 304 and a HEAD request with the length of the file without touching
+ * the file system. The other caches take the attributes from here instead of
+ * reading them again, and a path which is no file is remembered as well.
+ *
+ * <p>The validators of a file are trusted for a short time, after which the
+ * attributes of the file are read again. The ETag is computed from the file
+ * key (the inode on unix), the size and the modification time. It is weak
+ * if the file has been modified within the second before it was read,
+ * because it could still change without changing these values.</p>
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+final class ValidatorCache {
+
+    static final Logger logger = Logger.getLogger(ValidatorCache.class.getName());
+
+    static final long DEFAULT_TIME_TO_LIVE = 1000;
+    static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    //
+    // THE CONTENT CODINGS, EVERY CODING HAS ITS OWN ETAG
+    //
+    static final int IDENTITY = 0;
+    static final int GZIP = 1;
+    static final int DEFLATE = 2;
+
+    private static final String[] CODING_SUFFIXES = {"", "-gzip", "-deflate"};
+
+    private final long timeToLive;
+    private final int maxEntries;
+
+    //the eldest entries are dropped as soon as there are too many
+    private final LinkedHashMap<String, Validators> entries =
+            new LinkedHashMap<String, Validators>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Validators> eldest) {
+                    return size() > ValidatorCache.this.maxEntries;
+                }
+            };
+
+    //the paths which do not exist are kept apart, so that requests for
+    //made up paths can not drop the validators of the files
+    private final LinkedHashMap<String, Validators> missing =
+            new LinkedHashMap<String, Validators>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Validators> eldest) {
+                    return size() > ValidatorCache.this.maxEntries;
+                }
+            };
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**************************************************************************
+     * Constructs an empty ValidatorCache.
+     *
+     * @param timeToLive The milliseconds the validators are trusted
+     * @param maxEntries The number of files whose validators are kept, and
+     *                   of paths which are remembered as missing
+     * @throws IllegalArgumentException if one of the arguments is negative or
+     * maxEntries is 0
+     **************************************************************************/
+    public ValidatorCache(long timeToLive, int maxEntries) {
+        if (timeToLive < 0 || maxEntries <= 0) {
+            logger.log(Level.WARNING, "RECEIVED ILLEGAL VALIDATORCACHE : " + timeToLive);
+            throw new IllegalArgumentException("Illegal ValidatorCache " + timeToLive
+                    + " / " + maxEntries);
+        }
+
+        this.timeToLive = timeToLive;
+        this.maxEntries = maxEntries;
+    }
+
+    /**************************************************************************
+     * Constructs an empty ValidatorCache with the default values.
+     **************************************************************************/
+    public ValidatorCache() {
+        this(DEFAULT_TIME_TO_LIVE, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**************************************************************************
+     * Returns the validators of the file, which are read again if they are
+     * older than the time to live.
+     *
+     * @param path The normalized path of the file
+     * @return The validators or null if the path is not a regular file
+     * @throws IOException If the attributes of the file can not be read
+     **************************************************************************/
+    public Validators get(Path path) throws IOException {
+        Validators validators = read(path);
+        return validators.isFile() ? validators : null;
+    }
+
+    /**************************************************************************
+     * Returns whether the path is a directory, which is trusted as long as
+     * the validators of a file.
+     *
+     * @param path The normalized path
+     * @throws IOException If the attributes of the path can not be read
+     **************************************************************************/
+    public boolean isDirectory(Path path) throws IOException {
+        return read(path).directory;
+    }
+
+    //the entry of the path, which is read again if it is older than the time
+    //to live
+    private Validators read(Path path) throws IOException {
+        String key = path.toString();
+        long now = System.currentTimeMillis();
+
+        Validators validators = lookup(key);
+        if (validators != null && now - validators.readAt <= timeToLive) {
+            hits.increment();
+            return validators;
+        }
+
+        misses.increment();
+
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            attributes = null;
+        }
+
+        //a missing path is remembered too, so that requests for it do not
+        //read the file system again before the time to live is over
+        if (attributes == null || !attributes.isRegularFile()) {
+            validators = new Validators(attributes != null && attributes.isDirectory(), now);
+            put(key, validators);
+            return validators;
+        }
+
+        //keeping the old object if nothing has changed, so that the header
+        //lines it has built stay valid. A weak ETag is made strong as soon
+        //as the file has been unchanged for a second.
+        if (validators != null && validators.isFile() && validators.isValidFor(attributes)
+                && (!validators.weak || now - validators.lastModified < 1000)) {
+            validators.readAt = now;
+            return validators;
+        }
+
+        validators = new Validators(attributes, now);
+        put(key, validators);
+        return validators;
+    }
+
+    //the milliseconds the validators are trusted
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private synchronized Validators lookup(String key) {
+        Validators validators = entries.get(key);
+        return validators != null ? validators : missing.get(key);
+    }
+
+    private synchronized void put(String key, Validators validators) {
+        if (validators.isMissing()) {
+            entries.remove(key);
+            missing.put(key, validators);
+        } else {
+            missing.remove(key);
+            entries.put(key, validators);
+        }
+    }
+
+    /**************************************************************************
+     * The Validators hold the attributes, the ETags and the Last-Modified
+     * date of one version of a file, together with the header lines and the
+     * 304 responses which are built from them.
+     **************************************************************************/
+    static final class Validators {
+
+        //null if the path is not a regular file
+        private final BasicFileAttributes attributes;
+        private final boolean directory;
+
+        private final long size;
+        private final long lastModified;
+        private final Object fileKey;
+        private final String[] eTags = new String[CODING_SUFFIXES.length];
+        private final String lastModifiedDate;
+        private final boolean weak;
+        private volatile long readAt;
+
+        //built on demand for the Cache-Control and Vary lines of the last
+        //request, a file which is reached through routes with other lines
+        //gets them built again
+        private final HeaderLines[] headerLines = new HeaderLines[CODING_SUFFIXES.length];
+
+        Validators(BasicFileAttributes attributes, long now) {
+            this.attributes = attributes;
+            this.directory = false;
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+            this.fileKey = attributes.fileKey();
+            this.readAt = now;
+
+            String tag = Integer.toHexString(fileKey == null ? 0 : fileKey.hashCode())
+                    + '-' + Long.toHexString(size) + '-' + Long.toHexString(lastModified);
+            this.weak = now - lastModified < 1000;
+            String prefix = weak ? "W/\"" : "\"";
+            for (int i = 0; i < eTags.length; i++) {
+                eTags[i] = prefix + tag + CODING_SUFFIXES[i] + '"';
+            }
+
+            this.lastModifiedDate = HttpDate.format(lastModified);
+        }
+
+        //a path which does not exist or is no regular file
+        private Validators(boolean directory, long now) {
+            this.attributes = null;
+            this.directory = directory;
+            this.size = -1;
+            this.lastModified = -1;
+            this.fileKey = null;
+            this.lastModifiedDate = null;
+            this.weak = false;
+            this.readAt = now;
+        }
+
+        private boolean isFile() {
+            return attributes != null;
+        }
+
+        private boolean isMissing() {
+            return attributes == null && !directory;
+        }
+
+        boolean isValidFor(BasicFileAttributes attributes) {
+            return size == attributes.size()
+                    && lastModified == attributes.lastModifiedTime().toMillis()
+                    && Objects.equals(fileKey, attributes.fileKey());
+        }
+
+        //the attributes the validators have been built from, which the other
+        //caches check their entries against
+        public BasicFileAttributes getAttributes() {
+            return attributes;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        //the ETag of the file sent with the content coding
+        public String getETag(int coding) {
+            return eTags[coding];
+        }
+
+        //the modification time formatted like the Date header
+        public String getLastModifiedDate() {
+            return lastModifiedDate;
+        }
+
+        //a weak ETag or Last-Modified date must not be used for If-Range
+        public boolean isWeak() {
+            return weak;
+        }
+
+        /**********************************************************************
+         * Returns the ETag, Last-Modified and the fixed header lines for the
+         * content coding, each followed by a CRLF. Only the file without a
+         * content coding is sent in ranges, so only its lines announce
+         * Accept-Ranges.
+         *
+         * @param coding IDENTITY, GZIP or DEFLATE
+         * @param cacheControl The Cache-Control line of the file or ""
+         * @param vary The Vary line of the file or ""
+         **********************************************************************/
+        public String getHeaderLines(int coding, String cacheControl, String vary) {
+            return getHeaderLinesFor(coding, cacheControl, vary).lines;
+        }
+
+        /**********************************************************************
+         * Returns the 304 response for the content coding, which carries the
+         * same validators as the 200 response.
+         *
+         * @param coding IDENTITY, GZIP or DEFLATE
+         * @param cacheControl The Cache-Control line of the file or ""
+         * @param vary The Vary line of the file or ""
+         **********************************************************************/
+        public HttpResponse getNotModified(int coding, String cacheControl, String vary) {
+            return getHeaderLinesFor(coding, cacheControl, vary).notModified;
+        }
+
+        //the lines are replaced as a whole, so a Thread never sees the lines
+        //of one request with the 304 of another
+        private HeaderLines getHeaderLinesFor(int coding, String cacheControl, String vary) {
+            HeaderLines lines = headerLines[coding];
+            if (lines == null || !lines.isFor(cacheControl, vary)) {
+                lines = new HeaderLines("ETag: " + eTags[coding] + "\r\n"
+                        + "Last-Modified: " + lastModifiedDate + "\r\n"
+                        + (coding == IDENTITY ? "Accept-Ranges: bytes\r\n" : ""),
+                        cacheControl, vary);
+                headerLines[coding] = lines;
+            }
+            return lines;
+        }
+    }
+
+    /**************************************************************************
+     * The HeaderLines are the header lines of one content coding of a file
+     * and its 304 response, built with the Cache-Control and Vary lines they
+     * are valid for.
+     **************************************************************************/
+    private static final class HeaderLines {
+
+        final String cacheControl;
+        final String vary;
+        final String lines;
+        final HttpResponse notModified;
+
+        HeaderLines(String validatorLines, String cacheControl, String vary) {
+            this.cacheControl = cacheControl;
+            this.vary = vary;
+            this.lines = validatorLines + cacheControl + vary;
+            this.notModified = HttpResponse.withoutContent(HttpStatus.NOT_MODIFIED, lines);
+        }
+
+        boolean isFor(String cacheControl, String vary) {
+            return this.cacheControl.equals(cacheControl) && this.vary.equals(vary);
+        }
+    }
+}
@@ -1,14 +1,13 @@
 package de.hhu.rechnernetze.javawebserver;
 
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.nio.file.Path;
+import java.nio.channels.ServerSocketChannel;
 import java.nio.file.Paths;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.StringTokenizer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -23,30 +22,70 @@ public final class WebServer implements Runnable {
 
     static final Logger logger = Logger.getLogger(WebServer.class.getName());
 
+    static final int DEFAULT_PORT = 6789;
+
+    //the default length of the queue for incoming connections of java.net
+    static final int DEFAULT_BACKLOG = 50;
+
     private ServerSocket serverSocket;
-    private MIMEType mimetype;
+    private ResponseFactory responseFactory;
+    private ConnectionLimits connectionLimits;
+    private Executor executor;
+    private Executor streamExecutor;
 
     /**************************************************************************
-     * Instancing an WebServer who listens to the given port.
+     * Instancing an WebServer who listens to the given port and starts a new
+     * Thread for every accepted connection.
      *
      * @param  port  The port to what the WebServer will listen
      * @throws IOException If an IO-Error occurs this Exception will be thrown
      **************************************************************************/
     public WebServer(int port, MIMEType mimetype) throws IOException {
-        serverSocket = new ServerSocket(port);
+        this(port, DEFAULT_BACKLOG, new ResponseFactory(mimetype), new ConnectionLimits(),
+                ConnectionExecutors.threadPerConnection());
+    }
+
+    /**************************************************************************
+     * Instancing an WebServer who listens to the given port and hands every
+     * accepted connection to the given Executor.
+     *
+     * @param  port  The port to what the WebServer will listen
+     * @param  backlog The number of connections the kernel queues, while the
+     *                 WebServer is not accepting
+     * @param  responseFactory Creates the responses to the requests.
+     * @param  connectionLimits The idle timeout and the maximum of requests
+     * @param  executor Runs the HttpRequest objects
+     * @throws IOException If an IO-Error occurs this Exception will be thrown
+     **************************************************************************/
+    public WebServer(int port, int backlog, ResponseFactory responseFactory,
+                     ConnectionLimits connectionLimits, Executor executor)
+            throws IOException {
 
-        if(mimetype == null){
-            logger.log(Level.WARNING, "AN ILLEGAL MIMETYPE HAS BEEN PASSED");
-            throw new IllegalArgumentException("Illegal MIMEType " + mimetype);
+        if(responseFactory == null){
+            logger.log(Level.WARNING, "AN ILLEGAL RESPONSEFACTORY HAS BEEN PASSED");
+            throw new IllegalArgumentException("Illegal ResponseFactory " + responseFactory);
         }
 
-        this.mimetype = mimetype;
+        if(executor == null){
+            logger.log(Level.WARNING, "AN ILLEGAL EXECUTOR HAS BEEN PASSED");
+            throw new IllegalArgumentException("Illegal Executor " + executor);
+        }
+
+        //the ServerSocket of a channel accepts Sockets which have a channel
+        //too, so that HttpRequest can send files with FileChannel.transferTo
+        serverSocket = ServerSocketChannel.open().socket();
+        serverSocket.bind(new InetSocketAddress(port), backlog);
+
+        this.responseFactory = responseFactory;
+        this.connectionLimits = connectionLimits;
+        this.executor = executor;
+        this.streamExecutor = ConnectionExecutors.forStreams(executor);
     }
 
     /**************************************************************************
      * Running an instance of the WebServer in an own Thread, it will accept
-     * connections and handle them with HttpRequest Objects, until you stop
-     * the Thread manually.
+     * connections and hand them as HttpRequest Objects to the Executor, until
+     * you stop the Thread manually.
      **************************************************************************/
     @Override
     public void run(){
@@ -54,15 +93,26 @@ public final class WebServer implements Runnable {
         logger.log(Level.FINEST, "STARTING TO RUN THE WEBSERVER IN AN OWN THREAD");
 
         //Process HTTP service request in an infinite loop
-        try {
-            while (true){
+        while (true){
+            HttpRequest httpRequest;
+            try {
                 //Instancing an object to handle a single request.
-                //Each of these objects will run in an own thread.
-                Thread thread = new Thread(listenForConnection());
-                thread.start();
+                httpRequest = listenForConnection();
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+
+            //The executor decides in which thread it will run. A connection
+            //it does not take is answered with 503 and closed, the next one
+            //is accepted anyway.
+            try {
+                executor.execute(httpRequest);
+            } catch (RejectedExecutionException e) {
+                logger.log(Level.WARNING, "THE EXECUTOR HAS REJECTED THE CONNECTION : "
+                        + e.getMessage());
+                httpRequest.respondToOverload();
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
     }
 
@@ -82,15 +132,107 @@ public final class WebServer implements Runnable {
         Socket socket = serverSocket.accept();
         logger.log(Level.INFO, "ACCEPTING INCOMING CONNECTION");
 
+        //the head and the body of a file are separate writes, with Nagle's
+        //algorithm the body would wait for the delayed ACK of the head
+        socket.setTcpNoDelay(true);
+        responseFactory.getMetrics().connectionAccepted();
+
         // Instancing an HttpRequest object to handle the accepted connection
-        HttpRequest httpRequest = new HttpRequest(socket, mimetype);
+        HttpRequest httpRequest = new HttpRequest(socket, responseFactory, connectionLimits,
+                streamExecutor);
         return httpRequest;
     }
 
     /***************************************************************************
      * Running the program.
      *
-     * @param args The path to the mime.types file
+     * <p>Besides <i>-mime</i> the following options are known:</p>
+     * <ul>
+     *     <li><i>-port n</i> the port the server listens to (default
+     *     6789)</li>
+     *     <li><i>-charset name|none</i> the charset parameter of the text
+     *     types (default utf-8)</li>
+     *     <li><i>-engine blocking|selector</i> the WebServer with blocking
+     *     sockets or the SelectorWebServer (default blocking)</li>
+     *     <li><i>-loops n</i> the number of SelectorLoops of the selector
+     *     engine (default one per core)</li>
+     *     <li><i>-threads thread|pool|virtual</i> a new Thread per
+     *     connection, a bounded pool of worker threads or a new virtual Thread
+     *     per connection (default thread)</li>
+     *     <li><i>-pool n</i> the number of worker threads (default 64)</li>
+     *     <li><i>-queue n</i> the number of connections waiting for a worker
+     *     (default 256)</li>
+     *     <li><i>-overload 503|backlog</i> answering with 503 or leaving the
+     *     connections in the backlog when the queue is full (default 503)</li>
+     *     <li><i>-backlog n</i> the backlog of the ServerSocket (default 50)</li>
+     *     <li><i>-cache size</i> caching the responses of small files up to
+     *     this many bytes, e.g. <i>64m</i> (default no cache)</li>
+     *     <li><i>-cachefile size</i> the size of the largest cached file
+     *     (default 1m)</li>
+     *     <li><i>-cachedirect true|false</i> holding the cached bodies outside
+     *     of the heap (default false)</li>
+     *     <li><i>-mmap size</i> serving files of at least this size from
+     *     shared memory mappings, e.g. <i>64m</i> (default off)</li>
+     *     <li><i>-mmapcache n</i> the number of mappings kept while they are
+     *     not used (default 16)</li>
+     *     <li><i>-compress size</i> sending compressible files gzip or
+     *     deflate encoded to clients which accept it, keeping this many
+     *     compressed bytes, e.g. <i>16m</i> (default off)</li>
+     *     <li><i>-compressfile size</i> the size of the largest file which
+     *     is compressed in memory (default 1m)</li>
+     *     <li><i>-revalidate ms</i> how long the ETag and the modification
+     *     date of a file are trusted before the file is looked at again
+     *     (default 1000)</li>
+     *     <li><i>-cachecontrol path</i> the file with the Cache-Control
+     *     rules per path prefix or MIME-Type (default none)</li>
+     *     <li><i>-listing true|false</i> answering requests for directories
+     *     with a listing of their entries (default false)</li>
+     *     <li><i>-root path</i> the directory whose files are served at /
+     *     (default the working directory)</li>
+     *     <li><i>-links follow|inside</i> following symbolic links wherever
+     *     they lead or only within the directory (default follow)</li>
+     *     <li><i>-index true|false</i> keeping the names of all files in
+     *     memory, so that missing files are not looked up (default false)</li>
+     *     <li><i>-uploads path</i> storing the bodies of PUT and POST
+     *     requests as files within this directory (default answering them
+     *     with 501)</li>
+     *     <li><i>-routes path</i> the file with the routes of the handlers,
+     *     which replace the files at / and the -uploads (default none)</li>
+     *     <li><i>-metrics path|none</i> where the Metrics are served in the
+     *     text format of Prometheus (default /metrics)</li>
+     *     <li><i>-accesslog path</i> the file a line is appended to for
+     *     every response (default none)</li>
+     *     <li><i>-logformat common|combined|json</i> the format of the
+     *     lines (default combined)</li>
+     *     <li><i>-logbuffer n</i> the number of lines waiting for the writer
+     *     (default 8192)</li>
+     *     <li><i>-logfull drop|block</i> dropping the line or waiting when
+     *     the buffer is full (default drop)</li>
+     *     <li><i>-logsize size</i> rotating the access log when it grows
+     *     beyond this size, e.g. <i>100m</i> (default never)</li>
+     *     <li><i>-logage s</i> rotating the access log after this many
+     *     seconds (default never)</li>
+     *     <li><i>-maxbody size</i> the size of the largest request body, e.g.
+     *     <i>1g</i> (default 64m)</li>
+     *     <li><i>-headertimeout ms</i> how long the rest of a request head
+     *     may take after its first byte (default 10000)</li>
+     *     <li><i>-bodytimeout ms</i> how long the server waits for the next
+     *     bytes of a request body (default 10000)</li>
+     *     <li><i>-writetimeout ms</i> how long the server waits for the
+     *     client to take the next bytes of a response (default 10000)</li>
+     *     <li><i>-minrate size</i> the bytes per second a request body or a
+     *     response has to be transferred with on average, e.g. <i>4k</i>
+     *     (default 1k)</li>
+     *     <li><i>-keepalive ms</i> how long a persistent connection waits
+     *     for the next request (default 5000)</li>
+     *     <li><i>-maxrequests n</i> the number of requests after which a
+     *     persistent connection is closed (default 100)</li>
+     *     <li><i>-streams n|none</i> the number of concurrent streams of
+     *     an HTTP/2 connection of the blocking engine, none disables HTTP/2
+     *     (default 100)</li>
+     * </ul>
+     *
+     * @param args The path to the mime.types file and the options above
      * @throws Exception
      **************************************************************************/
     public static void main(String[]args) throws Exception {
@@ -98,458 +240,204 @@ public final class WebServer implements Runnable {
         MIMEType.logger.setLevel(Level.WARNING);
         WebServer.logger.setLevel(Level.WARNING);
         HttpRequest.logger.setLevel(Level.WARNING);
+        ResponseFactory.logger.setLevel(Level.WARNING);
+        SelectorWebServer.logger.setLevel(Level.WARNING);
+        ResponseCache.logger.setLevel(Level.WARNING);
+        MappedFileCache.logger.setLevel(Level.WARNING);
+        CompressionCache.logger.setLevel(Level.WARNING);
+        ValidatorCache.logger.setLevel(Level.WARNING);
+        CacheControl.logger.setLevel(Level.WARNING);
+        FileUploadHandler.logger.setLevel(Level.WARNING);
+        FileHandler.logger.setLevel(Level.WARNING);
+        DocumentIndex.logger.setLevel(Level.WARNING);
+        PathResolver.logger.setLevel(Level.WARNING);
+        Router.logger.setLevel(Level.WARNING);
+        Routes.logger.setLevel(Level.WARNING);
+        AccessLog.logger.setLevel(Level.WARNING);
+        Http2Connection.logger.setLevel(Level.WARNING);
+
+        ServerOptions options;
 
-        if(args.length == 2 && args[0].equals("-mime")){
-
-            MIMEType mimetype = new MIMEType(Paths.get(args[1]));
-
-            //Setting port number and starting the server
-            int port = 6789;
-            WebServer webServer = new WebServer(port, mimetype);
-
-            new Thread(webServer).start();
-
-        } else {
-            System.out.println("PLEASE SPECIFY AN MIME FILE WITH -mime <path/to/the/file>");
-        }
-    }
-}
-
-/******************************************************************************
- * The HttpRequest class will handle the received HTTP request within an own
- * Thread.
- *
- * @author Zeljko Bekcic
- * @version 1.0
- ******************************************************************************/
-final class HttpRequest implements Runnable {
-
-    final static String CRLF = "\r\n";
-    final static Logger logger = Logger.getLogger(HttpRequest.class.getName());
-
-    MIMEType mimeType;
-    Socket socket;
-
-    DataOutputStream dataOutputStream=null;
-    BufferedReader bufferedReader=null;
-
-
-    /**************************************************************************
-     * Constructs an basic HttpRequest with the given socket.
-     *
-     * @param socket The socket which holds the connection to whom requested one.
-     * @param mimeType Gives the mimeType for file-endings.
-     * @throws IllegalArgumentException if the specified socket is null
-     **************************************************************************/
-    public HttpRequest(Socket socket, MIMEType mimeType) {
-        if (socket == null) {
-            logger.log(Level.WARNING, "RECEIVED ILLEGAL SOCKET : " + socket);
-            throw new IllegalArgumentException("Illegal Socket: " + socket);
-        }
-        this.socket = socket;
-
-        if (mimeType == null) {
-            logger.log(Level.WARNING, "RECEIVED ILLEGAL MIMETYPE : " + socket);
-            throw new IllegalArgumentException("Illegal MIMEType: " + socket);
-        }
-
-        this.mimeType = mimeType;
-    }
-
-    /**************************************************************************
-     * Handling the HTTP request within this method
-     **************************************************************************/
-    @Override
-    public void run() {
-        processHttpRequest();
-        close();
-    }
-
-    //closing the streams
-    public void close() {
         try {
-            dataOutputStream.close();
-        } catch (IOException e) {
-            System.err.println("AN ERROR OCCURRED WHILE CLOSING THE " +
-                    "DATAOUTPUTSTREAM");
-            e.printStackTrace();
-        } catch (NullPointerException e) {
-            System.err.println("THE DATAOUTPUTSTREAM HAS NOT BEEN CLOSED " +
-                    "BECAUSE IT WAS NULL");
+            options = new ServerOptions(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return;
         }
 
-        try {
-            bufferedReader.close();
-        } catch (IOException e) {
-            System.err.println("AN ERROR OCCURRED WHILE CLOSING THE " +
-                    "BUFFEREDREADER");
-            e.printStackTrace();
-        } catch (NullPointerException e) {
-            System.err.println("THE BUFFEREDREADER HAS NOT BEEN CLOSED " +
-                    "BECAUSE IT WAS NULL");
-        }
-
-        try {
-            socket.close();
-        } catch (IOException e) {
-            System.err.println("AN ERROR OCCURRED WHILE CLOSING THE SOCKET");
-            e.printStackTrace();
+        if(!options.has("mime")){
+            System.out.println("PLEASE SPECIFY AN MIME FILE WITH -mime <path/to/the/file>");
+            return;
         }
-    }
-
-    //checking if the file exists
-    private boolean checkIfFileExists(Path path){
-        File file = path.toFile();
-        return file.isFile() && file.exists();
-    }
 
-    //processing the http request and then closing the streams.
-    private void processHttpRequest() {
+        //an illegal value of an option is reported as it is
         try {
-            dataOutputStream = new DataOutputStream(socket.getOutputStream());
-            bufferedReader = new BufferedReader(
-                    new InputStreamReader(socket.getInputStream()));
-            respondToRequest();
-        } catch( IOException e){
-            System.err.println("AN ERROR OCCURRED WHILE PROCESSING THE HTTP " +
-                    "REQUEST");
+            startServer(options);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
         }
     }
 
-    //reading the file the user asked for
-    //I am using this method only to get the byte size of the requested File.
-    private String readFile(FileInputStream fileInputStream) throws IOException {
-        byte[] buffer = new byte[1024];
-        int bytes = 0;
-
-        String content = "";
-
-        while ((bytes = fileInputStream.read(buffer)) != -1) {
-            content += new String(buffer);
+    //creating the caches, the routes and the engine from the options and
+    //starting the server in an own Thread
+    private static void startServer(ServerOptions options) throws IOException {
+        String charset = options.getString("charset", MIMEType.DEFAULT_CHARSET);
+        MIMEType mimetype = new MIMEType(Paths.get(options.getString("mime", null)),
+                charset.equals("none") ? null : charset);
+
+        //Setting port number and starting the server
+        int port = options.getInt("port", DEFAULT_PORT);
+        int backlog = options.getInt("backlog", DEFAULT_BACKLOG);
+        FileHandler fileHandler = new FileHandler(mimetype,
+                createResponseCache(options), createMappedFileCache(options),
+                createCompressionCache(options),
+                new ValidatorCache(options.getInt("revalidate",
+                        (int) ValidatorCache.DEFAULT_TIME_TO_LIVE),
+                        ValidatorCache.DEFAULT_MAX_ENTRIES),
+                options.has("cachecontrol")
+                        ? new CacheControl(Paths.get(options.getString("cachecontrol", null)))
+                        : null,
+                options.getBoolean("listing", false));
+        fileHandler = fileHandler.withLinks(options.getString("links",
+                PathResolver.LINKS_FOLLOW));
+        if (options.has("root")) {
+            fileHandler = fileHandler.withDirectory("/",
+                    Paths.get(options.getString("root", null)));
         }
-        return content;
-    }
-
-    //sending the file safe
-    //problems occurred if I have not used this method for sending the entity body
-    private void sendBytes(FileInputStream fileInputStream) throws IOException {
-
-        byte[] buffer = new byte[1024];
-        int bytes = 0;
-
-        while ((bytes = fileInputStream.read(buffer)) != -1) {
-            dataOutputStream.write(buffer, 0, bytes);
+        if (options.getBoolean("index", false)) {
+            fileHandler = fileHandler.withIndex();
         }
+        Metrics metrics = new Metrics();
+        AccessLog accessLog = createAccessLog(options);
+        ResponseFactory responseFactory = new ResponseFactory(mimetype,
+                createRoutes(options, fileHandler, metrics, accessLog), metrics, accessLog);
+        ConnectionLimits connectionLimits = new ConnectionLimits(
+                options.getInt("keepalive", ConnectionLimits.DEFAULT_IDLE_TIMEOUT),
+                options.getInt("maxrequests", ConnectionLimits.DEFAULT_MAX_REQUESTS),
+                options.getInt("headertimeout", ConnectionLimits.DEFAULT_HEADER_TIMEOUT),
+                options.getInt("bodytimeout", ConnectionLimits.DEFAULT_BODY_TIMEOUT),
+                options.getInt("writetimeout", ConnectionLimits.DEFAULT_WRITE_TIMEOUT),
+                options.getSize("minrate", ConnectionLimits.DEFAULT_MIN_RATE),
+                options.getSize("maxbody", ConnectionLimits.DEFAULT_MAX_BODY_SIZE),
+                options.getString("streams", "").equals("none") ? 0
+                        : options.getInt("streams", ConnectionLimits.DEFAULT_MAX_STREAMS));
+        Runnable server = createServer(options, port, backlog, responseFactory,
+                connectionLimits);
+
+        new Thread(server).start();
     }
 
-    //getting the contentType for the file ending
-    private String contentType(String fileName) {
-        //if the file has no data type at the end it will pass nearly the
-        //entire string and get me the default value
-        int lastDelimiter = fileName.lastIndexOf('/') + 1;
-        String file = fileName.substring(lastDelimiter);
-        lastDelimiter = file.lastIndexOf('.') + 1;
-        String fileEnding = file.substring((lastDelimiter));
-
-        return mimeType.getMIMEType(fileEnding);
-    }
-
-    //responding to the request depending on the HTTP request method
-    private void respondToRequest() throws IOException {
-
-        String requestLine = bufferedReader.readLine();
-
-        logger.log(Level.FINE, "REQUESTLINE :\t" + requestLine);
-
-        StringTokenizer tokens = new StringTokenizer(requestLine);
-        String method = tokens.nextToken();
-        String fileName = tokens.nextToken();
-
-        //appending the filename to a dot to prevent that the server thinks,
-        //that the file is located at the root, the dot is for the current
-        //directory.
-        fileName = "." + fileName;
+    //choosing the engine from the options
+    private static Runnable createServer(ServerOptions options, int port, int backlog,
+                                         ResponseFactory responseFactory,
+                                         ConnectionLimits connectionLimits)
+            throws IOException {
+        String engine = options.getString("engine", "blocking");
 
-        logger.log(Level.FINER, "REQUEST METHOD :\t" + method);
+        switch (engine) {
+            case "blocking":
+                return new WebServer(port, backlog, responseFactory, connectionLimits,
+                        createExecutor(options));
 
-        switch (method){
-            case "GET":
-                respondToGET(fileName);
-                break;
-
-            case "HEAD":
-                respondToHEAD(fileName);
-                break;
-
-            case "POST":
-                respondToPOST();
-                break;
+            case "selector":
+                return new SelectorWebServer(port, backlog, responseFactory, connectionLimits,
+                        options.getInt("loops", Runtime.getRuntime().availableProcessors()));
 
             default:
-                respondToInvalid();
-                break;
+                throw new IllegalArgumentException("Illegal Value for -engine : " + engine);
         }
     }
 
-    //
-    // RESPONDING TO REQUEST METHODS WITH MORE METHODS
-    //
-    private void respondToGET(String fileName) throws IOException {
-
-        logger.log(Level.FINEST, "REQUESTED FILE IS :\t" + fileName);
-
-        boolean fileExists = checkIfFileExists(Paths.get(fileName));
-
-        SimpleDateFormat simpleDateFormat =
-                new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss ");
-
-        String statusLine = "";
-        String contentType = "";
-        String contentLength = "";
-        String entityBody = "";
-        String date = "Date: " + simpleDateFormat.format(new Date());
-
-        String userAgent;
-
-        //looping to the user agent, everything else is not relevant now.
-        while(!(userAgent = bufferedReader.readLine())
-                .toUpperCase().startsWith("USER-AGENT:"));
-
-        logger.log(Level.FINEST, "THE REQUESTED FILE IS : " + fileName);
-
-        if (fileExists) {
-            statusLine = "HTTP/1.0 200 OK";
-            contentType = "Content-Type: " + contentType(fileName);
-            entityBody = readFile(new FileInputStream(Paths.get(fileName).toFile()));
-
-            logger.log(Level.FINEST, "FILE HAS BEEN FOUND");
+    //reading the routes or mounting the files and the uploads at the root,
+    //the metrics are an exact route, which wins over the prefixes
+    private static Routes createRoutes(ServerOptions options, FileHandler fileHandler,
+                                       Metrics metrics, AccessLog accessLog)
+            throws IOException {
+        Routes routes;
+        if (options.has("routes")) {
+            routes = new Routes(Paths.get(options.getString("routes", null)), fileHandler);
         } else {
-            statusLine = "HTTP/1.0 404 Not Found";
-            contentType = "Content-type: " + contentType("htm");
-            entityBody = "<HTML>\n" +
-                    "    <HEAD>\n" +
-                    "        <TITLE>\n" +
-                    "            NOT FOUND" +
-                    "        </TITLE>\n" +
-                    "    </HEAD>\n" +
-                    "    <BODY>\n" +
-                    "       I COULD NOT FIND THE FILE YOUR WERE ASKING FOR" +
-                    "<p>" +
-                    "BUT I KNOW YOU IP-ADDRESS, WHICH IS :<b> " +
-                    socket.getRemoteSocketAddress().toString() +
-                    "</b></p><p>" +
-                    "AND YOUR USER AGENT WHICH IS: <b>" +
-                    //removing the user-agent: substring and trimming the
-                    // string so that it looks nice
-                    userAgent.substring(new String("USER-AGENT: ").length()).trim() +
-                    "</b><br>" +
-                    "</BODY>\n" +
-                    "</HTML>";
-
+            routes = new Routes(fileHandler, options.has("uploads")
+                    ? new FileUploadHandler(Paths.get(options.getString("uploads", null)))
+                    : null);
         }
 
-        contentLength = "Content-Length: " + entityBody.getBytes("UTF-8").length;
-
-        //pushing these to you back
-        dataOutputStream.writeBytes(statusLine + CRLF);
-        dataOutputStream.writeBytes(date + CRLF);
-        dataOutputStream.writeBytes(contentType + CRLF);
-        dataOutputStream.writeBytes(contentLength + CRLF);
-        dataOutputStream.writeBytes(CRLF);
-
-        if (fileExists) {
-            FileInputStream fileInputStream = new FileInputStream(
-                    Paths.get(fileName).toFile()
-            );
-            sendBytes(fileInputStream);
-            fileInputStream.close();
-        } else {
-            dataOutputStream.writeBytes(entityBody);
+        String path = options.getString("metrics", "/metrics");
+        if (!path.equals("none")) {
+            MetricsHandler metricsHandler = new MetricsHandler(metrics, fileHandler, accessLog);
+            routes.getHandlers().add(RequestHead.METHOD_GET, path, metricsHandler);
+            routes.getHandlers().add(RequestHead.METHOD_HEAD, path, metricsHandler);
         }
+        return routes;
     }
 
-    private void respondToHEAD(String fileName) throws IOException {
-
-        logger.log(Level.FINEST, "REQUESTED FILE IS :\t" + fileName);
-
-        boolean fileExists = checkIfFileExists(Paths.get(fileName));
-
-        SimpleDateFormat simpleDateFormat =
-                new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss ");
-
-        String statusLine = "";
-        String contentType = "";
-        String entityBody = "";
-        String contentLength = "";
-        String date = "Date: " + simpleDateFormat.format(new Date());
-
-        logger.log(Level.FINEST, "THE REQUESTED FILE IS : " + fileName);
-
-        if (fileExists) {
-            statusLine = "HTTP/1.0 200 OK";
-            contentType = "Content-type: " + contentType(fileName);
-            logger.log(Level.FINEST, "FILE HAS BEEN FOUND");
-            entityBody = readFile(new FileInputStream(Paths.get(fileName).toFile()));
-        } else {
-            statusLine = "HTTP/1.0 404 Not Found";
-            contentType = "Content-type: " + contentType("htm");
-            contentLength = "Content-Length: " + entityBody.getBytes("UTF-8").length;
-            logger.log(Level.FINEST, "FILE NOT FOUND");
+    //creating the AccessLog if the options ask for one, the lines it holds
+    //are written when the server is stopped
+    private static AccessLog createAccessLog(ServerOptions options) throws IOException {
+        if (!options.has("accesslog")) {
+            return null;
         }
 
-        contentLength = "Content-Length: " + entityBody.getBytes("UTF-8").length;
-
-        dataOutputStream.writeBytes(statusLine + CRLF);
-        dataOutputStream.writeBytes(date + CRLF);
-        dataOutputStream.writeBytes(contentType + CRLF);
-        dataOutputStream.writeBytes(contentLength + CRLF);
-        dataOutputStream.writeBytes(CRLF);
+        AccessLog accessLog = new AccessLog(Paths.get(options.getString("accesslog", null)),
+                options.getString("logformat", AccessLog.FORMAT_COMBINED),
+                options.getInt("logbuffer", AccessLog.DEFAULT_CAPACITY),
+                options.getString("logfull", AccessLog.FULL_DROP),
+                options.has("logsize") ? options.getSize("logsize", 0) : 0,
+                options.has("logage") ? options.getInt("logage", 0) * 1000L : 0);
+        Runtime.getRuntime().addShutdownHook(new Thread(accessLog::close, "access-log-close"));
+        return accessLog;
     }
 
-    private void respondToPOST() throws IOException {
-
-        SimpleDateFormat simpleDateFormat =
-                new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss ");
-
-        String statusLine = "HTTP/1.0 501 NOT IMPLEMENTED YET";
-        String contentType = "Content-type: " + contentType("htm");
-        String date = "Date: " + simpleDateFormat.format(new Date());
-        String entityBody = "<HTML>" +
-                "<HEAD><TITLE>NOT IMPLEMENTED YEY</TITLE></HEAD>" +
-                "<BODY>I COULD NOT FIND THE FILE YOU WERE ASKING FOR</BODY></HTML>";
-        String contentLength = "Content-Length: " + entityBody.getBytes("UTF-8").length;
-
-        dataOutputStream.writeBytes(statusLine + CRLF);
-        dataOutputStream.writeBytes(date + CRLF);
-        dataOutputStream.writeBytes(contentType + CRLF);
-        dataOutputStream.writeBytes(contentLength + CRLF);
-        dataOutputStream.writeBytes(CRLF);
-        dataOutputStream.writeBytes(entityBody);
-
-    }
-
-    private void respondToInvalid() throws IOException {
-
-        SimpleDateFormat simpleDateFormat =
-                new SimpleDateFormat("'Date:' EEE, dd. MMM yyyy HH:mm:ss z");
-
-        String statusLine = "HTTP/1.0 400 BAD REQUEST";
-        String contentType = "Content-type: " + contentType("htm");
-        String date = "Date: " + simpleDateFormat.format(new Date());
-        String entityBody = "<HTML>" +
-                "<HEAD><TITLE>BAD REQUEST</TITLE></HEAD>" +
-                "<BODY>I DON'T KNOW WHAT YOU WANT ME TO DO</BODY></HTML>";
-        String contentLength = "Content-Length: " + entityBody.getBytes("UTF-8").length;
-
-        dataOutputStream.writeBytes(statusLine + CRLF);
-        dataOutputStream.writeBytes(date + CRLF);
-        dataOutputStream.writeBytes(contentType + CRLF);
-        dataOutputStream.writeBytes(contentLength + CRLF);
-        dataOutputStream.writeBytes(CRLF);
-        dataOutputStream.writeBytes(entityBody);
-    }
-}
-
-/******************************************************************************
- * This class is wrapping a HashMap<String, String> and which is automatically
- * filled with the given values from the given file.
- *
- * @author Zeljko Bekcic
- * @version 1.0
- ******************************************************************************/
-class MIMEType {
-    private final HashMap<String, String> mimeTypes = new HashMap<>();
-
-    static final Logger logger = Logger.getLogger(MIMEType.class.getName());
-
-    /**************************************************************************
-     * This creates an instance of the MIMEType class which pulls then the mime
-     * types from the Path.
-     *
-     * <p>Note that if the <i>path<i> is null or points to an directory you
-     * will get an IllegalArgumentException, because these two cases lead to
-     * an invalid object state.</p>
-     *
-     * @param path To the MIME Type file.
-     **************************************************************************/
-    public MIMEType(Path path) throws IOException {
-
-        //
-        // catching arguments which would lead to an illegal object state.
-        //
-
-        //If the argument is just wrong.
-        if(path == null) {
-            logger.log(Level.INFO, "THE PROVIDED PATH IS NOT VALID");
-            throw new IllegalArgumentException("Illegal Path " + path);
+    //creating the ResponseCache if the options ask for one
+    private static ResponseCache createResponseCache(ServerOptions options) {
+        if (!options.has("cache")) {
+            return null;
         }
 
-        File file = new File(path.toString());
+        return new ResponseCache(options.getSize("cache", 0),
+                options.getSize("cachefile", 1024 * 1024),
+                options.getBoolean("cachedirect", false));
+    }
 
-        //If you pass a path to a directory you will get an Exception
-        if(!file.isFile()) {
-            logger.log(Level.SEVERE, "THE PROVIDED PATH TO THE FILE IS NOT A FILE");
-            throw new IllegalArgumentException("Illegal Path " + path +
-                    " The path is not pointing to a file.");
+    //creating the MappedFileCache if the options ask for one
+    private static MappedFileCache createMappedFileCache(ServerOptions options) {
+        if (!options.has("mmap")) {
+            return null;
         }
 
+        return new MappedFileCache(options.getSize("mmap", 0),
+                options.getInt("mmapcache", 16));
+    }
 
-
-        logger.log(Level.FINEST, "STARTING PARSING DATA FROM THE PROVIDED FILE : " + path.toString());
-
-        FileReader fileReader = new FileReader(file);
-        BufferedReader bufferedReader = new BufferedReader(fileReader);
-
-        String line;
-
-        while((line = bufferedReader.readLine()) != null){
-            //Skipping the commented lines with line.contains("#")
-            if(line.length() != 0 && !line.contains("#")){
-                loadMIMETypeToHashMap(line);
-            }
+    //creating the CompressionCache if the options ask for one
+    private static CompressionCache createCompressionCache(ServerOptions options) {
+        if (!options.has("compress")) {
+            return null;
         }
 
-        logger.log(Level.INFO, "FINISHED PARSING DATA FROM THE GIVEN FILE SUCCESSFUL");
-
-        fileReader.close();
-        bufferedReader.close();
+        return new CompressionCache(options.getSize("compress", 0),
+                options.getSize("compressfile", 1024 * 1024));
     }
 
-    /**************************************************************************
-     * Returns the top-level MIME-Type for the given data ending.
-     *
-     * @param dataEnding The data ending you want the MIME-Type for.
-     * @return Either the MIME-Type for the file ending you passed to the
-     * method or the default value, which is <i>application/octet-stream</i>
-     **************************************************************************/
-    public String getMIMEType(String dataEnding){
-        return mimeTypes.getOrDefault(dataEnding, "application/octet-stream");
-    }
+    //choosing the executor for the accepted connections from the options
+    private static Executor createExecutor(ServerOptions options) {
+        String threads = options.getString("threads", "thread");
 
+        switch (threads) {
+            case "thread":
+                return ConnectionExecutors.threadPerConnection();
 
-    //This method receives a MIME Type String (one single line) and puts it in a
-    //HashMap. If the given MIME Type has no parameters (consists only of the
-    //top-level type and the subtype name), then this MIME Type will not be
-    //added to the HashMap.
-    private void loadMIMETypeToHashMap(String mimeTypeString){
-        //Splitting the given String into the type and parameters
-        StringTokenizer stringTokenizer = new StringTokenizer(mimeTypeString);
-
-        //only splitt if the line has there are two or more token, otherwise
-        //there is no key for the type.
-        if(stringTokenizer.countTokens()>=2){
-            String type = stringTokenizer.nextToken();
-            String token = null;
-            while(stringTokenizer.hasMoreTokens()){
-                token = stringTokenizer.nextToken();
-                logger.info("MAPPING VALUE : " + type + " TO KEY : " + token);
-                mimeTypes.put(token, type);
-            }
+            case "pool":
+                return ConnectionExecutors.boundedPool(
+                        options.getInt("pool", 64),
+                        options.getInt("queue", 256),
+                        options.getString("overload", ConnectionExecutors.OVERLOAD_503));
 
+            case "virtual":
+                return ConnectionExecutors.virtualThreads();
+
+            default:
+                throw new IllegalArgumentException("Illegal Value for -threads : " + threads);
         }
     }
-
 }
-
-
-
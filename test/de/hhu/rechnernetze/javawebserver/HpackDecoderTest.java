@@ -0,0 +1,184 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/******************************************************************************
+ * Tests the HpackDecoder with the examples of RFC 7541, Appendix C, whose
+ * blocks have to be decoded in order on one decoder, and with blocks which
+ * have to be rejected as a COMPRESSION_ERROR.
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+class HpackDecoderTest {
+
+    //the dynamic table size update to 256 bytes, the size the responses of
+    //the examples are encoded with
+    private static final String TABLE_SIZE_256 = "3fe101";
+
+    private final HpackDecoder decoder = new HpackDecoder();
+
+    private static byte[] hex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    private boolean decode(String hex) {
+        byte[] block = hex(hex);
+        return decoder.decode(block, 0, block.length);
+    }
+
+    //the fields of the last block as "name: value"
+    private List<String> fields() {
+        List<String> fields = new ArrayList<>();
+        for (int i = 0; i < decoder.getFieldCount(); i++) {
+            fields.add(decoder.getFieldName(i) + ": " + decoder.getFieldValue(i));
+        }
+        return fields;
+    }
+
+    private void assertBlock(String hex, String... fields) {
+        assertTrue(decode(hex));
+        assertEquals(List.of(fields), fields());
+    }
+
+    @Test
+    void decodesRequestsWithoutHuffman() {
+        //C.3.1 to C.3.3
+        assertBlock("828684410f7777772e6578616d706c652e636f6d",
+                ":method: GET", ":scheme: http", ":path: /", ":authority: www.example.com");
+        assertBlock("828684be58086e6f2d6361636865",
+                ":method: GET", ":scheme: http", ":path: /", ":authority: www.example.com",
+                "cache-control: no-cache");
+        assertBlock("828785bf400a637573746f6d2d6b65790c637573746f6d2d76616c7565",
+                ":method: GET", ":scheme: https", ":path: /index.html",
+                ":authority: www.example.com", "custom-key: custom-value");
+    }
+
+    @Test
+    void decodesRequestsWithHuffman() {
+        //C.4.1 to C.4.3
+        assertBlock("828684418cf1e3c2e5f23a6ba0ab90f4ff",
+                ":method: GET", ":scheme: http", ":path: /", ":authority: www.example.com");
+        assertBlock("828684be5886a8eb10649cbf",
+                ":method: GET", ":scheme: http", ":path: /", ":authority: www.example.com",
+                "cache-control: no-cache");
+        assertBlock("828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf",
+                ":method: GET", ":scheme: https", ":path: /index.html",
+                ":authority: www.example.com", "custom-key: custom-value");
+    }
+
+    @Test
+    void evictsWithoutHuffman() {
+        //C.5.1 to C.5.3, the second and the third block evict the oldest
+        //entries of the table of 256 bytes
+        assertBlock(TABLE_SIZE_256 + "4803333032580770726976617465611d4d6f6e2c203231204f63"
+                        + "7420323031332032303a31333a323120474d546e1768747470733a2f2f7777772e"
+                        + "6578616d706c652e636f6d",
+                ":status: 302", "cache-control: private",
+                "date: Mon, 21 Oct 2013 20:13:21 GMT", "location: https://www.example.com");
+        assertBlock("4803333037c1c0bf",
+                ":status: 307", "cache-control: private",
+                "date: Mon, 21 Oct 2013 20:13:21 GMT", "location: https://www.example.com");
+        assertBlock("88c1611d4d6f6e2c203231204f637420323031332032303a31333a323220474d54c05a"
+                        + "04677a69707738666f6f3d4153444a4b48514b425a584f5157454f50495541585157"
+                        + "454f49553b206d61782d6167653d333630303b2076657273696f6e3d31",
+                ":status: 200", "cache-control: private",
+                "date: Mon, 21 Oct 2013 20:13:22 GMT", "location: https://www.example.com",
+                "content-encoding: gzip",
+                "set-cookie: foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1");
+
+        //the table holds set-cookie, content-encoding and date now
+        assertBlock("bebfc0", "set-cookie: foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; "
+                        + "version=1", "content-encoding: gzip",
+                "date: Mon, 21 Oct 2013 20:13:22 GMT");
+        assertFalse(decode("c1"));
+    }
+
+    @Test
+    void evictsWithHuffman() {
+        //C.6.1 to C.6.3
+        assertBlock(TABLE_SIZE_256 + "488264025885aec3771a4b6196d07abe941054d444a8200595040b"
+                        + "8166e082a62d1bff6e919d29ad171863c78f0b97c8e9ae82ae43d3",
+                ":status: 302", "cache-control: private",
+                "date: Mon, 21 Oct 2013 20:13:21 GMT", "location: https://www.example.com");
+        assertBlock("4883640effc1c0bf",
+                ":status: 307", "cache-control: private",
+                "date: Mon, 21 Oct 2013 20:13:21 GMT", "location: https://www.example.com");
+        assertBlock("88c16196d07abe941054d444a8200595040b8166e084a62d1bffc05a839bd9ab77ad94"
+                        + "e7821dd7f2e6c7b335dfdfcd5b3960d5af27087f3672c1ab270fb5291f9587316065"
+                        + "c003ed4ee5b1063d5007",
+                ":status: 200", "cache-control: private",
+                "date: Mon, 21 Oct 2013 20:13:22 GMT", "location: https://www.example.com",
+                "content-encoding: gzip",
+                "set-cookie: foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1");
+    }
+
+    @Test
+    void rejectsInvalidHuffman() {
+        //a literal name of one byte of padding, which is longer than seven
+        //bits, and one padded with zeros
+        assertFalse(decode("0081ff0161"));
+        assertFalse(decode("00818001610161"));
+        //the 30 ones of EOS
+        assertFalse(decode("0084ffffffff0161"));
+    }
+
+    @Test
+    void appliesTableSizeUpdates() {
+        assertBlock("410f7777772e6578616d706c652e636f6d", ":authority: www.example.com");
+        assertBlock("be", ":authority: www.example.com");
+
+        //a table of 0 bytes drops every entry, and a table of 4096 bytes
+        //starts empty
+        assertBlock("203fe11f");
+        assertFalse(decode("be"));
+
+        //the update has to come in front of the fields and must not exceed
+        //SETTINGS_HEADER_TABLE_SIZE
+        assertFalse(decode("8220"));
+        assertFalse(decode("3fe21f"));
+        assertTrue(decode("3fe11f82"));
+    }
+
+    @Test
+    void rejectsIntegersWhichOverflow() {
+        //an index which takes more than four bytes behind its prefix
+        assertFalse(decode("ffffffffff0f"));
+        assertFalse(decode("ff8080808000"));
+        //an integer which is cut off
+        assertFalse(decode("ff"));
+        assertFalse(decode("ff80"));
+        //a string length far behind the end of the block
+        assertFalse(decode("007fffffff0761"));
+        //the largest index four bytes hold is read, but there is no entry
+        assertFalse(decode("ffffffff7f"));
+    }
+
+    @Test
+    void decodesWhatTheEncoderHasEncoded() {
+        HpackEncoder encoder = new HpackEncoder();
+        byte[] headerLines = ("Content-Type: text/html\r\nContent-Length: 12\r\n"
+                + "Connection: keep-alive\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        byte[] dateLine = "Date: Mon, 21 Oct 2013 20:13:21 GMT\r\n"
+                .getBytes(StandardCharsets.ISO_8859_1);
+
+        for (int i = 0; i < 2; i++) {
+            encoder.encode(404, dateLine, headerLines);
+            assertTrue(decoder.decode(encoder.getBlock(), 0, encoder.getLength()));
+            assertEquals(List.of(":status: 404", "date: Mon, 21 Oct 2013 20:13:21 GMT",
+                    "content-type: text/html", "content-length: 12"), fields());
+        }
+    }
+}
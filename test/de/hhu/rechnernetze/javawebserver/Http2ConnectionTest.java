@@ -0,0 +1,322 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/******************************************************************************
+ * Tests the Http2Connection with the frames of a client, which are written
+ * to a real socket: the order of the CONTINUATION frames, the windows which
+ * must not overflow and the changes of SETTINGS_INITIAL_WINDOW_SIZE.
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+class Http2ConnectionTest {
+
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+
+    private static final int END_STREAM = 0x1;
+    private static final int ACK = 0x1;
+    private static final int END_HEADERS = 0x4;
+
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+
+    private static final int PROTOCOL_ERROR = 0x1;
+    private static final int FLOW_CONTROL_ERROR = 0x3;
+
+    @TempDir
+    Path uploads;
+
+    private ServerSocketChannel serverChannel;
+    private Socket client;
+    private DataInputStream in;
+    private OutputStream out;
+    private Thread thread;
+    private final HpackDecoder decoder = new HpackDecoder();
+
+    @BeforeEach
+    void connect() throws IOException {
+        MIMEType mimeType = new MIMEType(Paths.get("mime.types"));
+        FileHandler fileHandler = new FileHandler(mimeType, null, null, null,
+                new ValidatorCache(), null, false);
+        ResponseFactory responseFactory = new ResponseFactory(mimeType,
+                new Routes(fileHandler, new FileUploadHandler(uploads)), new Metrics(), null);
+        TimerWheel.Timeout deadline = new TimerWheel(TimerWheel.DEFAULT_TICK,
+                TimerWheel.DEFAULT_SLOTS).schedule(() -> { }, Long.MAX_VALUE);
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        client = new Socket(InetAddress.getLoopbackAddress(), serverChannel.socket().getLocalPort());
+        client.setSoTimeout(5000);
+        in = new DataInputStream(client.getInputStream());
+        out = client.getOutputStream();
+
+        Socket socket = serverChannel.accept().socket();
+        Http2Connection connection = new Http2Connection(socket, responseFactory,
+                new ConnectionLimits(), deadline, Runnable::run);
+        thread = new Thread(() -> {
+            try {
+                connection.servePriorKnowledge(Http2Connection.PREFACE,
+                        Http2Connection.PREFACE_HEAD, Http2Connection.PREFACE.length);
+            } catch (IOException e) {
+                //the client has gone
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    //closed anyway
+                }
+            }
+        });
+        thread.start();
+
+        //the preface of the server
+        assertEquals(SETTINGS, readFrame().type);
+        assertEquals(WINDOW_UPDATE, readFrame().type);
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        client.close();
+        thread.join(5000);
+        serverChannel.close();
+    }
+
+    @Test
+    void decodesHeadersWithContinuation() throws IOException {
+        byte[] block = requestBlock("GET", "/README.md");
+        writeFrame(HEADERS, END_STREAM, 1, slice(block, 0, 10));
+        writeFrame(CONTINUATION, 0, 1, slice(block, 10, 20));
+        writeFrame(CONTINUATION, END_HEADERS, 1, slice(block, 20, block.length));
+
+        assertEquals("200", readStatus(readUntil(HEADERS)));
+    }
+
+    @Test
+    void rejectsFramesWithinAHeaderBlock() throws IOException {
+        byte[] block = requestBlock("GET", "/README.md");
+        writeFrame(HEADERS, END_STREAM, 1, slice(block, 0, 10));
+        writeFrame(PING, 0, 0, new byte[8]);
+
+        assertEquals(PROTOCOL_ERROR, readGoAwayError());
+    }
+
+    @Test
+    void rejectsContinuationOfAnotherStream() throws IOException {
+        byte[] block = requestBlock("GET", "/README.md");
+        writeFrame(HEADERS, END_STREAM, 1, slice(block, 0, 10));
+        writeFrame(CONTINUATION, END_HEADERS, 3, slice(block, 10, block.length));
+
+        assertEquals(PROTOCOL_ERROR, readGoAwayError());
+    }
+
+    @Test
+    void rejectsContinuationWithoutHeaders() throws IOException {
+        writeFrame(CONTINUATION, END_HEADERS, 1, requestBlock("GET", "/README.md"));
+
+        assertEquals(PROTOCOL_ERROR, readGoAwayError());
+    }
+
+    @Test
+    void rejectsConnectionWindowOverflow() throws IOException {
+        writeFrame(WINDOW_UPDATE, 0, 0, intPayload(0x7FFFFFFF));
+
+        assertEquals(FLOW_CONTROL_ERROR, readGoAwayError());
+    }
+
+    @Test
+    void resetsStreamWindowOverflow() throws IOException {
+        //a PUT whose body has not arrived keeps the stream open
+        writeFrame(HEADERS, END_HEADERS, 1, requestBlock("PUT", "/upload.txt"));
+        writeFrame(WINDOW_UPDATE, 0, 1, intPayload(0x7FFFFFFF));
+
+        Frame reset = readUntil(RST_STREAM);
+        assertEquals(1, reset.streamId);
+        assertEquals(FLOW_CONTROL_ERROR, reset.getInt());
+    }
+
+    @Test
+    void rejectsInitialWindowWhichOverflowsAStream() throws IOException {
+        writeFrame(HEADERS, END_HEADERS, 1, requestBlock("PUT", "/upload.txt"));
+        writeFrame(WINDOW_UPDATE, 0, 1, intPayload(1000));
+        writeFrame(SETTINGS, 0, 0, setting(SETTINGS_INITIAL_WINDOW_SIZE, 0x7FFFFFFF));
+
+        assertEquals(FLOW_CONTROL_ERROR, readGoAwayError());
+    }
+
+    @Test
+    void rejectsInitialWindowAboveTheMaximum() throws IOException {
+        writeFrame(SETTINGS, 0, 0, setting(SETTINGS_INITIAL_WINDOW_SIZE, 0x80000000));
+
+        assertEquals(FLOW_CONTROL_ERROR, readGoAwayError());
+    }
+
+    @Test
+    void movesTheWindowsOfOpenStreams() throws IOException {
+        writeFrame(SETTINGS, 0, 0, setting(SETTINGS_INITIAL_WINDOW_SIZE, 0));
+        assertEquals(ACK, readUntil(SETTINGS).flags);
+
+        //the headers are sent without a window, the data is not
+        writeFrame(HEADERS, END_STREAM | END_HEADERS, 1, requestBlock("GET", "/README.md"));
+        assertEquals("200", readStatus(readUntil(HEADERS)));
+        assertEquals(0, ping());
+
+        //the window of the open stream grows by the change
+        writeFrame(SETTINGS, 0, 0, setting(SETTINGS_INITIAL_WINDOW_SIZE, 100));
+        Frame data = readUntil(DATA);
+        assertEquals(100, data.payload.length);
+        assertEquals(0, ping());
+
+        //and the rest of the file is sent once the stream has a window
+        writeFrame(WINDOW_UPDATE, 0, 1, intPayload(1024 * 1024));
+        long received = data.payload.length;
+        do {
+            data = readUntil(DATA);
+            received += data.payload.length;
+        } while ((data.flags & END_STREAM) == 0);
+        assertEquals(Files.size(Paths.get("README.md")), received);
+    }
+
+    //
+    // THE FRAMES OF THE CLIENT
+    //
+
+    //the fields as literals without indexing and without the Huffman code
+    private static byte[] requestBlock(String method, String path) {
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        String[] fields = {":method", method, ":scheme", "http", ":path", path,
+                ":authority", "localhost"};
+        for (int i = 0; i < fields.length; i += 2) {
+            block.write(0);
+            writeString(block, fields[i]);
+            writeString(block, fields[i + 1]);
+        }
+        return block.toByteArray();
+    }
+
+    private static void writeString(ByteArrayOutputStream block, String string) {
+        byte[] bytes = string.getBytes(StandardCharsets.ISO_8859_1);
+        block.write(bytes.length);
+        block.write(bytes, 0, bytes.length);
+    }
+
+    private static byte[] slice(byte[] bytes, int from, int to) {
+        byte[] slice = new byte[to - from];
+        System.arraycopy(bytes, from, slice, 0, slice.length);
+        return slice;
+    }
+
+    private static byte[] intPayload(int value) {
+        return ByteBuffer.allocate(4).putInt(value).array();
+    }
+
+    private static byte[] setting(int setting, int value) {
+        return ByteBuffer.allocate(6).putShort((short) setting).putInt(value).array();
+    }
+
+    private void writeFrame(int type, int flags, int streamId, byte[] payload)
+            throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(9 + payload.length);
+        frame.put((byte) (payload.length >>> 16)).putShort((short) payload.length)
+                .put((byte) type).put((byte) flags).putInt(streamId).put(payload);
+        out.write(frame.array());
+        out.flush();
+    }
+
+    //
+    // THE FRAMES OF THE SERVER
+    //
+
+    private Frame readFrame() throws IOException {
+        int length = in.readUnsignedByte() << 16 | in.readUnsignedShort();
+        Frame frame = new Frame(in.readUnsignedByte(), in.readUnsignedByte(),
+                in.readInt() & 0x7FFFFFFF, new byte[length]);
+        in.readFully(frame.payload);
+        return frame;
+    }
+
+    //the next frame of the type, the frames in front of it are skipped
+    private Frame readUntil(int type) throws IOException {
+        Frame frame;
+        do {
+            frame = readFrame();
+        } while (frame.type != type);
+        return frame;
+    }
+
+    private int readGoAwayError() throws IOException {
+        Frame goAway = readUntil(GOAWAY);
+        return ByteBuffer.wrap(goAway.payload).getInt(4);
+    }
+
+    //sending a PING and counting the DATA frames in front of its ACK
+    private int ping() throws IOException {
+        writeFrame(PING, 0, 0, new byte[8]);
+
+        int data = 0;
+        List<Frame> frames = new ArrayList<>();
+        Frame frame;
+        while ((frame = readFrame()).type != PING) {
+            frames.add(frame);
+            data += frame.type == DATA ? 1 : 0;
+        }
+        assertTrue((frame.flags & ACK) != 0);
+        assertFalse(frames.stream().anyMatch(f -> f.type == GOAWAY));
+        return data;
+    }
+
+    private String readStatus(Frame headers) {
+        assertTrue((headers.flags & END_HEADERS) != 0);
+        assertTrue(decoder.decode(headers.payload, 0, headers.payload.length));
+        assertEquals(":status", decoder.getFieldName(0));
+        return decoder.getFieldValue(0);
+    }
+
+    private static final class Frame {
+
+        final int type;
+        final int flags;
+        final int streamId;
+        final byte[] payload;
+
+        Frame(int type, int flags, int streamId, byte[] payload) {
+            this.type = type;
+            this.flags = flags;
+            this.streamId = streamId;
+            this.payload = payload;
+        }
+
+        int getInt() {
+            return ByteBuffer.wrap(payload).getInt();
+        }
+    }
+}
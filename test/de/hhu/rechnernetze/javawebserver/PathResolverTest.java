@@ -0,0 +1,148 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/******************************************************************************
+ * Tests the PathResolver with targets which try to leave the served
+ * directory, and the check which keeps targets that are not canonical away
+ * from the Router.
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+class PathResolverTest {
+
+    @TempDir
+    Path temporary;
+
+    private PathResolver resolver(String links) {
+        return new PathResolver("/static/", temporary.resolve("root"), links, 60000, 100);
+    }
+
+    //the path relative to the directory or null if the target is rejected
+    private String resolve(String target) {
+        PathResolver.Resolution resolution = resolver(PathResolver.LINKS_FOLLOW).resolve(target);
+        return resolution == null ? null : resolution.getRelativePath().toString();
+    }
+
+    private static boolean isCanonical(String target) {
+        byte[] bytes = ("GET " + target).getBytes(StandardCharsets.ISO_8859_1);
+        return PathResolver.isCanonical(bytes, 4, bytes.length - 4);
+    }
+
+    @Test
+    void resolvesBelowThePrefix() {
+        assertEquals("css/app.css", resolve("/static/css/app.css"));
+        assertEquals("", resolve("/static/"));
+        assertEquals("css", resolve("/static/css/"));
+        assertNull(resolve("/other/app.css"));
+        assertNull(resolve("/static"));
+    }
+
+    @Test
+    void rejectsDotSegmentsLeavingThePrefix() {
+        assertNull(resolve("/static/../secret.txt"));
+        assertNull(resolve("/static/css/../../secret.txt"));
+        assertNull(resolve("/static/%2e%2e/secret.txt"));
+        assertNull(resolve("/static/css/%2E%2E/.%2e/secret.txt"));
+        assertEquals("app.css", resolve("/static/css/../app.css"));
+        assertEquals("app.css", resolve("/static/css/%2e%2e/./app.css"));
+    }
+
+    @Test
+    void rejectsEncodedSeparatorsAndNul() {
+        assertNull(resolve("/static/..%2fsecret.txt"));
+        assertNull(resolve("/static/css%2F..%2F..%2Fsecret.txt"));
+        assertNull(resolve("/static/..%5csecret.txt"));
+        assertNull(resolve("/static/app.css%00.html"));
+    }
+
+    @Test
+    void rejectsInvalidEscapes() {
+        assertNull(resolve("/static/%zzapp.css"));
+        assertNull(resolve("/static/app%4"));
+        assertNull(resolve("/static/app%"));
+        assertNull(resolve("/static/%4/app.css"));
+    }
+
+    @Test
+    void stripsTheQuery() {
+        assertEquals("app.css", resolve("/static/app.css?v=1"));
+        assertEquals("app.css", resolve("/static/app.css?path=/../../secret.txt"));
+        assertEquals("", resolve("/static/?"));
+    }
+
+    @Test
+    void decodesUtf8() {
+        assumeTrue(canRepresent("café ✓.txt"));
+
+        assertEquals("café ✓.txt", resolve("/static/caf%C3%A9%20%E2%9C%93.txt"));
+    }
+
+    @Test
+    void rejectsLinksOutOfTheDirectoryInside() throws IOException {
+        Path root = Files.createDirectories(temporary.resolve("root"));
+        Path outside = Files.createDirectories(temporary.resolve("outside"));
+        Files.write(outside.resolve("secret.txt"), new byte[]{1});
+        Files.createDirectories(root.resolve("css"));
+        Files.createSymbolicLink(root.resolve("out"), outside);
+        Files.createSymbolicLink(root.resolve("styles"), root.resolve("css"));
+
+        PathResolver inside = resolver(PathResolver.LINKS_INSIDE);
+        assertNull(inside.resolve("/static/out/secret.txt"));
+        assertNull(inside.resolve("/static/out/"));
+        assertNotNull(inside.resolve("/static/styles/app.css"));
+        assertNotNull(inside.resolve("/static/missing/app.css"));
+
+        PathResolver follow = resolver(PathResolver.LINKS_FOLLOW);
+        assertNotNull(follow.resolve("/static/out/secret.txt"));
+    }
+
+    @Test
+    void acceptsCanonicalTargets() {
+        assertTrue(isCanonical("/"));
+        assertTrue(isCanonical("/static/app.css"));
+        assertTrue(isCanonical("/static/"));
+        assertTrue(isCanonical("/static/a%20b/%2F%C3%A9.txt"));
+        assertTrue(isCanonical("/static/.well-known/..a"));
+        assertTrue(isCanonical("/static/app.css?path=/../%73/"));
+        assertTrue(isCanonical("*"));
+    }
+
+    @Test
+    void rejectsTargetsWhichDecodeToAnotherRoute() {
+        assertFalse(isCanonical("/%73tatic/app.css"));
+        assertFalse(isCanonical("/%6detrics"));
+        assertFalse(isCanonical("/static/%7E"));
+        assertFalse(isCanonical("/x/../static/app.css"));
+        assertFalse(isCanonical("/./static/app.css"));
+        assertFalse(isCanonical("/static/.."));
+        assertFalse(isCanonical("//static/app.css"));
+        assertFalse(isCanonical("/static//app.css?a"));
+    }
+
+    //whether the file system can hold the name, which depends on the
+    //encoding of the file names of the platform
+    private static boolean canRepresent(String name) {
+        try {
+            return Paths.get(name).toString().equals(name);
+        } catch (InvalidPathException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package de.hhu.rechnernetze.javawebserver;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/******************************************************************************
+ * Tests the RequestParser with the heads which decide how a request body is
+ * framed, another server in front of this one must not be able to read them
+ * differently.
+ *
+ * @author Zeljko Bekcic
+ * @version 1.0
+ ******************************************************************************/
+class RequestParserTest {
+
+    private final RequestParser requestParser = new RequestParser();
+
+    //parsing the whole head at once
+    private int parse(String head) {
+        byte[] bytes = head.getBytes(StandardCharsets.ISO_8859_1);
+        requestParser.start(bytes, 0);
+        return requestParser.parse(bytes.length);
+    }
+
+    @Test
+    void parsesHeaders() {
+        assertEquals(RequestParser.COMPLETE, parse("PUT /a HTTP/1.1\r\n"
+                + "Host: localhost\r\n"
+                + "transfer-ENCODING: chunked\r\n"
+                + "X-Custom_Name.1: value\r\n\r\n"));
+
+        RequestHead requestHead = requestParser.getRequestHead();
+        assertEquals("localhost", requestHead.getHeader(RequestHead.HOST));
+        assertTrue(requestHead.headerContainsToken(RequestHead.TRANSFER_ENCODING, "chunked"));
+        assertEquals(1, requestHead.getOtherHeaderCount());
+    }
+
+    @Test
+    void rejectsCarriageReturnInName() {
+        assertEquals(RequestParser.MALFORMED, parse("PUT /a HTTP/1.1\r\n"
+                + "Transfer\rEncoding: chunked\r\n\r\n"));
+    }
+
+    @Test
+    void rejectsNamesWhichAreNoTokens() {
+        assertEquals(RequestParser.MALFORMED, parse("GET / HTTP/1.1\r\nHost : a\r\n\r\n"));
+        assertEquals(RequestParser.MALFORMED, parse("GET / HTTP/1.1\r\n Host: a\r\n\r\n"));
+        assertEquals(RequestParser.MALFORMED, parse("GET / HTTP/1.1\r\nHo\"st: a\r\n\r\n"));
+        assertEquals(RequestParser.MALFORMED, parse("GET / HTTP/1.1\r\nHost\u0000: a\r\n\r\n"));
+        assertEquals(RequestParser.MALFORMED, parse("GET / HTTP/1.1\r\n: a\r\n\r\n"));
+    }
+
+    @Test
+    void rejectsControlCharactersInValues() {
+        assertEquals(RequestParser.MALFORMED, parse("PUT /a HTTP/1.1\r\n"
+                + "Transfer-Encoding: chunked\rX\r\n\r\n"));
+        assertEquals(RequestParser.COMPLETE, parse("GET / HTTP/1.1\r\n"
+                + "User-Agent: a\tb ä\r\n\r\n"));
+    }
+
+    @Test
+    void doesNotFoldControlCharactersIntoTokens() {
+        assertEquals(RequestParser.COMPLETE, parse("GET / HTTP/1.1\r\n"
+                + "Expect: 100-Continue\r\n\r\n"));
+        assertTrue(requestParser.getRequestHead().expectsContinue());
+
+        //setting the 0x20 bit of a CR would make it a dash
+        assertEquals(RequestParser.MALFORMED, parse("GET / HTTP/1.1\r\n"
+                + "Expect: 100\rcontinue\r\n\r\n"));
+    }
+
+    @Test
+    void rejectsDifferingContentLengths() {
+        assertEquals(RequestParser.MALFORMED, parse("PUT /a HTTP/1.1\r\n"
+                + "Content-Length: 20\r\n"
+                + "Content-Length: 3\r\n\r\n"));
+    }
+
+    @Test
+    void acceptsRepeatedEqualContentLengths() {
+        assertEquals(RequestParser.COMPLETE, parse("PUT /a HTTP/1.1\r\n"
+                + "Content-Length: 3\r\n"
+                + "content-length: 3\r\n\r\n"));
+        assertEquals(3, requestParser.getRequestHead()
+                .getHeaderAsLong(RequestHead.CONTENT_LENGTH));
+    }
+
+    @Test
+    void rejectsRepeatedTransferEncoding() {
+        assertEquals(RequestParser.MALFORMED, parse("PUT /a HTTP/1.1\r\n"
+                + "Transfer-Encoding: chunked\r\n"
+                + "Transfer-Encoding: identity\r\n\r\n"));
+    }
+
+    @Test
+    void rejectsRepeatedHost() {
+        assertEquals(RequestParser.MALFORMED, parse("GET / HTTP/1.1\r\n"
+                + "Host: a\r\n"
+                + "Host: b\r\n\r\n"));
+    }
+
+    @Test
+    void forgetsConflictsOfThePreviousHead() {
+        parse("PUT /a HTTP/1.1\r\nContent-Length: 1\r\nContent-Length: 2\r\n\r\n");
+        assertEquals(RequestParser.COMPLETE, parse("GET / HTTP/1.1\r\nHost: a\r\n\r\n"));
+        assertFalse(requestParser.getRequestHead().hasConflictingHeaders());
+    }
+}